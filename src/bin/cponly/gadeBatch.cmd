@@ -0,0 +1,26 @@
+@echo off
+:: Runs groovy scripts and gmd documents without a gui, e.g. scheduled reports on a build server.
+:: Run with --help for the options.
+setlocal
+set DIR=%~dp0%.
+set "LIB_DIR=%DIR%\lib"
+
+if exist %DIR%\env.cmd (
+    call %DIR%\env.cmd
+)
+
+set MODULES=javafx.controls,javafx.web,javafx.swing
+
+"%DIR%\bin\java" ^
+%JAVA_OPTS% ^
+-Djava.awt.headless=true ^
+"-Djava.security.auth.login.config=%DIR%\conf\jaas.conf" ^
+--enable-native-access=javafx.graphics,javafx.web,ALL-UNNAMED ^
+--add-opens=java.base/java.lang=ALL-UNNAMED ^
+--add-opens=java.base/java.util=ALL-UNNAMED ^
+--add-opens=java.base/java.io=ALL-UNNAMED ^
+--add-opens=java.base/java.net=ALL-UNNAMED ^
+--module-path "%LIB_DIR%\win" --add-modules %MODULES% ^
+-cp "%LIB_DIR%\app\*;%LIB_DIR%\groovy\*" ^
+se.alipsa.gade.batch.GadeBatch %*
+exit /b %ERRORLEVEL%
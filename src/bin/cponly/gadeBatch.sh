@@ -0,0 +1,42 @@
+#!/usr/bin/env bash
+
+# Runs groovy scripts and gmd documents without a gui, e.g. scheduled reports on a build server.
+# This start script is meant to be used in the binary distribiution of Gade where the jdk is bundled.
+# Run with --help for the options.
+
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
+
+export JAVA_HOME="${DIR}"
+BIN_DIR="${DIR}/bin"
+LIB_DIR="${DIR}/lib"
+
+# Allow for any kind of customization of variables or paths etc. without having to change this script
+# which would otherwise be overwritten on a subsequent install.
+if [[ -f $DIR/env.sh ]]; then
+  source "$DIR/env.sh"
+fi
+
+if [[ "$OSTYPE" == "linux-gnu"* ]]; then
+  OS=linux
+elif [[ "$OSTYPE" == "darwin"* ]]; then
+  OS=mac
+else
+  OS=win
+fi
+
+# the gmd pdf export uses some javafx classes, the javafx toolkit is never started
+MODULES=javafx.controls,javafx.web,javafx.swing
+
+# shellcheck disable=SC2086
+exec "${BIN_DIR}/java" \
+  $JAVA_OPTS \
+  -Djava.awt.headless=true \
+  -Djava.security.auth.login.config="$DIR/conf/jaas.conf" \
+  --enable-native-access=javafx.graphics,javafx.web,ALL-UNNAMED \
+  --add-opens=java.base/java.lang=ALL-UNNAMED \
+  --add-opens=java.base/java.util=ALL-UNNAMED \
+  --add-opens=java.base/java.io=ALL-UNNAMED \
+  --add-opens=java.base/java.net=ALL-UNNAMED \
+  --module-path "${LIB_DIR}/$OS" --add-modules ${MODULES} \
+  -cp "${LIB_DIR}/app/*:${LIB_DIR}/groovy/*" \
+  se.alipsa.gade.batch.GadeBatch "$@"
@@ -0,0 +1,159 @@
+package se.alipsa.gade.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.alipsa.gade.runner.ChildFirstGroovyClassLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of class loading through the runner class loader for a Gradle/Maven sized class path, with and without
+ * the package index of {@link ChildFirstGroovyClassLoader}.
+ * <p>
+ * Each invocation creates a loader with all jars (as the runner does on start and restart), loads classes spread over
+ * the jars, and looks up classes of the parent (e.g. groovy.*) which child-first delegation searches for in the jars
+ * first. The package index cache is warm after the first invocation, like a second start of the same project.
+ *
+ * Run with: ./gradlew jmh -Pjmh="ClassLoading"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, warmups = 0)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClassLoadingBenchmark {
+
+  // a typical library jar: a few hundred entries in a handful of packages
+  private static final int CLASSES_PER_JAR = 200;
+  private static final int PACKAGES_PER_JAR = 10;
+
+  @Param({"300"})
+  public int jarCount;
+
+  @Param({"true", "false"})
+  public boolean indexed;
+
+  private Path tempDir;
+  private Path cacheDir;
+  private List<File> jars;
+  private List<String> jarClasses;
+  private List<String> parentClasses;
+
+  @Setup
+  public void setup() throws IOException {
+    tempDir = Files.createTempDirectory("classloading-bench");
+    cacheDir = tempDir.resolve("index-cache");
+    jars = new ArrayList<>();
+    jarClasses = new ArrayList<>();
+    for (int j = 0; j < jarCount; j++) {
+      Path jar = tempDir.resolve("dep-" + j + ".jar");
+      try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out)) {
+        for (int c = 0; c < CLASSES_PER_JAR; c++) {
+          String name = "bench/dep" + j + "/p" + (c % PACKAGES_PER_JAR) + "/C" + c;
+          jarOut.putNextEntry(new JarEntry(name + ".class"));
+          jarOut.write(classBytes(name));
+          jarOut.closeEntry();
+        }
+        jarOut.putNextEntry(new JarEntry("META-INF/bench/dep" + j + ".properties"));
+        jarOut.write(("jar=" + j).getBytes());
+        jarOut.closeEntry();
+      }
+      jars.add(jar.toFile());
+      // a few classes from every 10th jar, so that the linear search has to go deep into the class path
+      if (j % 10 == 9) {
+        for (int c = 0; c < 5; c++) {
+          jarClasses.add("bench.dep" + j + ".p" + c + ".C" + c);
+        }
+      }
+    }
+    parentClasses = List.of("groovy.lang.Binding", "groovy.lang.Script", "groovy.lang.GroovyObject",
+        "groovy.lang.MetaClass", "groovy.lang.Closure", "org.codehaus.groovy.runtime.InvokerHelper",
+        "org.codehaus.groovy.runtime.DefaultGroovyMethods", "org.openjdk.jmh.infra.Blackhole");
+  }
+
+  @TearDown
+  public void teardown() throws IOException {
+    try (Stream<Path> paths = Files.walk(tempDir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Load classes from the jars and from the parent with a new loader.
+   */
+  @Benchmark
+  public void loadClasses(Blackhole blackhole) throws Exception {
+    try (ChildFirstGroovyClassLoader loader = newLoader()) {
+      for (String name : jarClasses) {
+        blackhole.consume(loader.loadClass(name));
+      }
+      for (String name : parentClasses) {
+        blackhole.consume(loader.loadClass(name));
+      }
+    }
+  }
+
+  /**
+   * Look up resources, e.g. service files and the .groovy script lookup that GroovyClassLoader does on a miss.
+   */
+  @Benchmark
+  public void findResources(Blackhole blackhole) throws Exception {
+    try (ChildFirstGroovyClassLoader loader = newLoader()) {
+      for (int j = 9; j < jarCount; j += 10) {
+        blackhole.consume(loader.getResource("META-INF/bench/dep" + j + ".properties"));
+        blackhole.consume(loader.findResource("bench/dep" + j + "/Missing.groovy"));
+      }
+    }
+  }
+
+  private ChildFirstGroovyClassLoader newLoader() throws IOException {
+    ChildFirstGroovyClassLoader loader = new ChildFirstGroovyClassLoader(getClass().getClassLoader(), indexed,
+        cacheDir);
+    for (File jar : jars) {
+      loader.addURL(jar.toURI().toURL());
+    }
+    return loader;
+  }
+
+  /** @return the bytes of an empty public class */
+  private static byte[] classBytes(String internalName) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    out.writeShort(52);
+    // constant pool: this class name and class, java/lang/Object name and class
+    out.writeShort(5);
+    out.writeByte(1);
+    out.writeUTF(internalName);
+    out.writeByte(7);
+    out.writeShort(1);
+    out.writeByte(1);
+    out.writeUTF("java/lang/Object");
+    out.writeByte(7);
+    out.writeShort(3);
+    // public super, this, super, no interfaces, fields, methods or attributes
+    out.writeShort(0x0021);
+    out.writeShort(2);
+    out.writeShort(4);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    return bytes.toByteArray();
+  }
+}
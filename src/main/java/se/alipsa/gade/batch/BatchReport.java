@@ -0,0 +1,82 @@
+package se.alipsa.gade.batch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The timing report of a batch run, written as json next to the outputs.
+ *
+ * @param started when the run started, ISO-8601
+ * @param millis the wall clock time of the whole run
+ * @param parallelism the max number of jobs that ran at the same time
+ * @param runnerStarts the number of runner processes that were started (restarts after a timeout included)
+ * @param setupMillis the time it took to resolve the classpath shared by all runners
+ * @param jobs one entry per file, in the order they were given
+ */
+public record BatchReport(String started, long millis, int parallelism, int runnerStarts, long setupMillis,
+                          List<JobResult> jobs) {
+
+  public static final String OK = "ok";
+  public static final String FAILED = "failed";
+  public static final String TIMEOUT = "timeout";
+
+  /**
+   * @param file the script or gmd document
+   * @param type "groovy" or "gmd"
+   * @param status {@link #OK}, {@link #FAILED} or {@link #TIMEOUT}
+   * @param worker the name of the worker that ran the job
+   * @param startedAfterMillis when the job started, relative to the start of the run
+   * @param millis the wall clock time of the job
+   * @param outputs the files in the output dir of the job, relative to the output dir of the run
+   * @param error the error message, null if the job succeeded
+   * @param metrics the eval metrics of a groovy script (cpu time, allocations, gc), null for gmd documents
+   */
+  public record JobResult(String file, String type, String status, String worker, long startedAfterMillis,
+                          long millis, List<String> outputs, String error, Map<String, Object> metrics) {
+
+    @JsonIgnore
+    public boolean isSuccess() {
+      return OK.equals(status);
+    }
+  }
+
+  public long failureCount() {
+    return jobs.stream().filter(j -> !j.isSuccess()).count();
+  }
+
+  public String summary() {
+    long jobMillis = jobs.stream().mapToLong(JobResult::millis).sum();
+    return String.format(Locale.ROOT, "%d jobs, %d failed, in %.1f s (%.1f s of job time, %.1fx parallel speedup)",
+        jobs.size(), failureCount(), millis / 1000.0, jobMillis / 1000.0,
+        millis == 0 ? 1.0 : (double) jobMillis / millis);
+  }
+
+  public void write(File file) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.enable(SerializationFeature.INDENT_OUTPUT);
+    mapper.writeValue(file, this);
+  }
+
+  public static BatchReport read(File file) throws IOException {
+    return new ObjectMapper().readValue(file, BatchReport.class);
+  }
+
+  /**
+   * @return the duration of each job by absolute file path, used to start the longest jobs first in the next run
+   */
+  public Map<String, Long> millisByFile() {
+    Map<String, Long> millisByFile = new HashMap<>();
+    for (JobResult job : jobs) {
+      millisByFile.put(job.file(), job.millis());
+    }
+    return millisByFile;
+  }
+}
@@ -0,0 +1,347 @@
+package se.alipsa.gade.batch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.batch.BatchReport.JobResult;
+import se.alipsa.gade.code.gmdtab.GmdPdfExporter;
+import se.alipsa.gade.runtime.EvalResult;
+import se.alipsa.gade.runtime.RunnerOutput;
+import se.alipsa.gade.runtime.RuntimeConfig;
+import se.alipsa.gade.runtime.RuntimeProcessRunner;
+import se.alipsa.gade.runtime.RuntimeType;
+import se.alipsa.gmd.core.Gmd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs groovy scripts and gmd documents without a gui, several at a time.
+ * <p>
+ * Groovy scripts run in runner processes of the GADE runtime, as in the gui, but with {@code io} bound to an object
+ * that explains that there is no gui. Each worker owns one runner and reuses it for all of its scripts, so a runner
+ * is started (and Groovy loaded and warmed up) once per worker rather than once per script, and all runners share
+ * the classpath that was resolved once for the run. The variables a script leaves behind are removed before the
+ * next script. A script gets the variables {@code outputDir} (where to save its files, e.g. charts as png) and
+ * {@code scriptFile}; the value of the script is saved as html if it looks like html and as text otherwise.
+ * <p>
+ * Gmd documents are rendered to html (and optionally pdf) in this process, the same way as the gui does it.
+ * <p>
+ * The jobs that took the longest in the previous run are started first so that a long report does not start last
+ * and keep the run going after the other workers are done.
+ */
+public class BatchRunner {
+
+  private static final Logger log = LogManager.getLogger(BatchRunner.class);
+  /** Removes the variables of the previous script but keeps the ones the runner binds itself */
+  static final String RESET_BINDING = "binding.variables.keySet().retainAll(['gadeRuntime', 'io']); null";
+  private static final long INTERRUPT_GRACE_MILLIS = 5_000;
+
+  /**
+   * @param parallelism the number of jobs to run at the same time, also the max number of runner processes
+   * @param outputDir the outputs of each job are saved in a sub dir named after the file
+   * @param workingDir the working dir of the runners, e.g. the project dir, null for the current dir
+   * @param classPath the -cp of the runner processes
+   * @param dependencies the project dependencies for the script classloader of the runners
+   * @param pdf whether to save gmd documents as pdf as well as html
+   * @param timeout the max time of a groovy script, null for no limit
+   */
+  public record Options(int parallelism, File outputDir, File workingDir, List<String> classPath,
+                        List<String> dependencies, boolean pdf, Duration timeout) {}
+
+  private final Options options;
+  private final RuntimeConfig runtime = new RuntimeConfig("Batch", RuntimeType.GADE);
+
+  public BatchRunner(Options options) {
+    this.options = options;
+  }
+
+  /**
+   * Run all files and wait for them to finish. A failing job does not stop the others.
+   *
+   * @param files groovy scripts and gmd documents
+   * @param previousMillis the duration of each file (by absolute path) in a previous run, empty if unknown
+   * @param setupMillis the time it took to resolve the classpath, for the report
+   * @return the outcome and timing of each file
+   */
+  public BatchReport run(List<File> files, Map<String, Long> previousMillis, long setupMillis)
+      throws InterruptedException {
+    long start = System.currentTimeMillis();
+    String started = Instant.ofEpochMilli(start).toString();
+    List<String> names = outputNames(files);
+    ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>(startOrder(files, previousMillis));
+    JobResult[] results = new JobResult[files.size()];
+    AtomicInteger runnerStarts = new AtomicInteger();
+    int workerCount = Math.max(1, Math.min(options.parallelism(), files.size()));
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < workerCount; i++) {
+      String name = "worker-" + (i + 1);
+      workers.add(() -> {
+        new Worker(name, start, runnerStarts).runAll(queue, files, names, results);
+        return null;
+      });
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(workerCount,
+        r -> new Thread(r, "gade-batch-" + threadCount.incrementAndGet()));
+    try {
+      for (var done : executor.invokeAll(workers)) {
+        try {
+          done.get();
+        } catch (ExecutionException e) {
+          // each job catches its own failures, this is unexpected
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return new BatchReport(started, System.currentTimeMillis() - start, workerCount, runnerStarts.get(),
+        setupMillis, Arrays.asList(results));
+  }
+
+  /**
+   * @return the name of the output dir of each file: the file name without extension, with a number added if
+   * several files have the same name
+   */
+  static List<String> outputNames(List<File> files) {
+    Map<String, Integer> seen = new HashMap<>();
+    List<String> names = new ArrayList<>();
+    for (File file : files) {
+      String name = baseName(file);
+      int count = seen.merge(name, 1, Integer::sum);
+      names.add(count == 1 ? name : name + "-" + count);
+    }
+    return names;
+  }
+
+  /**
+   * @return the indexes of the files, longest first. Files that were not in the previous run go first since they
+   * may be long.
+   */
+  static List<Integer> startOrder(List<File> files, Map<String, Long> previousMillis) {
+    return IntStream.range(0, files.size()).boxed()
+        .sorted(Comparator.comparingLong(
+            (Integer i) -> previousMillis.getOrDefault(files.get(i).getAbsolutePath(), Long.MAX_VALUE)).reversed())
+        .toList();
+  }
+
+  static boolean isGmd(File file) {
+    return file.getName().toLowerCase(Locale.ROOT).endsWith(".gmd");
+  }
+
+  static boolean looksLikeHtml(String text) {
+    String start = text.stripLeading();
+    return start.regionMatches(true, 0, "<!doctype html", 0, 14) || start.regionMatches(true, 0, "<html", 0, 5);
+  }
+
+  private static String baseName(File file) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 ? name.substring(0, dot) : name;
+  }
+
+  private static String message(Throwable t) {
+    Throwable cause = t;
+    while ((cause instanceof ExecutionException || cause instanceof CompletionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause.getMessage() == null ? cause.toString() : cause.getMessage();
+  }
+
+  /**
+   * Takes jobs from the queue until it is empty. The runner is started when the first groovy script comes along.
+   */
+  private final class Worker {
+
+    private final String name;
+    private final long runStart;
+    private final AtomicInteger runnerStarts;
+    private final JobOutput output = new JobOutput();
+    private RuntimeProcessRunner runner;
+
+    Worker(String name, long runStart, AtomicInteger runnerStarts) {
+      this.name = name;
+      this.runStart = runStart;
+      this.runnerStarts = runnerStarts;
+    }
+
+    void runAll(ConcurrentLinkedQueue<Integer> queue, List<File> files, List<String> names, JobResult[] results) {
+      try {
+        Integer index;
+        while ((index = queue.poll()) != null) {
+          results[index] = run(files.get(index), names.get(index));
+        }
+      } finally {
+        if (runner != null) {
+          runnerStarts.addAndGet((int) runner.getStartCount());
+          runner.close();
+        }
+      }
+    }
+
+    private JobResult run(File file, String outputName) {
+      long jobStart = System.currentTimeMillis();
+      File jobDir = new File(options.outputDir(), outputName);
+      boolean gmd = isGmd(file);
+      String status = BatchReport.OK;
+      String error = null;
+      Map<String, Object> metrics = null;
+      log.info("{} starts {}", name, file);
+      try {
+        Files.createDirectories(jobDir.toPath());
+        if (gmd) {
+          renderGmd(file, jobDir, outputName);
+        } else {
+          metrics = runScript(file, jobDir, outputName);
+        }
+      } catch (TimeoutException e) {
+        status = BatchReport.TIMEOUT;
+        error = "Timed out after " + options.timeout().toSeconds() + " s";
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        status = BatchReport.FAILED;
+        error = "Interrupted";
+      } catch (Exception e) {
+        status = BatchReport.FAILED;
+        error = message(e);
+      }
+      long millis = System.currentTimeMillis() - jobStart;
+      if (error == null) {
+        log.info("{} finished {} in {} ms", name, file, millis);
+      } else {
+        log.warn("{} {} {} after {} ms: {}", name, status, file, millis, error);
+      }
+      return new JobResult(file.getAbsolutePath(), gmd ? "gmd" : "groovy", status, name, jobStart - runStart,
+          millis, outputs(jobDir), error, metrics);
+    }
+
+    private void renderGmd(File file, File jobDir, String outputName) throws Exception {
+      String text = Files.readString(file.toPath());
+      // Gmd instances are not shared between threads
+      String html = new Gmd().gmdToHtmlDoc(text);
+      Files.writeString(new File(jobDir, outputName + ".html").toPath(), html);
+      if (options.pdf()) {
+        GmdPdfExporter.htmlToPdf(html, new File(jobDir, outputName + ".pdf"),
+            file.getAbsoluteFile().getParentFile().toURI().toString());
+      }
+    }
+
+    private Map<String, Object> runScript(File file, File jobDir, String outputName) throws Exception {
+      String script = Files.readString(file.toPath());
+      RuntimeProcessRunner processRunner = runner();
+      Path logFile = new File(jobDir, outputName + ".log").toPath();
+      try (PrintWriter logWriter = new PrintWriter(Files.newBufferedWriter(logFile, StandardCharsets.UTF_8))) {
+        output.target = logWriter;
+        try {
+          processRunner.eval(RESET_BINDING, null).get();
+          EvalResult result = await(processRunner, processRunner.evalWithMetrics(script, Map.of(
+              "outputDir", jobDir.getAbsolutePath(),
+              "scriptFile", file.getAbsolutePath()), false));
+          String value = result.result();
+          if (value != null && !value.isBlank() && !"null".equals(value)) {
+            String extension = looksLikeHtml(value) ? ".html" : ".txt";
+            Files.writeString(new File(jobDir, outputName + extension).toPath(), value);
+          }
+          return result.metrics() == null ? null : result.metrics().toMap();
+        } finally {
+          output.target = null;
+        }
+      }
+    }
+
+    private EvalResult await(RuntimeProcessRunner processRunner, CompletableFuture<EvalResult> eval)
+        throws Exception {
+      if (options.timeout() == null) {
+        return eval.get();
+      }
+      try {
+        return eval.get(options.timeout().toMillis(), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        processRunner.interrupt();
+        try {
+          eval.get(INTERRUPT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException interrupted) {
+          // the script stopped
+        } catch (TimeoutException stillRunning) {
+          // the script ignores the interrupt, the next script gets a new runner
+          processRunner.stop();
+        }
+        throw e;
+      }
+    }
+
+    private RuntimeProcessRunner runner() {
+      if (runner == null) {
+        runner = new RuntimeProcessRunner(runtime, options.classPath(), List.of(), options.dependencies(), List.of(),
+            output, Map.of(), options.workingDir());
+        runner.setHeadless(true);
+      }
+      return runner;
+    }
+
+    private List<String> outputs(File jobDir) {
+      Path base = options.outputDir().toPath();
+      try (Stream<Path> paths = Files.walk(jobDir.toPath())) {
+        return paths.filter(Files::isRegularFile).map(p -> base.relativize(p).toString()).sorted().toList();
+      } catch (IOException e) {
+        return List.of();
+      }
+    }
+  }
+
+  /**
+   * Sends what a script prints to the log file of the job that is running, and anything in between jobs to the log.
+   */
+  private static final class JobOutput implements RunnerOutput {
+
+    private volatile PrintWriter target;
+
+    @Override
+    public void out(String text) {
+      PrintWriter writer = target;
+      if (writer == null) {
+        log.debug("Runner out: {}", text);
+        return;
+      }
+      writer.print(text);
+      writer.flush();
+    }
+
+    @Override
+    public void warning(String text) {
+      PrintWriter writer = target;
+      if (writer == null) {
+        log.warn("Runner: {}", text);
+        return;
+      }
+      writer.print(text.endsWith("\n") ? text : text + "\n");
+      writer.flush();
+    }
+  }
+}
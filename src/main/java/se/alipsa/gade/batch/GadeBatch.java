@@ -0,0 +1,212 @@
+package se.alipsa.gade.batch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.console.GroovyRuntimeManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Headless command line entry point that runs groovy scripts and gmd documents, e.g. nightly reports on a build
+ * server, see {@link BatchRunner}. The outputs and a json timing report are written to the output dir.
+ * <p>
+ * Exits with 0 if all files ran successfully, 1 if any failed and 2 if the arguments are wrong.
+ */
+public final class GadeBatch {
+
+  private static final Logger log = LogManager.getLogger(GadeBatch.class);
+  static final String REPORT_NAME = "batch-report.json";
+  private static final String USAGE = """
+      Usage: gadeBatch [options] <file or dir>...
+        Runs groovy scripts (.groovy, .gvy) and gmd documents (.gmd) without a gui, dirs are searched for both.
+      Options:
+        -j, --jobs <n>          the number of files to run at the same time (default: half the cores)
+        -o, --out <dir>         where the outputs and the timing report are written (default: batch-out)
+        -p, --project <dir>     the working dir of the scripts; the dependencies of a Gradle project are
+                                added to the classpath
+        -cp, --classpath <path> jars and dirs to add to the classpath, separated by %s
+        --pdf                   save gmd documents as pdf as well as html
+        --timeout <seconds>     stop a script that runs longer than this
+        --report <file>         the timing report (default: <out>/%s), the durations in an existing report
+                                are used to start the longest files first
+        -h, --help              show this help
+      A script gets the variables outputDir (where to save its files) and scriptFile.
+      """.formatted(File.pathSeparator, REPORT_NAME);
+
+  /** The parsed command line */
+  record Arguments(List<File> files, int jobs, File outputDir, File projectDir, List<String> classPath, boolean pdf,
+                   Duration timeout, File reportFile) {}
+
+  private GadeBatch() {
+    // only main
+  }
+
+  public static void main(String[] args) {
+    Arguments arguments;
+    try {
+      arguments = parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    if (arguments == null) {
+      System.out.println(USAGE);
+      return;
+    }
+    int exitCode;
+    try {
+      exitCode = run(arguments);
+    } catch (Exception e) {
+      log.error("Batch run failed", e);
+      System.err.println("Batch run failed: " + e);
+      exitCode = 1;
+    }
+    // the Gradle tooling api may leave non daemon threads behind
+    System.exit(exitCode);
+  }
+
+  private static int run(Arguments arguments) throws Exception {
+    long setupStart = System.currentTimeMillis();
+    List<String> classPath = GroovyRuntimeManager.gadeRunnerClassPath();
+    List<String> dependencies = new ArrayList<>();
+    File projectDir = arguments.projectDir();
+    if (projectDir != null && (new File(projectDir, "build.gradle").exists()
+        || new File(projectDir, "build.gradle.kts").exists())) {
+      System.out.println("Resolving the dependencies of " + projectDir);
+      dependencies.addAll(GroovyRuntimeManager.gradleProjectDependencies(projectDir));
+    }
+    dependencies.addAll(arguments.classPath());
+    long setupMillis = System.currentTimeMillis() - setupStart;
+
+    Files.createDirectories(arguments.outputDir().toPath());
+    Map<String, Long> previousMillis = Map.of();
+    if (arguments.reportFile().isFile()) {
+      try {
+        previousMillis = BatchReport.read(arguments.reportFile()).millisByFile();
+      } catch (IOException e) {
+        log.warn("Ignoring unreadable report {}: {}", arguments.reportFile(), e.toString());
+      }
+    }
+    System.out.printf(Locale.ROOT, "Running %d files, %d at a time%n", arguments.files().size(), arguments.jobs());
+    BatchRunner runner = new BatchRunner(new BatchRunner.Options(arguments.jobs(), arguments.outputDir(), projectDir,
+        classPath, dependencies, arguments.pdf(), arguments.timeout()));
+    BatchReport report = runner.run(arguments.files(), previousMillis, setupMillis);
+    report.write(arguments.reportFile());
+
+    for (BatchReport.JobResult job : report.jobs()) {
+      System.out.printf(Locale.ROOT, "%-8s %8.1f s  %s%s%n", job.status(), job.millis() / 1000.0, job.file(),
+          job.error() == null ? "" : ": " + job.error());
+    }
+    System.out.println(report.summary());
+    System.out.println("Report: " + arguments.reportFile().getAbsolutePath());
+    return report.failureCount() == 0 ? 0 : 1;
+  }
+
+  /**
+   * @return the arguments, or null if help was asked for
+   * @throws IllegalArgumentException if the arguments are wrong
+   */
+  static Arguments parse(String[] args) {
+    List<File> files = new ArrayList<>();
+    int jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    File outputDir = new File("batch-out");
+    File projectDir = null;
+    List<String> classPath = new ArrayList<>();
+    boolean pdf = false;
+    Duration timeout = null;
+    File reportFile = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "-h", "--help" -> {
+          return null;
+        }
+        case "-j", "--jobs" -> jobs = positiveInt(arg, value(args, ++i, arg));
+        case "-o", "--out" -> outputDir = new File(value(args, ++i, arg));
+        case "-p", "--project" -> {
+          projectDir = new File(value(args, ++i, arg));
+          if (!projectDir.isDirectory()) {
+            throw new IllegalArgumentException("Project dir " + projectDir + " does not exist");
+          }
+        }
+        case "-cp", "--classpath" -> {
+          for (String entry : value(args, ++i, arg).split(File.pathSeparator)) {
+            if (!entry.isBlank()) {
+              classPath.add(new File(entry).getAbsolutePath());
+            }
+          }
+        }
+        case "--pdf" -> pdf = true;
+        case "--timeout" -> timeout = Duration.ofSeconds(positiveInt(arg, value(args, ++i, arg)));
+        case "--report" -> reportFile = new File(value(args, ++i, arg));
+        default -> {
+          if (arg.startsWith("-")) {
+            throw new IllegalArgumentException("Unknown option " + arg);
+          }
+          addFiles(new File(arg), files);
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("No groovy scripts or gmd documents to run");
+    }
+    if (reportFile == null) {
+      reportFile = new File(outputDir, REPORT_NAME);
+    }
+    return new Arguments(files, jobs, outputDir.getAbsoluteFile(),
+        projectDir == null ? null : projectDir.getAbsoluteFile(), classPath, pdf, timeout,
+        reportFile.getAbsoluteFile());
+  }
+
+  private static void addFiles(File file, List<File> files) {
+    if (file.isDirectory()) {
+      try (Stream<Path> paths = Files.walk(file.toPath())) {
+        paths.map(Path::toFile).filter(f -> f.isFile() && isRunnable(f)).sorted()
+            .forEach(f -> files.add(f.getAbsoluteFile()));
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Failed to list " + file + ": " + e.getMessage(), e);
+      }
+    } else if (file.isFile() && isRunnable(file)) {
+      files.add(file.getAbsoluteFile());
+    } else if (file.isFile()) {
+      throw new IllegalArgumentException(file + " is not a groovy script or gmd document");
+    } else {
+      throw new IllegalArgumentException(file + " does not exist");
+    }
+  }
+
+  static boolean isRunnable(File file) {
+    String name = file.getName().toLowerCase(Locale.ROOT);
+    return name.endsWith(".groovy") || name.endsWith(".gvy") || name.endsWith(".gmd");
+  }
+
+  private static String value(String[] args, int index, String option) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException(option + " needs a value");
+    }
+    return args[index];
+  }
+
+  private static int positiveInt(String option, String value) {
+    try {
+      int number = Integer.parseInt(value);
+      if (number > 0) {
+        return number;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException(option + " must be a positive number, was " + value);
+  }
+}
@@ -1,5 +1,7 @@
 package se.alipsa.gade.code;
 
+import static se.alipsa.gade.menu.GlobalOptions.LARGE_FILE_THRESHOLD_MB;
+
 import javafx.collections.ObservableList;
 import javafx.scene.control.SingleSelectionModel;
 import javafx.scene.control.Tab;
@@ -13,6 +15,7 @@ import se.alipsa.gade.code.gradle.GradleTab;
 import se.alipsa.gade.code.groovytab.GroovyTab;
 import se.alipsa.gade.code.javatab.JavaTab;
 import se.alipsa.gade.code.jstab.JsTab;
+import se.alipsa.gade.code.largefile.LargeFileTab;
 import se.alipsa.gade.code.maven.MavenTab;
 import se.alipsa.gade.code.mdtab.MdTab;
 import se.alipsa.gade.code.munin.MuninTab;
@@ -121,7 +124,8 @@ public class CodeComponent extends BorderPane {
     try {
       TextAreaTab tab;
       String title = file.getName();
-      tab = switch (type) {
+      int largeFileThresholdMb = gui.getPrefs().getInt(LARGE_FILE_THRESHOLD_MB, LargeFileTab.LARGE_FILE_THRESHOLD_MB_DEFAULT);
+      tab = LargeFileTab.isLargeFile(file, largeFileThresholdMb) ? new LargeFileTab(title, gui) : switch (type) {
         case MD -> new MdTab(title, gui);
         case GMD -> new GmdTab(title, gui);
         case XML -> new XmlTab(title, gui);
@@ -19,6 +19,7 @@ import org.fxmisc.wellbehaved.event.InputMap;
 import org.fxmisc.wellbehaved.event.Nodes;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.UnStyledCodeArea;
+import se.alipsa.gade.code.completion.AsyncCompletion;
 import se.alipsa.gade.code.completion.CompletionContext;
 import se.alipsa.gade.code.completion.CompletionEngine;
 import se.alipsa.gade.code.completion.CompletionItem;
@@ -32,6 +33,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,6 +65,10 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
 
   // Tracks the currently open completion menu (if any)
   private ContextMenu activeCompletionPopup;
+  // Replaces the items of the open completion menu, e.g. when the full result follows a partial one
+  private Consumer<List<CompletionItem>> activeCompletionUpdater;
+  // Runs completion engines off the FX thread
+  private final AsyncCompletion asyncCompletion = new AsyncCompletion(Platform::runLater);
 
   /**
    * Default ctor
@@ -106,7 +112,9 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
     addEventHandler(KeyEvent.KEY_PRESSED, e -> {
       KeyCode keyCode = e.getCode();
       if (e.isControlDown()) {
-        if (KeyCode.F.equals(keyCode)) {
+        if (e.isShiftDown() && KeyCode.F.equals(keyCode)) {
+          Gade.instance().getInoutComponent().showFindInFiles(getSelectedText());
+        } else if (KeyCode.F.equals(keyCode)) {
           Gade.instance().getMainMenu().displayFind();
         } else if (KeyCode.S.equals(keyCode)) {
           Gade.instance().getMainMenu().saveContent(parentTab);
@@ -350,6 +358,33 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
     showCompletionPopup(initialWord, items, suggestionsPopup);
   }
 
+  /**
+   * Completes in the background and shows the suggestions when they are ready. Results are dropped if a newer
+   * request has been made or the caret has moved in the meantime. If the engine has not finished within
+   * {@link AsyncCompletion#DEFAULT_BUDGET_MS} the items found so far are shown and replaced by the full result
+   * when it arrives.
+   *
+   * @param engine           the engine to complete with
+   * @param context          the completion context
+   * @param suggestionsPopup the popup to display suggestions
+   */
+  protected void requestCompletion(CompletionEngine engine,
+                                   CompletionContext context,
+                                   ContextMenu suggestionsPopup) {
+    asyncCompletion.request(engine, context, AsyncCompletion.DEFAULT_BUDGET_MS, result -> {
+      if (getCaretPosition() != context.caretPosition()) {
+        // the user has moved on, the suggestions would be anchored at the wrong position
+        return;
+      }
+      if (suggestionsPopup.isShowing() && activeCompletionPopup == suggestionsPopup
+          && activeCompletionUpdater != null) {
+        activeCompletionUpdater.accept(result.items());
+      } else if (!suggestionsPopup.isShowing()) {
+        suggestCompletion(context, result.items(), suggestionsPopup);
+      }
+    });
+  }
+
   /**
    * Legacy completion method for backward compatibility.
    */
@@ -393,7 +428,9 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
     if (!viewItems.isEmpty()) listView.getSelectionModel().select(0);
     listView.setFocusTraversable(false);
 
-    // Filter according to current editor text between anchorStart..caret
+    // Filter according to current editor text between anchorStart..caret. When the prefix grows, only the items
+    // that matched the previous prefix need to be checked.
+    final String[] lastFilter = {null};
     final Runnable refreshFilter = () -> {
       int caret = Math.max(getCaretPosition(), anchorStart);
       String prefix = "";
@@ -406,9 +443,15 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
       // remember current selection
       var prev = listView.getSelectionModel().getSelectedItem();
 
-      var filtered = allItems.filtered(ci ->
-          ci.completion() != null &&
-              ci.completion().toLowerCase(Locale.ROOT).startsWith(low));
+      List<CompletionItem> source = lastFilter[0] != null && low.startsWith(lastFilter[0])
+          ? List.copyOf(viewItems) : allItems;
+      lastFilter[0] = low;
+      List<CompletionItem> filtered = new ArrayList<>();
+      for (CompletionItem ci : source) {
+        if (ci.completion() != null && ci.completion().toLowerCase(Locale.ROOT).startsWith(low)) {
+          filtered.add(ci);
+        }
+      }
 
       viewItems.setAll(filtered);
 
@@ -443,6 +486,12 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
       }
     };
 
+    activeCompletionUpdater = newItems -> {
+      allItems.setAll(newItems);
+      lastFilter[0] = null;
+      refreshFilter.run();
+    };
+
     // Mouse double-click commits
     listView.setOnMouseClicked(evt -> {
       if (evt.getClickCount() >= 2) {
@@ -565,6 +614,8 @@ public abstract class CodeTextArea extends UnStyledCodeArea implements TabTextAr
       this.removeEventFilter(KeyEvent.KEY_TYPED, typedHandler);
       this.removeEventFilter(KeyEvent.KEY_PRESSED, backDelHandler);
       activeCompletionPopup = null;
+      activeCompletionUpdater = null;
+      asyncCompletion.cancel();
       this.requestFocus();
     });
   }
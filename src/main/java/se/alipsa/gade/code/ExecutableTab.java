@@ -1,6 +1,7 @@
 package se.alipsa.gade.code;
 
 import javafx.scene.control.Button;
+import javafx.scene.control.Tooltip;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.TaskListener;
 
@@ -29,7 +30,8 @@ import java.io.File;
  *
  * <p>
  * The execute button is automatically added to the buttonPane in the constructor.
- * Subclasses can customize the button text by passing it to the constructor.
+ * Subclasses can customize the button text by passing it to the constructor. Tabs that can run their code
+ * with profiling call {@link #addProfileButton()} and override {@link #executeProfiledAction()}.
  */
 public abstract class ExecutableTab extends TextAreaTab implements TaskListener {
 
@@ -38,6 +40,11 @@ public abstract class ExecutableTab extends TextAreaTab implements TaskListener
    */
   protected final Button executeButton;
 
+  /**
+   * The run with profiling button, null unless added by the subclass.
+   */
+  protected Button profileButton;
+
   /**
    * Creates an executable tab with a default "Run" button.
    *
@@ -81,19 +88,42 @@ public abstract class ExecutableTab extends TextAreaTab implements TaskListener
   protected abstract void executeAction();
 
   /**
-   * Called when a task starts. Disables the execute button.
+   * Adds a button that runs the code with profiling, see {@link #executeProfiledAction()}.
+   */
+  protected void addProfileButton() {
+    profileButton = new Button("Profile");
+    profileButton.setTooltip(new Tooltip("Run with profiling (JDK Flight Recorder)"));
+    profileButton.setOnAction(a -> executeProfiledAction());
+    buttonPane.getChildren().add(profileButton);
+  }
+
+  /**
+   * Executes the action when the profile button is clicked. The default runs the code without profiling.
+   */
+  protected void executeProfiledAction() {
+    executeAction();
+  }
+
+  /**
+   * Called when a task starts. Disables the execute (and profile) button.
    */
   @Override
   public void taskStarted() {
     executeButton.setDisable(true);
+    if (profileButton != null) {
+      profileButton.setDisable(true);
+    }
   }
 
   /**
-   * Called when a task ends. Re-enables the execute button.
+   * Called when a task ends. Re-enables the execute (and profile) button.
    */
   @Override
   public void taskEnded() {
     executeButton.setDisable(false);
+    if (profileButton != null) {
+      profileButton.setDisable(false);
+    }
   }
 
   // Delegation methods to text area
@@ -127,6 +127,13 @@ public abstract class TextAreaTab extends Tab implements TabTextArea {
     return isChanged;
   }
 
+  /**
+   * @return true if the content of this tab cannot be saved (e.g. a large file viewer)
+   */
+  public boolean isReadOnly() {
+    return false;
+  }
+
   public Gade getGui() {
     return gui;
   }
@@ -152,7 +159,7 @@ public abstract class TextAreaTab extends Tab implements TabTextArea {
     String content = "";
     if (textBytes.length != 0) {
       log.trace("Detecting charset");
-      Charset cs = TikaUtils.instance().detectCharset(textBytes, file.getName());
+      Charset cs = TikaUtils.instance().detectCharsetFromSample(textBytes, file.getName());
       content = new String(textBytes, cs);
     }
     log.trace("Replacing content text");
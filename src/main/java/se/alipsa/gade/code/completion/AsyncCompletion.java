@@ -0,0 +1,163 @@
+package se.alipsa.gade.code.completion;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs completion requests of one editor off the FX thread.
+ * <p>
+ * Every request gets a generation number; a new request supersedes the previous one and results of superseded
+ * requests are dropped (a superseded request that has not started yet is not run at all). A request that has not
+ * finished within its time budget delivers the items found so far as a partial result, followed by the full result
+ * when the engine is done. Running engines are never interrupted: a slow first request typically fills a cache
+ * (e.g. the classpath scan) that the next request needs.
+ * <p>
+ * The latency of every completed request is recorded in the {@link CompletionRegistry}.
+ * <p><b>Thread-Safety:</b> This class is thread-safe.</p>
+ */
+public final class AsyncCompletion {
+
+  private static final Logger log = LogManager.getLogger(AsyncCompletion.class);
+
+  /** The default time budget of a request before partial results are shown */
+  public static final long DEFAULT_BUDGET_MS = 150;
+
+  private static final ExecutorService COMPLETION_EXECUTOR = Executors.newFixedThreadPool(2,
+      daemonThreads("gade-completion"));
+  private static final ScheduledExecutorService BUDGET_TIMER = Executors.newSingleThreadScheduledExecutor(
+      daemonThreads("gade-completion-budget"));
+
+  /**
+   * The items of a completion request.
+   *
+   * @param generation the generation of the request
+   * @param items      the completion items
+   * @param partial    true if the budget ran out before the engine was done, a full result follows
+   */
+  public record Result(long generation, List<CompletionItem> items, boolean partial) {
+  }
+
+  private final Executor callbackExecutor;
+  private final AtomicLong generation = new AtomicLong();
+  private Future<?> pending;
+
+  /**
+   * @param callbackExecutor where results are delivered, e.g. {@code Platform::runLater}
+   */
+  public AsyncCompletion(Executor callbackExecutor) {
+    this.callbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Start a completion request, superseding any previous request.
+   *
+   * @param engine   the engine to complete with
+   * @param context  the completion context
+   * @param budgetMs how long to wait before delivering a partial result
+   * @param onResult called (on the callback executor) with the partial and/or the full result, only as long as
+   *                 this is the latest request
+   * @return the generation of the request
+   */
+  public long request(CompletionEngine engine, CompletionContext context, long budgetMs,
+                      Consumer<Result> onResult) {
+    long gen = generation.incrementAndGet();
+    List<CompletionItem> out = Collections.synchronizedList(new ArrayList<>());
+    AtomicBoolean delivered = new AtomicBoolean();
+    Future<?> task;
+    synchronized (this) {
+      if (pending != null) {
+        // only removes it from the queue if it has not started, see the class comment
+        pending.cancel(false);
+      }
+      task = COMPLETION_EXECUTOR.submit(() -> {
+        long start = System.nanoTime();
+        try {
+          engine.complete(context, out);
+        } catch (RuntimeException e) {
+          log.warn("Completion failed in {}", engine.name(), e);
+        }
+        CompletionRegistry.getInstance().recordLatency(engine, System.nanoTime() - start);
+        // the lock keeps a partial result from being delivered after the full one
+        synchronized (delivered) {
+          delivered.set(true);
+          deliver(gen, snapshot(out), false, onResult);
+        }
+      });
+      pending = task;
+    }
+    BUDGET_TIMER.schedule(() -> {
+      synchronized (delivered) {
+        List<CompletionItem> partial = snapshot(out);
+        if (!delivered.get() && !task.isCancelled() && !partial.isEmpty()) {
+          log.debug("Completion in {} exceeded {} ms, showing {} partial items", engine.name(), budgetMs,
+              partial.size());
+          deliver(gen, partial, true, onResult);
+        }
+      }
+    }, budgetMs, TimeUnit.MILLISECONDS);
+    return gen;
+  }
+
+  /**
+   * Supersede the current request without starting a new one, e.g. when the completion popup is closed.
+   */
+  public void cancel() {
+    generation.incrementAndGet();
+    synchronized (this) {
+      if (pending != null) {
+        pending.cancel(false);
+        pending = null;
+      }
+    }
+  }
+
+  /**
+   * @return true if the generation is that of the latest request
+   */
+  public boolean isCurrent(long gen) {
+    return generation.get() == gen;
+  }
+
+  private void deliver(long gen, List<CompletionItem> items, boolean partial, Consumer<Result> onResult) {
+    if (!isCurrent(gen)) {
+      return;
+    }
+    callbackExecutor.execute(() -> {
+      // a newer request may have been made while this one was queued on the callback executor
+      if (isCurrent(gen)) {
+        onResult.accept(new Result(gen, items, partial));
+      }
+    });
+  }
+
+  private static List<CompletionItem> snapshot(Collection<CompletionItem> out) {
+    synchronized (out) {
+      return List.copyOf(out);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
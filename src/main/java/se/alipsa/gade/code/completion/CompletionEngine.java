@@ -74,7 +74,8 @@ import java.util.Set;
  *
  * <h2>Performance Considerations</h2>
  * <ul>
- *   <li>Target response time: &lt;100ms for user-facing completion</li>
+ *   <li>Target response time: &lt;100ms for user-facing completion, the editor shows partial results when a
+ *   request takes longer than {@link AsyncCompletion#DEFAULT_BUDGET_MS}</li>
  *   <li>Use caching for expensive operations (class scanning, parsing)</li>
  *   <li>Invalidate caches when {@link #invalidateCache()} is called</li>
  *   <li>Return early if context is inside string or comment (check {@link CompletionContext#isInsideString()})</li>
@@ -96,6 +97,21 @@ public interface CompletionEngine {
    */
   List<CompletionItem> complete(CompletionContext context);
 
+  /**
+   * Adds completions for the given context to {@code out} as they are found.
+   * <p>
+   * Used by {@link AsyncCompletion}: when the time budget of a request runs out, whatever has been added so far
+   * is shown as a partial result. Engines that can produce cheap results first (keywords, locals) and expensive
+   * ones later (classpath classes) should override this method. {@code out} is synchronized, other threads only
+   * read it.
+   *
+   * @param context the completion context
+   * @param out     the collection to add completion items to
+   */
+  default void complete(CompletionContext context, List<CompletionItem> out) {
+    out.addAll(complete(context));
+  }
+
   /**
    * Returns the language identifiers this engine supports.
    * These should match the language names used in the editor
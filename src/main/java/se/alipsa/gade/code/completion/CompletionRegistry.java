@@ -3,7 +3,9 @@ package se.alipsa.gade.code.completion;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -34,6 +36,26 @@ public final class CompletionRegistry {
   // All registered engines (for invalidation)
   private final Set<CompletionEngine> allEngines = ConcurrentHashMap.newKeySet();
 
+  // Recent completion latencies by engine name
+  private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+  /**
+   * Latency percentiles of the recent completion requests of an engine.
+   *
+   * @param count the number of requests recorded (the percentiles cover the last {@link #LATENCY_WINDOW})
+   */
+  public record LatencyStats(String engine, long count, double p50Millis, double p90Millis, double p99Millis,
+                             double maxMillis) {
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: %d requests, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+          engine, count, p50Millis, p90Millis, p99Millis, maxMillis);
+    }
+  }
+
+  /** The number of recent requests per engine that the latency percentiles are computed from */
+  public static final int LATENCY_WINDOW = 512;
+
   private CompletionRegistry() {}
 
   /**
@@ -110,7 +132,39 @@ public final class CompletionRegistry {
       LOG.debug("No completion engine registered for language: {}", language);
       return List.of();
     }
-    return engine.complete(context);
+    long start = System.nanoTime();
+    List<CompletionItem> items = engine.complete(context);
+    recordLatency(engine, System.nanoTime() - start);
+    return items;
+  }
+
+  /**
+   * Records how long an engine took to complete a request.
+   *
+   * @param engine the engine
+   * @param nanos  the elapsed time in nanoseconds
+   */
+  public void recordLatency(CompletionEngine engine, long nanos) {
+    if (engine == null) return;
+    latencies.computeIfAbsent(engine.name(), k -> new LatencyWindow()).add(nanos);
+  }
+
+  /**
+   * Returns the latency percentiles of the recent requests of an engine.
+   *
+   * @param engineName the name of the engine, see {@link CompletionEngine#name()}
+   * @return the stats, or null if no request has been recorded for the engine
+   */
+  public LatencyStats latencyStats(String engineName) {
+    LatencyWindow window = latencies.get(engineName);
+    return window == null ? null : window.stats(engineName);
+  }
+
+  /**
+   * Returns the latency percentiles of all engines that have completed a request.
+   */
+  public List<LatencyStats> latencyStats() {
+    return latencies.keySet().stream().sorted().map(this::latencyStats).toList();
   }
 
   /**
@@ -142,4 +196,28 @@ public final class CompletionRegistry {
   public Set<String> supportedLanguages() {
     return Set.copyOf(enginesByLanguage.keySet());
   }
+
+  /** A ring buffer of the most recent latencies */
+  private static final class LatencyWindow {
+    private final long[] nanos = new long[LATENCY_WINDOW];
+    private long count;
+
+    synchronized void add(long value) {
+      nanos[(int) (count++ % LATENCY_WINDOW)] = value;
+    }
+
+    synchronized LatencyStats stats(String engine) {
+      int n = (int) Math.min(count, LATENCY_WINDOW);
+      long[] sorted = Arrays.copyOf(nanos, n);
+      Arrays.sort(sorted);
+      return new LatencyStats(engine, count, percentile(sorted, 50), percentile(sorted, 90),
+          percentile(sorted, 99), n == 0 ? 0 : sorted[n - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, int p) {
+      if (sorted.length == 0) return 0;
+      int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(0, idx)] / 1e6;
+    }
+  }
 }
@@ -90,10 +90,19 @@ public final class GroovyCompletionEngine implements CompletionEngine {
   @Override
   public List<CompletionItem> complete(CompletionContext context) {
     List<CompletionItem> out = new ArrayList<>();
+    complete(context, out);
+    return out;
+  }
 
+  /**
+   * Adds the cheap completions (imports, members, keywords) before the classpath classes so that a partial result
+   * is useful when the classpath scan is slow.
+   */
+  @Override
+  public void complete(CompletionContext context, List<CompletionItem> out) {
     // Don't complete inside strings or comments
     if (context.isInsideString() || context.isInsideComment()) {
-      return out;
+      return;
     }
 
     String textBefore = context.textBeforeCaret();
@@ -103,7 +112,7 @@ public final class GroovyCompletionEngine implements CompletionEngine {
     if (currentLine != null && currentLine.trim().startsWith("import")) {
       completeImport(context, out);
       if (!out.isEmpty()) {
-        return out;
+        return;
       }
     }
 
@@ -123,12 +132,9 @@ public final class GroovyCompletionEngine implements CompletionEngine {
         List<GroovyExtensionMethods.ExtensionMethod> extensions =
             GroovyExtensionMethods.getExtensionMethods(cls, memberPrefix);
         out.addAll(GroovyExtensionMethods.toCompletionItems(extensions));
-
-        return out;
-      } else {
-        // Couldn't resolve target; don't fall back to keywords
-        return out;
       }
+      // If the target couldn't be resolved, don't fall back to keywords
+      return;
     }
 
     // Not in member context: keywords + classes + implicit receiver methods
@@ -172,8 +178,6 @@ public final class GroovyCompletionEngine implements CompletionEngine {
       }
       if (count >= cap) break;
     }
-
-    return out;
   }
 
   /**
@@ -0,0 +1,396 @@
+package se.alipsa.gade.code.gmdtab;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.CastExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.EmptyExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Executes the groovy chunks of a gmd document and remembers their output so that a re-render only executes the
+ * chunks that changed and the chunks after them.
+ * <p>
+ * A chunk is cached under a hash of its source and the hashes of all chunks above it, together with the output it
+ * wrote to <code>out</code> and a copy of the variables it left behind. The next chunk starts from that copy. The copy
+ * is shallow: a chunk that modifies an object created by an earlier chunk (instead of assigning a new one) changes the
+ * cached state as well, use {@link #clear()} to start over in that case.
+ * <p>
+ * Chunks share variables through a binding rather than through one big template as gmd does, so top level
+ * declarations (<code>def x = 1</code>) are turned into binding variables and the imports of earlier chunks are
+ * added to later ones. A typed declaration converts its value to the declared type, but later assignments to the
+ * variable are not converted as they would be by gmd. Methods and classes cannot be shared through a binding, so
+ * documents where a chunk defines them are returned as they are and rendered in full by gmd.
+ * <p>
+ * {@link #render(String)} returns the document with every executable chunk and inline expression replaced by its
+ * output, which gmd can turn into html without executing anything.
+ */
+public class GmdChunkCache {
+
+  private static final Logger log = LogManager.getLogger(GmdChunkCache.class);
+  private static final Pattern CHUNK_START = Pattern.compile("^\\s*```\\{groovy(.*)}\\s*$");
+  private static final Pattern FENCE = Pattern.compile("^\\s*```.*$");
+  private static final Pattern INLINE = Pattern.compile("`=([^=`][^`]*)`");
+  private static final Pattern IMPORT = Pattern.compile("^\\s*import\\s+[\\w.*\\s]+;?\\s*$", Pattern.MULTILINE);
+  private static final Pattern ECHO = Pattern.compile("\\becho\\s*=\\s*true\\b");
+  private static final int MAX_ENTRIES = 500;
+
+  /**
+   * A part of a gmd document, either text (possibly with inline expressions) or an executable chunk.
+   *
+   * @param text the text, or the code of the chunk
+   * @param options the options in the chunk header, e.g. <code>echo=true</code>, null for text
+   */
+  record Segment(String text, String options) {
+
+    boolean isChunk() {
+      return options != null;
+    }
+
+    boolean echo() {
+      return isChunk() && ECHO.matcher(options).find();
+    }
+  }
+
+  private record Entry(String output, Map<String, Object> variables) {}
+
+  /**
+   * What the last render did
+   *
+   * @param full true if the document defines methods or classes so the chunks were left for gmd to execute
+   */
+  public record RenderStats(int chunks, int executed, int reused, long millis, boolean full) {
+
+    public RenderStats(int chunks, int executed, int reused, long millis) {
+      this(chunks, executed, reused, millis, false);
+    }
+  }
+
+  private final Map<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  /** Whether the code of a chunk defines methods or classes, so that unchanged chunks are only parsed once */
+  private final Map<String, Boolean> definitions = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  private RenderStats lastStats = new RenderStats(0, 0, 0, 0);
+
+  /**
+   * Execute the chunks that are not cached and substitute all chunk and inline output into the document.
+   *
+   * @param gmdText the gmd document
+   * @return the document without executable content, or the document as it is if a chunk defines methods or classes
+   * @throws ChunkException if a chunk or inline expression fails
+   */
+  public synchronized String render(String gmdText) throws ChunkException {
+    long start = System.currentTimeMillis();
+    List<Segment> segments = split(gmdText);
+    if (segments.stream().anyMatch(s -> s.isChunk()
+        && definitions.computeIfAbsent(s.text(), GmdChunkCache::definesMethodsOrClasses))) {
+      int chunks = (int) segments.stream().filter(Segment::isChunk).count();
+      lastStats = new RenderStats(chunks, 0, 0, System.currentTimeMillis() - start, true);
+      log.debug("Gmd defines methods or classes, rendering it in full");
+      return gmdText;
+    }
+    StringBuilder result = new StringBuilder();
+    StringBuilder imports = new StringBuilder();
+    String key = "";
+    Map<String, Object> variables = Map.of();
+    GroovyShell shell = null;
+    int chunkNum = 0;
+    int executed = 0;
+    for (Segment segment : segments) {
+      if (!segment.isChunk()) {
+        result.append(inlineSubstituted(segment.text(), imports.toString(), variables, chunkNum));
+        continue;
+      }
+      chunkNum++;
+      key = hash(key, segment.options(), segment.text());
+      Entry entry = cache.get(key);
+      if (entry == null) {
+        if (shell == null) {
+          shell = createShell();
+        }
+        entry = execute(shell, imports + segment.text(), variables, chunkNum);
+        cache.put(key, entry);
+        executed++;
+      }
+      Matcher imp = IMPORT.matcher(segment.text());
+      while (imp.find()) {
+        imports.append(imp.group().strip()).append('\n');
+      }
+      if (segment.echo()) {
+        result.append("```groovy\n").append(escape(segment.text())).append("```\n");
+      }
+      result.append(escape(entry.output()));
+      variables = entry.variables();
+    }
+    lastStats = new RenderStats(chunkNum, executed, chunkNum - executed, System.currentTimeMillis() - start);
+    log.debug("Rendered gmd: {}", lastStats);
+    return result.toString();
+  }
+
+  /** Forget all cached chunk output, the next render executes every chunk */
+  public synchronized void clear() {
+    cache.clear();
+    definitions.clear();
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  public synchronized RenderStats getLastStats() {
+    return lastStats;
+  }
+
+  /**
+   * Split a gmd document into text and executable chunks. Chunks start with <code>```{groovy}</code> (optionally
+   * with options inside the braces) and end with <code>```</code>, plain code blocks are text.
+   */
+  static List<Segment> split(String gmdText) {
+    List<Segment> segments = new ArrayList<>();
+    StringBuilder current = new StringBuilder();
+    String options = null;
+    for (String line : gmdText.split("\n", -1)) {
+      if (options == null) {
+        Matcher m = CHUNK_START.matcher(line);
+        if (m.matches()) {
+          if (!current.isEmpty()) {
+            segments.add(new Segment(current.toString(), null));
+          }
+          current.setLength(0);
+          options = m.group(1).strip();
+          continue;
+        }
+      } else if (FENCE.matcher(line).matches()) {
+        segments.add(new Segment(current.toString(), options));
+        current.setLength(0);
+        options = null;
+        continue;
+      }
+      current.append(line).append('\n');
+    }
+    if (options != null) {
+      // unterminated chunk, leave it to gmd to complain about
+      segments.add(new Segment("```{groovy" + (options.isEmpty() ? "" : " " + options) + "}\n" + current, null));
+    } else if (!current.isEmpty()) {
+      current.setLength(current.length() - 1);
+      segments.add(new Segment(current.toString(), null));
+    }
+    return segments;
+  }
+
+  /**
+   * @return true if the code defines methods or classes (which gmd makes visible to all later chunks), false if not
+   * or if it does not compile (the error is then reported when it is executed)
+   */
+  static boolean definesMethodsOrClasses(String code) {
+    try {
+      CompilationUnit unit = new CompilationUnit();
+      unit.addSource("GmdChunkCheck.groovy", code);
+      unit.compile(Phases.CONVERSION);
+      for (ModuleNode module : unit.getAST().getModules()) {
+        if (!module.getMethods().isEmpty() || module.getClasses().stream().anyMatch(c -> !c.isScript())) {
+          return true;
+        }
+      }
+    } catch (CompilationFailedException e) {
+      log.debug("Failed to parse chunk: {}", e.getMessage());
+    }
+    return false;
+  }
+
+  static String hash(String upstreamKey, String options, String code) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(upstreamKey.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(options.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(code.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Entry execute(GroovyShell shell, String code, Map<String, Object> variables, int chunkNum)
+      throws ChunkException {
+    Binding binding = new Binding(new LinkedHashMap<>(variables));
+    StringWriter sw = new StringWriter();
+    binding.setVariable("out", new PrintWriter(sw));
+    try {
+      Script script = shell.parse(code, "GmdChunk" + chunkNum + ".groovy");
+      script.setBinding(binding);
+      script.run();
+    } catch (RuntimeException e) {
+      throw new ChunkException("Chunk " + chunkNum + " failed: " + e.getMessage(), e);
+    }
+    String output = sw.toString();
+    if (!output.isEmpty() && !output.endsWith("\n")) {
+      // keep the text after the chunk on its own line
+      output += "\n";
+    }
+    return new Entry(output, snapshot(binding));
+  }
+
+  private String inlineSubstituted(String text, String imports, Map<String, Object> variables, int chunkNum)
+      throws ChunkException {
+    if (!text.contains("`=")) {
+      return text;
+    }
+    StringBuilder sb = new StringBuilder();
+    GroovyShell shell = null;
+    boolean inCodeBlock = false;
+    for (String line : text.split("\n", -1)) {
+      if (FENCE.matcher(line).matches()) {
+        inCodeBlock = !inCodeBlock;
+      }
+      Matcher m = INLINE.matcher(line);
+      if (inCodeBlock || !m.find()) {
+        sb.append(line).append('\n');
+        continue;
+      }
+      if (shell == null) {
+        shell = new GroovyShell(GmdChunkCache.class.getClassLoader(), new Binding(new LinkedHashMap<>(variables)),
+            compilerConfiguration());
+      }
+      StringBuilder replaced = new StringBuilder();
+      do {
+        Object value;
+        try {
+          value = shell.evaluate(imports + m.group(1));
+        } catch (RuntimeException e) {
+          throw new ChunkException("Inline expression `=" + m.group(1) + "` after chunk " + chunkNum + " failed: "
+              + e.getMessage(), e);
+        }
+        m.appendReplacement(replaced, Matcher.quoteReplacement(escape(String.valueOf(value))));
+      } while (m.find());
+      m.appendTail(replaced);
+      sb.append(replaced).append('\n');
+    }
+    sb.setLength(sb.length() - 1);
+    return sb.toString();
+  }
+
+  private GroovyShell createShell() {
+    return new GroovyShell(GmdChunkCache.class.getClassLoader(), new Binding(), compilerConfiguration());
+  }
+
+  private static Map<String, Object> snapshot(Binding binding) {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> vars = new LinkedHashMap<>(binding.getVariables());
+    vars.remove("out");
+    return vars;
+  }
+
+  /**
+   * Gmd runs the document through the StreamingTemplateEngine so output that is not executable content must not be
+   * interpreted by it. Wrapping it in an expression that decodes it is immune to whatever the output contains.
+   */
+  static String escape(String output) {
+    if (output.isEmpty()) {
+      return output;
+    }
+    return "${new String(java.util.Base64.getDecoder().decode('"
+        + Base64.getEncoder().encodeToString(output.getBytes(StandardCharsets.UTF_8)) + "'), 'UTF-8')}";
+  }
+
+  private static CompilerConfiguration compilerConfiguration() {
+    CompilerConfiguration config = new CompilerConfiguration();
+    config.addCompilationCustomizers(new TopLevelDeclarationsToBinding());
+    return config;
+  }
+
+  /**
+   * Turns <code>def x = 1</code> at the top level of a script into <code>x = 1</code>, and typed declarations such
+   * as <code>int x = 1.5</code> into <code>x = (int) 1.5</code>, so that the variable ends up in the binding and is
+   * visible to the following chunks.
+   */
+  static class TopLevelDeclarationsToBinding extends CompilationCustomizer {
+
+    TopLevelDeclarationsToBinding() {
+      super(CompilePhase.CONVERSION);
+    }
+
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+      if (!classNode.isScript()) {
+        return;
+      }
+      MethodNode run = classNode.getMethod("run", Parameter.EMPTY_ARRAY);
+      if (run == null || !(run.getCode() instanceof BlockStatement block)) {
+        return;
+      }
+      for (Statement statement : block.getStatements()) {
+        if (statement instanceof ExpressionStatement es
+            && es.getExpression() instanceof DeclarationExpression decl
+            && !decl.isMultipleAssignmentDeclaration()
+            && decl.getAnnotations().isEmpty()) {
+          ClassNode type = decl.getVariableExpression().getOriginType();
+          Expression value = decl.getRightExpression();
+          if (value instanceof EmptyExpression) {
+            value = !ClassHelper.isPrimitiveType(type) ? ConstantExpression.NULL
+                : ClassHelper.isPrimitiveBoolean(type) ? ConstantExpression.PRIM_FALSE
+                : new ConstantExpression(0);
+          }
+          if (!decl.getVariableExpression().isDynamicTyped()) {
+            value = new CastExpression(type, value);
+          }
+          es.setExpression(new BinaryExpression(new VariableExpression(decl.getVariableExpression().getName()),
+              decl.getOperation(), value));
+        }
+      }
+    }
+  }
+
+  /** A chunk or inline expression failed to execute */
+  public static class ChunkException extends Exception {
+    public ChunkException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package se.alipsa.gade.code.gmdtab;
+
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.mathmlsupport.MathMLDrawer;
+import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.svgsupport.BatikSVGDrawer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+import se.alipsa.gade.code.groovytab.GroovySyntax;
+import se.alipsa.gade.utils.FileUtils;
+import se.alipsa.gmd.core.Gmd;
+import se.alipsa.gmd.core.GmdException;
+import se.alipsa.gmd.core.HtmlDecorator;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+/**
+ * Turns gmd html into pdf without a WebView so that it can run on any thread.
+ * <p>
+ * The html is parsed once with jsoup. What the WebView used to do in the browser is done here instead: the
+ * bootstrap and highlight.js stylesheets are inlined (their content is read once and kept), groovy code blocks are
+ * highlighted using the same rules as the editor and scripts are removed. MathML and SVG are drawn by the pdf
+ * renderer itself. The font metrics cache of the renderer is shared by all exports.
+ */
+public class GmdPdfExporter {
+
+  private static final Logger log = LogManager.getLogger(GmdPdfExporter.class);
+  private static final String HIGHLIGHT_JS_CSS_PATH = "highlightJs/default.css";
+  /** The languages highlighted in the pdf, code blocks in other languages (or none) are left as plain text */
+  private static final Set<String> HIGHLIGHTED_LANGUAGES = Set.of("groovy", "java");
+  /** Used when the highlight.js stylesheet is not on the classpath, mirrors the classes of its default theme */
+  private static final String FALLBACK_HIGHLIGHT_CSS = """
+      pre code.hljs { display: block; overflow-x: auto; padding: 1em; background: #f3f3f3; }
+      .hljs-keyword { color: #000088; font-weight: bold; }
+      .hljs-string { color: #008800; }
+      .hljs-comment { color: #697070; font-style: italic; }
+      """;
+
+  private static final FSCacheEx<String, FSCacheValue> FONT_METRICS_CACHE = new FSDefaultCacheStore();
+  private static final Map<String, String> STYLESHEETS = new ConcurrentHashMap<>();
+
+  /** The outcome of exporting one file in a batch, error is null if the export succeeded */
+  public record ExportResult(File source, File target, Throwable error, long millis) {
+    public boolean isSuccess() {
+      return error == null;
+    }
+  }
+
+  private GmdPdfExporter() {
+    // static utility
+  }
+
+  /**
+   * Render the html document (as created by {@link Gmd#gmdToHtmlDoc(String)}) to a pdf file.
+   *
+   * @param html the html document
+   * @param target the pdf file to create
+   * @param baseUri the base for relative links (e.g. images), typically the dir of the gmd file
+   */
+  public static void htmlToPdf(String html, File target, String baseUri) throws GmdException {
+    long start = System.currentTimeMillis();
+    Document doc = prepare(html);
+    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(target.toPath()))) {
+      new PdfRendererBuilder()
+          .useCacheStore(BaseRendererBuilder.CacheStore.PDF_FONT_METRICS, FONT_METRICS_CACHE)
+          .useSVGDrawer(new BatikSVGDrawer())
+          .useMathMLDrawer(new MathMLDrawer())
+          .withW3cDocument(new W3CDom().fromJsoup(doc), baseUri)
+          .toStream(os)
+          .run();
+    } catch (IOException | RuntimeException e) {
+      throw new GmdException("Failed to create " + target + ": " + e.getMessage(), e);
+    }
+    log.debug("Rendered {} ({} bytes) in {} ms", target, target.length(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Convert gmd files to pdf files (with the same name and a .pdf extension) in parallel. A failure does not stop
+   * the other exports.
+   *
+   * @param gmdFiles the files to export
+   * @param parallelism the max number of exports to run at the same time
+   * @return the result of each export, in the same order as the files
+   */
+  public static List<ExportResult> exportAll(List<File> gmdFiles, int parallelism) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, gmdFiles.size())),
+        r -> {
+          Thread thread = new Thread(r, "gmd-pdf-export");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      List<Future<ExportResult>> futures = new ArrayList<>();
+      for (File gmdFile : gmdFiles) {
+        futures.add(executor.submit(() -> export(gmdFile)));
+      }
+      List<ExportResult> results = new ArrayList<>();
+      for (Future<ExportResult> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          // export() catches everything, this is unexpected
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static ExportResult export(File gmdFile) {
+    long start = System.currentTimeMillis();
+    File dir = gmdFile.getAbsoluteFile().getParentFile();
+    String name = gmdFile.getName();
+    int dot = name.lastIndexOf('.');
+    File target = new File(dir, (dot > 0 ? name.substring(0, dot) : name) + ".pdf");
+    try {
+      String text = Files.readString(gmdFile.toPath());
+      // Gmd instances are not shared between threads
+      String html = new Gmd().gmdToHtmlDoc(text);
+      htmlToPdf(html, target, dir.toURI().toString());
+      return new ExportResult(gmdFile, target, null, System.currentTimeMillis() - start);
+    } catch (Exception e) {
+      log.warn("Failed to export {} to pdf", gmdFile, e);
+      return new ExportResult(gmdFile, target, e, System.currentTimeMillis() - start);
+    }
+  }
+
+  /**
+   * Parse the html and do what the browser would otherwise do: inline stylesheets, highlight code and drop scripts.
+   */
+  static Document prepare(String html) {
+    Document doc = Jsoup.parse(html);
+    doc.outputSettings().syntax(Document.OutputSettings.Syntax.xml)
+        .escapeMode(Entities.EscapeMode.xhtml)
+        .charset(StandardCharsets.UTF_8)
+        .prettyPrint(false);
+    doc.select("script").remove();
+    boolean hasBootstrap = false;
+    for (Element link : doc.select("link[rel=stylesheet]")) {
+      String href = link.attr("href");
+      if (href.startsWith("http:") || href.startsWith("https:")) {
+        // left to the renderer
+        continue;
+      }
+      hasBootstrap |= href.contains("bootstrap");
+      stylesheet(href).ifPresent(css -> link.after(new Element("style").appendText(css)));
+      link.remove();
+    }
+    if (!hasBootstrap) {
+      // the WebView used bootstrap as the user stylesheet
+      stylesheet(HtmlDecorator.BOOTSTRAP_CSS_PATH).ifPresent(css -> doc.head().prependElement("style").appendText(css));
+    }
+    doc.head().appendElement("style").appendText(stylesheet(HIGHLIGHT_JS_CSS_PATH).orElse(FALLBACK_HIGHLIGHT_CSS));
+    for (Element code : doc.select("pre > code")) {
+      code.addClass("hljs");
+      if (isHighlighted(code) && code.children().isEmpty()) {
+        String highlighted = highlightGroovy(code.wholeText());
+        code.empty().append(highlighted);
+      }
+    }
+    return doc;
+  }
+
+  /** @return true if a class of the code element names a highlighted language, e.g. language-groovy or java */
+  static boolean isHighlighted(Element code) {
+    for (String cls : code.classNames()) {
+      String language = cls.startsWith("language-") ? cls.substring("language-".length())
+          : cls.startsWith("lang-") ? cls.substring("lang-".length())
+          : cls;
+      if (HIGHLIGHTED_LANGUAGES.contains(language.toLowerCase(Locale.ROOT))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the code as html with keywords, strings and comments wrapped in spans with highlight.js classes
+   */
+  static String highlightGroovy(String code) {
+    Matcher matcher = GroovySyntax.PATTERN.matcher(code);
+    StringBuilder sb = new StringBuilder();
+    int last = 0;
+    while (matcher.find()) {
+      String cls = matcher.group("COMMENT") != null ? "hljs-comment"
+          : matcher.group("STRING") != null ? "hljs-string"
+          : matcher.group("KEYWORD") != null ? "hljs-keyword"
+          : null;
+      if (cls == null) {
+        continue;
+      }
+      sb.append(Entities.escape(code.substring(last, matcher.start())));
+      sb.append("<span class=\"").append(cls).append("\">")
+          .append(Entities.escape(matcher.group()))
+          .append("</span>");
+      last = matcher.end();
+    }
+    sb.append(Entities.escape(code.substring(last)));
+    return sb.toString();
+  }
+
+  /**
+   * @param location a classpath resource, or a file: or jar: url
+   * @return the content of the stylesheet, read once and cached
+   */
+  private static Optional<String> stylesheet(String location) {
+    if (location == null || location.isBlank()) {
+      return Optional.empty();
+    }
+    String css = STYLESHEETS.computeIfAbsent(location, loc -> {
+      try {
+        URL url = loc.startsWith("file:") || loc.startsWith("jar:")
+            ? URI.create(loc).toURL()
+            : FileUtils.getResourceUrl(loc);
+        if (url == null) {
+          return "";
+        }
+        try (InputStream in = url.openStream()) {
+          return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+      } catch (IOException e) {
+        log.warn("Failed to read stylesheet {}", loc, e);
+        return "";
+      }
+    });
+    return css.isEmpty() ? Optional.empty() : Optional.of(css);
+  }
+}
@@ -11,6 +11,7 @@ import se.alipsa.gade.TaskListener;
 import se.alipsa.gade.code.CodeTextArea;
 import se.alipsa.gade.code.CodeType;
 import se.alipsa.gade.code.TextAreaTab;
+import se.alipsa.gade.console.CountDownTask;
 import se.alipsa.gade.utils.Alerts;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gmd.core.GmdException;
@@ -22,7 +23,9 @@ import java.io.IOException;
 public class GmdTab extends TextAreaTab implements TaskListener {
 
   private final GmdTextArea gmdTextArea;
+  private final GmdChunkCache chunkCache = new GmdChunkCache();
   Button viewButton;
+  Button clearCacheButton;
   Button htmlButton;
   Button pdfButton;
   Button browserButton;
@@ -37,10 +40,17 @@ public class GmdTab extends TextAreaTab implements TaskListener {
 
     viewButton = new Button();
     viewButton.setGraphic(new ImageView(IMG_VIEW));
-    viewButton.setTooltip(new Tooltip("Render and view"));
+    viewButton.setTooltip(new Tooltip("Render and view, only the changed code chunks (and the ones after them) are run.\n"
+        + "Documents where a chunk defines methods or classes are run in full.\n"
+        + "Unlike export, a variable declared with a type is not converted to it when assigned again in a later chunk"));
     viewButton.setOnAction(this::viewMdr);
     buttonPane.getChildren().add(viewButton);
 
+    clearCacheButton = new Button("Clear cache");
+    clearCacheButton.setTooltip(new Tooltip("Forget the output of all code chunks, the next render executes them all"));
+    clearCacheButton.setOnAction(a -> chunkCache.clear());
+    buttonPane.getChildren().add(clearCacheButton);
+
     htmlButton = new Button();
     htmlButton.setGraphic(new ImageView(IMG_PUBLISH));
     htmlButton.setStyle("-fx-border-color: darkgreen");
@@ -64,36 +74,56 @@ public class GmdTab extends TextAreaTab implements TaskListener {
   }
 
   private void viewMdr(ActionEvent actionEvent) {
-    try {
-      GmdUtil.viewGmd(gui, getTitle(), getAllTextContent());
-    } catch (GmdException e) {
-      ExceptionAlert.showAlert("Failed to view gmd", e);
-    }
+    final String title = getTitle();
+    final String content = getAllTextContent();
+    CountDownTask<String> task = new CountDownTask<>(this) {
+      @Override
+      public String execute() throws Exception {
+        return GmdUtil.convertGmdToHtml(content, chunkCache);
+      }
+    };
+    task.setOnSucceeded(e -> {
+      gui.getInoutComponent().viewHtml(task.getValue(), title);
+    });
+    task.setOnFailed(e -> {
+      Throwable ex = task.getException();
+      ExceptionAlert.showAlert("Failed to view gmd", ex);
+    });
+    // chunks run in the gui jvm, not in the runtime process, so there is no need to wait for running scripts
+    gui.getConsoleComponent().startTask("gmd", task, "gmd: " + title);
   }
 
   private void exportToPdf(ActionEvent actionEvent) {
-    try {
-      FileChooser fc = new FileChooser();
-      fc.setTitle("Save PDF File");
-      String initialFileName = getTitle().replace("*", "").replace(".gmd", "");
-      if (initialFileName.endsWith(".")) {
-        initialFileName = initialFileName + "pdf";
-      } else {
-        initialFileName = initialFileName + ".pdf";
-      }
-      fc.setInitialDirectory(gui.getInoutComponent().projectDir());
-      fc.setInitialFileName(initialFileName);
-      fc.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("PDF", "*.pdf"));
-      File outFile = fc.showSaveDialog(gui.getStage());
-      if (outFile == null) {
-        return;
-      }
-      gui.setWaitCursor();
-      GmdUtil.saveGmdAsPdf(getAllTextContent(), outFile);
-      gui.setNormalCursor();
-    } catch (GmdException e) {
-      ExceptionAlert.showAlert("Failed to save gmd as pdf", e);
+    FileChooser fc = new FileChooser();
+    fc.setTitle("Save PDF File");
+    String initialFileName = getTitle().replace("*", "").replace(".gmd", "");
+    if (initialFileName.endsWith(".")) {
+      initialFileName = initialFileName + "pdf";
+    } else {
+      initialFileName = initialFileName + ".pdf";
     }
+    fc.setInitialDirectory(gui.getInoutComponent().projectDir());
+    fc.setInitialFileName(initialFileName);
+    fc.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("PDF", "*.pdf"));
+    File outFile = fc.showSaveDialog(gui.getStage());
+    if (outFile == null) {
+      return;
+    }
+    final String content = getAllTextContent();
+    CountDownTask<Void> task = new CountDownTask<>(this) {
+      @Override
+      public Void execute() throws Exception {
+        GmdUtil.saveGmdAsPdf(content, outFile);
+        return null;
+      }
+    };
+    task.setOnSucceeded(e -> {
+      gui.getConsoleComponent().addOutput("", outFile + " saved (size: " + outFile.length() + " bytes)", true, true);
+    });
+    task.setOnFailed(e -> {
+      ExceptionAlert.showAlert("Failed to save gmd as pdf", task.getException());
+    });
+    gui.getConsoleComponent().startTask("gmd", task, "gmd pdf: " + outFile.getName());
   }
 
   private void openInBrowser(ActionEvent actionEvent) {
@@ -168,6 +198,7 @@ public class GmdTab extends TextAreaTab implements TaskListener {
   @Override
   public void taskStarted() {
     viewButton.setDisable(true);
+    clearCacheButton.setDisable(true);
     htmlButton.setDisable(true);
     pdfButton.setDisable(true);
   }
@@ -175,6 +206,7 @@ public class GmdTab extends TextAreaTab implements TaskListener {
   @Override
   public void taskEnded() {
     viewButton.setDisable(false);
+    clearCacheButton.setDisable(false);
     htmlButton.setDisable(false);
     pdfButton.setDisable(false);
   }
@@ -22,6 +22,9 @@ public class GradleTab extends GroovyTab implements TaskListener {
     super(title, gui, false);
     executeButton.setText("Run build");
     executeButton.setOnAction(a -> runGradle());
+    // the build runs in the gradle daemon, not in the runner, so there is nothing to profile
+    buttonPane.getChildren().remove(profileButton);
+    profileButton = null;
 
     Label goalLabel = new Label("Goals:");
     targetsField = new TextField();
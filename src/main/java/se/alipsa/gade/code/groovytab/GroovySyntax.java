@@ -0,0 +1,68 @@
+package se.alipsa.gade.code.groovytab;
+
+import java.util.regex.Pattern;
+
+/**
+ * The patterns used to highlight Groovy code. They have no dependency on JavaFX so that they can be used without
+ * a gui, e.g. by the pdf export of gmd documents in batch mode, as well as by the {@link GroovyTextArea}.
+ */
+public final class GroovySyntax {
+
+  private static final String[] KEYWORDS = new String[]{
+          "abstract", "as", "assert",
+          "boolean", "break", "byte",
+          "case", "catch", "char", "class", "const", "continue",
+          "def", "default", "do", "double",
+          "else", "enum", "extends",
+          "false", "final", "finally", "float", "for",
+          "goto", "@Grab",
+          "if", "implements", "import", "in", "instanceof", "int", "interface",
+          "long",
+          "native", "new", "null",
+          "package", "private", "protected", "public",
+          "return",
+          "short", "static", "strictfp", "super", "switch", "synchronized",
+          "this", "threadsafe", "throw", "throws",
+          "transient", "true", "try",
+          "var", "void", "volatile",
+          "while"
+  };
+
+  public static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
+  public static final String PAREN_PATTERN = "\\(|\\)";
+  public static final String BRACE_PATTERN = "\\{|\\}";
+  public static final String BRACKET_PATTERN = "\\[|\\]";
+  public static final String SEMICOLON_PATTERN = "\\;";
+  //private static final String STRING_PATTERN = "\"\"|''|\"[^\"]+\"|'[^']+'";
+  public static final String STRING_PATTERN =
+      // triple double
+      "\"\"\"[\\s\\S]*?\"\"\"" +
+          "|" +
+          // triple single
+          "'''[\\s\\S]*?'''" +
+          "|" +
+          // normal double w/ escapes
+          "\"(?:\\\\.|[^\"\\\\])*\"" +
+          "|" +
+          // normal single w/ escapes
+          "'(?:\\\\.|[^'\\\\])*'" +
+          "|" +
+          // slashy (lookbehind prevents division being treated as regex start)
+          "(?<![)\\]}\\w'\".])(?:/(?:\\\\/|[^/\\n])+/)"  +
+          "|" +
+          // dollar-slashy
+          "(?s)\\$/[\\s\\S]*?/\\$";
+  public static final String COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/";
+
+  public static final Pattern PATTERN = Pattern.compile(
+      "(?<COMMENT>" + COMMENT_PATTERN + ")"
+          + "|(?<STRING>" + STRING_PATTERN + ")"
+          + "|(?<KEYWORD>" + KEYWORD_PATTERN + ")"
+          + "|(?<PAREN>" + PAREN_PATTERN + ")"
+          + "|(?<BRACE>" + BRACE_PATTERN + ")"
+          + "|(?<BRACKET>" + BRACKET_PATTERN + ")"
+          + "|(?<SEMICOLON>" + SEMICOLON_PATTERN + ")"
+  );
+
+  private GroovySyntax() {}
+}
@@ -12,7 +12,10 @@ import se.alipsa.gade.console.ConsoleComponent;
 import se.alipsa.gade.utils.ExceptionAlert;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static se.alipsa.gade.menu.GlobalOptions.ADD_DEPENDENCIES;
 import static se.alipsa.gade.menu.GlobalOptions.ADD_IMPORTS;
@@ -32,6 +35,7 @@ public class GroovyTab extends ExecutableTab {
       resetButton.setOnAction(a -> gui.getConsoleComponent().restartGroovy());
       buttonPane.getChildren().add(resetButton);
     }
+    addProfileButton();
 
     groovyTextArea = new GroovyTextArea(this);
     VirtualizedScrollPane<GroovyTextArea> javaPane = new VirtualizedScrollPane<>(groovyTextArea);
@@ -43,33 +47,64 @@ public class GroovyTab extends ExecutableTab {
     runGroovy();
   }
 
+  @Override
+  protected void executeProfiledAction() {
+    runGroovy(true);
+  }
+
   @Override
   protected CodeTextArea getTextArea() {
     return groovyTextArea;
   }
 
   public void runGroovy() {
+    runGroovy(false);
+  }
+
+  /**
+   * Run the script with the dependencies and imports as configured.
+   *
+   * @param profile if true the script is run with a flight recording, see
+   *                {@link ConsoleComponent#runScriptProfiledAsync(String, String, se.alipsa.gade.TaskListener, File)}
+   */
+  public void runGroovy(boolean profile) {
     boolean runImports = gui.getPrefs().getBoolean(ADD_IMPORTS, true);
     boolean runDeps = gui.getPrefs().getBoolean(ADD_DEPENDENCIES, true);
     //log.info("runImports = {}, runDeps = {}", runImports, runDeps);
+    boolean grabsResolved = false;
     if (runDeps) {
       List<String> headers = groovyTextArea.getDependencies();
-      String deps = String.join("\n", headers);
-      if (deps.contains("@Grab")){
-        // if we are using @Grab then we must have something else (e.g. an import statement) to be able to run it
-        deps += "\nimport java.lang.Object";
-      }
-      try {
-        //log.info("Running {}", deps);
-        var result = gui.getConsoleComponent().runScriptSilent(deps);
-        //log.info("Result was {}", result);
-      } catch (Exception e) {
-        log.warn("Failed to run: {}", deps);
-        ExceptionAlert.showAlert("Failed to run dependencies", e);
-        return;
+      if (isGrabOnly(headers) && grabHeaderLines(getAllTextContent()).size() == headers.size()) {
+        // resolved once by the runner and then remembered, the @Grab lines are commented out of the script
+        // (only when all of them are in the header, so that exactly the resolved ones are commented out)
+        try {
+          grabsResolved = gui.getConsoleComponent().grabDependencies(String.join("\n", headers), getFile());
+        } catch (Exception e) {
+          log.warn("Failed to grab: {}", headers);
+          ExceptionAlert.showAlert("Failed to run dependencies", e);
+          return;
+        }
+      } else if (!headers.isEmpty()) {
+        String deps = String.join("\n", headers);
+        if (deps.contains("@Grab")){
+          // if we are using @Grab then we must have something else (e.g. an import statement) to be able to run it
+          deps += "\nimport java.lang.Object";
+        }
+        try {
+          //log.info("Running {}", deps);
+          var result = gui.getConsoleComponent().runScriptSilent(deps);
+          //log.info("Result was {}", result);
+        } catch (Exception e) {
+          log.warn("Failed to run: {}", deps);
+          ExceptionAlert.showAlert("Failed to run dependencies", e);
+          return;
+        }
       }
     }
     String code = getTextContent();
+    if (grabsResolved) {
+      code = commentOutGrabs(code);
+    }
     if (runImports) {
       List<String> headers = groovyTextArea.getImports();
       String imports = String.join("\n", headers);
@@ -78,7 +113,104 @@ public class GroovyTab extends ExecutableTab {
     }
     // Comment out shebangs
     code = code.replace("#!/usr/bin/env groovy", "// #!/usr/bin/env groovy");
-    runGroovy(code);
+    runGroovyCode(code, profile);
+  }
+
+  /**
+   * @return true if all the dependency lines are complete {@code @Grab} annotations that can be resolved on their own
+   * (i.e. no Grape.grab or io.addDependency calls and no {@code @GrabConfig} which affects how the script is loaded)
+   */
+  static boolean isGrabOnly(List<String> headers) {
+    if (headers.isEmpty()) {
+      return false;
+    }
+    for (String line : headers) {
+      if (!line.startsWith("@Grab") || line.startsWith("@GrabConfig")
+          || line.chars().filter(c -> c == '(').count() != line.chars().filter(c -> c == ')').count()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the indexes of the lines in the header of the script (the lines before the first statement, i.e.
+   * annotations, imports, package, comments and blank lines) that start with a @Grab annotation
+   */
+  static List<Integer> grabHeaderLines(String code) {
+    List<Integer> grabLines = new ArrayList<>();
+    String[] lines = code.split("\n", -1);
+    boolean inComment = false;
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].trim();
+      if (inComment) {
+        inComment = !line.contains("*/");
+      } else if (line.startsWith("@Grab")) {
+        grabLines.add(i);
+      } else if (line.startsWith("/*")) {
+        inComment = !line.contains("*/");
+      } else if (!line.isEmpty() && !line.startsWith("//") && !line.startsWith("#!")
+          && !line.startsWith("import ") && !line.startsWith("package ")) {
+        break;
+      }
+    }
+    return grabLines;
+  }
+
+  /**
+   * Comment out the @Grab annotations of the script header (see {@link #grabHeaderLines(String)}) since the runner
+   * already has the dependencies. @Grab lines further down, e.g. in a multi line string, are left as they are.
+   * Anything following an annotation on the same line (e.g. an import) is kept, and so are the line numbers.
+   */
+  static String commentOutGrabs(String code) {
+    Set<Integer> grabLines = new HashSet<>(grabHeaderLines(code));
+    String[] lines = code.split("\n", -1);
+    StringBuilder sb = new StringBuilder(code.length() + 64);
+    for (int i = 0; i < lines.length; i++) {
+      if (i > 0) {
+        sb.append('\n');
+      }
+      String line = lines[i];
+      if (!grabLines.contains(i)) {
+        sb.append(line);
+        continue;
+      }
+      // keep the indentation of an indented @Grab
+      int pos = 0;
+      while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+        sb.append(line.charAt(pos++));
+      }
+      while (line.startsWith("@Grab", pos)) {
+        int end = annotationEnd(line, pos);
+        sb.append("/*").append(line, pos, end).append("*/");
+        pos = end;
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+          sb.append(line.charAt(pos++));
+        }
+      }
+      sb.append(line, pos, line.length());
+    }
+    return sb.toString();
+  }
+
+  /** @return the index after the closing parenthesis of the annotation starting at start */
+  private static int annotationEnd(String line, int start) {
+    int depth = 0;
+    for (int i = start; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      } else if (depth == 0 && Character.isWhitespace(c)) {
+        // annotation without arguments
+        return i;
+      }
+    }
+    return line.length();
   }
 
   public void runGroovy(final String content, boolean addImportsIfPreferred) {
@@ -94,12 +226,18 @@ public class GroovyTab extends ExecutableTab {
   }
 
   public void runGroovy(final String content) {
+    runGroovyCode(content, false);
+  }
+
+  private void runGroovyCode(final String content, boolean profile) {
     ConsoleComponent consoleComponent = gui.getConsoleComponent();
     final String title = getTitle();
     consoleComponent.running();
     try {
       File sourceFile = getFile();
-      if (sourceFile == null) {
+      if (profile) {
+        consoleComponent.runScriptProfiledAsync(content, title, this, sourceFile);
+      } else if (sourceFile == null) {
         consoleComponent.runScriptAsync(content, title, this);
       } else {
         consoleComponent.runScriptAsync(content, title, this, sourceFile);
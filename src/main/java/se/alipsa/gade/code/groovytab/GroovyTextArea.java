@@ -15,7 +15,6 @@ import se.alipsa.gade.code.CodeComponent;
 import se.alipsa.gade.code.CodeTextArea;
 import se.alipsa.gade.code.TextAreaTab;
 import se.alipsa.gade.code.completion.CompletionContext;
-import se.alipsa.gade.code.completion.CompletionItem;
 import se.alipsa.gade.code.completion.groovy.GroovyCompletionEngine;
 import se.alipsa.gade.code.completion.ClasspathScanner;
 import se.alipsa.gade.model.GroovyCodeHeader;
@@ -30,6 +29,9 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static se.alipsa.gade.code.groovytab.GroovySyntax.COMMENT_PATTERN;
+import static se.alipsa.gade.code.groovytab.GroovySyntax.PATTERN;
+import static se.alipsa.gade.code.groovytab.GroovySyntax.STRING_PATTERN;
 import static se.alipsa.gade.menu.GlobalOptions.ADD_IMPORTS;
 
 public class GroovyTextArea extends CodeTextArea {
@@ -89,66 +91,10 @@ public class GroovyTextArea extends CodeTextArea {
 
 
   ContextMenu suggestionsPopup = new ContextMenu();
-  private static final String[] KEYWORDS = new String[]{
-          "abstract", "as", "assert",
-          "boolean", "break", "byte",
-          "case", "catch", "char", "class", "const", "continue",
-          "def", "default", "do", "double",
-          "else", "enum", "extends",
-          "false", "final", "finally", "float", "for",
-          "goto", "@Grab",
-          "if", "implements", "import", "in", "instanceof", "int", "interface",
-          "long",
-          "native", "new", "null",
-          "package", "private", "protected", "public",
-          "return",
-          "short", "static", "strictfp", "super", "switch", "synchronized",
-          "this", "threadsafe", "throw", "throws",
-          "transient", "true", "try",
-          "var", "void", "volatile",
-          "while"
-  };
-
-  public static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
-  public static final String PAREN_PATTERN = "\\(|\\)";
-  public static final String BRACE_PATTERN = "\\{|\\}";
-  public static final String BRACKET_PATTERN = "\\[|\\]";
-  public static final String SEMICOLON_PATTERN = "\\;";
-  //private static final String STRING_PATTERN = "\"\"|''|\"[^\"]+\"|'[^']+'";
-  public static final String STRING_PATTERN =
-      // triple double
-      "\"\"\"[\\s\\S]*?\"\"\"" +
-          "|" +
-          // triple single
-          "'''[\\s\\S]*?'''" +
-          "|" +
-          // normal double w/ escapes
-          "\"(?:\\\\.|[^\"\\\\])*\"" +
-          "|" +
-          // normal single w/ escapes
-          "'(?:\\\\.|[^'\\\\])*'" +
-          "|" +
-          // slashy (lookbehind prevents division being treated as regex start)
-          "(?<![)\\]}\\w'\".])(?:/(?:\\\\/|[^/\\n])+/)"  +
-          "|" +
-          // dollar-slashy
-          "(?s)\\$/[\\s\\S]*?/\\$";
-  public static final String COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/";
-
   private static final Pattern COMMENT_OR_STRING = Pattern.compile(
       "(?<CMT>" + COMMENT_PATTERN + ")|(?<STR>" + STRING_PATTERN + ")"
   );
 
-  public static final Pattern PATTERN = Pattern.compile(
-      "(?<COMMENT>" + COMMENT_PATTERN + ")"
-          + "|(?<STRING>" + STRING_PATTERN + ")"
-          + "|(?<KEYWORD>" + KEYWORD_PATTERN + ")"
-          + "|(?<PAREN>" + PAREN_PATTERN + ")"
-          + "|(?<BRACE>" + BRACE_PATTERN + ")"
-          + "|(?<BRACKET>" + BRACKET_PATTERN + ")"
-          + "|(?<SEMICOLON>" + SEMICOLON_PATTERN + ")"
-  );
-
   public GroovyTextArea() {
   }
 
@@ -299,12 +245,8 @@ public class GroovyTextArea extends CodeTextArea {
           .classLoader(classLoader)
           .build();
 
-      // Use the new GroovyCompletionEngine
-      List<CompletionItem> items = GroovyCompletionEngine.getInstance().complete(context);
-
-      if (!items.isEmpty()) {
-        suggestCompletion(context, items, suggestionsPopup);
-      }
+      // Type resolution and the classpath scan can be slow, complete off the FX thread
+      requestCompletion(GroovyCompletionEngine.getInstance(), context, suggestionsPopup);
     }
   }
 
@@ -131,11 +131,9 @@ public class JsTab extends ExecutableTab {
       }
       gui.getConsoleComponent().promptAndScrollToEnd();
       consoleComponent.waiting();
-      taskEnded();
     });
 
     task.setOnFailed(e -> {
-      taskEnded();
       Throwable throwable = task.getException();
       Throwable ex = throwable.getCause();
       if (ex == null) {
@@ -145,6 +143,7 @@ public class JsTab extends ExecutableTab {
       ExceptionAlert.showAlert(ex.getMessage(), ex);
       gui.getConsoleComponent().promptAndScrollToEnd();
     });
-    consoleComponent.startTaskWhenOthersAreFinished(task, "javascript");
+    // the script engine is in process, it does not need to wait for the runtime process
+    consoleComponent.startTask("javascript", task, "javascript: " + title);
   }
 }
@@ -0,0 +1,352 @@
+package se.alipsa.gade.code.largefile;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.geometry.Orientation;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.KeyCode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.jetbrains.annotations.NotNull;
+import se.alipsa.gade.Gade;
+import se.alipsa.gade.code.CodeTextArea;
+import se.alipsa.gade.code.CodeType;
+import se.alipsa.gade.code.TextAreaTab;
+import se.alipsa.gade.utils.ExceptionAlert;
+import se.alipsa.gade.utils.TikaUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A read only viewer for files too large to be loaded into an editor.
+ * <p>
+ * The file is memory mapped (see {@link MappedTextFile}), the line index is built in the background and only a
+ * window of {@link #WINDOW_LINES} lines is decoded and shown at any time. The scroll bar to the right moves the window
+ * through the file.
+ */
+public class LargeFileTab extends TextAreaTab {
+
+  private static final Logger log = LogManager.getLogger(LargeFileTab.class);
+
+  /** Files larger than this (in MB) are opened in a LargeFileTab unless configured otherwise */
+  public static final int LARGE_FILE_THRESHOLD_MB_DEFAULT = 20;
+  static final int WINDOW_LINES = 1000;
+
+  private final LargeFileTextArea textArea;
+  private final ScrollBar windowScrollBar = new ScrollBar();
+  private final Label statusLabel = new Label();
+  private final TextField lineField = new TextField();
+  private final TextField searchField = new TextField();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "gade-largefile-reader");
+    t.setDaemon(true);
+    return t;
+  });
+  private MappedTextFile mappedFile;
+  private Task<Void> indexTask;
+  private Future<?> pendingRead;
+  private long firstLine;
+  private long searchFrom;
+  private boolean adjustingScrollBar;
+
+  public LargeFileTab(String title, Gade gui) {
+    super(gui, CodeType.TXT);
+    setTitle(title);
+    textArea = new LargeFileTextArea(this);
+    VirtualizedScrollPane<LargeFileTextArea> scrollPane = new VirtualizedScrollPane<>(textArea);
+    pane.setCenter(scrollPane);
+
+    windowScrollBar.setOrientation(Orientation.VERTICAL);
+    windowScrollBar.setMin(0);
+    windowScrollBar.setMax(0);
+    windowScrollBar.setUnitIncrement(WINDOW_LINES / 10d);
+    windowScrollBar.setBlockIncrement(WINDOW_LINES);
+    windowScrollBar.setTooltip(new Tooltip("Move through the file"));
+    windowScrollBar.valueProperty().addListener((obs, oldVal, newVal) -> {
+      if (!adjustingScrollBar) {
+        showWindow(newVal.longValue(), null);
+      }
+    });
+    pane.setRight(windowScrollBar);
+
+    Button previousButton = new Button("<");
+    previousButton.setTooltip(new Tooltip("Previous " + WINDOW_LINES + " lines"));
+    previousButton.setOnAction(a -> previousWindow());
+    Button nextButton = new Button(">");
+    nextButton.setTooltip(new Tooltip("Next " + WINDOW_LINES + " lines"));
+    nextButton.setOnAction(a -> nextWindow());
+
+    lineField.setPromptText("Go to line");
+    lineField.setPrefColumnCount(8);
+    lineField.setOnAction(a -> gotoLine());
+
+    searchField.setPromptText("Find");
+    searchField.setPrefColumnCount(20);
+    searchField.textProperty().addListener((obs, oldVal, newVal) -> searchFrom = 0);
+    Button findButton = new Button("Find next");
+    findButton.setOnAction(a -> findNext());
+    searchField.setOnKeyPressed(e -> {
+      if (e.getCode() == KeyCode.ENTER) {
+        findButton.fire();
+      }
+    });
+    buttonPane.getChildren().addAll(previousButton, nextButton, lineField, searchField, findButton, statusLabel);
+
+    setOnClosed(e -> {
+      close();
+      executor.shutdownNow();
+    });
+  }
+
+  /**
+   * @param file the file to check
+   * @param thresholdMb the size in MB above which a file is considered large
+   * @return true if the file should be opened in a LargeFileTab
+   */
+  public static boolean isLargeFile(File file, int thresholdMb) {
+    return file.isFile() && file.length() > thresholdMb * 1024L * 1024L;
+  }
+
+  @Override
+  public void loadFromFile(@NotNull File file) throws IOException {
+    close();
+    setFile(file);
+    Charset charset = TikaUtils.instance().detectCharset(file);
+    mappedFile = new MappedTextFile(file, charset);
+    firstLine = 0;
+    searchFrom = 0;
+    setScrollBar(0, 0);
+    startIndexing(mappedFile);
+    showWindow(0, null);
+  }
+
+  private void startIndexing(MappedTextFile mtf) {
+    indexTask = new Task<>() {
+      @Override
+      protected Void call() {
+        mtf.buildLineIndex(bytes -> updateProgress(bytes, mtf.size()));
+        return null;
+      }
+    };
+    indexTask.progressProperty().addListener((obs, oldVal, newVal) -> {
+      setScrollBar(firstLine, Math.max(0, mtf.getIndexedLines() - 1));
+      statusLabel.setText(String.format("Indexing... %.0f%%, %,d lines", newVal.doubleValue() * 100, mtf.getIndexedLines()));
+    });
+    indexTask.setOnSucceeded(e -> {
+      setScrollBar(firstLine, Math.max(0, mtf.getIndexedLines() - 1));
+      statusLabel.setText(describe(mtf));
+    });
+    indexTask.setOnFailed(e -> ExceptionAlert.showAlert("Failed to index " + mtf.getFile(), indexTask.getException()));
+    Thread thread = new Thread(indexTask, "gade-largefile-indexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private String describe(MappedTextFile mtf) {
+    return String.format("%,d lines, %,.1f MB, %s, read only", mtf.getIndexedLines(),
+        mtf.size() / (1024d * 1024d), mtf.getCharset().name());
+  }
+
+  private void setScrollBar(long value, long max) {
+    adjustingScrollBar = true;
+    windowScrollBar.setMax(max);
+    windowScrollBar.setValue(Math.min(value, max));
+    windowScrollBar.setVisibleAmount(max == 0 ? 1 : Math.max(1, Math.min(WINDOW_LINES, max / 50d)));
+    adjustingScrollBar = false;
+  }
+
+  /**
+   * Decode the window starting at the line in the background and show it.
+   *
+   * @param line zero based number of the first line of the window
+   * @param onShown called on the FX thread once the window is shown, may be null
+   */
+  private void showWindow(long line, Runnable onShown) {
+    MappedTextFile mtf = mappedFile;
+    if (mtf == null) {
+      return;
+    }
+    long start = Math.max(0, line);
+    if (pendingRead != null) {
+      pendingRead.cancel(false);
+    }
+    pendingRead = executor.submit(() -> {
+      String text = mtf.readLines(start, WINDOW_LINES);
+      Platform.runLater(() -> {
+        if (mtf != mappedFile) {
+          return;
+        }
+        firstLine = start;
+        textArea.replaceContentText(text, true);
+        textArea.moveTo(0);
+        textArea.requestFollowCaret();
+        setScrollBar(start, Math.max((long) windowScrollBar.getMax(), start));
+        if (onShown != null) {
+          onShown.run();
+        }
+      });
+    });
+  }
+
+  void nextWindow() {
+    if (mappedFile != null && (!mappedFile.isIndexComplete() || firstLine + WINDOW_LINES < mappedFile.getIndexedLines())) {
+      showWindow(firstLine + WINDOW_LINES, null);
+    }
+  }
+
+  void previousWindow() {
+    if (firstLine > 0) {
+      showWindow(Math.max(0, firstLine - WINDOW_LINES), () -> textArea.moveTo(textArea.getLength()));
+    }
+  }
+
+  private void gotoLine() {
+    long line;
+    try {
+      line = Long.parseLong(lineField.getText().trim().replace(",", "").replace(" ", "")) - 1;
+    } catch (NumberFormatException e) {
+      statusLabel.setText("Not a line number: " + lineField.getText());
+      return;
+    }
+    if (line < 0) {
+      line = 0;
+    }
+    if (mappedFile.isIndexComplete() && line >= mappedFile.getIndexedLines()) {
+      line = Math.max(0, mappedFile.getIndexedLines() - 1);
+    }
+    long target = line;
+    long windowStart = Math.max(0, target - WINDOW_LINES / 2);
+    showWindow(windowStart, () -> {
+      int paragraph = (int) (target - windowStart);
+      if (paragraph < textArea.getParagraphs().size()) {
+        textArea.moveTo(paragraph, 0);
+        textArea.selectParagraph();
+        textArea.requestFollowCaret();
+      }
+    });
+  }
+
+  /** Put the focus in the search field, used instead of the find dialog of the regular editors */
+  public void focusSearch() {
+    String selected = textArea.getSelectedText();
+    if (selected != null && !selected.isEmpty() && !selected.contains("\n")) {
+      searchField.setText(selected);
+    }
+    searchField.requestFocus();
+    searchField.selectAll();
+  }
+
+  private void findNext() {
+    String text = searchField.getText();
+    MappedTextFile mtf = mappedFile;
+    if (text == null || text.isEmpty() || mtf == null) {
+      return;
+    }
+    long from = searchFrom;
+    statusLabel.setText("Searching...");
+    Task<long[]> searchTask = new Task<>() {
+      @Override
+      protected long[] call() {
+        long offset = mtf.find(text, from);
+        if (offset < 0 && from > 0) {
+          // wrap around
+          offset = mtf.find(text, 0);
+        }
+        return offset < 0 ? null : new long[]{offset, mtf.lineOf(offset)};
+      }
+    };
+    searchTask.setOnSucceeded(e -> {
+      long[] result = searchTask.getValue();
+      if (result == null) {
+        statusLabel.setText("'" + text + "' not found");
+        return;
+      }
+      searchFrom = result[0] + 1;
+      long line = result[1];
+      long windowStart = Math.max(0, line - WINDOW_LINES / 2);
+      showWindow(windowStart, () -> {
+        statusLabel.setText("Found '" + text + "' on line " + String.format("%,d", line + 1));
+        selectInParagraph((int) (line - windowStart), text);
+      });
+    });
+    searchTask.setOnFailed(e -> ExceptionAlert.showAlert("Search failed", searchTask.getException()));
+    executor.submit(searchTask);
+  }
+
+  private void selectInParagraph(int paragraph, String text) {
+    if (paragraph >= textArea.getParagraphs().size()) {
+      return;
+    }
+    int col = textArea.getText(paragraph).indexOf(text);
+    textArea.moveTo(paragraph, Math.max(col, 0));
+    if (col >= 0) {
+      int start = textArea.getCaretPosition();
+      textArea.selectRange(start, start + text.length());
+    }
+    textArea.requestFollowCaret();
+  }
+
+  private void close() {
+    if (indexTask != null) {
+      indexTask.cancel();
+    }
+    if (mappedFile != null) {
+      try {
+        mappedFile.close();
+      } catch (IOException e) {
+        log.warn("Failed to close {}", mappedFile.getFile(), e);
+      }
+      mappedFile = null;
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public File getFile() {
+    return textArea.getFile();
+  }
+
+  @Override
+  public void setFile(File file) {
+    textArea.setFile(file);
+  }
+
+  @Override
+  public String getTextContent() {
+    return textArea.getTextContent();
+  }
+
+  @Override
+  public String getAllTextContent() {
+    return textArea.getAllTextContent();
+  }
+
+  @Override
+  public void replaceContentText(int start, int end, String content) {
+    textArea.replaceContentText(start, end, content);
+  }
+
+  @Override
+  public void replaceContentText(String content, boolean isReadFromFile) {
+    textArea.replaceContentText(content, isReadFromFile);
+  }
+
+  @Override
+  public CodeTextArea getCodeArea() {
+    return textArea;
+  }
+}
@@ -0,0 +1,38 @@
+package se.alipsa.gade.code.largefile;
+
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import se.alipsa.gade.code.CodeTextArea;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A read only text area showing the current window of a {@link LargeFileTab}. No syntax highlighting is done.
+ */
+public class LargeFileTextArea extends CodeTextArea {
+
+  public LargeFileTextArea(LargeFileTab parent) {
+    super.setParentTab(parent);
+    setEditable(false);
+
+    addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+      if (e.isControlDown() && KeyCode.F.equals(e.getCode())) {
+        parent.focusSearch();
+      } else if (KeyCode.PAGE_DOWN.equals(e.getCode()) && getCurrentParagraph() >= getParagraphs().size() - 1) {
+        parent.nextWindow();
+      } else if (KeyCode.PAGE_UP.equals(e.getCode()) && getCurrentParagraph() == 0) {
+        parent.previousWindow();
+      }
+    });
+  }
+
+  @Override
+  protected StyleSpans<Collection<String>> computeHighlighting(String text) {
+    StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+    spansBuilder.add(Collections.emptyList(), text.length());
+    return spansBuilder.create();
+  }
+}
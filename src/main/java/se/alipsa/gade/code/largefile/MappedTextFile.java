@@ -0,0 +1,309 @@
+package se.alipsa.gade.code.largefile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Read only, memory mapped access to a (potentially huge) text file.
+ * <p>
+ * The file is mapped in segments of {@link #SEGMENT_SIZE} bytes so files larger than 2 GB are supported.
+ * Lines are located through a sparse index holding the byte offset of every {@link #INDEX_INTERVAL}th line;
+ * the index is built by {@link #buildLineIndex(LongConsumer)}, typically from a background thread, and can be used
+ * while it is being built. Nothing but the requested window of lines is ever decoded into a String.
+ */
+public class MappedTextFile implements Closeable {
+
+  static final int SEGMENT_SIZE = 1 << 30;
+  static final int INDEX_INTERVAL = 1000;
+  /** Upper limit of bytes decoded for one window so that a file with very long lines cannot exhaust the heap */
+  public static final int MAX_WINDOW_BYTES = 8 * 1024 * 1024;
+
+  private final File file;
+  private final FileChannel channel;
+  private final MappedByteBuffer[] segments;
+  private final long size;
+  private final Charset charset;
+  private final byte[] newline;
+  private final int bomLength;
+
+  // Sparse line index, written by the indexing thread, read by the FX thread
+  private volatile long[] checkpoints = new long[1024];
+  private volatile int checkpointCount;
+  private volatile long indexedLines;
+  private volatile long indexedBytes;
+  private volatile boolean indexComplete;
+  private volatile boolean closed;
+
+  public MappedTextFile(File file, Charset charset) throws IOException {
+    this.file = file;
+    this.charset = charset;
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    size = channel.size();
+    int segmentCount = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    segments = new MappedByteBuffer[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      long start = (long) i * SEGMENT_SIZE;
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+    }
+    newline = encode("\n");
+    bomLength = detectBom();
+    checkpoints[0] = bomLength;
+    checkpointCount = 1;
+    indexedBytes = bomLength;
+  }
+
+  private int detectBom() {
+    if (size >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF) {
+      return 3;
+    }
+    if (size >= 2 && ((byteAt(0) == (byte) 0xFE && byteAt(1) == (byte) 0xFF)
+        || (byteAt(0) == (byte) 0xFF && byteAt(1) == (byte) 0xFE))) {
+      return 2;
+    }
+    return 0;
+  }
+
+  /**
+   * Encodes the text in the charset of the file, without the BOM that e.g. UTF-16 adds.
+   */
+  private byte[] encode(String text) {
+    byte[] bytes = text.getBytes(charset);
+    if (bytes.length >= 2 && ((bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF)
+        || (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE))) {
+      return Arrays.copyOfRange(bytes, 2, bytes.length);
+    }
+    return bytes;
+  }
+
+  byte byteAt(long pos) {
+    return segments[(int) (pos / SEGMENT_SIZE)].get((int) (pos % SEGMENT_SIZE));
+  }
+
+  private boolean isNewlineAt(long pos) {
+    if (pos + newline.length > size) {
+      return false;
+    }
+    for (int i = 0; i < newline.length; i++) {
+      if (byteAt(pos + i) != newline[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the offset just after the next newline at or after pos, or the file size if there is none
+   */
+  private long nextLineStart(long pos) {
+    int step = newline.length;
+    for (long p = pos; p < size; p += step) {
+      if (isNewlineAt(p)) {
+        return p + step;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Scans the whole file and records the offset of every {@link #INDEX_INTERVAL}th line.
+   *
+   * @param progress receives the number of bytes scanned so far, may be null
+   */
+  public void buildLineIndex(LongConsumer progress) {
+    long pos = indexedBytes;
+    long lines = indexedLines;
+    long lineStart = pos;
+    int step = newline.length;
+    long reportEvery = Math.max(size / 100, 1);
+    long nextReport = pos + reportEvery;
+    while (pos < size && !closed && !Thread.currentThread().isInterrupted()) {
+      boolean isNewline = step == 1 ? byteAt(pos) == newline[0] : isNewlineAt(pos);
+      pos += step;
+      if (isNewline) {
+        lines++;
+        lineStart = pos;
+        if (lines % INDEX_INTERVAL == 0) {
+          addCheckpoint(pos);
+          indexedLines = lines;
+          indexedBytes = pos;
+        }
+      }
+      if (progress != null && pos >= nextReport) {
+        progress.accept(pos);
+        nextReport = pos + reportEvery;
+      }
+    }
+    if (pos >= size) {
+      // A last line without a trailing newline is still a line
+      if (lineStart < size) {
+        lines++;
+      }
+      indexedLines = lines;
+      indexedBytes = size;
+      indexComplete = true;
+      if (progress != null) {
+        progress.accept(size);
+      }
+    }
+  }
+
+  private void addCheckpoint(long offset) {
+    // Readers read the count before the array so the array must be replaced before the count is increased
+    long[] current = checkpoints;
+    if (checkpointCount == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+      checkpoints = current;
+    }
+    current[checkpointCount] = offset;
+    checkpointCount = checkpointCount + 1;
+  }
+
+  /**
+   * @param line zero based line number
+   * @return the byte offset where the line starts (the file size if the line is beyond the end of the file)
+   */
+  public long lineStartOffset(long line) {
+    int count = checkpointCount;
+    long[] current = checkpoints;
+    int checkpoint = (int) Math.min(line / INDEX_INTERVAL, count - 1L);
+    long pos = current[checkpoint];
+    long currentLine = (long) checkpoint * INDEX_INTERVAL;
+    while (currentLine < line && pos < size) {
+      pos = nextLineStart(pos);
+      currentLine++;
+    }
+    return pos;
+  }
+
+  /**
+   * @param offset a byte offset in the file
+   * @return the zero based line number containing the offset
+   */
+  public long lineOf(long offset) {
+    int count = checkpointCount;
+    long[] current = checkpoints;
+    int idx = Arrays.binarySearch(current, 0, count, offset);
+    int checkpoint = idx >= 0 ? idx : Math.max(0, -idx - 2);
+    long pos = current[checkpoint];
+    long line = (long) checkpoint * INDEX_INTERVAL;
+    while (pos < size) {
+      long next = nextLineStart(pos);
+      if (next > offset) {
+        break;
+      }
+      pos = next;
+      line++;
+    }
+    return line;
+  }
+
+  /**
+   * Decodes a window of lines.
+   *
+   * @param firstLine zero based number of the first line
+   * @param lineCount the max number of lines to read
+   * @return the text of the lines (at most {@link #MAX_WINDOW_BYTES} bytes worth)
+   */
+  public String readLines(long firstLine, int lineCount) {
+    long start = lineStartOffset(firstLine);
+    long end = start;
+    for (int i = 0; i < lineCount && end < size && end - start < MAX_WINDOW_BYTES; i++) {
+      end = nextLineStart(end);
+    }
+    return decode(start, Math.min(end, start + MAX_WINDOW_BYTES));
+  }
+
+  private String decode(long start, long end) {
+    if (end <= start) {
+      return "";
+    }
+    byte[] bytes = new byte[(int) (end - start)];
+    int written = 0;
+    long pos = start;
+    while (pos < end) {
+      MappedByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)];
+      int segmentPos = (int) (pos % SEGMENT_SIZE);
+      int len = (int) Math.min(end - pos, SEGMENT_SIZE - segmentPos);
+      segment.get(segmentPos, bytes, written, len);
+      written += len;
+      pos += len;
+    }
+    return new String(bytes, charset);
+  }
+
+  /**
+   * Streams through the mapped file looking for the text.
+   *
+   * @param text the text to look for
+   * @param fromOffset the byte offset to start searching from
+   * @return the byte offset of the first match at or after fromOffset or -1 if not found
+   */
+  public long find(String text, long fromOffset) {
+    byte[] pattern = encode(text);
+    if (pattern.length == 0) {
+      return -1;
+    }
+    byte first = pattern[0];
+    long last = size - pattern.length;
+    // step a code unit at a time (2 bytes for UTF-16) so that a match never starts in the middle of a character
+    int step = newline.length;
+    long start = Math.max(fromOffset, bomLength);
+    start += Math.floorMod(bomLength - start, step);
+    for (long pos = start; pos <= last; pos += step) {
+      if (closed || Thread.currentThread().isInterrupted()) {
+        return -1;
+      }
+      if (byteAt(pos) != first) {
+        continue;
+      }
+      int i = 1;
+      while (i < pattern.length && byteAt(pos + i) == pattern[i]) {
+        i++;
+      }
+      if (i == pattern.length) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * @return the number of lines found so far, the total number of lines once {@link #isIndexComplete()}
+   */
+  public long getIndexedLines() {
+    return indexedLines;
+  }
+
+  public long getIndexedBytes() {
+    return indexedBytes;
+  }
+
+  public boolean isIndexComplete() {
+    return indexComplete;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    channel.close();
+  }
+}
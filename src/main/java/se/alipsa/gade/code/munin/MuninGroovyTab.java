@@ -76,7 +76,6 @@ public class MuninGroovyTab extends MuninTab {
       }
     };
     task.setOnSucceeded(e -> {
-      taskEnded();
       String result = task.getValue();
       if (result != null) {
         gui.getInoutComponent().viewHtmlWithBootstrap(result, getTitle());
@@ -85,7 +84,6 @@ public class MuninGroovyTab extends MuninTab {
       gui.setNormalCursor();
     });
     task.setOnFailed(e -> {
-      taskEnded();
       gui.setNormalCursor();
       Throwable throwable = task.getException();
       Throwable ex = throwable.getCause();
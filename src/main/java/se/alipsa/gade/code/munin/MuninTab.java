@@ -11,7 +11,6 @@ import javafx.scene.control.Tooltip;
 import javafx.scene.image.ImageView;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.eclipse.jgit.api.Git;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import se.alipsa.gade.Constants;
 import se.alipsa.gade.Gade;
@@ -27,7 +26,6 @@ import se.alipsa.gade.model.MuninReport;
 import se.alipsa.gade.model.ReportType;
 import se.alipsa.gade.utils.Alerts;
 import se.alipsa.gade.utils.ExceptionAlert;
-import se.alipsa.gade.utils.git.GitUtils;
 
 import java.io.File;
 import java.io.IOException;
@@ -129,11 +127,7 @@ public abstract class MuninTab extends TextAreaTab implements TaskListener {
     }
     try {
       saveFile(muninReport, file);
-      Git git = gui.getInoutComponent().getGit();
-      if(getTreeItem() != null && git != null) {
-        String path = GitUtils.asRelativePath(getFile(), gui.getInoutComponent().projectDir());
-        GitUtils.colorNode(git, path, getTreeItem());
-      }
+      gui.getInoutComponent().updateGitStatus(getFile());
     } catch (IOException e) {
       ExceptionAlert.showAlert("Failed to save file " + file, e);
     }
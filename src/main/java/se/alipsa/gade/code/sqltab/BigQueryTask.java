@@ -6,9 +6,10 @@ import javafx.application.Platform;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.Gade;
-import se.alipsa.gade.console.ScriptThread;
 import se.alipsa.gade.environment.connections.ConnectionException;
 import se.alipsa.gade.environment.connections.ConnectionHandler;
+import se.alipsa.gade.environment.connections.QueryResultCache;
+import se.alipsa.groovy.datautil.ConnectionInfo;
 import se.alipsa.matrix.bigquery.Bq;
 import se.alipsa.matrix.core.Matrix;
 
@@ -42,8 +43,26 @@ public class BigQueryTask extends QueryTask {
       log.warn("Multiple query statements detected, not sure how to handle this");
     }
     AtomicInteger queryCount = new AtomicInteger(1);
-    Bq bq = new Bq(connectionHandler.getConnectionInfo().getUrl());
-    Matrix table = bq.query(batchedQry[0]);
+    QueryResultCache cache = QueryResultCache.shared();
+    ConnectionInfo ci = connectionHandler.getConnectionInfo();
+    QueryResultCache.Hit hit = cache.get(ci, batchedQry[0], 0);
+    if (hit != null) {
+      ConnectionHandler.reportCachedResult(sqlTab.getTitle(), hit);
+      Platform.runLater(() ->
+          gui.getInoutComponent().viewTable(hit.result(), sqlTab.getTitle() + " " + queryCount.getAndIncrement() + ".")
+      );
+      return null;
+    }
+    Bq bq = new Bq(ci.getUrl());
+    Matrix table;
+    try {
+      table = bq.query(batchedQry[0]);
+    } finally {
+      if (!QueryResultCache.isCacheable(batchedQry[0])) {
+        cache.invalidate(ci);
+      }
+    }
+    cache.put(ci, batchedQry[0], 0, table);
     Platform.runLater(() ->
         gui.getInoutComponent().viewTable(table, sqlTab.getTitle() + " " + queryCount.getAndIncrement() + ".")
     );
@@ -1,12 +1,15 @@
 package se.alipsa.gade.code.sqltab;
 
-import java.sql.Connection;
+import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.console.CountDownTask;
-import se.alipsa.gade.console.ScriptThread;
 import se.alipsa.gade.environment.connections.ConnectionException;
 
 public abstract class QueryTask extends CountDownTask<Object> {
 
+  private static final Logger log = LogManager.getLogger(QueryTask.class);
+
   protected SqlTab sqlTab;
 
   public QueryTask(SqlTab taskListener) {
@@ -15,13 +18,18 @@ public abstract class QueryTask extends CountDownTask<Object> {
   }
 
   @Override
-  public ScriptThread createThread() {
-    SqlThread thread = new SqlThread(this, sqlTab);
-    thread.setDaemon(false);
-    return thread;
+  public void onInterrupt() {
+    try {
+      log.info("Cancelling query");
+      abort();
+      cancel(true);
+    } catch (ConnectionException e) {
+      log.warn("Failed to cancel query", e);
+    }
+    super.onInterrupt();
+    Platform.runLater(sqlTab::setNormalCursor);
+    log.info("Query interrupted, back to normal");
   }
 
   abstract void abort() throws ConnectionException;
-
-
 }
@@ -1,5 +1,7 @@
 package se.alipsa.gade.code.sqltab;
 
+import static se.alipsa.gade.menu.GlobalOptions.SQL_MAX_PARALLEL_QUERIES;
+
 import com.manticore.jsqlformatter.JSQLFormatter;
 import javafx.collections.FXCollections;
 import javafx.scene.Cursor;
@@ -15,6 +17,7 @@ import se.alipsa.gade.code.CodeTextArea;
 import se.alipsa.gade.code.CodeType;
 import se.alipsa.gade.code.ExecutableTab;
 import se.alipsa.gade.console.ConsoleComponent;
+import se.alipsa.gade.console.TaskScheduler;
 import se.alipsa.gade.environment.connections.ConnectionHandler;
 import se.alipsa.groovy.datautil.ConnectionInfo;
 import se.alipsa.gade.utils.Alerts;
@@ -32,6 +35,7 @@ public class SqlTab extends ExecutableTab {
   private final ComboBox<ConnectionInfo> connectionCombo;
 
   private final CheckBox keepConnectionOpenCheckBox;
+  private final CheckBox parallelCheckBox;
   private Connection con;
 
   private static final Logger log = LogManager.getLogger(SqlTab.class);
@@ -92,6 +96,12 @@ public class SqlTab extends ExecutableTab {
     keepConnectionOpenCheckBox = new CheckBox("Keep connection open");
     buttonPane.getChildren().add(keepConnectionOpenCheckBox);
 
+    parallelCheckBox = new CheckBox("Parallel selects");
+    parallelCheckBox.setTooltip(new Tooltip("Run the selects before the first statement that may change data at the "
+        + "same time,\non connections of their own (max connections in Global options).\n"
+        + "Results are shown as they complete, labelled with the statement number"));
+    buttonPane.getChildren().add(parallelCheckBox);
+
     keepConnectionOpenCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
       if (oldValue == true && newValue == false && con != null) {
         try {
@@ -165,10 +175,8 @@ public class SqlTab extends ExecutableTab {
     }
     setWaitCursor();
     final ConsoleComponent consoleComponent = getGui().getConsoleComponent();
-    // KNOWN LIMITATION: Cannot interrupt SQL query execution once started.
-    // Would require calling Statement.cancel() from another thread, but current architecture
-    // doesn't maintain a reference to the Statement object during execution.
-    // See v1.1 roadmap for potential implementation using AsyncTask with cancellation support.
+    // The query can be cancelled with the status button of the console, which cancels the running
+    // Statement (see QueryTask.onInterrupt), BigQuery queries cannot be cancelled yet.
     consoleComponent.running();
     StringBuilder parseMessage = new StringBuilder();
     // The parser will not be able to understand more complex queries in which case
@@ -191,7 +199,6 @@ public class SqlTab extends ExecutableTab {
     }
 
     task.setOnSucceeded(e -> {
-      taskEnded();
       setNormalCursor();
       consoleComponent.waiting();
       consoleComponent.addOutput("", "Success", true, true);
@@ -202,7 +209,6 @@ public class SqlTab extends ExecutableTab {
     });
 
     task.setOnFailed(e -> {
-      taskEnded();
       setNormalCursor();
       consoleComponent.waiting();
       Throwable exc = task.getException();
@@ -211,16 +217,24 @@ public class SqlTab extends ExecutableTab {
       String message = exc.getMessage() == null ? "" : "\n" + exc.getMessage();
       ExceptionAlert.showAlert("Query failed: " + clazz + message, exc );
     });
-    Thread scriptThread = new SqlThread(task, this);
-    scriptThread.setContextClassLoader(gui.getConsoleComponent().getSessionClassloader());
-    scriptThread.setDaemon(false);
-    consoleComponent.startTaskWhenOthersAreFinished(task, "sql");
+    // queries on the same connection run one after another, other connections and scripts are not blocked
+    consoleComponent.startTask(TaskScheduler.jdbcLane(ci.getName()), task, "sql: " + getTitle());
   }
 
   public boolean keepConnectionOpen() {
     return keepConnectionOpenCheckBox.isSelected();
   }
 
+  /**
+   * @return the max number of selects to run at the same time, 1 if parallel selects is not selected
+   */
+  public int maxParallelQueries() {
+    if (!parallelCheckBox.isSelected()) {
+      return 1;
+    }
+    return gui.getPrefs().getInt(SQL_MAX_PARALLEL_QUERIES, SqlTask.MAX_PARALLEL_DEFAULT);
+  }
+
   public void replaceSelectedContent(String content) {
     var indexArea = sqlTextArea.getSelection();
     replaceContentText(indexArea.getStart(), indexArea.getEnd(), content);
@@ -3,27 +3,49 @@ package se.alipsa.gade.code.sqltab;
 import static se.alipsa.gade.code.sqltab.SqlTab.PRINT_QUERY_LENGTH;
 
 import javafx.application.Platform;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.console.ConsoleComponent;
 import se.alipsa.gade.console.CountDownTask;
-import se.alipsa.gade.console.ScriptThread;
 import se.alipsa.gade.environment.connections.ConnectionException;
 import se.alipsa.gade.environment.connections.ConnectionHandler;
+import se.alipsa.gade.environment.connections.QueryResultCache;
 import se.alipsa.gade.utils.StringUtils;
 import se.alipsa.groovy.datautil.ConnectionInfo;
 import se.alipsa.matrix.core.Matrix;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SqlTask extends QueryTask {
 
+  private static final Logger log = LogManager.getLogger(SqlTask.class);
+  /** The default max number of selects run at the same time when running selects in parallel */
+  public static final int MAX_PARALLEL_DEFAULT = 4;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
   Statement statement;
+  /** The statements of the selects running in parallel, cancelled by abort */
+  private final Set<Statement> parallelStatements = ConcurrentHashMap.newKeySet();
   ConnectionHandler ch;
   Connection con;
   Gade gui;
   String[] batchedQry;
   boolean keepConnectionOpen;
+  int maxParallel;
   String title;
 
   public SqlTask(ConnectionHandler ch, Connection con, Gade gui, String[] batchedQry, SqlTab sqlTab) {
@@ -33,15 +55,48 @@ public class SqlTask extends QueryTask {
     this.gui = gui;
     this.batchedQry = batchedQry;
     this.keepConnectionOpen = sqlTab.keepConnectionOpen();
+    this.maxParallel = sqlTab.maxParallelQueries();
     this.title = sqlTab.getTitle();
   }
 
 
   @Override
   public Object execute() throws Exception {
+    QueryResultCache cache = QueryResultCache.shared();
+    ConnectionInfo ci = ch.getConnectionInfo();
+    AtomicInteger queryCount = new AtomicInteger(1);
+    int first = 0;
+    if (maxParallel > 1) {
+      List<Integer> selects = parallelSelects(batchedQry);
+      if (selects.size() > 1) {
+        executeParallel(selects, cache, ci);
+        first = selects.getLast() + 1;
+        while (first < batchedQry.length && batchedQry[first].isBlank()) {
+          first++;
+        }
+        // the statements after the selects are numbered by their place in the query as well
+        queryCount.set(first + 1);
+      }
+    }
+    // statements answered from the cache are not run, the connection is only opened for the ones that are not
+    for (; first < batchedQry.length; first++) {
+      String qry = batchedQry[first];
+      if (qry.isBlank()) {
+        continue;
+      }
+      QueryResultCache.Hit hit = cache.get(ci, qry, 0);
+      if (hit == null) {
+        break;
+      }
+      showCachedResult(hit, queryCount);
+    }
+    if (first == batchedQry.length) {
+      return con;
+    }
     if (con == null) {
       con = ch.connect();
     }
+    boolean modified = false;
     try {
       if (con == null) {
         throw new Exception("Failed to establish a connection");
@@ -50,16 +105,25 @@ public class SqlTask extends QueryTask {
       con.setAutoCommit(false);
       con.setHoldability(ResultSet.HOLD_CURSORS_OVER_COMMIT);
 
-      AtomicInteger queryCount = new AtomicInteger(1);
       try (Statement stm = con.createStatement()) {
         statement = stm;
-        for (String qry : batchedQry) {
+        for (int i = first; i < batchedQry.length; i++) {
+          String qry = batchedQry[i];
           if (qry.isBlank()) {
             continue;
           }
+          boolean cacheable = QueryResultCache.isCacheable(qry);
+          // results cached before a statement that may change data are not used for the rest of the batch
+          QueryResultCache.Hit hit = modified || i == first ? null : cache.get(ci, qry, 0);
+          if (hit != null) {
+            showCachedResult(hit, queryCount);
+            continue;
+          }
+          modified |= !cacheable;
           //log.info("{}. Executing SQL: {}", stmCount++, qry);
           boolean hasMoreResultSets;
           hasMoreResultSets = statement.execute(qry);
+          boolean firstResult = true;
           int capLen = Math.min(qry.length(), PRINT_QUERY_LENGTH);
           String queryCapture = StringUtils.fixedLengthString(qry.substring(0, capLen).trim(), PRINT_QUERY_LENGTH);
 
@@ -70,6 +134,10 @@ public class SqlTask extends QueryTask {
               try (ResultSet rs = statement.getResultSet()) {
                 printWarnings("resultset", rs.getWarnings());
                 Matrix table = Matrix.builder().data(rs).build();
+                if (cacheable && firstResult) {
+                  cache.put(ci, qry, 0, table);
+                }
+                firstResult = false;
                 Platform.runLater(() ->
                     gui.getInoutComponent().viewTable(table, title + " " + queryCount.getAndIncrement() + ".")
                 );
@@ -106,6 +174,10 @@ public class SqlTask extends QueryTask {
       }
       throw e;
     } finally {
+      // also drops what was cached after the change, it might not have been committed
+      if (modified) {
+        cache.invalidate(ci);
+      }
       if (con != null) {
         if (!keepConnectionOpen) {
           con.close();
@@ -116,6 +188,147 @@ public class SqlTask extends QueryTask {
     return con;
   }
 
+  /**
+   * The selects before the first statement that may change data do not depend on each other and can run at the
+   * same time.
+   *
+   * @param statements the statements of the query
+   * @return the indexes of the non blank statements before the first one that may change data
+   */
+  static List<Integer> parallelSelects(String[] statements) {
+    List<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < statements.length; i++) {
+      if (statements[i].isBlank()) {
+        continue;
+      }
+      if (!QueryResultCache.isCacheable(statements[i])) {
+        break;
+      }
+      indexes.add(i);
+    }
+    return indexes;
+  }
+
+  /** @return the label of the result of the statement at index, the statements are numbered from 1 */
+  static String resultLabel(String title, int index) {
+    return title + " " + (index + 1) + ".";
+  }
+
+  /**
+   * Run selects at the same time on up to maxParallel connections of their own, outside the transaction of the
+   * tab connection. The results are shown as they complete, labelled with the number of the statement.
+   *
+   * @param indexes the indexes of the selects in batchedQry
+   */
+  private void executeParallel(List<Integer> indexes, QueryResultCache cache, ConnectionInfo ci) throws Exception {
+    List<Integer> toRun = new ArrayList<>();
+    for (int i : indexes) {
+      QueryResultCache.Hit hit = cache.get(ci, batchedQry[i], 0);
+      if (hit == null) {
+        toRun.add(i);
+      } else {
+        ConnectionHandler.reportCachedResult(title, hit);
+        showResult(hit.result(), i);
+      }
+    }
+    if (toRun.isEmpty()) {
+      return;
+    }
+    int threads = Math.min(maxParallel, toRun.size());
+    BlockingQueue<Connection> pool = new ArrayBlockingQueue<>(threads);
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "gade-sql-query-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    List<Connection> connections = new ArrayList<>(threads);
+    try {
+      // connect on this thread, resolving the driver is not thread safe
+      for (int i = 0; i < threads; i++) {
+        Connection c = ch.connect();
+        if (c == null) {
+          throw new Exception("Failed to establish a connection");
+        }
+        connections.add(c);
+        pool.add(c);
+      }
+      log.debug("Running {} selects on {} connections", toRun.size(), threads);
+      CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+      for (int i : toRun) {
+        completion.submit(() -> {
+          Connection c = pool.take();
+          try {
+            executeSelect(c, i, cache, ci);
+          } finally {
+            pool.add(c);
+          }
+          return i;
+        });
+      }
+      for (int n = 0; n < toRun.size(); n++) {
+        completion.take().get();
+      }
+    } catch (ExecutionException e) {
+      // the others are cancelled below
+      throw e.getCause() instanceof Exception cause ? cause : e;
+    } finally {
+      for (Statement stm : parallelStatements) {
+        try {
+          stm.cancel();
+        } catch (SQLException e) {
+          log.debug("Failed to cancel statement", e);
+        }
+      }
+      executor.shutdownNow();
+      try {
+        // the selects still use the connections until they have stopped
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          log.warn("Selects did not stop within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      for (Connection c : connections) {
+        try {
+          c.close();
+        } catch (SQLException e) {
+          log.warn("Failed to close connection", e);
+        }
+      }
+    }
+  }
+
+  private void executeSelect(Connection c, int index, QueryResultCache cache, ConnectionInfo ci) throws SQLException {
+    String qry = batchedQry[index];
+    try (Statement stm = c.createStatement()) {
+      parallelStatements.add(stm);
+      try (ResultSet rs = stm.executeQuery(qry)) {
+        printWarnings("resultset", rs.getWarnings());
+        Matrix table = Matrix.builder().data(rs).build();
+        cache.put(ci, qry, 0, table);
+        showResult(table, index);
+      } catch (SQLException e) {
+        throw new SQLException("Statement " + (index + 1) + " failed: " + e.getMessage(), e.getSQLState(),
+            e.getErrorCode(), e);
+      } finally {
+        parallelStatements.remove(stm);
+      }
+      printWarnings("statement", stm.getWarnings());
+    }
+  }
+
+  private void showResult(Matrix table, int index) {
+    Platform.runLater(() -> gui.getInoutComponent().viewTable(table, resultLabel(title, index)));
+  }
+
+  private void showCachedResult(QueryResultCache.Hit hit, AtomicInteger queryCount) {
+    ConnectionHandler.reportCachedResult(title, hit);
+    Platform.runLater(() ->
+        gui.getInoutComponent().viewTable(hit.result(), title + " " + queryCount.getAndIncrement() + ".")
+    );
+  }
+
   private void printWarnings(String context, SQLWarning warning) {
     final ConsoleComponent consoleComponent = gui.getConsoleComponent();
     while (warning != null) {
@@ -134,6 +347,13 @@ public class SqlTask extends QueryTask {
   }
 
   public void abort() throws ConnectionException {
+    for (Statement stm : parallelStatements) {
+      try {
+        stm.cancel();
+      } catch (SQLException e) {
+        throw new ConnectionException("Failed to cancel statement", e);
+      }
+    }
     if (statement != null) {
       try {
         statement.cancel();
@@ -1,6 +1,9 @@
 package se.alipsa.gade.console;
 
 import static se.alipsa.gade.Constants.*;
+import static se.alipsa.gade.menu.GlobalOptions.RUNNER_GC_ALERT_PERCENT;
+import static se.alipsa.gade.menu.GlobalOptions.RUNNER_HEAP_ALERT_PERCENT;
+import static se.alipsa.gade.menu.GlobalOptions.SHOW_EVAL_METRICS;
 
 import groovy.lang.GroovyClassLoader;
 import javafx.application.Platform;
@@ -21,16 +24,24 @@ import org.apache.logging.log4j.Logger;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.TaskListener;
+import se.alipsa.gade.runtime.BindingSummary;
+import se.alipsa.gade.runtime.EvalResult;
 import se.alipsa.gade.runtime.RuntimeConfig;
+import se.alipsa.gade.runtime.RuntimeProcessRunner;
 import se.alipsa.gade.runtime.RuntimeType;
 import se.alipsa.gade.environment.EnvironmentComponent;
 import se.alipsa.gade.utils.Alerts;
+import se.alipsa.gade.utils.ClasspathCacheManager;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gade.utils.FileUtils;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class ConsoleComponent extends BorderPane {
@@ -50,13 +61,16 @@ public class ConsoleComponent extends BorderPane {
   // Extracted runtime management
   private final GroovyRuntimeManager runtimeManager;
 
-  // Thread management
-  private ScriptThread runningThread;
-  private final Map<Thread, String> threadMap = new HashMap<>();
+  // Background tasks, one lane per resource
+  private final TaskScheduler scheduler;
+  private final EvalMetricsHistory evalMetricsHistory = new EvalMetricsHistory();
+  private final RunnerHealthMonitor healthMonitor;
+  private final RunnerHealthGauge healthGauge;
 
   public ConsoleComponent(Gade gui) {
     this.gui = gui;
     this.runtimeManager = new GroovyRuntimeManager(gui);
+    this.scheduler = new TaskScheduler(runtimeManager::getClassLoader);
     console = new ConsoleTextArea(gui);
     console.setEditable(false);
 
@@ -75,7 +89,13 @@ public class ConsoleComponent extends BorderPane {
     statusButton.setGraphic(runningView);
     waiting();
 
-    topPane.getChildren().addAll(statusButton, clearButton);
+    healthMonitor = new RunnerHealthMonitor(
+        gui.getPrefs().getInt(RUNNER_HEAP_ALERT_PERCENT, RunnerHealthMonitor.HEAP_ALERT_PERCENT_DEFAULT),
+        gui.getPrefs().getInt(RUNNER_GC_ALERT_PERCENT, RunnerHealthMonitor.GC_ALERT_PERCENT_DEFAULT));
+    healthGauge = new RunnerHealthGauge(healthMonitor, console::appendWarningFx, this::showHeapHistogram);
+    runtimeManager.setHealthListener(healthGauge::update);
+
+    topPane.getChildren().addAll(statusButton, clearButton, healthGauge);
     setTop(topPane);
 
     VirtualizedScrollPane<ConsoleTextArea> vPane = new VirtualizedScrollPane<>(console);
@@ -95,6 +115,7 @@ public class ConsoleComponent extends BorderPane {
       return;
     }
     running();
+    healthGauge.reset();
     Task<Void> initTask = new Task<>() {
       @Override
       protected Void call() throws Exception {
@@ -171,19 +192,19 @@ public class ConsoleComponent extends BorderPane {
         log.warn("Failed to interrupt process runner", e);
       }
     }
-    if (runningThread != null && runningThread.isAlive()) {
+    if (scheduler.isBusy()) {
       console.appendFx("\nInterrupting process...", true);
       Task<Void> task = new Task<>() {
         @Override
         protected Void call() {
-          runningThread.interrupt();
+          int cancelled = scheduler.cancelAll();
+          log.info("Cancelled {} tasks", cancelled);
           sleep(2000);
           return null;
         }
       };
       task.setOnSucceeded(e -> {
         console.appendFx("Process stopped!", false);
-        threadMap.remove(runningThread);
         Platform.runLater(() -> console.appendText("\n>"));
         gui.setNormalCursor();
         waiting();
@@ -253,15 +274,61 @@ public class ConsoleComponent extends BorderPane {
     }
   }
 
+  /**
+   * Make the dependencies of a {@code @Grab} header available to scripts. The runner remembers headers it has
+   * resolved so unchanged headers cost nothing, see {@link se.alipsa.gade.runner.GrabCache}.
+   *
+   * @param header the {@code @Grab} lines of the script
+   * @param sourceFile the file of the script (decides whether the test context is used), may be null
+   * @return true if the dependencies are available, false if the runtime is not ready
+   */
+  public boolean grabDependencies(String header, File sourceFile) throws Exception {
+    if (runtimeManager.getActiveRuntime() == null || runtimeManager.getProcessRunner() == null) {
+      return false;
+    }
+    runtimeManager.grabDependencies(header, runtimeManager.resolveTestContextForSource(sourceFile));
+    return true;
+  }
+
   public Object fetchVar(String varName) {
     return runtimeManager.fetchVar(varName);
   }
 
+  /**
+   * @param varName the name of the variable
+   * @param path a path into the variable, e.g. {@code customers[3].orders}
+   * @return the value at the path or null if it could not be fetched
+   */
+  public Object fetchVar(String varName, String path) {
+    return runtimeManager.fetchVar(varName, path);
+  }
+
+  /**
+   * Fetch a page of a variable as typed data, see {@link se.alipsa.gade.runner.VarEncoder} for the format.
+   */
+  public Map<String, Object> fetchVarPage(String varName, String path, int offset, int limit, int maxChars)
+      throws Exception {
+    return runtimeManager.fetchVarPage(varName, path, offset, limit, maxChars);
+  }
+
   public void runScriptAsync(String script, String title, TaskListener taskListener) {
     runScriptAsync(script, title, taskListener, null);
   }
 
   public void runScriptAsync(String script, String title, TaskListener taskListener, File sourceFile) {
+    runScriptAsync(script, title, taskListener, sourceFile, false);
+  }
+
+  /**
+   * Run a script with a JDK Flight Recorder recording in the runner. The recording is saved in ~/.gade/cache/profiles
+   * and a summary of it (hot methods, allocations and lock contention) is shown in the viewer.
+   */
+  public void runScriptProfiledAsync(String script, String title, TaskListener taskListener, File sourceFile) {
+    runScriptAsync(script, title, taskListener, sourceFile, true);
+  }
+
+  private void runScriptAsync(String script, String title, TaskListener taskListener, File sourceFile,
+                              boolean profile) {
     running();
     boolean testContext = runtimeManager.resolveTestContextForSource(sourceFile);
 
@@ -269,7 +336,11 @@ public class ConsoleComponent extends BorderPane {
       @Override
       public Void execute() throws Exception {
         try {
-          executeScriptAndReport(script, title, testContext);
+          if (profile) {
+            executeProfiled(script, title, testContext);
+          } else {
+            executeScriptAndReport(script, title, testContext);
+          }
         } catch (RuntimeException e) {
           log.debug("Exception caught, rethrowing as wrapped Exception");
           throw new Exception(e);
@@ -279,13 +350,11 @@ public class ConsoleComponent extends BorderPane {
     };
 
     task.setOnSucceeded(e -> {
-      taskListener.taskEnded();
       waiting();
       updateEnvironment();
       promptAndScrollToEnd();
     });
     task.setOnFailed(e -> {
-      taskListener.taskEnded();
       waiting();
       updateEnvironment();
       Throwable throwable = task.getException();
@@ -321,14 +390,89 @@ public class ConsoleComponent extends BorderPane {
       env.addInputHistory(script);
     });
     try {
-      runtimeManager.getProcessRunner().eval(script,
+      EvalResult result = runtimeManager.getProcessRunner().evalWithMetrics(script,
           ScriptExecutionHelper.prepareRunnerBindings(null, gui.guiInteractions), testContext).get();
       Platform.runLater(() -> env.addOutputHistory(""));
+      if (result.metrics() != null) {
+        EvalMetricsHistory.Entry entry = evalMetricsHistory.add(title, script, result.metrics());
+        log.debug("{}: {}", title, entry.summary());
+        if (gui.getPrefs().getBoolean(SHOW_EVAL_METRICS, false)) {
+          Platform.runLater(() -> console.appendWithStyle(entry.summary(), "info", true));
+        }
+      }
     } catch (Exception e) {
       throw new Exception(e.getMessage(), e);
     }
   }
 
+  private void executeProfiled(String script, String title, boolean testContext) throws Exception {
+    RuntimeProcessRunner runner = runtimeManager.getProcessRunner();
+    if (runner == null) {
+      executeScriptAndReport(script, title, testContext);
+      return;
+    }
+    runner.startProfiling().get();
+    Path jfrFile;
+    try {
+      executeScriptAndReport(script, title, testContext);
+    } finally {
+      // stop the recording also when the script fails, the profile of a failing script is still useful
+      jfrFile = stopProfiling(runner, title);
+    }
+    if (jfrFile == null) {
+      return;
+    }
+    ProfileSummary summary = ProfileSummary.read(jfrFile, ProfileSummary.DEFAULT_TOP);
+    Platform.runLater(() -> {
+      console.appendWithStyle("Profile saved to " + jfrFile, "info", true);
+      gui.getInoutComponent().viewHtmlWithBootstrap(summary.toHtml(), "Profile " + title);
+    });
+  }
+
+  private Path stopProfiling(RuntimeProcessRunner runner, String title) {
+    String name = title.replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+        + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".jfr";
+    try {
+      Path target = ClasspathCacheManager.getCacheDir().toPath().resolve("profiles").resolve(name);
+      Files.createDirectories(target.getParent());
+      return runner.stopProfiling(target).get();
+    } catch (Exception e) {
+      log.warn("Failed to stop profiling of {}", title, e);
+      return null;
+    }
+  }
+
+  /**
+   * @param heapAlertPercent warn when the runner heap is above this percentage of the max heap, 0 for never
+   * @param gcAlertPercent warn when the runner spends more than this percentage of its time in GC, 0 for never
+   */
+  public void setRunnerHealthAlerts(int heapAlertPercent, int gcAlertPercent) {
+    healthMonitor.setThresholds(heapAlertPercent, gcAlertPercent);
+  }
+
+  /**
+   * Show a class histogram of the runner heap in the viewer.
+   */
+  public void showHeapHistogram() {
+    RuntimeProcessRunner runner = runtimeManager.getProcessRunner();
+    if (runner == null) {
+      Alerts.warnFx("Engine has not started yet", "There is no runner to get a heap histogram from");
+      return;
+    }
+    try {
+      runner.heapHistogram().whenComplete((histogram, e) -> Platform.runLater(() -> {
+        if (e != null) {
+          ExceptionAlert.showAlert("Failed to get a heap histogram from the runner", e);
+        } else {
+          gui.getInoutComponent().viewHtml("<pre>" + histogram.replace("&", "&amp;").replace("<", "&lt;")
+              .replace(">", "&gt;") + "</pre>", "Heap histogram");
+        }
+      }));
+    } catch (IOException e) {
+      ExceptionAlert.showAlert("Failed to get a heap histogram from the runner", e);
+    }
+  }
+
   public void addExternalMessage(String title, String content, boolean addPrompt, boolean addNewLine) {
     if (title != null && !title.isEmpty()) {
       console.appendWithStyle(title, "info", addNewLine);
@@ -414,13 +558,24 @@ public class ConsoleComponent extends BorderPane {
       String msg = ScriptExecutionHelper.createMessageFromEvalException(ex);
       ExceptionAlert.showAlert(msg + ex.getMessage(), ex);
     });
-    startTaskWhenOthersAreFinished(task, "updateEnvironment");
+    // a refresh that is already waiting will see the result of this run as well
+    scheduler.submit(TaskScheduler.RUNNER_LANE, "updateEnvironment", "updateEnvironment", task);
   }
 
-  public Map<String, Object> getContextObjects() {
+  public Map<String, BindingSummary> getContextObjects() {
     return runtimeManager.getContextObjects();
   }
 
+  /**
+   * Render the full text of a variable in the session, used when the summary in the environment view is not enough.
+   *
+   * @param varName the name of the variable
+   * @param maxChars the maximum length of the text returned
+   */
+  public String renderVar(String varName, int maxChars) throws Exception {
+    return runtimeManager.renderVar(varName, maxChars);
+  }
+
   private void refreshPackages() {
     try {
       gui.getInoutComponent().setPackages(Collections.emptyList());
@@ -435,7 +590,7 @@ public class ConsoleComponent extends BorderPane {
   public void running() {
     Platform.runLater(() -> {
       runningView.setImage(IMG_RUNNING);
-      statusButton.setTooltip(new Tooltip("Process is running, click to abort"));
+      statusButton.setTooltip(statusTooltip("Process is running, click to abort"));
       showTooltip(statusButton);
       gui.getMainMenu().enableInterruptMenuItem();
     });
@@ -448,11 +603,22 @@ public class ConsoleComponent extends BorderPane {
   public void waiting() {
     Platform.runLater(() -> {
       runningView.setImage(IMG_WAITING);
-      statusButton.setTooltip(new Tooltip("Engine is idle"));
+      statusButton.setTooltip(statusTooltip("Engine is idle"));
       gui.getMainMenu().disableInterruptMenuItem();
     });
   }
 
+  /** A tooltip with the status followed by the queue depth and latencies of each task lane when it is shown */
+  private Tooltip statusTooltip(String status) {
+    Tooltip tooltip = new Tooltip(status);
+    tooltip.setOnShowing(e -> {
+      StringBuilder text = new StringBuilder(status);
+      getTaskStats().forEach(stats -> text.append('\n').append(stats.summary()));
+      tooltip.setText(text.toString());
+    });
+    return tooltip;
+  }
+
   private void showTooltip(Control control) {
     Tooltip customTooltip = control.getTooltip();
     Stage owner = gui.getStage();
@@ -508,31 +674,38 @@ public class ConsoleComponent extends BorderPane {
     return runtimeManager.getActiveRuntime();
   }
 
-  public void startTaskWhenOthersAreFinished(CountDownTask<?> task, String context) {
-    ScriptThread thread = task.createThread();
-    thread.setContextClassLoader(runtimeManager.getClassLoader());
-    if (runningThread == null) {
-      log.debug("Starting thread {}", context);
-      thread.start();
-    } else if (runningThread.getState() == Thread.State.WAITING || runningThread.getState() == Thread.State.TIMED_WAITING) {
-      log.info("Previous thread {} is in {} state, starting new thread",
-          threadMap.get(runningThread), runningThread.getState());
-      thread.start();
-    } else if (runningThread.isAlive() && runningThread.getState() != Thread.State.TERMINATED) {
-      log.warn("There is already a process running: {} in state {}, Overriding existing running thread",
-          threadMap.get(runningThread), runningThread.getState());
-      thread.start();
-    } else {
-      if (runningThread.getState() == Thread.State.NEW) {
-        log.error("Running thread {} is created but not started, this is bug that should be fixed", runningThread);
-      } else if (runningThread.getState() != Thread.State.TERMINATED) {
-        log.error("Missed some condition, running thread {} is {}", threadMap.get(runningThread), runningThread.getState());
-      }
-      thread.start();
-    }
-    threadMap.remove(runningThread);
-    runningThread = thread;
-    threadMap.put(thread, context);
+  /**
+   * Run the task when the tasks that use the runtime process and were started before it have finished.
+   *
+   * @param task the task to run
+   * @param context a description of the task used in log messages
+   * @return the ticket that can be used to cancel the task
+   */
+  public TaskScheduler.Ticket startTaskWhenOthersAreFinished(CountDownTask<?> task, String context) {
+    return startTask(TaskScheduler.RUNNER_LANE, task, context);
+  }
+
+  /**
+   * Run the task when the tasks in the same lane that were started before it have finished.
+   *
+   * @param lane the resource the task uses, e.g. {@link TaskScheduler#jdbcLane(String)}
+   * @param task the task to run
+   * @param context a description of the task used in log messages
+   * @return the ticket that can be used to cancel the task
+   */
+  public TaskScheduler.Ticket startTask(String lane, CountDownTask<?> task, String context) {
+    // the task listener is told when the task gets its turn and when it has ended, see CountDownTask
+    return scheduler.submit(lane, context, task);
+  }
+
+  /** @return the metrics of the latest script runs */
+  public EvalMetricsHistory getEvalMetricsHistory() {
+    return evalMetricsHistory;
+  }
+
+  /** @return the queue depth and latency statistics of the background tasks, shown in the status tooltip */
+  public List<TaskScheduler.LaneStats> getTaskStats() {
+    return scheduler.stats();
   }
 
   /**
@@ -1,11 +1,12 @@
 package se.alipsa.gade.console;
 
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 import se.alipsa.gade.TaskListener;
 
 import java.util.concurrent.CountDownLatch;
 
-public abstract class CountDownTask<V> extends Task<V> {
+public abstract class CountDownTask<V> extends Task<V> implements TaskScheduler.Job {
   CountDownLatch countDownLatch;
   protected TaskListener taskListener;
 
@@ -23,5 +24,25 @@ public abstract class CountDownTask<V> extends Task<V> {
 
   public abstract V execute() throws Exception;
 
-  public abstract ScriptThread createThread();
+  /** Tell the listener that the task has started, it might have waited for its turn in the lane since submitted */
+  @Override
+  public void onStart() {
+    if (taskListener != null) {
+      Platform.runLater(taskListener::taskStarted);
+    }
+  }
+
+  /** Tell the listener that the task has ended, after the succeeded / failed handlers have run */
+  @Override
+  public void onEnd() {
+    if (taskListener != null) {
+      Platform.runLater(taskListener::taskEnded);
+    }
+  }
+
+  /** The task was cancelled while waiting for its turn, it never started so the listener is not notified */
+  @Override
+  public void onDiscard() {
+    cancel(false);
+  }
 }
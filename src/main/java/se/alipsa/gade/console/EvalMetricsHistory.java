@@ -0,0 +1,132 @@
+package se.alipsa.gade.console;
+
+import se.alipsa.gade.runner.EvalMetrics;
+import se.alipsa.matrix.core.Matrix;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The metrics of the latest script runs. Each run is compared with the previous run of the same script so that a
+ * script that suddenly got slower stands out.
+ * <p><b>Thread-Safety:</b> This class is thread-safe.</p>
+ */
+public class EvalMetricsHistory {
+
+  public static final int DEFAULT_CAPACITY = 500;
+  /** A change in wall time smaller than this (in percent) is not mentioned in the summary */
+  static final double NOTABLE_CHANGE_PERCENT = 20;
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  /**
+   * One script run.
+   *
+   * @param run the sequence number of the run
+   * @param time when the run ended
+   * @param title the title of the run, typically the file name
+   * @param scriptHash identifies the script text
+   * @param metrics the metrics reported by the runner
+   * @param wallChangePercent the change in wall time compared with the previous run of the same script, null if
+   *                          this is the first run of the script
+   */
+  public record Entry(int run, LocalDateTime time, String title, int scriptHash, EvalMetrics metrics,
+                      Double wallChangePercent) {
+
+    /**
+     * @return the metrics summary, with the change in wall time if it is notable
+     */
+    public String summary() {
+      String summary = metrics.summary();
+      if (wallChangePercent != null && Math.abs(wallChangePercent) >= NOTABLE_CHANGE_PERCENT) {
+        summary += String.format(Locale.ROOT, " (%+.0f%% wall time vs previous run)", wallChangePercent);
+      }
+      return summary;
+    }
+  }
+
+  private final int capacity;
+  private final Deque<Entry> entries = new ArrayDeque<>();
+  private int runs;
+
+  public EvalMetricsHistory() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public EvalMetricsHistory(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add the metrics of a run, the oldest run is dropped when the history is full.
+   *
+   * @return the entry of the run
+   */
+  public synchronized Entry add(String title, String script, EvalMetrics metrics) {
+    int hash = script == null ? 0 : script.hashCode();
+    Double change = null;
+    for (Iterator<Entry> it = entries.descendingIterator(); it.hasNext(); ) {
+      Entry previous = it.next();
+      if (previous.scriptHash() == hash) {
+        long before = previous.metrics().wallMillis();
+        change = before <= 0 ? null : (metrics.wallMillis() - before) * 100.0 / before;
+        break;
+      }
+    }
+    Entry entry = new Entry(++runs, LocalDateTime.now(), title, hash, metrics, change);
+    entries.addLast(entry);
+    while (entries.size() > capacity) {
+      entries.removeFirst();
+    }
+    return entry;
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return List.copyOf(entries);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * @return the history as a table, newest run first
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public Matrix toMatrix() {
+    List<Entry> snapshot = getEntries();
+    List<List<Object>> rows = new ArrayList<>();
+    for (int i = snapshot.size() - 1; i >= 0; i--) {
+      Entry e = snapshot.get(i);
+      EvalMetrics m = e.metrics();
+      List<Object> row = new ArrayList<>();
+      row.add(e.run());
+      row.add(TIME_FORMAT.format(e.time()));
+      row.add(e.title());
+      row.add(m.wallMillis());
+      row.add(e.wallChangePercent() == null ? null : Math.round(e.wallChangePercent() * 10) / 10.0);
+      row.add(m.cpuMillis());
+      row.add(m.processCpuMillis());
+      row.add(m.allocatedBytes() < 0 ? null : Math.round(m.allocatedBytes() / 1024.0 / 1024.0 * 10) / 10.0);
+      row.add(m.gcCount());
+      row.add(m.gcMillis());
+      row.add(Math.round(m.peakHeapBytes() / 1024.0 / 1024.0 * 10) / 10.0);
+      row.add(m.guiBlockedMillis());
+      rows.add(row);
+    }
+    List<Class> types = List.of(Integer.class, String.class, String.class, Long.class, Double.class, Long.class,
+        Long.class, Double.class, Long.class, Long.class, Double.class, Long.class);
+    return Matrix.builder()
+        .matrixName("Eval metrics")
+        .columnNames(new String[]{"Run", "Time", "Script", "Wall ms", "Wall change %", "CPU ms", "Process CPU ms",
+            "Allocated MB", "GC count", "GC ms", "Peak heap MB", "GUI ms"})
+        .rows((List) rows)
+        .types(types)
+        .build();
+  }
+}
@@ -7,13 +7,16 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.Constants;
 import se.alipsa.gade.Gade;
+import se.alipsa.gade.runtime.BindingSummary;
 import se.alipsa.gade.runtime.RuntimeClassLoaderFactory;
 import se.alipsa.gade.runtime.RuntimeConfig;
 import se.alipsa.gade.runtime.RuntimeManager;
 import se.alipsa.gade.runtime.RuntimeProcessRunner;
 import se.alipsa.gade.runtime.RuntimeSelectionDialog;
 import se.alipsa.gade.runtime.RuntimeType;
+import se.alipsa.gade.runtime.VarDecoder;
 import se.alipsa.gade.runner.GadeRunnerMain;
+import se.alipsa.gade.runner.RunnerHealth;
 import se.alipsa.gade.utils.Alerts;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gade.utils.FileUtils;
@@ -28,6 +31,7 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -45,9 +49,11 @@ import java.util.stream.Collectors;
  * @see ConsoleComponent
  * @see RuntimeProcessRunner
  */
-final class GroovyRuntimeManager {
+public final class GroovyRuntimeManager {
 
   private static final Logger log = LogManager.getLogger(GroovyRuntimeManager.class);
+  private static final int FETCH_PAGE_SIZE = 10_000;
+  private static final int FETCH_PAGE_CHARS = 1_000_000;
 
   private final Gade gui;
   private final RuntimeClassLoaderFactory runtimeClassLoaderFactory;
@@ -57,6 +63,16 @@ final class GroovyRuntimeManager {
   private Set<Path> testSourceDirectories = Set.of();
   private String cachedGroovyVersion;
   private RuntimeProcessRunner processRunner;
+  private volatile Consumer<RunnerHealth> healthListener;
+  private final Map<String, BindingSummary> environment = new HashMap<>();
+  private RuntimeProcessRunner environmentRunner;
+  private long environmentRunnerStarts;
+  private final Set<String> grabbedHeaders = new HashSet<>();
+  private RuntimeProcessRunner grabbedRunner;
+  private long grabbedRunnerStarts;
+  private final SessionSnapshots sessionSnapshots = new SessionSnapshots(SessionSnapshots.defaultDir());
+  /** The project dir the current runner was started for */
+  private File runnerProjectDir;
 
   /**
    * Creates a new runtime manager.
@@ -105,6 +121,16 @@ final class GroovyRuntimeManager {
     RuntimeConfig targetRuntime = runtime;
     boolean retriedWithGade = false;
     boolean corruptionFixAttempted = false;
+    // keep the variables of the current runner (it is stopped below) unless another project is opened
+    File newProjectDir = gui.getInoutComponent() != null ? gui.getInoutComponent().projectDir() : null;
+    Path snapshot = null;
+    if (Objects.equals(newProjectDir, runnerProjectDir)) {
+      snapshot = sessionSnapshots.save(processRunner,
+          gui.getPrefs().getInt(se.alipsa.gade.menu.GlobalOptions.SESSION_SNAPSHOT_MAX_MB,
+              SessionSnapshots.MAX_MB_DEFAULT),
+          gui.getPrefs().getInt(se.alipsa.gade.menu.GlobalOptions.SESSION_SNAPSHOT_MAX_VARIABLE_MB,
+              SessionSnapshots.MAX_VARIABLE_MB_DEFAULT), console);
+    }
     while (true) {
       try {
         if (gui.getInoutComponent() == null) {
@@ -128,10 +154,13 @@ final class GroovyRuntimeManager {
             buildGroovyBootstrapEntries(targetRuntime),
             dependencyEntries.mainEntries(), dependencyEntries.testEntries(),
             console, gui.guiInteractions, projectDir);
+        processRunner.setHealthListener(healthListener);
+        runnerProjectDir = projectDir;
 
         activeRuntime = targetRuntime;
         testSourceDirectories = resolveTestSourceDirectories(targetRuntime);
         cachedGroovyVersion = null; // clear cached value since the runtime just changed
+        sessionSnapshots.restore(processRunner, snapshot, console);
         return null;
 
       } catch (Exception ex) {
@@ -303,6 +332,33 @@ final class GroovyRuntimeManager {
     }
   }
 
+  /**
+   * The runner {@code -cp} entries of the GADE runtime, resolved without a gui, e.g. for the headless batch runner.
+   *
+   * @return the classpath of a runner process with the bundled Groovy
+   */
+  public static List<String> gadeRunnerClassPath() {
+    return new GroovyRuntimeManager(null)
+        .buildClassPathEntries(new RuntimeConfig(RuntimeManager.RUNTIME_GADE, RuntimeType.GADE));
+  }
+
+  /**
+   * The main scope dependencies and output dirs of a Gradle project, resolved without a gui. Groovy and Ivy jars are
+   * left out since the runner of the GADE runtime has its own.
+   *
+   * @param projectDir the dir with the build.gradle
+   * @return the dependency paths for the runner script classloader
+   */
+  public static List<String> gradleProjectDependencies(File projectDir) throws Exception {
+    GradleUtils gradleUtils = new GradleUtils(null, projectDir, null);
+    List<URL> urls = new ArrayList<>();
+    for (File dependency : gradleUtils.getProjectDependencies()) {
+      urls.add(dependency.toURI().toURL());
+    }
+    urls.addAll(gradleUtils.getOutputDirs());
+    return new ArrayList<>(new GroovyRuntimeManager(null).collectNonGroovyDependencyEntries(urls.toArray(new URL[0])));
+  }
+
   /**
    * Builds the JVM {@code -cp} entries for subprocess execution.
    * <p>
@@ -693,7 +749,7 @@ final class GroovyRuntimeManager {
    */
   private File resolveLibDir() {
     try {
-      URL gadeLocation = gui.getClass().getProtectionDomain().getCodeSource().getLocation();
+      URL gadeLocation = Gade.class.getProtectionDomain().getCodeSource().getLocation();
       if (gadeLocation != null) {
         File gadeFile = Paths.get(gadeLocation.toURI()).toFile();
         File parentDir = gadeFile.isDirectory() ? gadeFile : gadeFile.getParentFile();
@@ -1026,6 +1082,17 @@ final class GroovyRuntimeManager {
     return activeRuntime;
   }
 
+  /**
+   * @param listener gets the heartbeats of the current runner and of the runners started after a restart
+   */
+  void setHealthListener(Consumer<RunnerHealth> listener) {
+    healthListener = listener;
+    RuntimeProcessRunner runner = processRunner;
+    if (runner != null) {
+      runner.setHealthListener(listener);
+    }
+  }
+
   RuntimeProcessRunner getProcessRunner() {
     return processRunner;
   }
@@ -1040,39 +1107,121 @@ final class GroovyRuntimeManager {
     log.debug("removeVariableFromSession: {} (subprocess manages bindings per-eval)", varName);
   }
 
-  Map<String, Object> getContextObjects() {
-    log.info("getContextObjects");
+  /**
+   * Update the cached summaries of the variables in the runner with the changes since the last call.
+   *
+   * @return summaries of all variables, sorted by name
+   */
+  Map<String, BindingSummary> getContextObjects() {
+    log.debug("getContextObjects");
     if (activeRuntime == null) {
       log.warn("No active runtime when fetching context objects");
       return Collections.emptyMap();
     }
-    if (processRunner == null) {
+    RuntimeProcessRunner runner = processRunner;
+    if (runner == null) {
       log.warn("Process runner is not available when fetching bindings for {}", activeRuntime.getName());
       return Collections.emptyMap();
     }
-    try {
-      Map<String, String> bindings = processRunner.fetchBindings().get();
-      return new HashMap<>(bindings);
-    } catch (Exception e) {
-      log.debug("Failed to get bindings from process runner", e);
-      return Collections.emptyMap();
+    synchronized (environment) {
+      try {
+        // a new runner (or a restarted process) knows nothing about what we have, so start over
+        boolean full = environmentRunner != runner;
+        RuntimeProcessRunner.BindingsDelta delta = runner.fetchBindingSummary(full).get();
+        long starts = runner.getStartCount();
+        if (full || starts != environmentRunnerStarts) {
+          environment.clear();
+          environmentRunner = runner;
+          environmentRunnerStarts = starts;
+        }
+        delta.removed().forEach(environment::remove);
+        environment.putAll(delta.changed());
+        return new TreeMap<>(environment);
+      } catch (Exception e) {
+        log.debug("Failed to get binding summaries from process runner", e);
+        environmentRunner = null;
+        return Collections.emptyMap();
+      }
+    }
+  }
+
+  /**
+   * Render the full text of a variable (up to maxChars characters).
+   */
+  String renderVar(String varName, int maxChars) throws Exception {
+    RuntimeProcessRunner runner = processRunner;
+    if (runner == null) {
+      throw new IllegalStateException("Process runner is not available when rendering var " + varName);
+    }
+    return runner.renderVar(varName, maxChars).get();
+  }
+
+  /**
+   * Make sure the dependencies of the {@code @Grab} header are available in the runner. Headers that the current
+   * runner process has already handled are skipped without a round trip.
+   */
+  void grabDependencies(String header, boolean testContext) throws Exception {
+    RuntimeProcessRunner runner = processRunner;
+    if (runner == null) {
+      throw new IllegalStateException("Process runner is not available");
+    }
+    String key = testContext + "\n" + header;
+    synchronized (grabbedHeaders) {
+      if (grabbedRunner != runner || grabbedRunnerStarts != runner.getStartCount()) {
+        grabbedHeaders.clear();
+        grabbedRunner = runner;
+        grabbedRunnerStarts = runner.getStartCount();
+      }
+      if (grabbedHeaders.contains(key)) {
+        return;
+      }
+    }
+    String outcome = runner.grabDependencies(header, testContext).get();
+    log.debug("Grab header {}", outcome);
+    synchronized (grabbedHeaders) {
+      if (grabbedRunner == runner && grabbedRunnerStarts == runner.getStartCount()) {
+        grabbedHeaders.add(key);
+      }
     }
   }
 
   Object fetchVar(String varName) {
-    if (processRunner == null) {
+    return fetchVar(varName, null);
+  }
+
+  /**
+   * Fetch a variable (or a path into it, e.g. {@code customers[3].orders}) from the runner as typed data, page by
+   * page, without transferring anything else in the session.
+   *
+   * @return the value or null if it could not be fetched
+   */
+  Object fetchVar(String varName, String path) {
+    RuntimeProcessRunner runner = processRunner;
+    if (runner == null) {
       log.warn("Process runner is not available when fetching var {}", varName);
       return null;
     }
     try {
-      Map<String, String> bindings = processRunner.fetchBindings().get();
-      return bindings.get(varName);
+      return VarDecoder.fetchAll(offset -> runner.fetchVar(varName, path, offset, FETCH_PAGE_SIZE,
+          FETCH_PAGE_CHARS).get(), Integer.MAX_VALUE);
     } catch (Exception e) {
       log.debug("Failed to fetch var {}", varName, e);
       return null;
     }
   }
 
+  /**
+   * Fetch one page of a variable, for tools that show large values piece by piece.
+   * See {@link se.alipsa.gade.runner.VarEncoder} for the format.
+   */
+  Map<String, Object> fetchVarPage(String varName, String path, int offset, int limit, int maxChars) throws Exception {
+    RuntimeProcessRunner runner = processRunner;
+    if (runner == null) {
+      throw new IllegalStateException("Process runner is not available when fetching var " + varName);
+    }
+    return runner.fetchVar(varName, path, offset, limit, maxChars).get();
+  }
+
   /**
    * Functional interface for silent script execution.
    */
@@ -10,11 +10,4 @@ public abstract class GroovyTask extends CountDownTask<Void> {
   public GroovyTask(TaskListener taskListener) {
     super(taskListener);
   }
-
-  @Override
-  public ScriptThread createThread() {
-    ScriptThread thread = new ScriptThread(this, taskListener);
-    thread.setDaemon(false);
-    return thread;
-  }
 }
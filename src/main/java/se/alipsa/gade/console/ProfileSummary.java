@@ -0,0 +1,214 @@
+package se.alipsa.gade.console;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A summary of a JDK Flight Recorder recording of a script run: the hot methods (from execution samples), the
+ * allocation hotspots (from allocation samples) and lock contention (contended monitor enters and thread parks).
+ * Everything is read locally from the .jfr file.
+ * <p>
+ * Allocations and waits are attributed to the first frame outside of the JDK since the top frame (e.g.
+ * {@code ArrayList.grow} or {@code LockSupport.park}) says little about which code in the script caused them.
+ *
+ * @param file the recording
+ * @param duration the time between the first and the last event
+ * @param executionSamples the number of execution samples
+ * @param selfTime methods by the number of samples where they were at the top of the stack
+ * @param totalTime methods by the number of samples where they were anywhere on the stack
+ * @param allocations allocated type and allocating frame by the (estimated) number of bytes allocated
+ * @param contention contended monitors and parks by the time spent waiting, in milliseconds
+ */
+public record ProfileSummary(Path file, Duration duration, long executionSamples, List<Row> selfTime,
+                             List<Row> totalTime, List<Row> allocations, List<Row> contention) {
+
+  public static final int DEFAULT_TOP = 25;
+
+  /**
+   * One line of a summary table.
+   *
+   * @param name the method, type or lock
+   * @param value the samples, bytes or milliseconds
+   * @param count the number of events
+   */
+  public record Row(String name, long value, long count) {
+  }
+
+  private static final class Counter {
+    long value;
+    long count;
+
+    void add(long v) {
+      value += v;
+      count++;
+    }
+  }
+
+  /**
+   * Read a recording.
+   *
+   * @param file the .jfr file
+   * @param top the max number of rows in each table
+   */
+  public static ProfileSummary read(Path file, int top) throws IOException {
+    Map<String, Counter> self = new HashMap<>();
+    Map<String, Counter> total = new HashMap<>();
+    Map<String, Counter> allocations = new HashMap<>();
+    Map<String, Counter> contention = new HashMap<>();
+    long samples = 0;
+    Instant first = null;
+    Instant last = null;
+    try (RecordingFile recording = new RecordingFile(file)) {
+      while (recording.hasMoreEvents()) {
+        RecordedEvent event = recording.readEvent();
+        String type = event.getEventType().getName();
+        if (first == null || event.getStartTime().isBefore(first)) {
+          first = event.getStartTime();
+        }
+        if (last == null || event.getEndTime().isAfter(last)) {
+          last = event.getEndTime();
+        }
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        List<RecordedFrame> frames = stackTrace == null ? List.of() : stackTrace.getFrames();
+        switch (type) {
+          case "jdk.ExecutionSample" -> {
+            if (frames.isEmpty()) {
+              continue;
+            }
+            samples++;
+            self.computeIfAbsent(methodName(frames.get(0)), k -> new Counter()).add(1);
+            Set<String> onStack = new HashSet<>();
+            for (RecordedFrame frame : frames) {
+              // recursive methods count once per sample
+              String name = methodName(frame);
+              if (onStack.add(name)) {
+                total.computeIfAbsent(name, k -> new Counter()).add(1);
+              }
+            }
+          }
+          case "jdk.ObjectAllocationSample" -> {
+            RecordedClass objectClass = event.getClass("objectClass");
+            String name = (objectClass == null ? "?" : objectClass.getName()) + " in " + userFrame(frames);
+            allocations.computeIfAbsent(name, k -> new Counter()).add(event.getLong("weight"));
+          }
+          case "jdk.JavaMonitorEnter" -> {
+            RecordedClass monitorClass = event.getClass("monitorClass");
+            String name = "lock " + (monitorClass == null ? "?" : monitorClass.getName()) + " in "
+                + userFrame(frames);
+            contention.computeIfAbsent(name, k -> new Counter()).add(event.getDuration().toMillis());
+          }
+          case "jdk.ThreadPark" -> {
+            RecordedClass parkedClass = event.getClass("parkedClass");
+            String name = "park" + (parkedClass == null ? "" : " on " + parkedClass.getName()) + " in "
+                + userFrame(frames);
+            contention.computeIfAbsent(name, k -> new Counter()).add(event.getDuration().toMillis());
+          }
+          default -> {
+            // not part of the summary
+          }
+        }
+      }
+    }
+    Duration duration = first == null ? Duration.ZERO : Duration.between(first, last);
+    return new ProfileSummary(file, duration, samples, top(self, top), top(total, top), top(allocations, top),
+        top(contention, top));
+  }
+
+  private static List<Row> top(Map<String, Counter> counters, int top) {
+    List<Row> rows = new ArrayList<>();
+    counters.forEach((name, c) -> rows.add(new Row(name, c.value, c.count)));
+    rows.sort(Comparator.comparingLong(Row::value).reversed().thenComparing(Row::name));
+    return rows.size() > top ? List.copyOf(rows.subList(0, top)) : rows;
+  }
+
+  private static String methodName(RecordedFrame frame) {
+    RecordedMethod method = frame.getMethod();
+    if (method == null) {
+      return "?";
+    }
+    return method.getType().getName() + "." + method.getName();
+  }
+
+  /** @return the first frame that is not JDK code, with its line number */
+  static String userFrame(List<RecordedFrame> frames) {
+    for (RecordedFrame frame : frames) {
+      String name = methodName(frame);
+      if (!isJdk(name)) {
+        int line = frame.getLineNumber();
+        return line > 0 ? name + ":" + line : name;
+      }
+    }
+    return frames.isEmpty() ? "?" : methodName(frames.get(0));
+  }
+
+  private static boolean isJdk(String name) {
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("jdk.")
+        || name.startsWith("sun.") || name.startsWith("com.sun.");
+  }
+
+  /**
+   * @return the summary as html tables (with bootstrap classes)
+   */
+  public String toHtml() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<div class='container-fluid'>");
+    sb.append("<h4>Profile</h4><p>").append(escape(file.toString())).append("<br/>")
+        .append(String.format(Locale.ROOT, "%.1f s, %d execution samples", duration.toMillis() / 1000.0,
+            executionSamples))
+        .append("</p>");
+    table(sb, "Hot methods (self)", "Samples", selfTime, true);
+    table(sb, "Hot methods (total)", "Samples", totalTime, true);
+    table(sb, "Allocation hotspots", "MB (est.)", allocations, false);
+    table(sb, "Lock contention", "ms", contention, false);
+    sb.append("</div>");
+    return sb.toString();
+  }
+
+  private void table(StringBuilder sb, String title, String valueHeader, List<Row> rows, boolean percentOfSamples) {
+    sb.append("<h5>").append(title).append("</h5>");
+    if (rows.isEmpty()) {
+      sb.append("<p>No events recorded</p>");
+      return;
+    }
+    sb.append("<table class='table table-sm table-striped'><thead><tr><th>")
+        .append(percentOfSamples ? "Method" : "Where").append("</th><th>").append(valueHeader).append("</th><th>")
+        .append(percentOfSamples ? "%" : "Events").append("</th></tr></thead><tbody>");
+    for (Row row : rows) {
+      sb.append("<tr><td>").append(escape(row.name())).append("</td><td>");
+      if ("MB (est.)".equals(valueHeader)) {
+        sb.append(String.format(Locale.ROOT, "%.1f", row.value() / 1024.0 / 1024.0));
+      } else {
+        sb.append(row.value());
+      }
+      sb.append("</td><td>");
+      if (percentOfSamples) {
+        sb.append(String.format(Locale.ROOT, "%.1f", executionSamples == 0 ? 0 : row.value() * 100.0 / executionSamples));
+      } else {
+        sb.append(row.count());
+      }
+      sb.append("</td></tr>");
+    }
+    sb.append("</tbody></table>");
+  }
+
+  private static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+}
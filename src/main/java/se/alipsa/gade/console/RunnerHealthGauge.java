@@ -0,0 +1,111 @@
+package se.alipsa.gade.console;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.geometry.Pos;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import javafx.util.Duration;
+import se.alipsa.gade.runner.RunnerHealth;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A small gauge of the runner health next to the console buttons: heap used of max, thread count and GC load.
+ * The bar turns red when the heap is above the alert threshold and the gauge says so when the heartbeat stops
+ * arriving. Right click for a heap histogram.
+ */
+class RunnerHealthGauge extends HBox {
+
+  private static final String ALERT_STYLE = "-fx-accent: #d9534f;";
+
+  private final RunnerHealthMonitor monitor;
+  private final Consumer<String> alertHandler;
+  private final ProgressBar heapBar = new ProgressBar(0);
+  private final Label label = new Label("runner: -");
+  private final Tooltip tooltip = new Tooltip("No heartbeat from the runner yet");
+  private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+  /**
+   * @param monitor the alert thresholds and latest heartbeat
+   * @param alertHandler called on the FX thread with each new alert
+   * @param histogramAction called when a heap histogram is requested
+   */
+  RunnerHealthGauge(RunnerHealthMonitor monitor, Consumer<String> alertHandler, Runnable histogramAction) {
+    super(5);
+    this.monitor = monitor;
+    this.alertHandler = alertHandler;
+    setAlignment(Pos.CENTER_LEFT);
+    heapBar.setPrefWidth(70);
+    label.setTooltip(tooltip);
+    Tooltip.install(heapBar, tooltip);
+    MenuItem histogramItem = new MenuItem("Heap histogram");
+    histogramItem.setOnAction(e -> histogramAction.run());
+    ContextMenu contextMenu = new ContextMenu(histogramItem);
+    setOnContextMenuRequested(e -> contextMenu.show(this, e.getScreenX(), e.getScreenY()));
+    getChildren().addAll(heapBar, label);
+
+    // notices a heartbeat that stopped arriving
+    Timeline staleCheck = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+    staleCheck.setCycleCount(Timeline.INDEFINITE);
+    staleCheck.play();
+  }
+
+  /**
+   * Add a heartbeat, may be called from any thread. The gauge is updated at most once per FX pulse.
+   */
+  void update(RunnerHealth health) {
+    List<String> alerts = monitor.update(health, System.currentTimeMillis());
+    if (!alerts.isEmpty()) {
+      Platform.runLater(() -> alerts.forEach(alertHandler));
+    }
+    if (updateScheduled.compareAndSet(false, true)) {
+      Platform.runLater(() -> {
+        updateScheduled.set(false);
+        refresh();
+      });
+    }
+  }
+
+  /**
+   * Clear the gauge, e.g. when the runner is restarted.
+   */
+  void reset() {
+    monitor.reset();
+    refresh();
+  }
+
+  private void refresh() {
+    RunnerHealth health = monitor.getLast();
+    if (health == null) {
+      heapBar.setProgress(0);
+      heapBar.setStyle("");
+      label.setText("runner: -");
+      tooltip.setText("No heartbeat from the runner yet");
+      return;
+    }
+    long now = System.currentTimeMillis();
+    double heapPercent = health.heapUsedPercent();
+    heapBar.setProgress(heapPercent < 0 ? ProgressBar.INDETERMINATE_PROGRESS : heapPercent / 100);
+    heapBar.setStyle(monitor.isHeapAlert() ? ALERT_STYLE : "");
+    String text = String.format(Locale.ROOT, "%.0f MB, %d thr", health.heapUsed() / 1024.0 / 1024.0,
+        health.threadCount());
+    double gcPercent = monitor.getGcPercent();
+    if (gcPercent >= 1) {
+      text += String.format(Locale.ROOT, ", gc %.0f%%", gcPercent);
+    }
+    if (monitor.isStale(now, RunnerHealth.DEFAULT_HEARTBEAT_MILLIS)) {
+      text += String.format(Locale.ROOT, " (no heartbeat for %d s)", monitor.millisSinceLast(now) / 1000);
+    }
+    label.setText(text);
+    tooltip.setText("Runner " + health.summary() + "\nRight click for a heap histogram");
+  }
+}
@@ -0,0 +1,146 @@
+package se.alipsa.gade.console;
+
+import se.alipsa.gade.runner.RunnerHealth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the heartbeats of the runner into alerts: the heap is close to the max (the script is about to run out of
+ * memory), the runner spends most of its time in GC, or the heartbeat stopped arriving.
+ * <p>
+ * An alert is raised once when its threshold is crossed and is raised again only after the value has dropped well
+ * below the threshold, so a script hovering around the threshold does not flood the console.
+ * <p><b>Thread-Safety:</b> This class is thread-safe.</p>
+ */
+public class RunnerHealthMonitor {
+
+  public static final int HEAP_ALERT_PERCENT_DEFAULT = 85;
+  public static final int GC_ALERT_PERCENT_DEFAULT = 50;
+  /** A heartbeat older than this many intervals means the runner is not responding */
+  static final int STALE_INTERVALS = 5;
+  /** How far below the threshold (in percentage points) the heap must drop before the alert is raised again */
+  private static final double HEAP_REARM_MARGIN = 10;
+
+  private int heapAlertPercent;
+  private int gcAlertPercent;
+  private RunnerHealth last;
+  private long lastMillis;
+  private double gcPercent;
+  private boolean heapAlerted;
+  private boolean gcAlerted;
+
+  public RunnerHealthMonitor() {
+    this(HEAP_ALERT_PERCENT_DEFAULT, GC_ALERT_PERCENT_DEFAULT);
+  }
+
+  public RunnerHealthMonitor(int heapAlertPercent, int gcAlertPercent) {
+    setThresholds(heapAlertPercent, gcAlertPercent);
+  }
+
+  /**
+   * @param heapAlertPercent alert when the heap used is at least this percentage of the max heap, 0 turns it off
+   * @param gcAlertPercent alert when at least this percentage of the time between two heartbeats was spent in GC,
+   *                       0 turns it off
+   */
+  public synchronized void setThresholds(int heapAlertPercent, int gcAlertPercent) {
+    this.heapAlertPercent = heapAlertPercent;
+    this.gcAlertPercent = gcAlertPercent;
+  }
+
+  public synchronized int getHeapAlertPercent() {
+    return heapAlertPercent;
+  }
+
+  /**
+   * Add a heartbeat.
+   *
+   * @param health the heartbeat
+   * @param nowMillis the time it arrived
+   * @return the alerts raised by this heartbeat, empty if none
+   */
+  public synchronized List<String> update(RunnerHealth health, long nowMillis) {
+    List<String> alerts = new ArrayList<>();
+    long interval = nowMillis - lastMillis;
+    if (last != null && health.gcCount() >= last.gcCount() && nowMillis > lastMillis) {
+      gcPercent = Math.min(100, (health.gcMillis() - last.gcMillis()) * 100.0 / interval);
+    } else {
+      // first heartbeat or a new runner
+      gcPercent = 0;
+    }
+    last = health;
+    lastMillis = nowMillis;
+
+    double heapPercent = health.heapUsedPercent();
+    if (heapAlertPercent > 0 && heapPercent >= heapAlertPercent) {
+      if (!heapAlerted) {
+        heapAlerted = true;
+        alerts.add(String.format(Locale.ROOT,
+            "Runner heap is at %.0f%% of max (%.0f of %.0f MB), the script may run out of memory", heapPercent,
+            health.heapUsed() / 1024.0 / 1024.0, health.heapMax() / 1024.0 / 1024.0));
+      }
+    } else if (heapPercent < heapAlertPercent - HEAP_REARM_MARGIN) {
+      heapAlerted = false;
+    }
+
+    if (gcAlertPercent > 0 && gcPercent >= gcAlertPercent) {
+      if (!gcAlerted) {
+        gcAlerted = true;
+        alerts.add(String.format(Locale.ROOT,
+            "Runner spent %.0f%% of the last %.1f s in garbage collection, the heap is probably too small",
+            gcPercent, interval / 1000.0));
+      }
+    } else if (gcPercent < gcAlertPercent / 2.0) {
+      gcAlerted = false;
+    }
+    return alerts;
+  }
+
+  /**
+   * @return the latest heartbeat or null if none has arrived
+   */
+  public synchronized RunnerHealth getLast() {
+    return last;
+  }
+
+  /**
+   * @return the percentage of the time between the two latest heartbeats that was spent in GC
+   */
+  public synchronized double getGcPercent() {
+    return gcPercent;
+  }
+
+  /**
+   * @return true if the latest heartbeat is at or above the heap alert threshold
+   */
+  public synchronized boolean isHeapAlert() {
+    return last != null && heapAlertPercent > 0 && last.heapUsedPercent() >= heapAlertPercent;
+  }
+
+  /**
+   * @param nowMillis the current time
+   * @param intervalMillis the heartbeat interval
+   * @return true if heartbeats have arrived but not for a while
+   */
+  public synchronized boolean isStale(long nowMillis, long intervalMillis) {
+    return last != null && nowMillis - lastMillis > STALE_INTERVALS * intervalMillis;
+  }
+
+  /**
+   * @return the milliseconds since the latest heartbeat, -1 if none has arrived
+   */
+  public synchronized long millisSinceLast(long nowMillis) {
+    return last == null ? -1 : nowMillis - lastMillis;
+  }
+
+  /**
+   * Forget the heartbeats, e.g. when the runner is restarted.
+   */
+  public synchronized void reset() {
+    last = null;
+    gcPercent = 0;
+    heapAlerted = false;
+    gcAlerted = false;
+  }
+}
@@ -0,0 +1,175 @@
+package se.alipsa.gade.console;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.runtime.RuntimeProcessRunner;
+import se.alipsa.gade.runtime.RuntimeProcessRunner.SessionSnapshotResult;
+import se.alipsa.gade.utils.ClasspathCacheManager;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the variables of the session when the runner is restarted (Restart session, another runtime or a changed
+ * classpath): the old runner saves them to a snapshot in the Gade cache dir before it is stopped, and the new runner
+ * restores them, reading each variable from the snapshot when it is first used.
+ * <p>
+ * Only data is kept, see {@link se.alipsa.gade.runner.SessionSnapshot}. The console lists the variables that were
+ * not kept and why.
+ */
+public final class SessionSnapshots {
+
+  private static final Logger log = LogManager.getLogger(SessionSnapshots.class);
+  /** The default max size of a snapshot in MB, 0 turns snapshots off so a restart gives a clean session */
+  public static final int MAX_MB_DEFAULT = 0;
+  public static final int MAX_VARIABLE_MB_DEFAULT = 1024;
+  private static final long SAVE_TIMEOUT_MINUTES = 5;
+  private static final long RESTORE_TIMEOUT_SECONDS = 60;
+  private static final String PREFIX = "session-";
+  private static final String SUFFIX = ".gsnap";
+
+  private final Path dir;
+  private final AtomicLong sequence = new AtomicLong();
+  /** The snapshot the current runner restored from, it reads from it until it is stopped */
+  private Path restored;
+
+  SessionSnapshots(Path dir) {
+    this.dir = dir;
+  }
+
+  /** @return the default snapshot dir, ~/.gade/cache/session */
+  static Path defaultDir() {
+    return ClasspathCacheManager.getCacheDir().toPath().resolve("session");
+  }
+
+  /**
+   * Save the variables of a runner that is about to be stopped.
+   *
+   * @param runner the current runner, nothing is saved if it is not running
+   * @param maxMb the max size of the snapshot, 0 to save nothing
+   * @param maxVariableMb the max size of one variable
+   * @param console where the skipped variables are listed
+   * @return the snapshot, null if nothing was saved
+   */
+  Path save(RuntimeProcessRunner runner, int maxMb, int maxVariableMb, ConsoleTextArea console) {
+    if (runner == null || !runner.isRunning() || maxMb <= 0) {
+      return null;
+    }
+    Path file = dir.resolve(PREFIX + ProcessHandle.current().pid() + "-" + sequence.incrementAndGet() + SUFFIX);
+    try {
+      Files.createDirectories(dir);
+      deleteAbandoned();
+      file.toFile().deleteOnExit();
+      SessionSnapshotResult result = runner.saveSession(file, megabytes(maxMb), megabytes(maxVariableMb))
+          .get(SAVE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+      if (!result.skipped().isEmpty()) {
+        console.appendWarningFx(skippedMessage(result.skipped()));
+      }
+      if (result.variables().isEmpty()) {
+        delete(file);
+        return null;
+      }
+      log.debug("Saved {} variables ({} bytes) to {}", result.variables().size(), result.bytes(), file);
+      return file;
+    } catch (TimeoutException e) {
+      console.appendWarningFx("Saving the session took more than " + SAVE_TIMEOUT_MINUTES
+          + " minutes, the variables are not kept");
+    } catch (ExecutionException | IOException e) {
+      Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+      log.warn("Failed to save the session to {}", file, cause);
+      console.appendWarningFx("Failed to save the session, the variables are not kept: " + cause.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    delete(file);
+    return null;
+  }
+
+  /**
+   * Restore a snapshot in the new runner and delete the snapshot the previous runner restored from.
+   *
+   * @param runner the new runner
+   * @param file the snapshot returned by {@link #save(RuntimeProcessRunner, int, int, ConsoleTextArea)}, may be null
+   * @param console where the restored variables are listed
+   */
+  void restore(RuntimeProcessRunner runner, Path file, ConsoleTextArea console) {
+    Path previous = restored;
+    restored = null;
+    if (previous != null && !previous.equals(file)) {
+      delete(previous);
+    }
+    if (file == null) {
+      return;
+    }
+    try {
+      SessionSnapshotResult result = runner.restoreSession(file).get(RESTORE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      restored = file;
+      if (!result.variables().isEmpty()) {
+        console.appendFx(restoredMessage(result, Files.size(file)), true);
+      }
+    } catch (TimeoutException | ExecutionException | IOException e) {
+      Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+      log.warn("Failed to restore the session from {}", file, cause);
+      console.appendWarningFx("Failed to restore the variables of the previous session: " + cause.getMessage());
+      delete(file);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      delete(file);
+    }
+  }
+
+  static String skippedMessage(Map<String, String> skipped) {
+    return "Not kept after the restart: " + skipped.entrySet().stream()
+        .map(e -> e.getKey() + " (" + e.getValue() + ")")
+        .collect(Collectors.joining(", "));
+  }
+
+  static String restoredMessage(SessionSnapshotResult result, long bytes) {
+    return String.format(Locale.ROOT, "* Kept %d variable%s (%.1f MB), each is read when first used: %s",
+        result.variables().size(), result.variables().size() == 1 ? "" : "s", bytes / (1024.0 * 1024.0),
+        String.join(", ", result.variables()));
+  }
+
+  private static long megabytes(int mb) {
+    return mb * 1024L * 1024L;
+  }
+
+  /** Snapshots left behind by Gade processes that did not exit cleanly */
+  private void deleteAbandoned() throws IOException {
+    long self = ProcessHandle.current().pid();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        int dash = name.indexOf('-', PREFIX.length());
+        if (dash < 0) {
+          continue;
+        }
+        try {
+          long pid = Long.parseLong(name.substring(PREFIX.length(), dash));
+          if (pid != self && ProcessHandle.of(pid).isEmpty()) {
+            delete(file);
+          }
+        } catch (NumberFormatException e) {
+          // not one of ours
+        }
+      }
+    }
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.debug("Failed to delete {}", file, e);
+    }
+  }
+}
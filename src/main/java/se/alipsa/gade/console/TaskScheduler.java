@@ -0,0 +1,329 @@
+package se.alipsa.gade.console;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs background tasks in lanes, one lane per resource (the runtime process, a database connection etc.).
+ * <p>
+ * Tasks in a lane run one at a time in submission order, tasks in different lanes run concurrently. Each task runs
+ * on its own virtual thread. A task submitted with a coalesce key is dropped if a task with the same key is already
+ * waiting in the lane (e.g. several environment refreshes queued behind a long running script only need to run
+ * once). Every submission returns a {@link Ticket} that can cancel the task whether it is waiting or running.
+ * <p>
+ * Each lane keeps counters (queue depth, wait and run times) that are available through {@link #stats()}.
+ */
+public class TaskScheduler {
+
+  /** The lane for everything that talks to the runtime process */
+  public static final String RUNNER_LANE = "runner";
+  private static final Logger log = LogManager.getLogger(TaskScheduler.class);
+
+  /** Something to run in a lane */
+  @FunctionalInterface
+  public interface Job extends Runnable {
+
+    /** Called on the task thread when the job gets its turn in the lane, right before it runs */
+    default void onStart() {
+      // nothing to announce by default
+    }
+
+    /** Called on the task thread when the job has returned, whether it completed, failed or was interrupted */
+    default void onEnd() {
+      // nothing to announce by default
+    }
+
+    /** Called when the job is cancelled before it was started, the job will never run */
+    default void onDiscard() {
+      // nothing to clean up by default
+    }
+
+    /** Called when the running job is cancelled, before its thread is interrupted */
+    default void onInterrupt() {
+      // interrupting the thread is enough by default
+    }
+  }
+
+  /**
+   * The statistics of a lane, times are in milliseconds.
+   */
+  public record LaneStats(String lane, int queued, boolean busy, long submitted, long completed, long coalesced,
+                          long cancelled, long totalWaitMillis, long maxWaitMillis, long totalRunMillis) {
+
+    public long avgWaitMillis() {
+      return completed == 0 ? 0 : totalWaitMillis / completed;
+    }
+
+    public long avgRunMillis() {
+      return completed == 0 ? 0 : totalRunMillis / completed;
+    }
+
+    /** @return a one line description, e.g. "runner: running, 2 waiting, 15 done, wait 3 ms (max 120 ms), run 450 ms" */
+    public String summary() {
+      StringBuilder sb = new StringBuilder(lane).append(": ").append(busy ? "running" : "idle")
+          .append(", ").append(queued).append(" waiting, ").append(completed).append(" done");
+      if (cancelled > 0) {
+        sb.append(", ").append(cancelled).append(" cancelled");
+      }
+      if (coalesced > 0) {
+        sb.append(", ").append(coalesced).append(" coalesced");
+      }
+      return sb.append(", wait ").append(avgWaitMillis()).append(" ms (max ").append(maxWaitMillis)
+          .append(" ms), run ").append(avgRunMillis()).append(" ms").toString();
+    }
+  }
+
+  /** The handle of a submitted task */
+  public static final class Ticket {
+    private final Lane lane;
+    private final String coalesceKey;
+    private final String context;
+    private final Job job;
+    private final long submittedNanos = System.nanoTime();
+    private Thread thread;
+    private boolean cancelled;
+    private boolean done;
+
+    private Ticket(Lane lane, String coalesceKey, String context, Job job) {
+      this.lane = lane;
+      this.coalesceKey = coalesceKey;
+      this.context = context;
+      this.job = job;
+    }
+
+    /**
+     * Cancel the task: a waiting task is removed from the queue, a running task is interrupted. The lane is not
+     * free until the running task has returned.
+     *
+     * @return true if the task was waiting or running, false if it had already finished
+     */
+    public boolean cancel() {
+      boolean running;
+      synchronized (lane) {
+        if (done || cancelled) {
+          return false;
+        }
+        running = lane.running == this;
+        if (!running && !lane.pending.remove(this)) {
+          return false;
+        }
+        cancelled = true;
+        lane.cancelled++;
+        if (!running) {
+          done = true;
+        }
+      }
+      log.debug("Cancelling {} task {} in lane {}", running ? "running" : "waiting", context, lane.name);
+      if (running) {
+        job.onInterrupt();
+        thread.interrupt();
+      } else {
+        job.onDiscard();
+      }
+      return true;
+    }
+
+    public boolean isCancelled() {
+      synchronized (lane) {
+        return cancelled;
+      }
+    }
+
+    public boolean isDone() {
+      synchronized (lane) {
+        return done;
+      }
+    }
+
+    public String getContext() {
+      return context;
+    }
+
+    public String getLane() {
+      return lane.name;
+    }
+  }
+
+  private static final class Lane {
+    private final String name;
+    private final Deque<Ticket> pending = new ArrayDeque<>();
+    private Ticket running;
+    private long submitted;
+    private long completed;
+    private long coalesced;
+    private long cancelled;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalRunNanos;
+
+    private Lane(String name) {
+      this.name = name;
+    }
+  }
+
+  private final Supplier<ClassLoader> contextClassLoader;
+  private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+  /**
+   * @param contextClassLoader the context class loader of the task threads, looked up when a task starts
+   */
+  public TaskScheduler(Supplier<ClassLoader> contextClassLoader) {
+    this.contextClassLoader = contextClassLoader;
+  }
+
+  /** @return the lane for a database connection */
+  public static String jdbcLane(String connectionName) {
+    return "jdbc:" + connectionName;
+  }
+
+  /**
+   * Queue a task in the lane.
+   *
+   * @param lane the lane, e.g. {@link #RUNNER_LANE}
+   * @param context a description of the task used in log messages
+   * @param job the task
+   * @return the ticket of the task
+   */
+  public Ticket submit(String lane, String context, Job job) {
+    return submit(lane, null, context, job);
+  }
+
+  /**
+   * Queue a task in the lane unless a task with the same coalesce key is already waiting there.
+   *
+   * @param laneName the lane, e.g. {@link #RUNNER_LANE}
+   * @param coalesceKey tasks with the same key are only queued once, null to always queue the task
+   * @param context a description of the task used in log messages
+   * @param job the task
+   * @return the ticket of the task, or of the waiting task it was coalesced with
+   */
+  public Ticket submit(String laneName, String coalesceKey, String context, Job job) {
+    Lane lane = lanes.computeIfAbsent(laneName, Lane::new);
+    Ticket ticket;
+    synchronized (lane) {
+      lane.submitted++;
+      if (coalesceKey != null) {
+        for (Ticket waiting : lane.pending) {
+          if (coalesceKey.equals(waiting.coalesceKey)) {
+            lane.coalesced++;
+            log.debug("{} coalesced with the waiting task in lane {}", context, laneName);
+            return waiting;
+          }
+        }
+      }
+      ticket = new Ticket(lane, coalesceKey, context, job);
+      lane.pending.add(ticket);
+      if (lane.running != null) {
+        log.debug("{} queued in lane {} behind {}, queue depth {}", context, laneName, lane.running.context,
+            lane.pending.size());
+      }
+    }
+    startNext(lane);
+    return ticket;
+  }
+
+  /**
+   * Cancel all waiting and running tasks.
+   *
+   * @return the number of tasks cancelled
+   */
+  public int cancelAll() {
+    List<Ticket> tickets = new ArrayList<>();
+    for (Lane lane : lanes.values()) {
+      synchronized (lane) {
+        // waiting tasks first so that they do not start when the running task ends
+        tickets.addAll(lane.pending);
+        if (lane.running != null) {
+          tickets.add(lane.running);
+        }
+      }
+    }
+    int count = 0;
+    for (Ticket ticket : tickets) {
+      if (ticket.cancel()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** @return true if a task is running or waiting in any lane */
+  public boolean isBusy() {
+    for (Lane lane : lanes.values()) {
+      synchronized (lane) {
+        if (lane.running != null || !lane.pending.isEmpty()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** @return the statistics of all lanes, sorted by lane name */
+  public List<LaneStats> stats() {
+    List<LaneStats> stats = new ArrayList<>();
+    for (Lane lane : lanes.values()) {
+      synchronized (lane) {
+        stats.add(new LaneStats(lane.name, lane.pending.size(), lane.running != null, lane.submitted,
+            lane.completed, lane.coalesced, lane.cancelled, lane.totalWaitNanos / 1_000_000,
+            lane.maxWaitNanos / 1_000_000, lane.totalRunNanos / 1_000_000));
+      }
+    }
+    stats.sort(Comparator.comparing(LaneStats::lane));
+    return stats;
+  }
+
+  private void startNext(Lane lane) {
+    synchronized (lane) {
+      if (lane.running != null || lane.pending.isEmpty()) {
+        return;
+      }
+      Ticket ticket = lane.pending.poll();
+      long waitNanos = System.nanoTime() - ticket.submittedNanos;
+      lane.totalWaitNanos += waitNanos;
+      lane.maxWaitNanos = Math.max(lane.maxWaitNanos, waitNanos);
+      lane.running = ticket;
+      Thread thread = Thread.ofVirtual()
+          .name("gade-" + lane.name)
+          .unstarted(() -> run(lane, ticket, waitNanos));
+      thread.setContextClassLoader(contextClassLoader.get());
+      ticket.thread = thread;
+      thread.start();
+    }
+  }
+
+  private void run(Lane lane, Ticket ticket, long waitNanos) {
+    long start = System.nanoTime();
+    try {
+      ticket.job.onStart();
+      ticket.job.run();
+    } catch (RuntimeException e) {
+      log.warn("Task {} in lane {} failed", ticket.context, lane.name, e);
+    } finally {
+      long runNanos = System.nanoTime() - start;
+      synchronized (lane) {
+        lane.completed++;
+        lane.totalRunNanos += runNanos;
+        lane.running = null;
+        ticket.done = true;
+      }
+      log.debug("{} finished in lane {}, waited {} ms, ran {} ms", ticket.context, lane.name,
+          waitNanos / 1_000_000, runNanos / 1_000_000);
+      try {
+        ticket.job.onEnd();
+      } catch (RuntimeException e) {
+        log.warn("Failed to notify the end of task {} in lane {}", ticket.context, lane.name, e);
+      }
+      startNext(lane);
+    }
+  }
+}
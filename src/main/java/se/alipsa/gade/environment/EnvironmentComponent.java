@@ -1,10 +1,16 @@
 package se.alipsa.gade.environment;
 
 import static se.alipsa.gade.Constants.INDENT;
+import static se.alipsa.gade.menu.GlobalOptions.*;
 
 import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
+import javafx.scene.input.MouseButton;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.fxmisc.flowless.VirtualizedScrollPane;
@@ -14,6 +20,10 @@ import se.alipsa.gade.UnStyledCodeArea;
 //import se.alipsa.gade.environment.connections.ConnectionInfo;
 import se.alipsa.groovy.datautil.ConnectionInfo;
 import se.alipsa.gade.environment.connections.ConnectionsTab;
+import se.alipsa.gade.environment.connections.QueryResultCache;
+import se.alipsa.gade.runtime.BindingSummary;
+import se.alipsa.gade.utils.Alerts;
+import se.alipsa.gade.utils.ExceptionAlert;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -31,15 +41,29 @@ public class EnvironmentComponent extends TabPane {
 
   List<ContextFunctionsUpdateListener> contextFunctionsUpdateListeners = new ArrayList<>();
 
-  int MAX_CONTENT_LENGTH = 200;
+  /** The maximum number of characters shown when viewing the full value of a variable */
+  static final int MAX_RENDER_LENGTH = 1_000_000;
+
+  private final Gade gui;
+  private final List<String> varNames = new ArrayList<>();
 
   public EnvironmentComponent(Gade gui) {
+    this.gui = gui;
     Tab environment = new Tab();
     environment.setText("Environment");
     envTa = new UnStyledCodeArea();
     envTa.setEditable(false);
     envTa.getStyleClass().add("environment");
     envTa.replaceText("Environment");
+    envTa.setOnMouseClicked(e -> {
+      if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) {
+        showValue(envTa.getCurrentParagraph());
+      }
+    });
+    MenuItem viewItem = new MenuItem("View value");
+    viewItem.setOnAction(a -> showValue(envTa.getCurrentParagraph()));
+    envTa.setContextMenu(new ContextMenu(viewItem));
+    envTa.setOnContextMenuRequested(e -> envTa.moveTo(envTa.hit(e.getX(), e.getY()).getInsertionIndex()));
     VirtualizedScrollPane<StyleClassedTextArea> scrollPane = new VirtualizedScrollPane<>(envTa);
     environment.setContent(scrollPane);
     getTabs().add(environment);
@@ -48,40 +72,62 @@ public class EnvironmentComponent extends TabPane {
     getTabs().add(historyTab);
 
     connectionsTab = new ConnectionsTab(gui);
+    QueryResultCache.shared().configure(
+        gui.getPrefs().getInt(QUERY_CACHE_MAX_MB, QueryResultCache.MAX_MB_DEFAULT),
+        gui.getPrefs().getInt(QUERY_CACHE_MAX_DISK_MB, QueryResultCache.MAX_DISK_MB_DEFAULT),
+        gui.getPrefs().getInt(QUERY_CACHE_TTL_MINUTES, QueryResultCache.TTL_MINUTES_DEFAULT));
 
     getTabs().add(connectionsTab);
     setTabClosingPolicy(TabClosingPolicy.UNAVAILABLE);
   }
 
-  public void setEnvironment(Map<String, Object> contextObjects) {
+  /**
+   * Show the variables of the session, one line each. The values are summaries computed by the runner,
+   * double click on a variable to see all of it.
+   */
+  public void setEnvironment(Map<String, BindingSummary> contextObjects) {
     Platform.runLater(() -> {
       envTa.clear();
-      for (var entry : contextObjects.entrySet()) {
-        String varName = entry.getKey();
+      varNames.clear();
+      for (BindingSummary summary : contextObjects.values()) {
+        String varName = summary.name();
+        varNames.add(varName);
         int start = envTa.getContent().getLength();
         envTa.appendText(varName);
         int endVar = start + varName.length();
         envTa.setStyleClass(start, endVar, "env-varName");
 
-        Object value = entry.getValue();
-        String content = "";
-        if (value instanceof Collection<?> collection) {
-          content = "(" + collection.size() +  " elements)";
-        } else {
-          content = String.valueOf(value);
-          if (content.length() > MAX_CONTENT_LENGTH) {
-            content = content.substring(0, MAX_CONTENT_LENGTH) + "... (length = " + content.length() + ")";
-          }
-        }
-        content = INDENT + value.getClass().getSimpleName() + ": " + content;
+        String size = summary.size().isEmpty() ? "" : " (" + summary.size() + ")";
+        // one line per variable so that the line number tells which variable was clicked
+        String preview = summary.preview().replace('\n', ' ').replace('\r', ' ');
+        String content = INDENT + summary.type() + size + ": " + preview;
         envTa.appendText(content + "\n");
         envTa.setStyleClass(endVar + 1, endVar + content.length(), "env-varValue");
       }
     });
   }
 
+  private void showValue(int paragraph) {
+    if (paragraph < 0 || paragraph >= varNames.size()) {
+      return;
+    }
+    String varName = varNames.get(paragraph);
+    Task<String> task = new Task<>() {
+      @Override
+      protected String call() throws Exception {
+        return gui.getConsoleComponent().renderVar(varName, MAX_RENDER_LENGTH);
+      }
+    };
+    task.setOnSucceeded(e -> Alerts.showAlert(varName, task.getValue(), Alert.AlertType.INFORMATION));
+    task.setOnFailed(e -> ExceptionAlert.showAlert("Failed to get the value of " + varName, task.getException()));
+    Thread thread = new Thread(task, "gade-render-var");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
   public void clearEnvironment() {
     envTa.clear();
+    varNames.clear();
   }
 
   public Set<ConnectionInfo> getConnections() {
@@ -127,7 +127,7 @@ public class ConnectionHandler {
         sqlList.add(getBigQueryDatasetMetaData(datasetName));
       }
       String sql = String.join(" UNION ALL ", sqlList);
-      return query(sql);
+      return queryBq(sql);
     } catch (BqException e) {
       throw new ConnectionException("Failed to get big query metadata", e);
     }
@@ -239,7 +239,7 @@ public class ConnectionHandler {
     }
     try {
       //log.info("Executing SQL: " + sql);
-      return query(sql);
+      return queryJdbc(sql);
     } catch (Exception e) {
       // In case INFORMATION_SCHEMA is not supported, we try to get the info from the
       // metadata of the connection
@@ -267,14 +267,39 @@ public class ConnectionHandler {
     }
   }
 
+  /**
+   * Run a query, the result is taken from the {@link QueryResultCache} if it is enabled and has it.
+   *
+   * @param limit the max number of rows (optional)
+   */
   public Matrix query(String sql, int... limit) throws ConnectionException {
+    QueryResultCache cache = QueryResultCache.shared();
+    int maxRows = limit.length > 0 ? limit[0] : 0;
+    QueryResultCache.Hit hit = cache.get(connectionInfo, sql, maxRows);
+    if (hit != null) {
+      reportCachedResult(connectionInfo.getName(), hit);
+      return hit.result();
+    }
+    Matrix result;
     if (connectionType == ConnectionType.JDBC) {
-      return queryJdbc(sql, limit);
+      result = queryJdbc(sql, limit);
     } else if (connectionType == ConnectionType.BIGQUERY) {
-      return queryBq(sql, limit);
+      result = queryBq(sql, limit);
+    } else {
+      log.error("Connection type not matching anything known");
+      return null;
     }
-    log.error("Connection type not matching anything known");
-    return null;
+    cache.put(connectionInfo, sql, maxRows, result);
+    return result;
+  }
+
+  /**
+   * Tell the user in the console that a result was taken from the {@link QueryResultCache}, i.e. that the query
+   * was not run again.
+   */
+  public static void reportCachedResult(String title, QueryResultCache.Hit hit) {
+    String message = hit.describe() + "\n";
+    Platform.runLater(() -> Gade.instance().getConsoleComponent().addWarning(title, message, false));
   }
 
   private Matrix queryBq(String sql, int... limit) throws ConnectionException {
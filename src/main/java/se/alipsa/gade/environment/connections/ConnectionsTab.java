@@ -338,7 +338,11 @@ public class ConnectionsTab extends Tab {
       final MenuItem viewCodeMenuItem = new MenuItem("show connection code");
       viewCodeMenuItem.setOnAction(event -> showConnectionCode());
 
-      contextMenu.getItems().addAll(viewMenuItem, viewDatabasesMenuItem, removeMenuItem, deleteMenuItem, viewCodeMenuItem);
+      final MenuItem clearCacheMenuItem = new MenuItem("clear cached query results");
+      clearCacheMenuItem.setOnAction(event -> QueryResultCache.shared().invalidate(row.getItem()));
+
+      contextMenu.getItems().addAll(viewMenuItem, viewDatabasesMenuItem, removeMenuItem, deleteMenuItem, viewCodeMenuItem,
+          clearCacheMenuItem);
       row.contextMenuProperty().bind(
           Bindings.when(row.emptyProperty())
               .then((ContextMenu) null)
@@ -0,0 +1,579 @@
+package se.alipsa.gade.environment.connections;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.runner.SessionSnapshot;
+import se.alipsa.gade.utils.ClasspathCacheManager;
+import se.alipsa.groovy.datautil.ConnectionInfo;
+import se.alipsa.matrix.core.Matrix;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in cache of the results of read only queries run from the SQL tab, {@code io.dbSelect} and the
+ * Connections tab, so that re-running the same query does not go to the database again.
+ * <p>
+ * Results are keyed by the identity of the connection (driver, url and user) and the query text with comments,
+ * extra whitespace and trailing semicolons removed. Only single SELECT (or WITH ... SELECT) statements that do not
+ * write (SELECT INTO, FOR UPDATE etc.) are cached. Results are kept in memory up to a size limit, the least recently
+ * used ones are moved to the cache dir (~/.gade/cache/query) when a disk limit is set, or dropped otherwise.
+ * Results older than the time to live are not used, and the results of a connection are dropped when a statement
+ * that may change data is run on it from Gade or when the cache is cleared (io.dbClearCache or the Connections tab).
+ * <p>
+ * The cache keeps a copy of the results it is given and every hit gets a copy of its own, so results can be modified
+ * by the caller without changing what is cached.
+ */
+public final class QueryResultCache {
+
+  private static final Logger log = LogManager.getLogger(QueryResultCache.class);
+  /** The default max size of the results in memory, 0 turns the cache off */
+  public static final int MAX_MB_DEFAULT = 0;
+  /** The default max size of the results moved to disk, 0 drops results evicted from memory */
+  public static final int MAX_DISK_MB_DEFAULT = 0;
+  /** The default time to live, 0 keeps results until they are evicted or cleared */
+  public static final int TTL_MINUTES_DEFAULT = 60;
+  private static final int SAMPLE_ROWS = 1000;
+  private static final int DESCRIBE_QUERY_LENGTH = 60;
+  private static final String PREFIX = "query-";
+  private static final String SUFFIX = ".gqc";
+  private static final String VARIABLE = "result";
+  /** Words that make a SELECT change something or depend on more than the query text */
+  private static final Set<String> NOT_READ_ONLY = Set.of("INSERT", "UPDATE", "DELETE", "MERGE", "UPSERT",
+      "REPLACE", "INTO", "CREATE", "DROP", "ALTER", "TRUNCATE", "GRANT", "REVOKE", "CALL", "EXEC", "EXECUTE",
+      "LOCK", "NEXTVAL", "SETVAL");
+  private static final QueryResultCache SHARED = new QueryResultCache(defaultDir(), Clock.systemDefaultZone());
+
+  record Key(String connection, String sql, int maxRows) {}
+
+  private record Cached(Matrix result, Instant created, long bytes, long generation) {}
+
+  private record Spilled(Path file, Instant created, long bytes) {}
+
+  /**
+   * A result from the cache.
+   *
+   * @param result a copy of the cached result
+   * @param created when the query was run
+   * @param fromDisk true if the result was read from the cache dir
+   * @param sql the normalized query
+   */
+  public record Hit(Matrix result, Instant created, boolean fromDisk, String sql) {
+
+    /**
+     * @return a console message making clear that the result is not fresh
+     */
+    public String describe(Clock clock) {
+      long minutes = Duration.between(created, clock.instant()).toMinutes();
+      String age = minutes < 1 ? "less than a minute" : minutes == 1 ? "1 minute" : minutes + " minutes";
+      String query = sql.length() > DESCRIBE_QUERY_LENGTH ? sql.substring(0, DESCRIBE_QUERY_LENGTH) + "..." : sql;
+      return String.format(Locale.ROOT, "Cached result from %s (%s old, %,d rows), not re-run: %s",
+          LocalTime.ofInstant(created, clock.getZone()).truncatedTo(ChronoUnit.SECONDS)
+              .format(DateTimeFormatter.ISO_LOCAL_TIME), age, result.rowCount(), query);
+    }
+
+    public String describe() {
+      return describe(Clock.systemDefaultZone());
+    }
+  }
+
+  private final Path dir;
+  private final Clock clock;
+  private final LinkedHashMap<Key, Cached> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<Key, Spilled> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private final AtomicLong sequence = new AtomicLong();
+  private long memoryBytes;
+  private long diskBytes;
+  private long maxBytes;
+  private long maxDiskBytes;
+  private Duration ttl = Duration.ofMinutes(TTL_MINUTES_DEFAULT);
+  /** Incremented when results are dropped so that results being moved to disk at the time are not kept */
+  private long generation;
+  private boolean abandonedDeleted;
+
+  QueryResultCache(Path dir, Clock clock) {
+    this.dir = dir;
+    this.clock = clock;
+  }
+
+  /** @return the cache used by the SQL tab, io.dbSelect and the Connections tab */
+  public static QueryResultCache shared() {
+    return SHARED;
+  }
+
+  /** @return the default cache dir, ~/.gade/cache/query */
+  static Path defaultDir() {
+    return ClasspathCacheManager.getCacheDir().toPath().resolve("query");
+  }
+
+  /**
+   * @param maxMb the max size of the results in memory, 0 turns the cache off and drops all results
+   * @param maxDiskMb the max size of the results in the cache dir, 0 to only keep results in memory
+   * @param ttlMinutes results older than this are not used, 0 for no limit
+   */
+  public void configure(int maxMb, int maxDiskMb, int ttlMinutes) {
+    List<Path> dropped;
+    synchronized (this) {
+      maxBytes = megabytes(maxMb);
+      maxDiskBytes = maxBytes > 0 ? megabytes(maxDiskMb) : 0;
+      ttl = ttlMinutes > 0 ? Duration.ofMinutes(ttlMinutes) : Duration.ZERO;
+      dropped = new ArrayList<>();
+      evictMemory(new ArrayList<>());
+      evictDisk(dropped);
+      if (maxBytes == 0) {
+        generation++;
+      }
+    }
+    dropped.forEach(QueryResultCache::delete);
+  }
+
+  public synchronized boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * @param ci the connection, nothing is cached without one
+   * @param sql the query
+   * @param maxRows the max number of rows the query was run with, 0 for all rows
+   * @return the cached result or null if there is none, it has expired or the query is not cacheable
+   */
+  public Hit get(ConnectionInfo ci, String sql, int maxRows) {
+    Key key = isEnabled() ? key(ci, sql, maxRows) : null;
+    if (key == null) {
+      return null;
+    }
+    Spilled spilled;
+    synchronized (this) {
+      Cached cached = memory.get(key);
+      if (cached != null) {
+        if (!expired(cached.created())) {
+          return new Hit(copy(cached.result()), cached.created(), false, key.sql());
+        }
+        memory.remove(key);
+        memoryBytes -= cached.bytes();
+      }
+      spilled = disk.get(key);
+      if (spilled == null) {
+        return null;
+      }
+      if (expired(spilled.created())) {
+        disk.remove(key);
+        diskBytes -= spilled.bytes();
+        delete(spilled.file());
+        return null;
+      }
+    }
+    try {
+      List<SessionSnapshot.Entry> entries = SessionSnapshot.index(spilled.file());
+      if (entries.size() == 1
+          && SessionSnapshot.read(entries.get(0), QueryResultCache.class.getClassLoader()) instanceof Matrix m) {
+        return new Hit(m, spilled.created(), true, key.sql());
+      }
+    } catch (IOException | RuntimeException e) {
+      // removed by another thread or damaged
+      log.debug("Failed to read cached result {}", spilled.file(), e);
+    }
+    synchronized (this) {
+      if (disk.remove(key, spilled)) {
+        diskBytes -= spilled.bytes();
+        delete(spilled.file());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Cache the result of a query, results of queries that are not cacheable or larger than the cache are ignored.
+   *
+   * @param ci the connection the query was run on
+   * @param sql the query
+   * @param maxRows the max number of rows the query was run with, 0 for all rows
+   * @param result the result, a copy of it is cached
+   */
+  public void put(ConnectionInfo ci, String sql, int maxRows, Matrix result) {
+    Key key = isEnabled() && result != null ? key(ci, sql, maxRows) : null;
+    if (key == null) {
+      return;
+    }
+    long bytes = estimateBytes(result);
+    Matrix copy = copy(result);
+    Map<Key, Cached> evicted = new LinkedHashMap<>();
+    List<Path> dropped = new ArrayList<>();
+    synchronized (this) {
+      if (bytes > maxBytes) {
+        return;
+      }
+      Cached previous = memory.put(key, new Cached(copy, clock.instant(), bytes, generation));
+      if (previous != null) {
+        memoryBytes -= previous.bytes();
+      }
+      memoryBytes += bytes;
+      Spilled stale = disk.remove(key);
+      if (stale != null) {
+        diskBytes -= stale.bytes();
+        dropped.add(stale.file());
+      }
+      List<Map.Entry<Key, Cached>> removed = new ArrayList<>();
+      evictMemory(removed);
+      if (maxDiskBytes > 0) {
+        removed.forEach(e -> evicted.put(e.getKey(), e.getValue()));
+      }
+    }
+    dropped.forEach(QueryResultCache::delete);
+    // written outside the lock, the cache can be used while a large result is moved to disk
+    evicted.forEach(this::spill);
+  }
+
+  /** Drop the cached results of a connection (of every connection with the same driver, url and user) */
+  public void invalidate(ConnectionInfo ci) {
+    if (ci == null) {
+      return;
+    }
+    String connection = connectionKey(ci);
+    List<Path> dropped = new ArrayList<>();
+    synchronized (this) {
+      generation++;
+      for (Iterator<Map.Entry<Key, Cached>> it = memory.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Key, Cached> e = it.next();
+        if (e.getKey().connection().equals(connection)) {
+          memoryBytes -= e.getValue().bytes();
+          it.remove();
+        }
+      }
+      for (Iterator<Map.Entry<Key, Spilled>> it = disk.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<Key, Spilled> e = it.next();
+        if (e.getKey().connection().equals(connection)) {
+          diskBytes -= e.getValue().bytes();
+          dropped.add(e.getValue().file());
+          it.remove();
+        }
+      }
+    }
+    dropped.forEach(QueryResultCache::delete);
+  }
+
+  /** Drop all cached results */
+  public void invalidateAll() {
+    List<Path> dropped;
+    synchronized (this) {
+      generation++;
+      memory.clear();
+      memoryBytes = 0;
+      dropped = disk.values().stream().map(Spilled::file).toList();
+      disk.clear();
+      diskBytes = 0;
+    }
+    dropped.forEach(QueryResultCache::delete);
+  }
+
+  /** @return the number of cached results in memory and on disk */
+  public synchronized int size() {
+    return memory.size() + disk.size();
+  }
+
+  synchronized long memoryBytes() {
+    return memoryBytes;
+  }
+
+  synchronized long diskBytes() {
+    return diskBytes;
+  }
+
+  /**
+   * @return true if the sql is a single statement that only reads, i.e. its result can be cached
+   */
+  public static boolean isCacheable(String sql) {
+    return normalize(sql) != null;
+  }
+
+  /**
+   * Remove comments, extra whitespace and trailing semicolons, the case and quoted text is kept as is.
+   *
+   * @return the normalized sql, or null if it is not a single read only query
+   */
+  static String normalize(String sql) {
+    if (sql == null) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(sql.length());
+    List<String> words = new ArrayList<>();
+    boolean statementEnded = false;
+    int i = 0;
+    int n = sql.length();
+    while (i < n) {
+      char c = sql.charAt(i);
+      if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+        while (i < n && sql.charAt(i) != '\n') {
+          i++;
+        }
+        space(sb);
+        continue;
+      }
+      if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? n : end + 2;
+        space(sb);
+        continue;
+      }
+      if (Character.isWhitespace(c)) {
+        space(sb);
+        i++;
+        continue;
+      }
+      if (c == ';') {
+        statementEnded = true;
+        i++;
+        continue;
+      }
+      if (statementEnded) {
+        // more than one statement
+        return null;
+      }
+      if (c == '\'' || c == '"' || c == '`' || c == '[') {
+        char close = c == '[' ? ']' : c;
+        int start = i++;
+        while (i < n) {
+          if (sql.charAt(i) == close) {
+            // a doubled quote is an escaped quote
+            if (close != ']' && i + 1 < n && sql.charAt(i + 1) == close) {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i = Math.min(i + 1, n);
+        sb.append(sql, start, i);
+        continue;
+      }
+      if (Character.isLetter(c) || c == '_') {
+        int start = i;
+        while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+          i++;
+        }
+        String word = sql.substring(start, i);
+        words.add(word.toUpperCase(Locale.ROOT));
+        sb.append(word);
+        continue;
+      }
+      sb.append(c);
+      i++;
+    }
+    if (words.isEmpty() || !("SELECT".equals(words.get(0)) || "WITH".equals(words.get(0)))
+        || !words.contains("SELECT") || words.stream().anyMatch(NOT_READ_ONLY::contains)) {
+      return null;
+    }
+    return sb.toString().strip();
+  }
+
+  private static void space(StringBuilder sb) {
+    if (!sb.isEmpty() && sb.charAt(sb.length() - 1) != ' ') {
+      sb.append(' ');
+    }
+  }
+
+  static String connectionKey(ConnectionInfo ci) {
+    return ci.getDriver() + "\n" + ci.getUrl() + "\n" + ci.getUser();
+  }
+
+  private static Key key(ConnectionInfo ci, String sql, int maxRows) {
+    if (ci == null || ci.getUrl() == null) {
+      return null;
+    }
+    String normalized = normalize(sql);
+    return normalized == null ? null : new Key(connectionKey(ci), normalized, Math.max(maxRows, 0));
+  }
+
+  /**
+   * A rough estimate of the heap used by a Matrix based on up to SAMPLE_ROWS evenly spread rows.
+   */
+  static long estimateBytes(Matrix m) {
+    int rows = m.rowCount();
+    int columns = m.columnCount();
+    long overhead = 1024L + 64L * columns;
+    if (rows == 0 || columns == 0) {
+      return overhead;
+    }
+    int step = Math.max(1, rows / SAMPLE_ROWS);
+    long sampled = 0;
+    int sampledRows = 0;
+    for (int r = 0; r < rows; r += step) {
+      for (int c = 0; c < columns; c++) {
+        sampled += valueBytes(m.getAt(r, c));
+      }
+      sampledRows++;
+    }
+    return overhead + sampled * rows / sampledRows;
+  }
+
+  /** @return a Matrix with the same name, columns, types and values as m that does not share its rows */
+  static Matrix copy(Matrix m) {
+    int columns = m.columnCount();
+    List<List> rows = new ArrayList<>(m.rowCount());
+    for (int r = 0; r < m.rowCount(); r++) {
+      List<Object> row = new ArrayList<>(columns);
+      for (int c = 0; c < columns; c++) {
+        row.add(m.getAt(r, c));
+      }
+      rows.add(row);
+    }
+    return Matrix.builder()
+        .matrixName(m.getMatrixName())
+        .columnNames(new ArrayList<>(m.columnNames()))
+        .rows(rows)
+        .types(new ArrayList<>(m.types()))
+        .build();
+  }
+
+  private static long valueBytes(Object value) {
+    // the reference to the value plus the value
+    if (value == null || value instanceof Boolean) {
+      return 8;
+    }
+    if (value instanceof CharSequence cs) {
+      return 8 + 40 + 2L * cs.length();
+    }
+    if (value instanceof BigDecimal || value instanceof BigInteger) {
+      return 8 + 64;
+    }
+    if (value instanceof Number) {
+      return 8 + 24;
+    }
+    if (value instanceof Temporal || value instanceof Date) {
+      return 8 + 40;
+    }
+    if (value instanceof byte[] bytes) {
+      return 8 + 16 + bytes.length;
+    }
+    return 8 + 64;
+  }
+
+  private boolean expired(Instant created) {
+    return !ttl.isZero() && created.plus(ttl).isBefore(clock.instant());
+  }
+
+  /** Remove the least recently used results until the memory limit is met, called with the lock held */
+  private void evictMemory(List<Map.Entry<Key, Cached>> removed) {
+    Iterator<Map.Entry<Key, Cached>> it = memory.entrySet().iterator();
+    while (memoryBytes > maxBytes && it.hasNext()) {
+      Map.Entry<Key, Cached> e = it.next();
+      memoryBytes -= e.getValue().bytes();
+      removed.add(Map.entry(e.getKey(), e.getValue()));
+      it.remove();
+    }
+  }
+
+  /** Remove the least recently used results until the disk limit is met, called with the lock held */
+  private void evictDisk(List<Path> dropped) {
+    Iterator<Map.Entry<Key, Spilled>> it = disk.entrySet().iterator();
+    while (diskBytes > maxDiskBytes && it.hasNext()) {
+      Map.Entry<Key, Spilled> e = it.next();
+      diskBytes -= e.getValue().bytes();
+      dropped.add(e.getValue().file());
+      it.remove();
+    }
+  }
+
+  private void spill(Key key, Cached cached) {
+    if (expired(cached.created())) {
+      return;
+    }
+    Path file = dir.resolve(PREFIX + ProcessHandle.current().pid() + "-" + sequence.incrementAndGet() + SUFFIX);
+    try {
+      Files.createDirectories(dir);
+      deleteAbandoned();
+      file.toFile().deleteOnExit();
+      long limit;
+      synchronized (this) {
+        limit = maxDiskBytes;
+      }
+      SessionSnapshot.Saved saved = SessionSnapshot.save(Map.of(VARIABLE, cached.result()), List.of(), Set.of(),
+          file, limit, limit);
+      if (saved.variables().isEmpty()) {
+        log.debug("Not moving the result of {} to disk: {}", key.sql(), saved.skipped().get(VARIABLE));
+        delete(file);
+        return;
+      }
+      List<Path> dropped = new ArrayList<>();
+      synchronized (this) {
+        // dropped or replaced while it was written
+        if (cached.generation() != generation || memory.containsKey(key) || maxDiskBytes == 0) {
+          dropped.add(file);
+        } else {
+          Spilled previous = disk.put(key, new Spilled(file, cached.created(), saved.bytes()));
+          if (previous != null) {
+            diskBytes -= previous.bytes();
+            dropped.add(previous.file());
+          }
+          diskBytes += saved.bytes();
+          evictDisk(dropped);
+        }
+      }
+      dropped.forEach(QueryResultCache::delete);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to move the cached result of {} to {}", key.sql(), file, e);
+      delete(file);
+    }
+  }
+
+  /** Results left behind by Gade processes that did not exit cleanly */
+  private void deleteAbandoned() throws IOException {
+    synchronized (this) {
+      if (abandonedDeleted) {
+        return;
+      }
+      abandonedDeleted = true;
+    }
+    long self = ProcessHandle.current().pid();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        int dash = name.indexOf('-', PREFIX.length());
+        if (dash < 0) {
+          continue;
+        }
+        try {
+          long pid = Long.parseLong(name.substring(PREFIX.length(), dash));
+          if (pid != self && ProcessHandle.of(pid).isEmpty()) {
+            delete(file);
+          }
+        } catch (NumberFormatException e) {
+          // not one of ours
+        }
+      }
+    }
+  }
+
+  private static long megabytes(int mb) {
+    return Math.max(mb, 0) * 1024L * 1024L;
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.debug("Failed to delete {}", file, e);
+    }
+  }
+}
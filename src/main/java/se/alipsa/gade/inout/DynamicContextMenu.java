@@ -37,6 +37,7 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.*;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
 import se.alipsa.gade.Gade;
+import se.alipsa.gade.code.gmdtab.GmdPdfExporter;
 import se.alipsa.gade.inout.git.AddRemoteDialog;
 import se.alipsa.gade.inout.git.ConfigResult;
 import se.alipsa.gade.inout.git.CredentialsDialog;
@@ -55,6 +56,7 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
@@ -64,6 +66,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public class DynamicContextMenu extends ContextMenu {
 
@@ -79,6 +82,7 @@ public class DynamicContextMenu extends ContextMenu {
    private final MenuItem createDirMI;
    private final MenuItem createFileMI;
    private final MenuItem expandAllMI;
+   private final MenuItem exportGmdMI;
    private final MenuItem deleteMI;
    private MenuItem gitAddMI;
    private final MenuItem renameMI;
@@ -149,9 +153,9 @@ public class DynamicContextMenu extends ContextMenu {
             if (newFile.getName().endsWith(".java")) {
                addJavaContent(newFile);
             }
-            TreeItem<FileItem> node = fileTree.addTreeNode(newFile);
+            fileTree.addTreeNode(newFile);
             fileTree.openFileTab(newFile);
-            GitUtils.colorNode(git, GitUtils.asRelativePath(newFile, fileTree.getRootDir()), node);
+            fileTree.updateGitStatus(newFile);
          } catch (IOException e1) {
             ExceptionAlert.showAlert("Failed to create file", e1);
          }
@@ -162,6 +166,10 @@ public class DynamicContextMenu extends ContextMenu {
       expandAllMI.setOnAction(e -> fileTree.expandAllChildren(currentNode));
       getItems().add(expandAllMI);
 
+      exportGmdMI = new MenuItem("export gmd files to pdf");
+      exportGmdMI.setOnAction(this::exportGmdFilesToPdf);
+      getItems().add(exportGmdMI);
+
       renameMI = new MenuItem("rename");
       renameMI.setOnAction(e -> {
          String fileType = " file ";
@@ -619,6 +627,49 @@ public class DynamicContextMenu extends ContextMenu {
       }
    }
 
+   private void exportGmdFilesToPdf(ActionEvent actionEvent) {
+      final File dir = currentFile;
+      gui.setWaitCursor();
+      gui.getInoutComponent().setStatus("Exporting gmd files in " + dir.getName() + " to pdf");
+      Task<List<GmdPdfExporter.ExportResult>> task = new Task<>() {
+         @Override
+         public List<GmdPdfExporter.ExportResult> call() throws Exception {
+            List<File> gmdFiles;
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+               gmdFiles = paths.filter(p -> p.getFileName().toString().endsWith(".gmd"))
+                   .map(Path::toFile)
+                   .toList();
+            }
+            return GmdPdfExporter.exportAll(gmdFiles, Runtime.getRuntime().availableProcessors());
+         }
+      };
+      task.setOnSucceeded(e -> {
+         gui.setNormalCursor();
+         gui.getInoutComponent().clearStatus();
+         List<GmdPdfExporter.ExportResult> results = task.getValue();
+         StringBuilder sb = new StringBuilder();
+         int failed = 0;
+         for (GmdPdfExporter.ExportResult result : results) {
+            if (!result.isSuccess()) {
+               failed++;
+               sb.append(asRelativePath(result.source(), dir)).append(": ").append(result.error().getMessage())
+                   .append('\n');
+            }
+         }
+         Alerts.info("Export gmd files to pdf", (results.size() - failed) + " of " + results.size()
+             + " files exported" + (failed == 0 ? "" : ", failures:\n" + sb));
+         fileTree.refresh();
+      });
+      task.setOnFailed(e -> {
+         gui.setNormalCursor();
+         gui.getInoutComponent().clearStatus();
+         ExceptionAlert.showAlert("Failed to export gmd files", task.getException());
+      });
+      Thread runningThread = new Thread(task);
+      runningThread.setDaemon(true);
+      runningThread.start();
+   }
+
    private void gitFetch(ActionEvent actionEvent) {
       gui.setWaitCursor();
       String url = getRemoteGitUrl();
@@ -967,7 +1018,7 @@ public class DynamicContextMenu extends ContextMenu {
       try {
          DirCache dc = git.add().addFilepattern(currentPath).call();
          log.info("Added {} to git dir cache, node is {}", currentPath, currentNode.getValue().getText());
-         GitUtils.colorNode(git, currentPath, currentNode);
+         fileTree.updateGitStatus(currentFile);
       } catch (GitAPIException e) {
          log.warn("Failed to add " + currentPath, e);
          ExceptionAlert.showAlert("Failed to add " + currentPath, e);
@@ -1048,12 +1099,14 @@ public class DynamicContextMenu extends ContextMenu {
          createDirMI.setDisable(true);
          createFileMI.setDisable(true);
          expandAllMI.setDisable(true);
+         exportGmdMI.setDisable(true);
          openMI.setDisable(false);
          editMI.setDisable(false);
       } else {
          createDirMI.setDisable(false);
          createFileMI.setDisable(false);
          expandAllMI.setDisable(false);
+         exportGmdMI.setDisable(false);
          openMI.setDisable(true);
          editMI.setDisable(true);
       }
@@ -1063,6 +1116,7 @@ public class DynamicContextMenu extends ContextMenu {
       createDirMI.setVisible(true);
       createFileMI.setVisible(true);
       expandAllMI.setVisible(true);
+      exportGmdMI.setVisible(true);
       gitInitMI.setVisible(true);
       openMI.setVisible(false);
       editMI.setVisible(false);
@@ -1072,6 +1126,7 @@ public class DynamicContextMenu extends ContextMenu {
       createDirMI.setVisible(false);
       createFileMI.setVisible(false);
       expandAllMI.setVisible(false);
+      exportGmdMI.setVisible(false);
       gitInitMI.setVisible(false);
       openMI.setVisible(true);
       editMI.setVisible(true);
@@ -1,23 +1,17 @@
 package se.alipsa.gade.inout;
 
-import static se.alipsa.gade.Constants.GitStatus.GIT_ADDED;
-import static se.alipsa.gade.Constants.GitStatus.GIT_CHANGED;
-import static se.alipsa.gade.Constants.GitStatus.GIT_CONFLICT;
 import static se.alipsa.gade.Constants.GitStatus.GIT_IGNORED;
-import static se.alipsa.gade.Constants.GitStatus.GIT_MODIFIED;
-import static se.alipsa.gade.Constants.GitStatus.GIT_UNCOMITTED_CHANGE;
-import static se.alipsa.gade.Constants.GitStatus.GIT_UNTRACKED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_NONE;
 import static se.alipsa.gade.Constants.KEY_CODE_COPY;
+import static se.alipsa.gade.menu.GlobalOptions.FILE_TREE_EXCLUDES;
 
 import javafx.application.Platform;
-import javafx.beans.value.ChangeListener;
-import javafx.collections.ObservableList;
-import javafx.event.Event;
+import javafx.concurrent.Task;
 import javafx.scene.control.Tooltip;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
-import javafx.scene.control.TreeItem.TreeModificationEvent;
 import javafx.scene.control.TreeView;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
@@ -26,25 +20,35 @@ import javafx.scene.input.MouseEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.Status;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import se.alipsa.gade.Constants.GitStatus;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.code.CodeComponent;
 import se.alipsa.gade.code.TextAreaTab;
 import se.alipsa.gade.utils.Alerts;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gade.utils.FileUtils;
+import se.alipsa.gade.utils.git.GitStatusService;
 import se.alipsa.gade.utils.git.GitUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FileTree extends TreeView<FileItem> {
 
-  private final String folderUrl = Objects.requireNonNull(FileUtils.getResourceUrl("image/folder.png")).toExternalForm();
-  private final String fileUrl = Objects.requireNonNull(FileUtils.getResourceUrl("image/file.png")).toExternalForm();
+  private final Image folderImage = new Image(Objects.requireNonNull(FileUtils.getResourceUrl("image/folder.png")).toExternalForm());
+  private final Image fileImage = new Image(Objects.requireNonNull(FileUtils.getResourceUrl("image/file.png")).toExternalForm());
   private final String WORKING_DIR_PREF = "FileTree.WorkingDir";
   private final TreeItemComparator treeItemComparator = new TreeItemComparator();
   private final Gade gui;
@@ -52,13 +56,29 @@ public class FileTree extends TreeView<FileItem> {
   private final FileOpener fileOpener;
   private DynamicContextMenu menu;
   private Git git;
+  private GitStatusService gitStatusService;
   private final InoutComponent inoutComponent;
+  private final ExecutorService loader = Executors.newFixedThreadPool(2, r -> {
+    Thread t = new Thread(r, "gade-filetree-loader");
+    t.setDaemon(true);
+    return t;
+  });
+  /** Directories whose children are currently in the tree, only accessed on the FX thread */
+  private final Map<File, LazyFileTreeItem> loadedDirs = new HashMap<>();
+  /** All nodes currently in the tree, used to apply git status changes, only accessed on the FX thread */
+  private final Map<File, LazyFileTreeItem> items = new HashMap<>();
+  /** Directories the user has expanded, kept when the tree of the same dir is recreated, only accessed on the FX thread */
+  private final Set<File> expandedDirs = new HashSet<>();
+  private volatile FileTreeFilter filter;
+  private volatile File rootDir;
+  private FileTreeWatcher watcher;
 
   FileTree(Gade gui, InoutComponent inoutComponent) {
     this.gui = gui;
     CodeComponent codeComponent = gui.getCodeComponent();
     this.inoutComponent = inoutComponent;
     fileOpener = new FileOpener(codeComponent);
+    filter = new FileTreeFilter(gui.getPrefs().get(FILE_TREE_EXCLUDES, FileTreeFilter.DEFAULT_EXCLUDES));
     this.getStyleClass().add("fileTree");
 
     File current = new File(getWorkingDirPref());
@@ -79,27 +99,34 @@ public class FileTree extends TreeView<FileItem> {
       setWorkingDir(current);
       setRoot(createTree(current));
       if (inoutComponent.isGitEnabled()) {
-        gitColorTree(getRoot());
+        startGitStatus(current);
       }
-      sortTree(getRoot());
-      getRoot().setExpanded(true);
     }
     setCellFactory(treeView -> new TreeCell<>() {
 
+      // One icon view per cell, the images are shared by all cells
+      private final ImageView icon = new ImageView();
+
       @Override
       protected void updateItem(FileItem item, boolean empty) {
-        if (item != null) {
+        super.updateItem(item, empty);
+        if (item != null && !empty) {
           setText(item.getText());
           setStyle(item.getStyle());
-          setGraphic(getTreeItem().getGraphic());
-          if (item.getFile().equals(getRoot().getValue().getFile())) {
+          TreeItem<FileItem> treeItem = getTreeItem();
+          icon.setImage(treeItem != null && !treeItem.isLeaf() ? folderImage : fileImage);
+          setGraphic(icon);
+          if (getRoot() != null && item.getFile().equals(getRoot().getValue().getFile())) {
             setTooltip(new Tooltip(item.getFile().getAbsolutePath()));
+          } else {
+            setTooltip(null);
           }
         } else {
           setText("");
+          setStyle("");
           setGraphic(null);
+          setTooltip(null);
         }
-        super.updateItem(item, empty);
       }
     });
 
@@ -160,99 +187,200 @@ public class FileTree extends TreeView<FileItem> {
     Platform.runLater(() -> gui.setTitle(dir.getName()));
   }
 
-  private TreeItem<FileItem> createTree(File file) {
-    TreeItem<FileItem> item = new TreeItem<>(new FileItem(file));
-    File[] children = file.listFiles();
-    if (children != null) {
-      for (File child : children) {
-        item.getChildren().add(createTree(child));
+  private TreeItem<FileItem> createTree(File dir) {
+    closeWatcher();
+    loadedDirs.clear();
+    items.clear();
+    if (!dir.equals(rootDir)) {
+      expandedDirs.clear();
+    }
+    rootDir = dir;
+    try {
+      watcher = new FileTreeWatcher(this::directoriesChanged);
+    } catch (IOException e) {
+      log.warn("Failed to create file watcher, the file tree will only be updated on refresh", e);
+    }
+    LazyFileTreeItem root = new LazyFileTreeItem(this, dir, true);
+    items.put(dir, root);
+    root.setExpanded(true);
+    return root;
+  }
+
+  /**
+   * Lists the (non excluded) children of a directory sorted by name, called from a background thread.
+   */
+  List<File> listChildren(File dir) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return List.of();
+    }
+    File root = rootDir;
+    FileTreeFilter currentFilter = filter;
+    List<File> files = new ArrayList<>(children.length);
+    for (File child : children) {
+      if (root == null || currentFilter.accept(root, child)) {
+        files.add(child);
       }
-      item.setGraphic(new ImageView(folderUrl));
+    }
+    files.sort(Comparator.comparing(File::getName));
+    return files;
+  }
+
+  void submit(Task<?> task) {
+    loader.execute(task);
+  }
+
+  void directoryLoaded(LazyFileTreeItem item) {
+    loadedDirs.put(item.getFile(), item);
+    if (watcher != null) {
+      watcher.register(item.getFile().toPath());
+    }
+  }
+
+  void expansionChanged(LazyFileTreeItem item, boolean expanded) {
+    if (expanded) {
+      expandedDirs.add(item.getFile());
     } else {
-      setLeafProperties(item);
+      expandedDirs.remove(item.getFile());
     }
-    return item;
   }
 
-  private void gitColorTree(TreeItem<FileItem> root) {
-    File rootDir = root.getValue().getFile();
-    if (rootDir != null && rootDir.exists()) {
-      String[] gitCheck = rootDir.list((dir, name) -> name.equalsIgnoreCase(".git"));
-      if (gitCheck != null && gitCheck.length > 0) {
-        log.debug("adding git coloring...");
-      } else {
-        log.debug("not a git repository, skipping git coloring");
-        return;
+  /**
+   * @return true if the dir was expanded the last time it was in the tree, so it is expanded again when re-added
+   */
+  boolean wasExpanded(File dir) {
+    return expandedDirs.contains(dir);
+  }
+
+  void itemRemoved(LazyFileTreeItem item) {
+    items.remove(item.getFile());
+    if (!item.isDirectory()) {
+      return;
+    }
+    Path removedPath = item.getFile().toPath();
+    loadedDirs.keySet().removeIf(dir -> dir.toPath().startsWith(removedPath));
+    items.keySet().removeIf(file -> file.toPath().startsWith(removedPath));
+    if (watcher != null) {
+      watcher.unregister(removedPath);
+    }
+  }
+
+  void itemsAdded(List<LazyFileTreeItem> added) {
+    for (LazyFileTreeItem item : added) {
+      items.put(item.getFile(), item);
+      if (gitStatusService != null) {
+        colorItem(item);
       }
     }
+  }
+
+  private void colorItem(LazyFileTreeItem item) {
+    GitStatus status = gitStatusService.getStatus(GitUtils.asRelativePath(item.getFile(), getRootDir()));
+    if (status == GIT_NONE && item.getParent() != null
+        && GIT_IGNORED.getStyle().equals(item.getParent().getValue().getStyle())) {
+      // git only reports the top level ignored dir
+      status = GIT_IGNORED;
+    }
+    item.getValue().setStyle(status.getStyle());
+  }
+
+  private void directoriesChanged(Set<Path> dirs) {
     Platform.runLater(() -> {
-      try {
-        git = Git.open(rootDir);
-        String branch = git.getRepository().getBranch();
-        inoutComponent.getBranchLabel().setText("Branch: " + branch);
-        Status status;
-        try {
-          status = git.status().call();
-        } catch (GitAPIException e) {
-          ExceptionAlert.showAlert("Failed to get git status", e);
-          return;
+      List<String> gitPaths = new ArrayList<>();
+      for (Path dir : dirs) {
+        LazyFileTreeItem item = loadedDirs.get(dir.toFile());
+        if (item != null) {
+          item.reload();
+          gitPaths.add(GitUtils.asRelativePath(dir.toFile(), getRootDir()));
         }
-        walkAndColor(getRoot(), status);
-      } catch (Exception e) {
-        log.error("Failed to set git colors", e);
-        ExceptionAlert.showAlert("Failed to set git colors", e);
+      }
+      if (gitStatusService != null && !gitPaths.isEmpty()) {
+        gitStatusService.refreshPaths(gitPaths);
       }
     });
   }
 
-  private void walkAndColor(TreeItem<FileItem> node,  Status status) {
-      for(TreeItem<FileItem> child: node.getChildren()){
+  private void closeWatcher() {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
 
-        FileItem item = child.getValue();
-        File file = item.getFile();
-        String path = GitUtils.asRelativePath(file, getRootDir());
+  /**
+   * Change which files are hidden from the tree, see {@link FileTreeFilter}
+   *
+   * @param excludes comma separated list of glob patterns
+   */
+  public void setExcludes(String excludes) {
+    filter = new FileTreeFilter(excludes);
+    refresh();
+  }
 
-        if(status.getConflicting().contains(path)) {
-          item.setStyle(GIT_CONFLICT.getStyle());
-          continue;
-        }
-        if(status.getAdded().contains(path)) {
-          item.setStyle(GIT_ADDED.getStyle());
-          continue;
-        }
-        if(status.getChanged().contains(path)) {
-          item.setStyle(GIT_CHANGED.getStyle());
-          continue;
-        }
-        if(status.getModified().contains(path)) {
-          item.setStyle(GIT_MODIFIED.getStyle());
-          continue;
-        }
-        if(status.getUncommittedChanges().contains(path)) {
-          item.setStyle(GIT_UNCOMITTED_CHANGE.getStyle());
-          break;
-        }
-        if(status.getUntracked().contains(path)) {
-          item.setStyle(GIT_UNTRACKED.getStyle());
-          continue;
-        }
-        if(status.getIgnoredNotInIndex().contains(path)) {
-          item.setStyle(GIT_IGNORED.getStyle());
-          continue;
-        }
-        walkAndColor(child, status);
-      }
+  private void startGitStatus(File dir) {
+    stopGitStatus();
+    String[] gitCheck = dir.list((parent, name) -> name.equalsIgnoreCase(".git"));
+    if (gitCheck == null || gitCheck.length == 0) {
+      log.debug("not a git repository, skipping git coloring");
+      return;
+    }
+    log.debug("adding git coloring...");
+    try {
+      git = Git.open(dir);
+    } catch (IOException e) {
+      log.error("Failed to set git colors", e);
+      ExceptionAlert.showAlert("Failed to set git colors", e);
+      return;
+    }
+    gitStatusService = new GitStatusService(git, delta -> Platform.runLater(() -> applyGitDelta(delta)));
+    gitStatusService.refreshAll();
+    updateBranchLabel();
   }
 
-  private void setLeafProperties(TreeItem<FileItem> item) {
-    item.setGraphic(new ImageView(fileUrl));
-    ChangeListener<String> fillListener = (obs, oldName, newName) -> {
-      TreeModificationEvent<FileItem> event = new TreeModificationEvent<>(TreeItem.valueChangedEvent(), item);
-      //log.info("item {} changed color", item.getValue());
-      Event.fireEvent(item, event);
+  private void stopGitStatus() {
+    if (gitStatusService != null) {
+      gitStatusService.close();
+      gitStatusService = null;
+    }
+    if (git != null) {
+      git.close();
+      git = null;
+    }
+  }
+
+  private void updateBranchLabel() {
+    Git currentGit = git;
+    Task<String> task = new Task<>() {
+      @Override
+      protected String call() throws Exception {
+        return currentGit.getRepository().getBranch();
+      }
     };
-    FileItem fileItem = item.getValue();
-    fileItem.addListener(fillListener);
+    task.setOnSucceeded(e -> inoutComponent.getBranchLabel().setText("Branch: " + task.getValue()));
+    task.setOnFailed(e -> log.warn("Failed to get current branch", task.getException()));
+    submit(task);
+  }
+
+  private void applyGitDelta(Map<String, GitStatus> delta) {
+    File root = getRootDir();
+    if (root == null) {
+      return;
+    }
+    for (Map.Entry<String, GitStatus> entry : delta.entrySet()) {
+      LazyFileTreeItem item = items.get(new File(root, entry.getKey()));
+      if (item != null) {
+        item.getValue().setStyle(entry.getValue().getStyle());
+      }
+    }
+  }
+
+  /**
+   * Update the git decoration of a file e.g. after it has been saved
+   */
+  public void updateGitStatus(File file) {
+    if (gitStatusService != null && file != null && getRootDir() != null) {
+      gitStatusService.refreshPaths(List.of(GitUtils.asRelativePath(file, getRootDir())));
+    }
   }
 
   private void handleClick(MouseEvent event) {
@@ -285,34 +413,34 @@ public class FileTree extends TreeView<FileItem> {
   }
 
   public void expandAllChildren(TreeItem<?> item){
-    if(item != null && !item.isLeaf()){
-      item.setExpanded(true);
-      for(TreeItem<?> child:item.getChildren()){
-        expandAllChildren(child);
-      }
+    if (item instanceof LazyFileTreeItem lazyItem) {
+      lazyItem.expandAll();
     }
   }
 
   TreeItem<FileItem> addTreeNode(File file) {
-    TreeItem<FileItem> item = findTreeViewItem(this.getRoot(), file.getParentFile());
+    TreeItem<FileItem> item = findTreeViewItem(file.getParentFile());
     if (item == null) {
       log.info("File saved outside of current working dir");
       return null;
     }
-    TreeItem<FileItem> fileItem = new TreeItem<>(new FileItem(file));
-    addTreeNode(item, fileItem);
-    return fileItem;
-  }
-
-  private void addTreeNode(TreeItem<FileItem> dirItem, TreeItem<FileItem> fileItem) {
-    if (fileItem.getValue().getFile().isDirectory()) {
-      fileItem.setGraphic(new ImageView(folderUrl));
-    } else {
-      setLeafProperties(fileItem);
+    if (!(item instanceof LazyFileTreeItem dirItem) || !dirItem.isLoaded()) {
+      // The listing done when expanding will include the new file
+      item.setExpanded(true);
+      return null;
     }
+    for (TreeItem<FileItem> child : dirItem.getChildren()) {
+      if (child.getValue().getFile().equals(file)) {
+        // Already picked up by the file watcher
+        return child;
+      }
+    }
+    LazyFileTreeItem fileItem = new LazyFileTreeItem(this, file);
     dirItem.getChildren().add(fileItem);
     dirItem.getChildren().sort(treeItemComparator);
     dirItem.setExpanded(true);
+    itemsAdded(List.of(fileItem));
+    return fileItem;
   }
 
   void refresh(File dir) {
@@ -324,49 +452,58 @@ public class FileTree extends TreeView<FileItem> {
       dir = dir.getParentFile();
     }
     setRoot(createTree(dir));
-    sortTree(getRoot());
-    getRoot().setExpanded(true);
     if (inoutComponent.isGitEnabled()) {
-      gitColorTree(getRoot());
+      startGitStatus(dir);
+    } else {
+      stopGitStatus();
     }
     setWorkingDirPref(dir);
     menu = new DynamicContextMenu(this, gui, inoutComponent);
   }
 
+  /**
+   * Re-lists the directories currently shown in the tree, expanded directories stay expanded.
+   */
   public void refresh() {
-    File current = getRoot().getValue().getFile();
-    setRoot(createTree(current));
-    sortTree(getRoot());
+    if (getRoot() == null) {
+      return;
+    }
+    for (LazyFileTreeItem dirItem : new ArrayList<>(loadedDirs.values())) {
+      dirItem.reload();
+    }
     getRoot().setExpanded(true);
-    if (inoutComponent.isGitEnabled()) {
-      gitColorTree(getRoot());
+    if (!inoutComponent.isGitEnabled()) {
+      stopGitStatus();
+      items.values().forEach(item -> item.getValue().setStyle(GIT_NONE.getStyle()));
+    } else if (gitStatusService == null) {
+      startGitStatus(getRootDir());
+    } else {
+      gitStatusService.refreshAll();
+      updateBranchLabel();
     }
     menu = new DynamicContextMenu(this, gui, inoutComponent);
   }
 
-  private TreeItem<FileItem> findTreeViewItem(TreeItem<FileItem> item, File value) {
-    if (item != null && item.getValue().getFile().equals(value)) {
-      return item;
+  private TreeItem<FileItem> findTreeViewItem(File file) {
+    if (file == null) {
+      return null;
+    }
+    LazyFileTreeItem dirItem = loadedDirs.get(file);
+    if (dirItem != null) {
+      return dirItem;
     }
-    if (item != null) {
-      for (TreeItem<FileItem> child : item.getChildren()) {
-        TreeItem<FileItem> s = findTreeViewItem(child, value);
-        if (s != null) {
-          return s;
+    // Not loaded yet but might be a visible child of a loaded dir
+    LazyFileTreeItem parent = loadedDirs.get(file.getParentFile());
+    if (parent != null) {
+      for (TreeItem<FileItem> child : parent.getChildren()) {
+        if (child.getValue().getFile().equals(file)) {
+          return child;
         }
       }
     }
     return null;
   }
 
-  private void sortTree(TreeItem<FileItem> item) {
-    ObservableList<TreeItem<FileItem>> children = item.getChildren();
-    children.sort(treeItemComparator);
-    for (TreeItem<FileItem> child : item.getChildren()) {
-      sortTree(child);
-    }
-  }
-
   private static class TreeItemComparator implements Comparator<TreeItem<FileItem>>, Serializable {
 
     private static final long serialVersionUID = -7749561517249799967L;
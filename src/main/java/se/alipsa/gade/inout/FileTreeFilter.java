@@ -0,0 +1,85 @@
+package se.alipsa.gade.inout;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides which files are excluded from the project file tree.
+ * <p>
+ * The excludes are given as a comma separated list of glob patterns. A pattern without a '/'
+ * is matched against the file name only (e.g. {@code node_modules} or {@code *.class}), a pattern
+ * containing a '/' is matched against the path relative to the project root (e.g. {@code data/raw/**}).
+ */
+public class FileTreeFilter {
+
+  public static final String DEFAULT_EXCLUDES = ".git, node_modules, .gradle, .idea";
+
+  private final List<PathMatcher> nameMatchers = new ArrayList<>();
+  private final List<PathMatcher> pathMatchers = new ArrayList<>();
+  private final List<String> patterns = new ArrayList<>();
+
+  public FileTreeFilter(String excludes) {
+    if (excludes == null) {
+      return;
+    }
+    for (String pattern : excludes.split(",")) {
+      String glob = pattern.trim();
+      if (glob.isEmpty()) {
+        continue;
+      }
+      patterns.add(glob);
+      PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+      if (glob.contains("/")) {
+        pathMatchers.add(matcher);
+      } else {
+        nameMatchers.add(matcher);
+      }
+    }
+  }
+
+  /**
+   * @param rootDir the project root the tree is showing
+   * @param file the file to check
+   * @return true if the file should be shown in the tree
+   */
+  public boolean accept(File rootDir, File file) {
+    return !isExcluded(rootDir.toPath(), file.toPath());
+  }
+
+  public boolean isExcluded(Path rootDir, Path file) {
+    Path fileName = file.getFileName();
+    if (fileName == null) {
+      return false;
+    }
+    for (PathMatcher matcher : nameMatchers) {
+      if (matcher.matches(fileName)) {
+        return true;
+      }
+    }
+    if (pathMatchers.isEmpty()) {
+      return false;
+    }
+    Path relative;
+    try {
+      relative = rootDir.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+    } catch (IllegalArgumentException e) {
+      // Different roots (e.g. another drive), cannot be relative to the project
+      return false;
+    }
+    for (PathMatcher matcher : pathMatchers) {
+      if (matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<String> getPatterns() {
+    return Collections.unmodifiableList(patterns);
+  }
+}
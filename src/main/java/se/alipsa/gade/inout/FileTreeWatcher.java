@@ -0,0 +1,133 @@
+package se.alipsa.gade.inout;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the directories currently loaded in the file tree and reports which of them
+ * have had entries created or deleted. Events arriving close together are coalesced so that
+ * e.g. a build writing thousands of files results in one notification per directory.
+ */
+class FileTreeWatcher implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(FileTreeWatcher.class);
+  private static final long COALESCE_MILLIS = 300;
+
+  private final WatchService watchService;
+  private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+  private final Consumer<Set<Path>> changeListener;
+  private final Thread watchThread;
+  private volatile boolean running = true;
+
+  /**
+   * @param changeListener called from the watcher thread with the directories whose content changed
+   */
+  FileTreeWatcher(Consumer<Set<Path>> changeListener) throws IOException {
+    this.changeListener = changeListener;
+    watchService = FileSystems.getDefault().newWatchService();
+    watchThread = new Thread(this::processEvents, "gade-filetree-watcher");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  void register(Path dir) {
+    if (!running || keys.containsKey(dir)) {
+      return;
+    }
+    try {
+      keys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE));
+    } catch (IOException | ClosedWatchServiceException e) {
+      log.debug("Failed to watch {}: {}", dir, e.toString());
+    }
+  }
+
+  /**
+   * Stop watching the dir and everything below it
+   */
+  void unregister(Path dir) {
+    keys.entrySet().removeIf(entry -> {
+      if (entry.getKey().startsWith(dir)) {
+        entry.getValue().cancel();
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private void processEvents() {
+    while (running) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+      Set<Path> changed = new LinkedHashSet<>();
+      try {
+        collect(key, changed);
+        // Coalesce bursts of events into a single notification per dir
+        WatchKey next;
+        while ((next = watchService.poll(COALESCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          collect(next, changed);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+      if (!changed.isEmpty()) {
+        try {
+          changeListener.accept(changed);
+        } catch (RuntimeException e) {
+          log.warn("Failed to handle file changes in {}", changed, e);
+        }
+      }
+    }
+  }
+
+  private void collect(WatchKey key, Set<Path> changed) {
+    Path dir = (Path) key.watchable();
+    boolean relevant = false;
+    for (var event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW || event.kind() == ENTRY_CREATE || event.kind() == ENTRY_DELETE) {
+        relevant = true;
+      }
+    }
+    if (relevant) {
+      changed.add(dir);
+    }
+    if (!key.reset()) {
+      // The directory is no longer accessible (typically deleted)
+      keys.remove(dir, key);
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    keys.values().forEach(WatchKey::cancel);
+    keys.clear();
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.debug("Failed to close watch service", e);
+    }
+    watchThread.interrupt();
+  }
+}
@@ -26,6 +26,8 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.console.ConsoleTextArea;
+import se.alipsa.gade.inout.index.FindInFilesTab;
+import se.alipsa.gade.inout.plot.PlotHistory;
 import se.alipsa.gade.inout.plot.PlotsTab;
 import se.alipsa.gade.inout.viewer.ViewTab;
 import se.alipsa.gade.runtime.RuntimeConfig;
@@ -42,6 +44,7 @@ public class InoutComponent extends TabPane  {
   private final PackagesTab packages;
   private final ViewTab viewer;
   private final HelpTab helpTab;
+  private final FindInFilesTab findInFilesTab;
   private final Gade gui;
   private final Label branchLabel;
   private final TextField statusField;
@@ -99,6 +102,8 @@ public class InoutComponent extends TabPane  {
     getTabs().add(filesTab);
 
     plotsTab = new PlotsTab();
+    plotsTab.setLimits(gui.getPrefs().getInt(PLOT_HISTORY_LIVE_PLOTS, PlotHistory.LIVE_PLOTS_DEFAULT),
+        gui.getPrefs().getInt(PLOT_HISTORY_MAX_PLOTS, PlotHistory.MAX_PLOTS_DEFAULT));
 
     getTabs().add(plotsTab);
 
@@ -115,6 +120,10 @@ public class InoutComponent extends TabPane  {
 
     getTabs().add(viewer);
 
+    findInFilesTab = new FindInFilesTab(gui);
+    getTabs().add(findInFilesTab);
+    findInFilesTab.setProjectDir(projectDir());
+
     setTabClosingPolicy(TabClosingPolicy.UNAVAILABLE);
 
 
@@ -157,6 +166,7 @@ public class InoutComponent extends TabPane  {
         runtimeManager.setSelectedRuntime(dir, currentRuntime);
       }
       fileTree.refresh(dir);
+      findInFilesTab.setProjectDir(projectDir());
       gui.getConsoleComponent().initGroovy(gui.getActiveRuntime());
       gui.getMainMenu().refreshRuntimesMenu();
     }
@@ -168,7 +178,20 @@ public class InoutComponent extends TabPane  {
 
   public void refreshFileTree() {
     fileTree.refresh();
-    fileTree.getRoot().setExpanded(true);
+  }
+
+  public void setFileTreeExcludes(String excludes) {
+    fileTree.setExcludes(excludes);
+    findInFilesTab.reindex();
+  }
+
+  /**
+   * Show the find in files tab.
+   *
+   * @param text the text to search for, may be null
+   */
+  public void showFindInFiles(String text) {
+    findInFilesTab.activate(text);
   }
 
   public void expandTree() {
@@ -176,12 +199,7 @@ public class InoutComponent extends TabPane  {
   }
 
   public void expandTreeNodes(TreeItem<?> item) {
-    if (item != null && !item.isLeaf()) {
-      item.setExpanded(true);
-      for (TreeItem<?> child : item.getChildren()) {
-        expandTreeNodes(child);
-      }
-    }
+    fileTree.expandAllChildren(item);
   }
 
   public void fileAdded(File file) {
@@ -303,6 +321,15 @@ public class InoutComponent extends TabPane  {
     return fileTree.getGit();
   }
 
+  /**
+   * Refresh the git decoration of the file in the file tree (in the background)
+   */
+  public void updateGitStatus(File file) {
+    if (enableGit) {
+      fileTree.updateGitStatus(file);
+    }
+  }
+
   public Label getBranchLabel() {
     return branchLabel;
   }
@@ -0,0 +1,170 @@
+package se.alipsa.gade.inout;
+
+import javafx.beans.value.ChangeListener;
+import javafx.concurrent.Task;
+import javafx.event.Event;
+import javafx.scene.control.TreeItem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file tree node that lists its children the first time it is expanded.
+ * The directory listing is done by a background task, the resulting nodes are added on the FX thread.
+ */
+class LazyFileTreeItem extends TreeItem<FileItem> {
+
+  private static final Logger log = LogManager.getLogger(LazyFileTreeItem.class);
+
+  private final FileTree fileTree;
+  private final boolean directory;
+  private boolean loaded;
+  private boolean loading;
+  private boolean reloadRequested;
+  private boolean expandAllOnLoad;
+
+  LazyFileTreeItem(FileTree fileTree, File file) {
+    this(fileTree, file, file.isDirectory());
+  }
+
+  LazyFileTreeItem(FileTree fileTree, File file, boolean directory) {
+    super(new FileItem(file));
+    this.fileTree = fileTree;
+    this.directory = directory;
+    ChangeListener<String> fillListener = (obs, oldStyle, newStyle) ->
+        Event.fireEvent(this, new TreeModificationEvent<>(TreeItem.valueChangedEvent(), this));
+    getValue().addListener(fillListener);
+    expandedProperty().addListener((obs, wasExpanded, isExpanded) -> {
+      if (directory) {
+        fileTree.expansionChanged(this, isExpanded);
+      }
+      if (isExpanded) {
+        loadChildren();
+      }
+    });
+  }
+
+  @Override
+  public boolean isLeaf() {
+    return !directory;
+  }
+
+  boolean isDirectory() {
+    return directory;
+  }
+
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  File getFile() {
+    return getValue().getFile();
+  }
+
+  /**
+   * Expand this node and, as their children get loaded, all nodes below it.
+   */
+  void expandAll() {
+    if (!directory) {
+      return;
+    }
+    expandAllOnLoad = true;
+    if (loaded) {
+      for (TreeItem<FileItem> child : getChildren()) {
+        ((LazyFileTreeItem) child).expandAll();
+      }
+    }
+    setExpanded(true);
+  }
+
+  void loadChildren() {
+    if (loaded || !directory) {
+      return;
+    }
+    listInBackground();
+  }
+
+  /**
+   * Re-list the directory and merge the result into the existing children so that
+   * expanded sub directories (and their git decoration) are kept.
+   */
+  void reload() {
+    if (!directory) {
+      return;
+    }
+    if (!loaded) {
+      // Nothing has been shown yet so the next expand will pick up the changes
+      return;
+    }
+    listInBackground();
+  }
+
+  private void listInBackground() {
+    if (loading) {
+      reloadRequested = true;
+      return;
+    }
+    loading = true;
+    File dir = getFile();
+    Task<List<File>> task = new Task<>() {
+      @Override
+      protected List<File> call() {
+        return fileTree.listChildren(dir);
+      }
+    };
+    task.setOnSucceeded(e -> {
+      loading = false;
+      mergeChildren(task.getValue());
+      if (reloadRequested) {
+        reloadRequested = false;
+        listInBackground();
+      }
+    });
+    task.setOnFailed(e -> {
+      loading = false;
+      reloadRequested = false;
+      log.warn("Failed to list content of {}", dir, task.getException());
+    });
+    fileTree.submit(task);
+  }
+
+  private void mergeChildren(List<File> files) {
+    Map<File, TreeItem<FileItem>> existing = new HashMap<>();
+    for (TreeItem<FileItem> child : getChildren()) {
+      existing.put(child.getValue().getFile(), child);
+    }
+    List<TreeItem<FileItem>> children = new ArrayList<>(files.size());
+    List<LazyFileTreeItem> added = new ArrayList<>();
+    for (File file : files) {
+      TreeItem<FileItem> child = existing.remove(file);
+      if (child == null) {
+        LazyFileTreeItem item = new LazyFileTreeItem(fileTree, file);
+        added.add(item);
+        child = item;
+      }
+      children.add(child);
+    }
+    getChildren().setAll(children);
+    for (TreeItem<FileItem> removed : existing.values()) {
+      fileTree.itemRemoved((LazyFileTreeItem) removed);
+    }
+    boolean firstLoad = !loaded;
+    loaded = true;
+    if (firstLoad) {
+      fileTree.directoryLoaded(this);
+    }
+    fileTree.itemsAdded(added);
+    for (LazyFileTreeItem item : added) {
+      if (expandAllOnLoad) {
+        item.expandAll();
+      } else if (fileTree.wasExpanded(item.getFile())) {
+        item.setExpanded(true);
+      }
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package se.alipsa.gade.inout.index;
+
+import static se.alipsa.gade.menu.GlobalOptions.FILE_TREE_EXCLUDES;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.RadioButton;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.Gade;
+import se.alipsa.gade.code.CodeTextArea;
+import se.alipsa.gade.code.TextAreaTab;
+import se.alipsa.gade.inout.FileOpener;
+import se.alipsa.gade.inout.FileTreeFilter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Find in files: searches the text or the definitions (symbols) of all files in the project dir using the
+ * {@link ProjectIndex}. Results are updated as you type, double click (or enter) opens the file at the line.
+ */
+public class FindInFilesTab extends Tab {
+
+  private static final Logger log = LogManager.getLogger(FindInFilesTab.class);
+  private static final int MAX_SYMBOLS = 500;
+
+  private final Gade gui;
+  private final TextField queryField = new TextField();
+  private final CheckBox regexCheckBox = new CheckBox(".*");
+  private final CheckBox caseCheckBox = new CheckBox("Aa");
+  private final RadioButton symbolsButton = new RadioButton("Symbols");
+  private final Label statusLabel = new Label();
+  private final ListView<Object> resultView = new ListView<>();
+  private final PauseTransition searchDelay = new PauseTransition(Duration.millis(120));
+  private final AtomicLong generation = new AtomicLong();
+  private final ExecutorService searcher = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "gade-find-in-files");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile ProjectIndex index;
+
+  public FindInFilesTab(Gade gui) {
+    this.gui = gui;
+    setText("Find");
+
+    queryField.setPromptText("Find in files");
+    HBox.setHgrow(queryField, Priority.ALWAYS);
+    regexCheckBox.setTooltip(new Tooltip("Regular expression"));
+    caseCheckBox.setTooltip(new Tooltip("Match case"));
+    ToggleGroup mode = new ToggleGroup();
+    RadioButton textButton = new RadioButton("Text");
+    textButton.setToggleGroup(mode);
+    symbolsButton.setToggleGroup(mode);
+    textButton.setSelected(true);
+    HBox searchBox = new HBox(5, queryField, regexCheckBox, caseCheckBox, textButton, symbolsButton);
+    searchBox.setPadding(new Insets(3));
+
+    searchDelay.setOnFinished(e -> search());
+    queryField.textProperty().addListener((obs, old, text) -> searchDelay.playFromStart());
+    regexCheckBox.selectedProperty().addListener((obs, old, val) -> search());
+    caseCheckBox.selectedProperty().addListener((obs, old, val) -> search());
+    mode.selectedToggleProperty().addListener((obs, old, val) -> search());
+    queryField.setOnAction(e -> search());
+
+    resultView.setCellFactory(list -> new ListCell<>() {
+      @Override
+      protected void updateItem(Object item, boolean empty) {
+        super.updateItem(item, empty);
+        if (empty || item == null) {
+          setText(null);
+        } else if (item instanceof ProjectIndex.Match m) {
+          setText(m.path() + ":" + m.line() + "  " + m.lineText().strip());
+        } else if (item instanceof ProjectIndex.Symbol s) {
+          setText(s.name() + "  (" + s.kind() + ")  " + s.path() + ":" + s.line());
+        } else {
+          setText(String.valueOf(item));
+        }
+      }
+    });
+    resultView.setOnMouseClicked(e -> {
+      if (e.getClickCount() == 2) {
+        openSelected();
+      }
+    });
+    resultView.setOnKeyPressed(e -> {
+      if (e.getCode() == KeyCode.ENTER) {
+        openSelected();
+      }
+    });
+    resultView.setPlaceholder(new Label("Type to search the files of the project"));
+
+    BorderPane pane = new BorderPane();
+    pane.setTop(searchBox);
+    pane.setCenter(resultView);
+    VBox statusBox = new VBox(statusLabel);
+    statusBox.setPadding(new Insets(1, 5, 1, 5));
+    pane.setBottom(statusBox);
+    setContent(pane);
+  }
+
+  /**
+   * Index a (new) project dir, the index of the previous dir is saved and closed.
+   */
+  public void setProjectDir(File dir) {
+    ProjectIndex previous = index;
+    if (previous != null && dir != null && previous.getRoot().equals(dir.toPath().toAbsolutePath().normalize())) {
+      return;
+    }
+    openIndex(dir, previous);
+  }
+
+  /**
+   * The excludes of the file tree changed, rebuild the index with them.
+   */
+  public void reindex() {
+    ProjectIndex previous = index;
+    if (previous != null) {
+      openIndex(previous.getRoot().toFile(), previous);
+    }
+  }
+
+  private void openIndex(File dir, ProjectIndex previous) {
+    if (previous != null) {
+      // closing waits for the index to be saved
+      CompletableFuture.runAsync(previous::close);
+    }
+    if (dir == null || !dir.isDirectory()) {
+      index = null;
+      return;
+    }
+    FileTreeFilter filter = new FileTreeFilter(
+        gui.getPrefs().get(FILE_TREE_EXCLUDES, FileTreeFilter.DEFAULT_EXCLUDES));
+    ProjectIndex projectIndex = new ProjectIndex(dir.toPath(), filter, ProjectIndex.defaultCacheFile(dir.toPath()));
+    index = projectIndex;
+    statusLabel.setText("Indexing " + dir.getName() + "...");
+    CompletableFuture.runAsync(() -> {
+      try {
+        projectIndex.start(true).get();
+      } catch (Exception e) {
+        log.warn("Failed to index {}", dir, e);
+      }
+    }).thenRun(() -> Platform.runLater(() -> {
+      if (index == projectIndex) {
+        statusLabel.setText(projectIndex.fileCount() + " files indexed");
+        search();
+      }
+    }));
+  }
+
+  /**
+   * Select this tab and put the cursor in the search field.
+   *
+   * @param text the initial query, e.g. the selected text of the editor, may be null
+   */
+  public void activate(String text) {
+    getTabPane().getSelectionModel().select(this);
+    if (text != null && !text.isBlank() && !text.contains("\n")) {
+      queryField.setText(text);
+    }
+    Platform.runLater(() -> {
+      queryField.requestFocus();
+      queryField.selectAll();
+    });
+  }
+
+  private void search() {
+    searchDelay.stop();
+    ProjectIndex projectIndex = index;
+    String query = queryField.getText();
+    long gen = generation.incrementAndGet();
+    if (projectIndex == null || query == null || query.isEmpty()) {
+      resultView.getItems().clear();
+      return;
+    }
+    boolean symbols = symbolsButton.isSelected();
+    boolean regex = regexCheckBox.isSelected();
+    boolean matchCase = caseCheckBox.isSelected();
+    searcher.execute(() -> {
+      if (gen != generation.get()) {
+        return;
+      }
+      List<Object> items = new ArrayList<>();
+      String status;
+      try {
+        if (symbols) {
+          items.addAll(projectIndex.findSymbols(query, MAX_SYMBOLS));
+          status = items.size() + " symbols";
+        } else {
+          ProjectIndex.SearchResult result = projectIndex.search(query, regex, matchCase,
+              ProjectIndex.DEFAULT_MAX_RESULTS);
+          items.addAll(result.matches());
+          status = result.matches().size() + (result.truncated() ? "+" : "") + " matches, "
+              + result.candidates() + " of " + result.files() + " files searched in " + result.millis() + " ms";
+        }
+        if (!projectIndex.isReady()) {
+          status += " (indexing...)";
+        }
+      } catch (PatternSyntaxException e) {
+        status = "Invalid regex: " + e.getDescription();
+      }
+      String finalStatus = status;
+      Platform.runLater(() -> {
+        if (gen == generation.get()) {
+          resultView.getItems().setAll(items);
+          statusLabel.setText(finalStatus);
+        }
+      });
+    });
+  }
+
+  private void openSelected() {
+    Object item = resultView.getSelectionModel().getSelectedItem();
+    ProjectIndex projectIndex = index;
+    if (item == null || projectIndex == null) {
+      return;
+    }
+    String path;
+    int line;
+    int column;
+    if (item instanceof ProjectIndex.Match m) {
+      path = m.path();
+      line = m.line();
+      column = m.column() - 1;
+    } else if (item instanceof ProjectIndex.Symbol s) {
+      path = s.path();
+      line = s.line();
+      column = 0;
+    } else {
+      return;
+    }
+    File file = projectIndex.getRoot().resolve(path).toFile();
+    TextAreaTab tab = new FileOpener(gui.getCodeComponent()).openFile(file, false);
+    if (tab == null) {
+      return;
+    }
+    CodeTextArea codeArea = tab.getCodeArea();
+    Platform.runLater(() -> {
+      int paragraph = Math.min(line - 1, codeArea.getParagraphs().size() - 1);
+      int col = Math.min(column, codeArea.getParagraphLength(paragraph));
+      codeArea.moveTo(paragraph, col);
+      codeArea.requestFollowCaret();
+      codeArea.requestFocus();
+    });
+  }
+}
@@ -0,0 +1,136 @@
+package se.alipsa.gade.inout.index;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches every directory of the project index for created, deleted and modified files. Unlike the file tree
+ * watcher, which only watches the directories that are expanded, all directories below the root are registered
+ * (by the index as it walks the tree). Events arriving close together are coalesced into one notification per
+ * directory.
+ */
+class IndexWatcher implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(IndexWatcher.class);
+  private static final long COALESCE_MILLIS = 300;
+
+  private final WatchService watchService;
+  private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+  private final Path root;
+  private final ChangeListener changeListener;
+  private final Thread watchThread;
+  private volatile boolean running = true;
+
+  /** Receives the changes, called from the watcher thread */
+  @FunctionalInterface
+  interface ChangeListener {
+    /**
+     * @param dirs the directories whose content changed
+     * @param overflow true if events were lost, so anything below the root may have changed
+     */
+    void changed(Set<Path> dirs, boolean overflow);
+  }
+
+  IndexWatcher(Path root, ChangeListener changeListener) throws IOException {
+    this.root = root;
+    this.changeListener = changeListener;
+    watchService = FileSystems.getDefault().newWatchService();
+    watchThread = new Thread(this::processEvents, "gade-index-watcher");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  void register(Path dir) {
+    if (!running || keys.containsKey(dir)) {
+      return;
+    }
+    try {
+      keys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+    } catch (IOException | ClosedWatchServiceException e) {
+      log.debug("Failed to watch {}: {}", dir, e.toString());
+    }
+  }
+
+  boolean isRegistered(Path dir) {
+    return keys.containsKey(dir);
+  }
+
+  private void processEvents() {
+    while (running) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+      Set<Path> changed = new LinkedHashSet<>();
+      boolean overflow;
+      try {
+        overflow = collect(key, changed);
+        WatchKey next;
+        while ((next = watchService.poll(COALESCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          overflow |= collect(next, changed);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        break;
+      }
+      if (!changed.isEmpty()) {
+        try {
+          changeListener.changed(changed, overflow);
+        } catch (RuntimeException e) {
+          log.warn("Failed to handle file changes in {}", changed, e);
+        }
+      }
+    }
+  }
+
+  /** @return true if events were lost */
+  private boolean collect(WatchKey key, Set<Path> changed) {
+    Path dir = (Path) key.watchable();
+    boolean overflow = false;
+    for (var event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        overflow = true;
+        changed.add(root);
+      } else {
+        changed.add(dir);
+      }
+    }
+    if (!key.reset()) {
+      // The directory is no longer accessible (typically deleted), the parent gets a delete event
+      keys.remove(dir, key);
+    }
+    return overflow;
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    keys.values().forEach(WatchKey::cancel);
+    keys.clear();
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.debug("Failed to close watch service", e);
+    }
+    watchThread.interrupt();
+  }
+}
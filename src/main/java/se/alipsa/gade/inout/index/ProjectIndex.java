@@ -0,0 +1,968 @@
+package se.alipsa.gade.inout.index;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.gade.inout.FileTreeFilter;
+import se.alipsa.gade.utils.ClasspathCacheManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A full text and symbol index of the text files of a project.
+ * <p>
+ * For every file the set of trigrams (three character sequences, lower cased) is kept, and for every trigram the
+ * ids of the files containing it. A search first intersects the postings of the trigrams of the literal parts of
+ * the query and then runs the real (regex) match only on the candidate files, so most of a large tree is never read.
+ * Definitions in Groovy, SQL and gmd files (classes, methods, top level variables, tables, views, procedures,
+ * headings) are kept in a symbol table.
+ * <p>
+ * The index is built on a background thread, persisted in the cache dir so that only changed files need to be
+ * read when the project is opened again, and kept up to date from file watcher events.
+ * <p><b>Thread-Safety:</b> This class is thread-safe, searches may run while the index is updated.</p>
+ */
+public class ProjectIndex implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(ProjectIndex.class);
+
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x47494458; // GIDX
+  public static final long MAX_FILE_SIZE = 2L * 1024 * 1024;
+  public static final int DEFAULT_MAX_RESULTS = 1000;
+  private static final int MAX_LINE_LENGTH = 300;
+  /** Save the index at most this often while files are changing */
+  private static final long SAVE_INTERVAL_MILLIS = 30_000;
+
+  static final Set<String> EXTENSIONS = Set.of("groovy", "gvy", "gy", "gsh", "gradle", "java", "sql", "gmd", "md",
+      "r", "txt", "properties", "xml", "json", "yml", "yaml", "html", "css", "js", "sh", "sas", "toml");
+  static final Set<String> IGNORED_DIRS = Set.of(".git", ".gradle", ".idea", "node_modules", "build", "target");
+
+  private static final Pattern GROOVY_TYPE = Pattern.compile(
+      "^\\s*(?:(?:public|private|protected|static|final|abstract|sealed)\\s+)*(class|interface|trait|enum|record)"
+          + "\\s+(\\w+)");
+  private static final Pattern GROOVY_METHOD = Pattern.compile(
+      "^\\s*(?:(?:public|private|protected|static|final|abstract|synchronized)\\s+)*"
+          + "(?:def|void|int|long|double|float|boolean|char|byte|short|[A-Z][\\w.]*(?:<[^()]*>)?(?:\\[])*)"
+          + "\\s+(\\w+)\\s*\\(");
+  private static final Pattern GROOVY_VARIABLE = Pattern.compile(
+      "^(?:def|final|var|[A-Z][\\w.]*(?:<[^()=]*>)?)\\s+(\\w+)\\s*=");
+  private static final Pattern SQL_DEFINITION = Pattern.compile(
+      "^\\s*create\\s+(?:or\\s+replace\\s+)?(?:(?:global\\s+|local\\s+)?temp(?:orary)?\\s+)?"
+          + "(table|view|materialized\\s+view|procedure|proc|function|index|unique\\s+index|schema|sequence|trigger)"
+          + "\\s+(?:if\\s+not\\s+exists\\s+)?([\\w.\\[\\]\"`]+)", Pattern.CASE_INSENSITIVE);
+  private static final Pattern MARKDOWN_HEADING = Pattern.compile("^#{1,6}\\s+(.+?)\\s*#*\\s*$");
+
+  /** A definition found in a file, line is 1 based */
+  public record Symbol(String name, String kind, String path, int line) {
+  }
+
+  /** A matching line, line and column are 1 based */
+  public record Match(String path, int line, int column, int length, String lineText) {
+  }
+
+  /**
+   * The result of a search.
+   *
+   * @param matches the matching lines, sorted by path and line
+   * @param candidates the number of files that had to be read
+   * @param files the number of files in the index
+   * @param truncated true if there were more than max results matches
+   */
+  public record SearchResult(List<Match> matches, int candidates, int files, long millis, boolean truncated) {
+  }
+
+  private static final class FileEntry {
+    final int id;
+    final String path;
+    final long modified;
+    final long size;
+    final int[] trigrams;
+    final List<Symbol> symbols;
+
+    FileEntry(int id, String path, long modified, long size, int[] trigrams, List<Symbol> symbols) {
+      this.id = id;
+      this.path = path;
+      this.modified = modified;
+      this.size = size;
+      this.trigrams = trigrams;
+      this.symbols = symbols;
+    }
+
+    FileEntry withId(int newId) {
+      return new FileEntry(newId, path, modified, size, trigrams, symbols);
+    }
+  }
+
+  /** The ids of the files containing a trigram, in ascending order */
+  private static final class Postings {
+    int[] ids = new int[4];
+    int size;
+
+    void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+  }
+
+  private final Path root;
+  private final FileTreeFilter filter;
+  private final Path cacheFile;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, FileEntry> files = new HashMap<>();
+  private final List<FileEntry> byId = new ArrayList<>();
+  private final Map<Integer, Postings> postings = new HashMap<>();
+  private int removed;
+  private volatile boolean dirty;
+  private volatile long lastSave;
+  private volatile boolean ready;
+  private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "gade-project-index");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+  private IndexWatcher watcher;
+
+  /**
+   * @param root the project dir
+   * @param filter excludes files the same way as the file tree
+   * @param cacheFile where the index is persisted, null to not persist it
+   */
+  public ProjectIndex(Path root, FileTreeFilter filter, Path cacheFile) {
+    this.root = root.toAbsolutePath().normalize();
+    this.filter = filter;
+    this.cacheFile = cacheFile;
+  }
+
+  /** @return the cache file for the index of a project dir, in ~/.gade/cache/index */
+  public static Path defaultCacheFile(Path root) {
+    String key;
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(root.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+      key = HexFormat.of().formatHex(digest, 0, 12);
+    } catch (NoSuchAlgorithmException e) {
+      key = Integer.toHexString(root.toAbsolutePath().normalize().toString().hashCode());
+    }
+    return ClasspathCacheManager.getCacheDir().toPath().resolve("index").resolve(key + ".idx");
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Load the persisted index, bring it up to date with the files on disk and start watching for changes, all in the
+   * background.
+   *
+   * @param watch true to keep the index up to date using a file watcher
+   * @return the future of the initial build
+   */
+  public Future<?> start(boolean watch) {
+    return indexer.submit(() -> {
+      long start = System.currentTimeMillis();
+      load();
+      IndexWatcher w = null;
+      if (watch) {
+        try {
+          w = new IndexWatcher(root, this::directoriesChanged);
+        } catch (IOException e) {
+          log.warn("Failed to create file watcher, the project index is only updated on refresh", e);
+        }
+      }
+      watcher = w;
+      int changed = sync(root, true);
+      ready = true;
+      save();
+      log.info("Indexed {} files in {} ({} read) in {} ms", fileCount(), root, changed,
+          System.currentTimeMillis() - start);
+    });
+  }
+
+  /** @return true once the initial build is done */
+  public boolean isReady() {
+    return ready;
+  }
+
+  public int fileCount() {
+    lock.readLock().lock();
+    try {
+      return files.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Bring the index up to date with everything below the dir, e.g. after a refresh.
+   */
+  public Future<?> refresh(Path dir) {
+    return indexer.submit(() -> {
+      sync(dir, true);
+      saveIfDue();
+    });
+  }
+
+  /**
+   * @param overflow true if the watcher lost events, then everything below the root is synced
+   */
+  Future<?> directoriesChanged(Set<Path> dirs, boolean overflow) {
+    return indexer.submit(() -> {
+      if (overflow) {
+        sync(root, true);
+      } else {
+        for (Path dir : dirs) {
+          sync(dir, false);
+        }
+      }
+      saveIfDue();
+    });
+  }
+
+  /**
+   * Index new and changed files and remove deleted ones.
+   *
+   * @param dir the dir to sync
+   * @param recursive true to sync all subdirs, false to only sync the files in dir (and new subdirs)
+   * @return the number of files that were (re)indexed
+   */
+  private int sync(Path dir, boolean recursive) {
+    String prefix = relative(dir);
+    Set<String> seen = new HashSet<>();
+    int[] changed = {0};
+    if (Files.isDirectory(dir)) {
+      walk(dir, recursive, seen, changed);
+    } else {
+      // the dir is gone, and with it everything below it
+      recursive = true;
+    }
+    // anything not seen in the synced part of the tree is gone, as is anything in a subdir that was deleted
+    List<String> gone = new ArrayList<>();
+    Map<String, Boolean> subdirExists = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      for (String path : files.keySet()) {
+        if (!prefix.isEmpty() && !path.startsWith(prefix + "/")) {
+          continue;
+        }
+        String rest = prefix.isEmpty() ? path : path.substring(prefix.length() + 1);
+        int slash = rest.indexOf('/');
+        if (recursive || slash < 0) {
+          if (!seen.contains(path)) {
+            gone.add(path);
+          }
+        } else {
+          String subdir = rest.substring(0, slash);
+          if (!subdirExists.computeIfAbsent(subdir, d -> Files.isDirectory(dir.resolve(d)))) {
+            gone.add(path);
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (!gone.isEmpty()) {
+      lock.writeLock().lock();
+      try {
+        gone.forEach(this::removeEntry);
+        compactIfNeeded();
+      } finally {
+        lock.writeLock().unlock();
+      }
+      dirty = true;
+    }
+    return changed[0];
+  }
+
+  private void walk(Path dir, boolean recursive, Set<String> seen, int[] changed) {
+    IndexWatcher w = watcher;
+    if (w != null) {
+      w.register(dir);
+    }
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+      for (Path child : children) {
+        if (filter != null && filter.isExcluded(root, child)) {
+          continue;
+        }
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(child, BasicFileAttributes.class);
+        } catch (IOException e) {
+          continue;
+        }
+        if (attrs.isDirectory()) {
+          String name = child.getFileName().toString();
+          if (IGNORED_DIRS.contains(name)) {
+            continue;
+          }
+          // new dirs are always walked, they are not in the index yet
+          if (recursive || (w != null && !w.isRegistered(child))) {
+            walk(child, true, seen, changed);
+          }
+        } else if (attrs.isRegularFile() && isIndexable(child, attrs.size())) {
+          String path = relative(child);
+          seen.add(path);
+          if (indexIfChanged(child, path, attrs)) {
+            changed[0]++;
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Failed to list {}: {}", dir, e.toString());
+    }
+  }
+
+  static boolean isIndexable(Path file, long size) {
+    if (size > MAX_FILE_SIZE) {
+      return false;
+    }
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  private boolean indexIfChanged(Path file, String path, BasicFileAttributes attrs) {
+    long modified = attrs.lastModifiedTime().toMillis();
+    lock.readLock().lock();
+    try {
+      FileEntry existing = files.get(path);
+      if (existing != null && existing.modified == modified && existing.size == attrs.size()) {
+        return false;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    String text;
+    try {
+      text = readText(file);
+    } catch (IOException e) {
+      log.debug("Failed to read {}: {}", file, e.toString());
+      return false;
+    }
+    if (text == null) {
+      return false;
+    }
+    int[] trigrams = trigrams(text);
+    List<Symbol> symbols = symbols(path, text);
+    lock.writeLock().lock();
+    try {
+      removeEntry(path);
+      addEntry(new FileEntry(byId.size(), path, modified, attrs.size(), trigrams, symbols));
+      compactIfNeeded();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    dirty = true;
+    return true;
+  }
+
+  /** @return the text of the file, or null if it looks like a binary file */
+  private static String readText(Path file) throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    for (int i = 0; i < Math.min(bytes.length, 8000); i++) {
+      if (bytes[i] == 0) {
+        return null;
+      }
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // must hold the write lock
+  private void addEntry(FileEntry entry) {
+    files.put(entry.path, entry);
+    byId.add(entry);
+    for (int trigram : entry.trigrams) {
+      postings.computeIfAbsent(trigram, k -> new Postings()).add(entry.id);
+    }
+  }
+
+  // must hold the write lock
+  private void removeEntry(String path) {
+    FileEntry old = files.remove(path);
+    if (old != null) {
+      // the postings still refer to the id, they are skipped until the next compaction
+      byId.set(old.id, null);
+      removed++;
+    }
+  }
+
+  // must hold the write lock
+  private void compactIfNeeded() {
+    if (removed < 1000 || removed < files.size()) {
+      return;
+    }
+    List<FileEntry> live = byId.stream().filter(e -> e != null).toList();
+    byId.clear();
+    postings.clear();
+    files.clear();
+    removed = 0;
+    for (FileEntry entry : live) {
+      addEntry(entry.withId(byId.size()));
+    }
+  }
+
+  /**
+   * @return the trigram keys of the text, lower cased, sorted and unique
+   */
+  static int[] trigrams(String text) {
+    int n = text.length() - 2;
+    if (n <= 0) {
+      return new int[0];
+    }
+    int[] keys = new int[n];
+    char c0 = Character.toLowerCase(text.charAt(0));
+    char c1 = Character.toLowerCase(text.charAt(1));
+    for (int i = 0; i < n; i++) {
+      char c2 = Character.toLowerCase(text.charAt(i + 2));
+      keys[i] = trigram(c0, c1, c2);
+      c0 = c1;
+      c1 = c2;
+    }
+    return Arrays.stream(keys).sorted().distinct().toArray();
+  }
+
+  /**
+   * Ascii trigrams get a key of their own, other trigrams share keys by hash. A shared key only means that a few
+   * more files are read during a search, the match itself is always done on the text.
+   */
+  private static int trigram(char c0, char c1, char c2) {
+    if (c0 < 128 && c1 < 128 && c2 < 128) {
+      return (c0 << 14) | (c1 << 7) | c2;
+    }
+    return 0x200000 | (((c0 * 31 + c1) * 31 + c2) & 0x1FFFFF);
+  }
+
+  static List<Symbol> symbols(String path, String text) {
+    String lower = path.toLowerCase(Locale.ROOT);
+    boolean sql = lower.endsWith(".sql");
+    boolean groovy = lower.endsWith(".groovy") || lower.endsWith(".gvy") || lower.endsWith(".gy")
+        || lower.endsWith(".gsh") || lower.endsWith(".gradle") || lower.endsWith(".java") || lower.endsWith(".gmd");
+    boolean markdown = lower.endsWith(".gmd") || lower.endsWith(".md");
+    if (!sql && !groovy && !markdown) {
+      return List.of();
+    }
+    List<Symbol> symbols = new ArrayList<>();
+    String[] lines = text.split("\r?\n", -1);
+    boolean inFence = false;
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i];
+      if (markdown && line.startsWith("```")) {
+        inFence = !inFence;
+        continue;
+      }
+      if (markdown && !inFence) {
+        Matcher m = MARKDOWN_HEADING.matcher(line);
+        if (m.find()) {
+          symbols.add(new Symbol(m.group(1), "heading", path, i + 1));
+        }
+        // text outside of code chunks has no code definitions
+        continue;
+      }
+      if (markdown && !groovy) {
+        continue;
+      }
+      if (sql) {
+        Matcher m = SQL_DEFINITION.matcher(line);
+        if (m.find()) {
+          symbols.add(new Symbol(m.group(2), m.group(1).toLowerCase(Locale.ROOT).replaceAll("\\s+", " "), path, i + 1));
+        }
+      } else {
+        Matcher m = GROOVY_TYPE.matcher(line);
+        if (m.find()) {
+          symbols.add(new Symbol(m.group(2), m.group(1), path, i + 1));
+          continue;
+        }
+        m = GROOVY_METHOD.matcher(line);
+        if (m.find()) {
+          symbols.add(new Symbol(m.group(1), "method", path, i + 1));
+          continue;
+        }
+        m = GROOVY_VARIABLE.matcher(line);
+        if (m.find()) {
+          symbols.add(new Symbol(m.group(1), "variable", path, i + 1));
+        }
+      }
+    }
+    return symbols;
+  }
+
+  /**
+   * Search the text of all files.
+   *
+   * @param query the text or regex to find
+   * @param regex true if the query is a regular expression
+   * @param caseSensitive true to match case
+   * @param maxResults the max number of matching lines to return
+   * @return the matching lines
+   * @throws PatternSyntaxException if the regex is invalid
+   */
+  public SearchResult search(String query, boolean regex, boolean caseSensitive, int maxResults) {
+    long start = System.currentTimeMillis();
+    if (query == null || query.isEmpty()) {
+      return new SearchResult(List.of(), 0, fileCount(), 0, false);
+    }
+    // ^ and $ match at the start and end of each line since the matches are lines
+    int flags = Pattern.MULTILINE | (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    Pattern pattern = Pattern.compile(regex ? query : Pattern.quote(query), flags);
+    List<String> literals = regex ? requiredLiterals(query) : List.of(query);
+
+    List<String> candidates;
+    int total;
+    lock.readLock().lock();
+    try {
+      total = files.size();
+      candidates = candidates(literals);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    AtomicInteger found = new AtomicInteger();
+    List<List<Match>> perFile = candidates.parallelStream()
+        .map(path -> found.get() > maxResults ? List.<Match>of() : matchFile(path, pattern, found))
+        .toList();
+    List<Match> matches = new ArrayList<>();
+    perFile.forEach(matches::addAll);
+    matches.sort(Comparator.comparing(Match::path).thenComparingInt(Match::line));
+    boolean truncated = matches.size() > maxResults;
+    if (truncated) {
+      matches = new ArrayList<>(matches.subList(0, maxResults));
+    }
+    return new SearchResult(matches, candidates.size(), total, System.currentTimeMillis() - start, truncated);
+  }
+
+  // must hold the read lock
+  private List<String> candidates(List<String> literals) {
+    List<Postings> lists = new ArrayList<>();
+    for (String literal : literals) {
+      if (literal.length() < 3) {
+        continue;
+      }
+      for (int key : trigrams(literal)) {
+        Postings p = postings.get(key);
+        if (p == null) {
+          return List.of();
+        }
+        lists.add(p);
+      }
+    }
+    List<String> paths = new ArrayList<>();
+    if (lists.isEmpty()) {
+      for (FileEntry entry : byId) {
+        if (entry != null) {
+          paths.add(entry.path);
+        }
+      }
+      return paths;
+    }
+    lists.sort(Comparator.comparingInt(p -> p.size));
+    int[] ids = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+    int count = ids.length;
+    for (int i = 1; i < lists.size() && count > 0; i++) {
+      count = intersect(ids, count, lists.get(i));
+    }
+    for (int i = 0; i < count; i++) {
+      FileEntry entry = byId.get(ids[i]);
+      if (entry != null) {
+        paths.add(entry.path);
+      }
+    }
+    return paths;
+  }
+
+  /** Keep the ids (sorted, first count are used) that are also in the postings, returns the new count */
+  private static int intersect(int[] ids, int count, Postings other) {
+    int n = 0;
+    int j = 0;
+    for (int i = 0; i < count && j < other.size; i++) {
+      int id = ids[i];
+      // galloping would be faster for very uneven sizes, the lists are sorted smallest first so this is fine
+      while (j < other.size && other.ids[j] < id) {
+        j++;
+      }
+      if (j < other.size && other.ids[j] == id) {
+        ids[n++] = id;
+      }
+    }
+    return n;
+  }
+
+  private List<Match> matchFile(String path, Pattern pattern, AtomicInteger found) {
+    String text;
+    try {
+      text = readText(root.resolve(path));
+    } catch (IOException e) {
+      return List.of();
+    }
+    if (text == null) {
+      return List.of();
+    }
+    List<Match> matches = new ArrayList<>();
+    // the region is only used to skip to the next line, ^ must not match at its start unless a line starts there
+    Matcher m = pattern.matcher(text).useAnchoringBounds(false);
+    int line = 1;
+    int lineStart = 0;
+    int scanned = 0;
+    while (m.find()) {
+      // count the lines up to the match
+      for (int i = scanned; i < m.start(); i++) {
+        if (text.charAt(i) == '\n') {
+          line++;
+          lineStart = i + 1;
+        }
+      }
+      scanned = m.start();
+      int lineEnd = text.indexOf('\n', m.start());
+      if (lineEnd < 0) {
+        lineEnd = text.length();
+      }
+      String lineText = text.substring(lineStart, lineEnd).stripTrailing();
+      if (lineText.length() > MAX_LINE_LENGTH) {
+        lineText = lineText.substring(0, MAX_LINE_LENGTH);
+      }
+      matches.add(new Match(path, line, m.start() - lineStart + 1, m.end() - m.start(), lineText));
+      found.incrementAndGet();
+      // one match per line is enough for the result list
+      if (lineEnd >= text.length()) {
+        break;
+      }
+      m.region(lineEnd + 1, text.length());
+    }
+    return matches;
+  }
+
+  /**
+   * Find the literal strings that every match of the regex must contain. Only simple cases are handled, a regex
+   * with alternation gives no literals (i.e. all files are searched).
+   */
+  static List<String> requiredLiterals(String regex) {
+    List<String> literals = new ArrayList<>();
+    StringBuilder run = new StringBuilder();
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '|' -> {
+          return List.of();
+        }
+        case '\\' -> {
+          if (i + 1 >= regex.length()) {
+            break;
+          }
+          char next = regex.charAt(++i);
+          if (Character.isLetterOrDigit(next)) {
+            // a character class (\d, \w), a boundary (\b) or an escape (\n, \Q) etc.
+            if (next == 'Q') {
+              int end = regex.indexOf("\\E", i + 1);
+              String quoted = end < 0 ? regex.substring(i + 1) : regex.substring(i + 1, end);
+              run.append(quoted);
+              i = end < 0 ? regex.length() : end + 1;
+            } else {
+              flush(run, literals);
+            }
+          } else {
+            run.append(next);
+          }
+        }
+        case '[' -> {
+          flush(run, literals);
+          i = skipCharClass(regex, i);
+        }
+        case '*', '?' -> {
+          dropLast(run);
+          flush(run, literals);
+        }
+        case '{' -> {
+          if (regex.startsWith("{0", i) || regex.startsWith("{,", i)) {
+            dropLast(run);
+          }
+          flush(run, literals);
+          int end = regex.indexOf('}', i);
+          i = end < 0 ? regex.length() : end;
+        }
+        case '(' -> {
+          flush(run, literals);
+          if (i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+            // skip group flags such as (?i) or (?:
+            while (i + 1 < regex.length() && regex.charAt(i + 1) != ')' && regex.charAt(i + 1) != ':') {
+              i++;
+            }
+            if (i + 1 < regex.length()) {
+              i++;
+            }
+          }
+        }
+        case ')' -> {
+          flush(run, literals);
+          // a quantified group may be absent
+          if (i + 1 < regex.length() && "*?{".indexOf(regex.charAt(i + 1)) >= 0) {
+            return List.of();
+          }
+        }
+        case '.', '^', '$', '+' -> flush(run, literals);
+        default -> run.append(c);
+      }
+    }
+    flush(run, literals);
+    return literals;
+  }
+
+  private static void flush(StringBuilder run, List<String> literals) {
+    if (run.length() >= 3) {
+      literals.add(run.toString());
+    }
+    run.setLength(0);
+  }
+
+  private static void dropLast(StringBuilder run) {
+    if (!run.isEmpty()) {
+      run.setLength(run.length() - 1);
+    }
+  }
+
+  private static int skipCharClass(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      i++;
+    }
+    while (i < regex.length() && regex.charAt(i) != ']') {
+      if (regex.charAt(i) == '\\') {
+        i++;
+      }
+      i++;
+    }
+    // a quantifier on the class does not matter, the run was flushed
+    return i;
+  }
+
+  /**
+   * Find definitions by name, names starting with the query come first.
+   *
+   * @param query part of the name, case insensitive
+   * @param maxResults the max number of symbols to return
+   */
+  public List<Symbol> findSymbols(String query, int maxResults) {
+    String low = query == null ? "" : query.toLowerCase(Locale.ROOT);
+    List<Symbol> prefixMatches = new ArrayList<>();
+    List<Symbol> containsMatches = new ArrayList<>();
+    lock.readLock().lock();
+    try {
+      for (FileEntry entry : byId) {
+        if (entry == null) {
+          continue;
+        }
+        for (Symbol symbol : entry.symbols) {
+          String name = symbol.name().toLowerCase(Locale.ROOT);
+          if (name.startsWith(low)) {
+            prefixMatches.add(symbol);
+          } else if (name.contains(low)) {
+            containsMatches.add(symbol);
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    Comparator<Symbol> order = Comparator.comparing((Symbol s) -> s.name().length())
+        .thenComparing(Symbol::name).thenComparing(Symbol::path);
+    prefixMatches.sort(order);
+    containsMatches.sort(order);
+    List<Symbol> result = new ArrayList<>(prefixMatches);
+    result.addAll(containsMatches);
+    return result.size() > maxResults ? List.copyOf(result.subList(0, maxResults)) : result;
+  }
+
+  private String relative(Path path) {
+    Path rel = root.relativize(path.toAbsolutePath().normalize());
+    return rel.toString().replace('\\', '/');
+  }
+
+  private void saveIfDue() {
+    if (dirty && System.currentTimeMillis() - lastSave > SAVE_INTERVAL_MILLIS) {
+      save();
+    }
+  }
+
+  /** Write the index to the cache file */
+  void save() {
+    if (cacheFile == null || !dirty) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    List<FileEntry> entries;
+    lock.readLock().lock();
+    try {
+      entries = new ArrayList<>(files.values());
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      Path tmp = Files.createTempFile(cacheFile.getParent(), "index", ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new DeflaterOutputStream(Files.newOutputStream(tmp), new Deflater(Deflater.BEST_SPEED), 64 * 1024)))) {
+        writeIndex(out, entries);
+      }
+      Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      dirty = false;
+      lastSave = System.currentTimeMillis();
+      log.debug("Saved index of {} files to {} in {} ms", entries.size(), cacheFile, lastSave - start);
+    } catch (IOException e) {
+      log.warn("Failed to save the project index to {}", cacheFile, e);
+    }
+  }
+
+  private void writeIndex(DataOutputStream out, List<FileEntry> entries) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeUTF(root.toString());
+    out.writeInt(entries.size());
+    for (FileEntry entry : entries) {
+      out.writeUTF(entry.path);
+      out.writeLong(entry.modified);
+      out.writeLong(entry.size);
+      out.writeInt(entry.trigrams.length);
+      int previous = 0;
+      for (int trigram : entry.trigrams) {
+        writeVarInt(out, trigram - previous);
+        previous = trigram;
+      }
+      out.writeInt(entry.symbols.size());
+      for (Symbol symbol : entry.symbols) {
+        out.writeUTF(symbol.name());
+        out.writeUTF(symbol.kind());
+        out.writeInt(symbol.line());
+      }
+    }
+  }
+
+  private void load() {
+    if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    List<FileEntry> entries = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new InflaterInputStream(Files.newInputStream(cacheFile)), 64 * 1024))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !root.toString().equals(in.readUTF())) {
+        log.info("Ignoring index cache {} created by another version or for another dir", cacheFile);
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        long modified = in.readLong();
+        long size = in.readLong();
+        int[] trigrams = new int[in.readInt()];
+        int previous = 0;
+        for (int t = 0; t < trigrams.length; t++) {
+          previous += readVarInt(in);
+          trigrams[t] = previous;
+        }
+        int symbolCount = in.readInt();
+        List<Symbol> symbols = new ArrayList<>(symbolCount);
+        for (int s = 0; s < symbolCount; s++) {
+          symbols.add(new Symbol(in.readUTF(), in.readUTF(), path, in.readInt()));
+        }
+        entries.add(new FileEntry(i, path, modified, size, trigrams, symbols));
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to read the index cache {}, rebuilding the index", cacheFile, e);
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      files.clear();
+      byId.clear();
+      postings.clear();
+      removed = 0;
+      entries.forEach(this::addEntry);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    log.debug("Loaded index of {} files from {} in {} ms", entries.size(), cacheFile,
+        System.currentTimeMillis() - start);
+  }
+
+  private static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarInt(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of index cache");
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed index cache");
+  }
+
+  /**
+   * Stop watching and save the index, waiting for a running update to finish.
+   */
+  @Override
+  public void close() {
+    if (watcher != null) {
+      watcher.close();
+    }
+    indexer.submit(this::save);
+    indexer.shutdown();
+    try {
+      if (!indexer.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Timed out waiting for the project index of {} to be saved", root);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package se.alipsa.gade.inout.plot;
+
+import javafx.scene.Node;
+import javafx.scene.image.Image;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The plots shown in the plots tab, oldest first.
+ * <p>
+ * Only the newest plots keep their live node (a chart, a web view etc.). Every plot is rasterized to a png when it
+ * leaves the view; once a plot is older than the live plot cap its node is released and the png is shown instead.
+ * The pngs are kept in memory up to a byte budget, older ones are moved to files in the spill dir. When the history
+ * grows beyond its max size the oldest plots are dropped.
+ * <p>
+ * This class does not touch the scene graph, all methods are thread safe.
+ */
+public class PlotHistory {
+
+  public static final int LIVE_PLOTS_DEFAULT = 5;
+  public static final int MAX_PLOTS_DEFAULT = 200;
+  public static final long MEMORY_BUDGET_DEFAULT = 64L * 1024 * 1024;
+
+  private static final Logger log = LogManager.getLogger(PlotHistory.class);
+
+  /** One plot in the history */
+  public static final class Entry {
+    private final long id;
+    private final String title;
+    private Node node;
+    private byte[] png;
+    private Path file;
+    private Image thumbnail;
+
+    private Entry(long id, String title, Node node) {
+      this.id = id;
+      this.title = title;
+      this.node = node;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    /** @return the live node, or null if it has been released */
+    public synchronized Node getNode() {
+      return node;
+    }
+
+    public synchronized boolean isRasterized() {
+      return png != null || file != null;
+    }
+
+    public synchronized Image getThumbnail() {
+      return thumbnail;
+    }
+
+    public synchronized void setThumbnail(Image thumbnail) {
+      this.thumbnail = thumbnail;
+    }
+
+    @Override
+    public String toString() {
+      return title;
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<>();
+  private final Path spillDir;
+  private int livePlots;
+  private int maxPlots;
+  private long memoryBudget;
+  private long memoryUsed;
+  private long nextId;
+
+  /**
+   * @param livePlots how many of the newest plots keep their live node
+   * @param maxPlots the max number of plots in the history
+   * @param memoryBudget the max number of bytes of png data to keep in memory
+   * @param spillDir where png data that does not fit in memory is written
+   */
+  public PlotHistory(int livePlots, int maxPlots, long memoryBudget, Path spillDir) {
+    this.spillDir = spillDir;
+    setLimits(livePlots, maxPlots, memoryBudget);
+  }
+
+  public synchronized void setLimits(int livePlots, int maxPlots, long memoryBudget) {
+    this.livePlots = Math.max(1, livePlots);
+    this.maxPlots = Math.max(this.livePlots, maxPlots);
+    this.memoryBudget = memoryBudget;
+    trim();
+  }
+
+  /**
+   * Add a new plot as the newest entry.
+   *
+   * @return the entry for the plot
+   */
+  public synchronized Entry add(String title, Node node) {
+    Entry entry = new Entry(nextId++, title, node);
+    entries.add(entry);
+    trim();
+    return entry;
+  }
+
+  /**
+   * Store the png data of a plot. Pngs that no longer fit in the memory budget are written to disk, starting with
+   * the oldest.
+   */
+  public synchronized void storeRaster(Entry entry, byte[] png) {
+    synchronized (entry) {
+      if (!entries.contains(entry) || entry.isRasterized()) {
+        return;
+      }
+      entry.png = png;
+    }
+    memoryUsed += png.length;
+    spill();
+    trim();
+  }
+
+  /**
+   * @return the png data of the plot, or null if it has not been rasterized yet
+   */
+  public byte[] getRaster(Entry entry) {
+    Path file;
+    synchronized (entry) {
+      if (entry.png != null) {
+        return entry.png;
+      }
+      file = entry.file;
+    }
+    if (file == null) {
+      return null;
+    }
+    try {
+      return Files.readAllBytes(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read plot from " + file, e);
+    }
+  }
+
+  public synchronized void remove(Entry entry) {
+    if (entries.remove(entry)) {
+      discard(entry);
+    }
+  }
+
+  public synchronized void clear() {
+    entries.forEach(this::discard);
+    entries.clear();
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return List.copyOf(entries);
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the number of plots that still hold a live node */
+  public synchronized int liveCount() {
+    return (int) entries.stream().filter(e -> e.getNode() != null).count();
+  }
+
+  public synchronized long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  private void trim() {
+    while (entries.size() > maxPlots) {
+      discard(entries.remove(0));
+    }
+    // release nodes of old plots, unless they have not been rasterized (then it is the only copy we have)
+    for (int i = 0; i < entries.size() - livePlots; i++) {
+      Entry entry = entries.get(i);
+      synchronized (entry) {
+        if (entry.node != null && entry.isRasterized()) {
+          entry.node = null;
+        }
+      }
+    }
+  }
+
+  private void spill() {
+    for (Entry entry : entries) {
+      if (memoryUsed <= memoryBudget) {
+        return;
+      }
+      synchronized (entry) {
+        if (entry.png == null) {
+          continue;
+        }
+        try {
+          Files.createDirectories(spillDir);
+          Path file = spillDir.resolve("plot-" + entry.id + ".png");
+          Files.write(file, entry.png);
+          memoryUsed -= entry.png.length;
+          entry.file = file;
+          entry.png = null;
+        } catch (IOException e) {
+          log.warn("Failed to write plot {} to {}, keeping it in memory", entry.title, spillDir, e);
+          return;
+        }
+      }
+    }
+  }
+
+  private void discard(Entry entry) {
+    synchronized (entry) {
+      if (entry.png != null) {
+        memoryUsed -= entry.png.length;
+      }
+      if (entry.file != null) {
+        try {
+          Files.deleteIfExists(entry.file);
+        } catch (IOException e) {
+          log.debug("Failed to delete {}", entry.file, e);
+        }
+      }
+      entry.node = null;
+      entry.png = null;
+      entry.file = null;
+      entry.thumbnail = null;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package se.alipsa.gade.inout.plot;
 
+import javafx.application.Platform;
 import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Orientation;
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
@@ -8,6 +10,8 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseButton;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
@@ -17,46 +21,133 @@ import se.alipsa.gade.Gade;
 import se.alipsa.gade.utils.ExceptionAlert;
 
 import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static se.alipsa.gade.Constants.*;
 
+/**
+ * Shows the current plot with a strip of thumbnails of the plot history below it.
+ * <p>
+ * The plots themselves are kept in a {@link PlotHistory}: a plot is rasterized when a new plot replaces it in the
+ * view (the snapshot is taken on the FX thread, encoding and thumbnail scaling happen in the background) and only
+ * the newest plots keep their live node. The thumbnail strip is a virtualized list so a long history is cheap.
+ */
 public class PlotsTab extends Tab {
 
   private static final Logger log = LogManager.getLogger(PlotsTab.class);
-  TabPane imageTabPane;
+  private static final int THUMBNAIL_WIDTH = 120;
+  private static final int THUMBNAIL_HEIGHT = 80;
+
+  private final PlotHistory history;
+  private final ScrollPane plotPane = new ScrollPane();
+  private final ListView<PlotHistory.Entry> thumbnails = new ListView<>();
+  private final ExecutorService rasterizer = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "gade-plot-rasterizer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private PlotHistory.Entry current;
 
   public PlotsTab() {
     setText("Plots");
-    imageTabPane = new TabPane();
-    setContent(imageTabPane);
+    Path spillDir = Path.of(System.getProperty("java.io.tmpdir"), "gade-plots-" + ProcessHandle.current().pid());
+    history = new PlotHistory(PlotHistory.LIVE_PLOTS_DEFAULT, PlotHistory.MAX_PLOTS_DEFAULT,
+        PlotHistory.MEMORY_BUDGET_DEFAULT, spillDir);
+
+    plotPane.setFitToWidth(true);
+    plotPane.setFitToHeight(true);
+
+    thumbnails.setOrientation(Orientation.HORIZONTAL);
+    thumbnails.setPrefHeight(THUMBNAIL_HEIGHT + 40);
+    thumbnails.setMinHeight(THUMBNAIL_HEIGHT + 40);
+    thumbnails.setCellFactory(lv -> new ThumbnailCell());
+    thumbnails.getSelectionModel().selectedItemProperty().addListener((obs, old, entry) -> {
+      if (entry != null && entry != current) {
+        show(entry);
+      }
+    });
+
+    MenuItem removeItem = new MenuItem("remove");
+    removeItem.setOnAction(a -> remove(thumbnails.getSelectionModel().getSelectedItem()));
+    MenuItem clearItem = new MenuItem("remove all");
+    clearItem.setOnAction(a -> clear());
+    thumbnails.setContextMenu(new ContextMenu(removeItem, clearItem));
+
+    BorderPane pane = new BorderPane();
+    pane.setCenter(plotPane);
+    pane.setBottom(thumbnails);
+    setContent(pane);
+  }
+
+  /**
+   * Set the limits of the plot history.
+   *
+   * @param livePlots how many of the newest plots keep their live (interactive) node
+   * @param maxPlots how many plots to keep in the history
+   */
+  public void setLimits(int livePlots, int maxPlots) {
+    history.setLimits(livePlots, maxPlots, PlotHistory.MEMORY_BUDGET_DEFAULT);
+    thumbnails.getItems().retainAll(history.getEntries());
   }
 
   public void showPlot(Node node, String[] title) {
-    Tab tab = new Tab();
-    // v1.1 IMPROVEMENT: Clone node to avoid binding issues when displaying same plot multiple times.
-    // Current implementation reuses the node directly for simplicity.
-    imageTabPane.getTabs().add(tab);
-    if (title.length > 0) {
-      tab.setText(title[0]);
-    }
+    String plotTitle = title.length > 0 ? title[0] : "Plot " + (history.size() + 1);
+    PlotHistory.Entry entry = history.add(plotTitle, node);
+    thumbnails.getItems().add(entry);
+    // the oldest plots are dropped when the history is full
+    thumbnails.getItems().retainAll(history.getEntries());
+    show(entry);
+  }
 
-    ScrollPane scrollPane = new ScrollPane();
-    scrollPane.setContent(node);
+  private void show(PlotHistory.Entry entry) {
+    if (current != null && current != entry) {
+      rasterize(current);
+    }
+    current = entry;
+    Node node = entry.getNode();
+    if (node == null) {
+      node = rasterView(entry);
+    }
+    if (node == null) {
+      plotPane.setContent(new Label(entry.getTitle() + " is no longer available"));
+    } else {
+      plotPane.setContent(node);
+      addContextMenu(entry, node);
+    }
+    thumbnails.getSelectionModel().select(entry);
+    thumbnails.scrollTo(entry);
+  }
 
-    tab.setContent(scrollPane);
+  private Node rasterView(PlotHistory.Entry entry) {
+    byte[] png = history.getRaster(entry);
+    if (png == null) {
+      return null;
+    }
+    ImageView view = new ImageView(new Image(new ByteArrayInputStream(png)));
+    view.setPreserveRatio(true);
+    return view;
+  }
 
+  private void addContextMenu(PlotHistory.Entry entry, Node node) {
     final ContextMenu contextMenu = new ContextMenu();
     final MenuItem item = new MenuItem("save as image file");
     contextMenu.getItems().add(item);
 
     if (node instanceof ImageView view) {
       view.setPreserveRatio(true);
-      view.fitHeightProperty().bind(imageTabPane.heightProperty());
-      view.fitWidthProperty().bind(imageTabPane.widthProperty());
+      view.fitHeightProperty().bind(plotPane.heightProperty());
+      view.fitWidthProperty().bind(plotPane.widthProperty());
 
-      item.setOnAction(a -> promptAndWriteImage(tab.getText(), view.getImage()));
+      item.setOnAction(a -> promptAndWriteImage(entry.getTitle(), view.getImage()));
 
       view.setOnContextMenuRequested(e ->
         contextMenu.show(view, e.getScreenX(), e.getScreenY())
@@ -66,7 +157,7 @@ public class PlotsTab extends Tab {
       param.setDepthBuffer(true);
       item.setOnAction(a -> {
         WritableImage snapshot = view.snapshot(param, null);
-        promptAndWriteImage(tab.getText(), snapshot);
+        promptAndWriteImage(entry.getTitle(), snapshot);
       });
       view.setContextMenuEnabled(false);
       view.setOnMousePressed(e -> {
@@ -82,33 +173,97 @@ public class PlotsTab extends Tab {
       );
       item.setOnAction(a -> {
         try {
-          SnapshotParameters param = new SnapshotParameters();
-          // Chart background fill is not part of the snapshot, need to add it to params
-          //param.setFill(parseColor("-fx-selected-bgcolor")); // works but it is the wrong color i.e. the wrong css rule
-          // WORKAROUND: JavaFX doesn't provide direct CSS style access for chart background.
-          // Using hardcoded theme colors instead. v1.1: Investigate CSS introspection API.
-          var theme = Gade.instance().getPrefs().get(THEME, BLUE_THEME);
-          if (BLUE_THEME.equals(theme)) {
-            param.setFill(Color.rgb(13, 61, 86));
-          } else if (DARK_THEME.equals(theme)) {
-            param.setFill(Color.rgb(69, 69, 69));
-          } else if (BRIGHT_THEME.equals(theme)){
-            param.setFill(Color.rgb(244, 244, 244));
-          } else {
-            param.setFill(Color.TRANSPARENT);
-          }
-
-          param.setDepthBuffer(true);
-          var snapshot = node.snapshot(param, null);
-          promptAndWriteImage(tab.getText(), snapshot);
+          var snapshot = node.snapshot(snapshotParameters(), null);
+          promptAndWriteImage(entry.getTitle(), snapshot);
         } catch (Throwable e) {
           ExceptionAlert.showAlert("Failed to get background", e);
         }
       });
     }
+  }
 
-    SingleSelectionModel<Tab> imageTabsSelectionModel = imageTabPane.getSelectionModel();
-    imageTabsSelectionModel.select(tab);
+  /**
+   * Take a snapshot of the live node of the plot (it must still be in the scene, i.e. be the plot in view) and
+   * encode it in the background.
+   */
+  private void rasterize(PlotHistory.Entry entry) {
+    if (entry == null || entry.isRasterized() || entry.getNode() == null) {
+      return;
+    }
+    WritableImage snapshot;
+    try {
+      snapshot = entry.getNode().snapshot(snapshotParameters(), null);
+    } catch (RuntimeException e) {
+      log.warn("Failed to rasterize plot {}, keeping the live node", entry.getTitle(), e);
+      return;
+    }
+    rasterizer.submit(() -> {
+      try {
+        BufferedImage image = SwingFXUtils.fromFXImage(snapshot, null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        Image thumbnail = SwingFXUtils.toFXImage(scale(image), null);
+        entry.setThumbnail(thumbnail);
+        history.storeRaster(entry, bytes.toByteArray());
+        Platform.runLater(thumbnails::refresh);
+      } catch (IOException | RuntimeException e) {
+        log.warn("Failed to encode plot {}", entry.getTitle(), e);
+      }
+    });
+  }
+
+  private static BufferedImage scale(BufferedImage image) {
+    double ratio = Math.min((double) THUMBNAIL_WIDTH / image.getWidth(), (double) THUMBNAIL_HEIGHT / image.getHeight());
+    int width = Math.max(1, (int) (image.getWidth() * ratio));
+    int height = Math.max(1, (int) (image.getHeight() * ratio));
+    BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = thumbnail.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return thumbnail;
+  }
+
+  private void remove(PlotHistory.Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    history.remove(entry);
+    thumbnails.getItems().remove(entry);
+    if (entry == current) {
+      current = null;
+      plotPane.setContent(null);
+      if (!thumbnails.getItems().isEmpty()) {
+        show(thumbnails.getItems().get(thumbnails.getItems().size() - 1));
+      }
+    }
+  }
+
+  private void clear() {
+    history.clear();
+    thumbnails.getItems().clear();
+    current = null;
+    plotPane.setContent(null);
+  }
+
+  private static SnapshotParameters snapshotParameters() {
+    SnapshotParameters param = new SnapshotParameters();
+    // Chart background fill is not part of the snapshot, need to add it to params
+    //param.setFill(parseColor("-fx-selected-bgcolor")); // works but it is the wrong color i.e. the wrong css rule
+    // WORKAROUND: JavaFX doesn't provide direct CSS style access for chart background.
+    // Using hardcoded theme colors instead. v1.1: Investigate CSS introspection API.
+    var theme = Gade.instance().getPrefs().get(THEME, BLUE_THEME);
+    if (BLUE_THEME.equals(theme)) {
+      param.setFill(Color.rgb(13, 61, 86));
+    } else if (DARK_THEME.equals(theme)) {
+      param.setFill(Color.rgb(69, 69, 69));
+    } else if (BRIGHT_THEME.equals(theme)){
+      param.setFill(Color.rgb(244, 244, 244));
+    } else {
+      param.setFill(Color.TRANSPARENT);
+    }
+    param.setDepthBuffer(true);
+    return param;
   }
 
   void promptAndWriteImage(String title, Image image) {
@@ -124,4 +279,32 @@ public class PlotsTab extends Tab {
       ExceptionAlert.showAlert("Failed to save image", e);
     }
   }
+
+  private static final class ThumbnailCell extends ListCell<PlotHistory.Entry> {
+    private final ImageView imageView = new ImageView();
+    private final Label label = new Label();
+    private final VBox box = new VBox(2, imageView, label);
+
+    private ThumbnailCell() {
+      imageView.setFitWidth(THUMBNAIL_WIDTH);
+      imageView.setFitHeight(THUMBNAIL_HEIGHT);
+      imageView.setPreserveRatio(true);
+      label.setMaxWidth(THUMBNAIL_WIDTH);
+      setPrefWidth(THUMBNAIL_WIDTH + 10);
+    }
+
+    @Override
+    protected void updateItem(PlotHistory.Entry entry, boolean empty) {
+      super.updateItem(entry, empty);
+      if (empty || entry == null) {
+        setGraphic(null);
+        setTooltip(null);
+        return;
+      }
+      imageView.setImage(entry.getThumbnail());
+      label.setText(entry.getTitle());
+      setTooltip(new Tooltip(entry.getTitle()));
+      setGraphic(box);
+    }
+  }
 }
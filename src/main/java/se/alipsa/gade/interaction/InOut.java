@@ -22,15 +22,19 @@ import org.jetbrains.annotations.NotNull;
 import org.knowm.xchart.XChartPanel;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.environment.connections.ConnectionHandler;
+import se.alipsa.gade.environment.connections.QueryResultCache;
 import se.alipsa.matrix.charts.Chart;
 import se.alipsa.matrix.charts.Plot;
-import se.alipsa.matrix.core.Row;
 import se.alipsa.matrix.sql.MatrixSql;
 import se.alipsa.groovy.resolver.*;
 import se.alipsa.matrix.core.Matrix;
 import se.alipsa.groovy.datautil.ConnectionInfo;
 import se.alipsa.gade.model.centralsearch.CentralSearchResult;
+import se.alipsa.gade.runner.ChartExporter;
 import se.alipsa.gade.utils.*;
+import se.alipsa.gade.utils.sql.MatrixDbWriter;
+import se.alipsa.gade.utils.sql.SqlDialect;
+import se.alipsa.gade.utils.sql.SqlScriptExecutor;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,16 +47,17 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static se.alipsa.gade.utils.FileUtils.removeExt;
 
@@ -121,59 +126,121 @@ public class InOut extends se.alipsa.gi.fx.InOut {
     return new ConnectionHandler(ci).connect();
   }
 
-  @NotNull
-  private String dbCreateUpdateSql(String tableName, Row row, String[] matchColumnName) {
-    String sql = "update " + tableName + " set ";
-    List<String> columnNames = new ArrayList<>(row.columnNames());
-    columnNames.removeAll(List.of(matchColumnName));
-    List<String> setValues = new ArrayList<>();
-    columnNames.forEach(n -> setValues.add(n + " = " + quoteIfString(row, n)));
-    sql += String.join(", ", setValues);
-    sql += " where ";
-    List<String> conditions = new ArrayList<>();
-    for (String condition : matchColumnName) {
-      conditions.add(condition + " = " + quoteIfString(row, condition));
-    }
-    sql += String.join(" and ", conditions);
-    log.info("Executing update query: {}", sql);
-    return sql;
-  }
-
-  private String quoteIfString(Row row, String columnName) {
-    var value = row.getAt(columnName);
-    if (value instanceof CharSequence || value instanceof Character) {
-      return "'" + value + "'";
-    }
-    return String.valueOf(value);
-  }
-
+  /**
+   * Run a select query. When the query result cache is enabled (Global options) a result cached earlier is
+   * returned instead of running the query again, which is reported in the console.
+   *
+   * @param sqlQuery the query, "select " is added if it does not start with it
+   */
   public Matrix dbSelect(String connectionName, String sqlQuery) throws SQLException {
     if (!sqlQuery.trim().toLowerCase().startsWith("select ")) {
       sqlQuery = "select " + sqlQuery;
     }
+    QueryResultCache cache = QueryResultCache.shared();
+    ConnectionInfo ci = cache.isEnabled() ? dbConnection(connectionName) : null;
+    QueryResultCache.Hit hit = cache.get(ci, sqlQuery, 0);
+    if (hit != null) {
+      ConnectionHandler.reportCachedResult(connectionName, hit);
+      return hit.result();
+    }
     try (Connection con = dbConnect(connectionName);
          Statement stm = con.createStatement();
          ResultSet rs = stm.executeQuery(sqlQuery)) {
-      return Matrix.builder().data(rs).build();
+      Matrix result = Matrix.builder().data(rs).build();
+      cache.put(ci, sqlQuery, 0, result);
+      return result;
     }
   }
 
+  /**
+   * Drop the cached query results of the connection so that the next query goes to the database.
+   *
+   * @param connectionName the name of the connection defined in the connection tab
+   */
+  public void dbClearCache(String connectionName) {
+    invalidateCache(dbConnection(connectionName));
+  }
+
+  /**
+   * Drop all cached query results.
+   */
+  public void dbClearCache() {
+    QueryResultCache.shared().invalidateAll();
+  }
+
+  /** Called after anything that may write to the database, the cached results of the connection may be stale */
+  private static void invalidateCache(ConnectionInfo ci) {
+    QueryResultCache.shared().invalidate(ci);
+  }
+
+  /**
+   * Update the rows in the table named as the matrix (table.getMatrixName()) that match the values
+   * of the match columns. The rows are written with a prepared statement in batches of
+   * {@link MatrixDbWriter#DEFAULT_BATCH_SIZE} rows, committing after each batch.
+   *
+   * @return the number of rows updated
+   */
   public int dbUpdate(String connectionName, Matrix table, String... matchColumnName) throws SQLException {
-    return dbExecuteBatchUpdate(table, dbConnect(connectionName), matchColumnName);
+    return dbUpdate(connectionName, table, MatrixDbWriter.DEFAULT_BATCH_SIZE, 1, matchColumnName);
   }
 
   public int dbUpdate(ConnectionInfo ci, Matrix table, String... matchColumnName) throws SQLException {
-    return dbExecuteBatchUpdate(table, dbConnect(ci), matchColumnName);
+    try {
+      return new MatrixDbWriter(() -> dbConnect(ci)).update(table, table.getMatrixName(), matchColumnName);
+    } finally {
+      invalidateCache(ci);
+    }
   }
 
-  private int dbExecuteBatchUpdate(Matrix table, Connection connect, String[] matchColumnName) throws SQLException {
-    try (Connection con = connect;
-         Statement stm = con.createStatement()) {
-      for (Row row : table) {
-        stm.addBatch(dbCreateUpdateSql(table.getMatrixName(), row, matchColumnName));
-      }
-      int[] results = stm.executeBatch();
-      return IntStream.of(results).sum();
+  /**
+   * Update the rows in the table named as the matrix, see {@link #dbUpdate(String, Matrix, String...)}.
+   *
+   * @param batchSize the number of rows per batch (and commit)
+   * @param writers the number of connections writing in parallel, each one writing a range of the rows
+   */
+  public int dbUpdate(String connectionName, Matrix table, int batchSize, int writers, String... matchColumnName) throws SQLException {
+    try {
+      return new MatrixDbWriter(() -> dbConnect(connectionName))
+          .setBatchSize(batchSize)
+          .setWriters(writers)
+          .update(table, table.getMatrixName(), matchColumnName);
+    } finally {
+      invalidateCache(dbConnection(connectionName));
+    }
+  }
+
+  /**
+   * Insert or update (if a row with the same match column values exist) the rows of the matrix into
+   * the table named as the matrix. The match columns must be a primary key or unique constraint of the table.
+   *
+   * @return the number of rows affected as reported by the database
+   */
+  public int dbUpsert(String connectionName, Matrix table, String... matchColumnName) throws SQLException {
+    return dbUpsert(connectionName, table, MatrixDbWriter.DEFAULT_BATCH_SIZE, 1, matchColumnName);
+  }
+
+  public int dbUpsert(ConnectionInfo ci, Matrix table, String... matchColumnName) throws SQLException {
+    try {
+      return new MatrixDbWriter(() -> dbConnect(ci)).upsert(table, table.getMatrixName(), matchColumnName);
+    } finally {
+      invalidateCache(ci);
+    }
+  }
+
+  /**
+   * Upsert the rows of the matrix, see {@link #dbUpsert(String, Matrix, String...)}.
+   *
+   * @param batchSize the number of rows per batch (and commit)
+   * @param writers the number of connections writing in parallel, each one writing a range of the rows
+   */
+  public int dbUpsert(String connectionName, Matrix table, int batchSize, int writers, String... matchColumnName) throws SQLException {
+    try {
+      return new MatrixDbWriter(() -> dbConnect(connectionName))
+          .setBatchSize(batchSize)
+          .setWriters(writers)
+          .upsert(table, table.getMatrixName(), matchColumnName);
+    } finally {
+      invalidateCache(dbConnection(connectionName));
     }
   }
 
@@ -195,12 +262,15 @@ public class InOut extends se.alipsa.gi.fx.InOut {
   }
 
   public boolean dbDropTable(String connectionName, String tableName) throws SQLException {
-    try (MatrixSql sql = new MatrixSql(dbConnection(connectionName))) {
+    ConnectionInfo ci = dbConnection(connectionName);
+    try (MatrixSql sql = new MatrixSql(ci)) {
       if (sql.tableExists(tableName)) {
         var result = (Number) sql.dropTable(tableName);
         return result.intValue() > 0;
       }
       return false;
+    } finally {
+      invalidateCache(ci);
     }
   }
 
@@ -232,6 +302,8 @@ public class InOut extends se.alipsa.gi.fx.InOut {
         throw new SQLException("Table '" + tableName + "' already exists, cannot be created");
       }
       sql.create(table, primaryKey);
+    } finally {
+      invalidateCache(connectionInfo);
     }
   }
 
@@ -242,6 +314,8 @@ public class InOut extends se.alipsa.gi.fx.InOut {
         throw new SQLException("Table '" + tableName + "' already exists, cannot be created");
       }
       sql.create(tableName, table, primaryKey);
+    } finally {
+      invalidateCache(connectionInfo);
     }
   }
 
@@ -260,13 +334,54 @@ public class InOut extends se.alipsa.gi.fx.InOut {
       } else {
         return stm.getUpdateCount();
       }
+    } finally {
+      if (!QueryResultCache.isCacheable(sql)) {
+        invalidateCache(dbConnection(connectionName));
+      }
     }
   }
 
+  /**
+   * Execute a sql script file. The file is read and executed one statement at a time, so it can be of any size.
+   * Consecutive insert/update/delete statements are sent in batches and a commit is done every
+   * {@link SqlScriptExecutor#DEFAULT_COMMIT_INTERVAL} statements. How statements are separated (e.g. GO for SQL Server)
+   * depends on the database, see {@link SqlDialect}.
+   *
+   * @return the result of the last query in the script if any, otherwise the total number of rows affected
+   */
   public Object dbExecuteSql(String connectionName, File projectFile) throws IOException,
       SQLException, ExecutionException, InterruptedException {
-    String s = FileUtils.readContent(projectFile);
-    return dbExecuteSql(connectionName, s);
+    return dbExecuteSql(connectionName, projectFile, SqlScriptExecutor.DEFAULT_BATCH_SIZE,
+        SqlScriptExecutor.DEFAULT_COMMIT_INTERVAL);
+  }
+
+  /**
+   * Execute a sql script file, see {@link #dbExecuteSql(String, File)}.
+   *
+   * @param batchSize the max number of statements in a JDBC batch
+   * @param commitInterval the number of statements between commits, 0 to commit only at the end
+   */
+  public Object dbExecuteSql(String connectionName, File projectFile, int batchSize, int commitInterval)
+      throws IOException, SQLException {
+    Charset charset = TikaUtils.instance().detectCharset(projectFile);
+    Matrix[] lastResult = new Matrix[1];
+    String title = projectFile.getName();
+    try (Connection con = dbConnect(connectionName)) {
+      boolean autoCommit = con.getAutoCommit();
+      con.setAutoCommit(false);
+      SqlScriptExecutor executor = new SqlScriptExecutor(con)
+          .setBatchSize(batchSize)
+          .setCommitInterval(commitInterval)
+          .setResultSetHandler((statementNumber, rs) -> lastResult[0] = Matrix.builder().data(rs).build())
+          .setProgressListener(p -> Platform.runLater(() -> gui.getConsoleComponent().addOutput(title,
+              String.format("%s%,d statements executed, %,d rows affected", p.fraction() < 0 ? ""
+                  : String.format("%.0f%%, ", p.fraction() * 100), p.statements(), p.updateCount()), false, true)));
+      SqlScriptExecutor.Progress result = executor.execute(projectFile, charset);
+      con.setAutoCommit(autoCommit);
+      return lastResult[0] != null ? lastResult[0] : result.updateCount();
+    } finally {
+      invalidateCache(dbConnection(connectionName));
+    }
   }
 
   public Object dbExecuteSql(String connectionName, String projectFile, @NotNull Map<String, Object> replacements, boolean... logSql) throws IOException,
@@ -693,6 +808,32 @@ public class InOut extends se.alipsa.gi.fx.InOut {
     }
   }
 
+  public CompletableFuture<ChartExporter.Report> saveAll(List<?> charts, File dir, String format) {
+    return saveAll(charts, dir, format, 800, 600);
+  }
+
+  /**
+   * Save many charts (matrix-charts or XChart charts, or BufferedImages) as chart-0001.png, chart-0002.png etc.
+   * Charts are rendered and written in parallel without going through the JavaFX thread, svg is written directly
+   * by the chart library.
+   *
+   * @param charts the charts to save
+   * @param dir    the dir to save to
+   * @param format png or svg
+   * @param width  the width of png images
+   * @param height the height of png images
+   * @return a future of the report (files written, failures and throughput)
+   */
+  public CompletableFuture<ChartExporter.Report> saveAll(List<?> charts, File dir, String format, int width, int height) {
+    return ChartExporter.saveAll(charts, dir, format, width, height).whenComplete((report, t) -> {
+      if (t != null) {
+        log.warn("Failed to save charts to {}", dir, t);
+      } else {
+        log.info("saveAll: {}", report);
+      }
+    });
+  }
+
   public String help() {
     return "Inout: Providing interaction capabilities between Groovy Code and Gade\n" + helpText(InOut.class, false);
   }
@@ -5,14 +5,13 @@ import javafx.stage.FileChooser;
 import javafx.util.Duration;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.eclipse.jgit.api.Git;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.code.TextAreaTab;
 import se.alipsa.gade.runtime.RuntimeConfig;
 import se.alipsa.gade.runtime.RuntimeType;
+import se.alipsa.gade.utils.Alerts;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gade.utils.FileUtils;
-import se.alipsa.gade.utils.git.GitUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -42,6 +41,9 @@ public class FileOperations {
   }
 
   public void saveContent(TextAreaTab codeArea) {
+    if (isReadOnly(codeArea)) {
+      return;
+    }
     File file = codeArea.getFile();
     if (file == null) {
       file = promptForFile();
@@ -51,17 +53,16 @@ public class FileOperations {
     }
     try {
       saveFile(codeArea, file);
-      Git git = gui.getInoutComponent().getGit();
-      if (codeArea.getTreeItem() != null && git != null) {
-        String path = GitUtils.asRelativePath(codeArea.getFile(), gui.getInoutComponent().projectDir());
-        GitUtils.colorNode(git, path, codeArea.getTreeItem());
-      }
+      gui.getInoutComponent().updateGitStatus(codeArea.getFile());
     } catch (FileNotFoundException e) {
       ExceptionAlert.showAlert("Failed to save file " + file, e);
     }
   }
 
   public void saveContentAs(TextAreaTab codeArea) {
+    if (isReadOnly(codeArea)) {
+      return;
+    }
     File file = promptForFile();
     if (file == null) {
       return;
@@ -73,6 +74,14 @@ public class FileOperations {
     }
   }
 
+  private boolean isReadOnly(TextAreaTab codeArea) {
+    if (codeArea.isReadOnly()) {
+      Alerts.info("Read only", codeArea.getTitle() + " is opened read only and cannot be saved");
+      return true;
+    }
+    return false;
+  }
+
   public File promptForFile() {
     FileChooser fileChooser = new FileChooser();
     fileChooser.setInitialDirectory(gui.getInoutComponent().projectDir());
@@ -19,6 +19,19 @@ public class GlobalOptions extends HashMap<String, Object> {
   public static final String ADD_DEPENDENCIES = "GlobalOptions.addDependencies";
   public static final String PRINT_EVAL_RESULT = "GlobalOptions.printEvalResult";
   public static final String AUTO_CLOSE_BRACKETS = "GlobalOptions.autoCloseBrackets";
+  public static final String FILE_TREE_EXCLUDES = "GlobalOptions.fileTreeExcludes";
+  public static final String LARGE_FILE_THRESHOLD_MB = "GlobalOptions.largeFileThresholdMb";
+  public static final String PLOT_HISTORY_LIVE_PLOTS = "GlobalOptions.plotHistoryLivePlots";
+  public static final String PLOT_HISTORY_MAX_PLOTS = "GlobalOptions.plotHistoryMaxPlots";
+  public static final String SHOW_EVAL_METRICS = "GlobalOptions.showEvalMetrics";
+  public static final String RUNNER_HEAP_ALERT_PERCENT = "GlobalOptions.runnerHeapAlertPercent";
+  public static final String RUNNER_GC_ALERT_PERCENT = "GlobalOptions.runnerGcAlertPercent";
+  public static final String SESSION_SNAPSHOT_MAX_MB = "GlobalOptions.sessionSnapshotMaxMb";
+  public static final String SESSION_SNAPSHOT_MAX_VARIABLE_MB = "GlobalOptions.sessionSnapshotMaxVariableMb";
+  public static final String QUERY_CACHE_MAX_MB = "GlobalOptions.queryCacheMaxMb";
+  public static final String QUERY_CACHE_MAX_DISK_MB = "GlobalOptions.queryCacheMaxDiskMb";
+  public static final String QUERY_CACHE_TTL_MINUTES = "GlobalOptions.queryCacheTtlMinutes";
+  public static final String SQL_MAX_PARALLEL_QUERIES = "GlobalOptions.sqlMaxParallelQueries";
 
   private static final long serialVersionUID = -4781261903018339389L;
 
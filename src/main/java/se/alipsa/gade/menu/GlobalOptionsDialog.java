@@ -11,6 +11,13 @@ import javafx.scene.layout.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.Gade;
+import se.alipsa.gade.code.largefile.LargeFileTab;
+import se.alipsa.gade.code.sqltab.SqlTask;
+import se.alipsa.gade.console.RunnerHealthMonitor;
+import se.alipsa.gade.console.SessionSnapshots;
+import se.alipsa.gade.environment.connections.QueryResultCache;
+import se.alipsa.gade.inout.FileTreeFilter;
+import se.alipsa.gade.inout.plot.PlotHistory;
 import se.alipsa.gade.utils.ExceptionAlert;
 import se.alipsa.gade.utils.GuiUtils;
 import se.alipsa.gade.utils.IntField;
@@ -33,6 +40,19 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
 
   private CheckBox addDependencies;
   private ComboBox<String> timezone;
+  private TextField fileTreeExcludes;
+  private IntField largeFileThreshold;
+  private IntField plotHistoryLivePlots;
+  private IntField plotHistoryMaxPlots;
+  private CheckBox showEvalMetrics;
+  private IntField runnerHeapAlert;
+  private IntField runnerGcAlert;
+  private IntField sessionSnapshotMax;
+  private IntField sessionSnapshotMaxVariable;
+  private IntField queryCacheMax;
+  private IntField queryCacheMaxDisk;
+  private IntField queryCacheTtl;
+  private IntField sqlMaxParallel;
 
   GlobalOptionsDialog(Gade gui) {
     try {
@@ -154,7 +174,91 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
       executionPane.getChildren().add(addDependencies);
       grid.add(executionPane, 0, 8,4, 1);
 
-      getDialogPane().setPrefSize(780, 370);
+      Label fileTreeExcludesLabel = new Label("Hide in file tree");
+      fileTreeExcludesLabel.setTooltip(new Tooltip("Comma separated glob patterns, e.g. node_modules, *.class, data/raw/**\n"
+          + "Patterns without a / match the file name, others the path relative to the project dir"));
+      grid.add(fileTreeExcludesLabel, 0, 9);
+      fileTreeExcludes = new TextField(gui.getPrefs().get(FILE_TREE_EXCLUDES, FileTreeFilter.DEFAULT_EXCLUDES));
+      grid.add(fileTreeExcludes, 1, 9, 3, 1);
+
+      Label largeFileThresholdLabel = new Label("Large file threshold (MB)");
+      largeFileThresholdLabel.setTooltip(new Tooltip("Files larger than this are opened in a read only viewer"));
+      grid.add(largeFileThresholdLabel, 0, 10);
+      largeFileThreshold = new IntField(1, Integer.MAX_VALUE,
+          gui.getPrefs().getInt(LARGE_FILE_THRESHOLD_MB, LargeFileTab.LARGE_FILE_THRESHOLD_MB_DEFAULT));
+      grid.add(largeFileThreshold, 1, 10);
+
+      Label plotHistoryLabel = new Label("Plot history (live / max)");
+      plotHistoryLabel.setTooltip(new Tooltip("The newest plots stay interactive, older plots are kept as images.\n"
+          + "Plots beyond the max are removed from the history"));
+      grid.add(plotHistoryLabel, 0, 11);
+      plotHistoryLivePlots = new IntField(1, 1000,
+          gui.getPrefs().getInt(PLOT_HISTORY_LIVE_PLOTS, PlotHistory.LIVE_PLOTS_DEFAULT));
+      grid.add(plotHistoryLivePlots, 1, 11);
+      plotHistoryMaxPlots = new IntField(1, 100_000,
+          gui.getPrefs().getInt(PLOT_HISTORY_MAX_PLOTS, PlotHistory.MAX_PLOTS_DEFAULT));
+      grid.add(plotHistoryMaxPlots, 2, 11);
+
+      FlowPane evalMetricsPane = new FlowPane();
+      Label showEvalMetricsLabel = new Label("Show run metrics in console");
+      showEvalMetricsLabel.setPadding(new Insets(0, 20, 0, 0));
+      showEvalMetricsLabel.setTooltip(new Tooltip("Print wall and CPU time, allocations, GC and peak heap after each run.\n"
+          + "The metrics of all runs are in Session > Run metrics history"));
+      evalMetricsPane.getChildren().add(showEvalMetricsLabel);
+      showEvalMetrics = new CheckBox();
+      showEvalMetrics.setSelected(gui.getPrefs().getBoolean(SHOW_EVAL_METRICS, false));
+      evalMetricsPane.getChildren().add(showEvalMetrics);
+      grid.add(evalMetricsPane, 0, 12, 4, 1);
+
+      Label runnerAlertsLabel = new Label("Runner alerts (heap % / GC %)");
+      runnerAlertsLabel.setTooltip(new Tooltip("Warn in the console when the runner heap is above this percentage of the "
+          + "max heap,\nor when the runner spends more than this percentage of its time in GC. 0 turns the alert off"));
+      grid.add(runnerAlertsLabel, 0, 13);
+      runnerHeapAlert = new IntField(0, 100,
+          gui.getPrefs().getInt(RUNNER_HEAP_ALERT_PERCENT, RunnerHealthMonitor.HEAP_ALERT_PERCENT_DEFAULT));
+      grid.add(runnerHeapAlert, 1, 13);
+      runnerGcAlert = new IntField(0, 100,
+          gui.getPrefs().getInt(RUNNER_GC_ALERT_PERCENT, RunnerHealthMonitor.GC_ALERT_PERCENT_DEFAULT));
+      grid.add(runnerGcAlert, 2, 13);
+
+      Label sessionSnapshotLabel = new Label("Keep variables on restart (MB / MB per variable)");
+      sessionSnapshotLabel.setTooltip(new Tooltip("When the session is restarted, data (Matrix, lists, maps, strings, "
+          + "numbers etc.) is saved\nand read back into the new session when first used. 0 (the default) turns it off "
+          + "and a restart gives a clean session"));
+      grid.add(sessionSnapshotLabel, 0, 14);
+      sessionSnapshotMax = new IntField(0, 1_000_000,
+          gui.getPrefs().getInt(SESSION_SNAPSHOT_MAX_MB, SessionSnapshots.MAX_MB_DEFAULT));
+      grid.add(sessionSnapshotMax, 1, 14);
+      sessionSnapshotMaxVariable = new IntField(1, 1_000_000,
+          gui.getPrefs().getInt(SESSION_SNAPSHOT_MAX_VARIABLE_MB, SessionSnapshots.MAX_VARIABLE_MB_DEFAULT));
+      grid.add(sessionSnapshotMaxVariable, 2, 14);
+
+      Label queryCacheLabel = new Label("Query result cache (MB / disk MB / minutes)");
+      queryCacheLabel.setTooltip(new Tooltip("Keep the results of select queries from the SQL tab, io.dbSelect and the "
+          + "Connections tab\nand reuse them when the same query is run on the same database again. "
+          + "Reused results are reported in the console.\nResults beyond the memory size are moved to disk (up to the "
+          + "disk size) and results older than the minutes are not reused.\n0 MB turns the cache off, 0 minutes "
+          + "keeps results until they are evicted or cleared"));
+      grid.add(queryCacheLabel, 0, 15);
+      queryCacheMax = new IntField(0, 1_000_000,
+          gui.getPrefs().getInt(QUERY_CACHE_MAX_MB, QueryResultCache.MAX_MB_DEFAULT));
+      grid.add(queryCacheMax, 1, 15);
+      queryCacheMaxDisk = new IntField(0, 1_000_000,
+          gui.getPrefs().getInt(QUERY_CACHE_MAX_DISK_MB, QueryResultCache.MAX_DISK_MB_DEFAULT));
+      grid.add(queryCacheMaxDisk, 2, 15);
+      queryCacheTtl = new IntField(0, 1_000_000,
+          gui.getPrefs().getInt(QUERY_CACHE_TTL_MINUTES, QueryResultCache.TTL_MINUTES_DEFAULT));
+      grid.add(queryCacheTtl, 3, 15);
+
+      Label sqlMaxParallelLabel = new Label("Parallel selects (max connections)");
+      sqlMaxParallelLabel.setTooltip(new Tooltip("The max number of selects run at the same time, each on a connection "
+          + "of its own,\nwhen Parallel selects is selected in a SQL tab"));
+      grid.add(sqlMaxParallelLabel, 0, 16);
+      sqlMaxParallel = new IntField(1, 64,
+          gui.getPrefs().getInt(SQL_MAX_PARALLEL_QUERIES, SqlTask.MAX_PARALLEL_DEFAULT));
+      grid.add(sqlMaxParallel, 1, 16);
+
+      getDialogPane().setPrefSize(780, 640);
       getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
       setResizable(true);
 
@@ -179,6 +283,19 @@ class GlobalOptionsDialog extends Dialog<GlobalOptions> {
     result.put(AUTORUN_PROJECT, autoRunProject.isSelected());
     result.put(ADD_IMPORTS, addImports.isSelected());
     result.put(ADD_DEPENDENCIES, addDependencies.isSelected());
+    result.put(FILE_TREE_EXCLUDES, fileTreeExcludes.getText());
+    result.put(LARGE_FILE_THRESHOLD_MB, largeFileThreshold.getValue());
+    result.put(PLOT_HISTORY_LIVE_PLOTS, plotHistoryLivePlots.getValue());
+    result.put(PLOT_HISTORY_MAX_PLOTS, plotHistoryMaxPlots.getValue());
+    result.put(SHOW_EVAL_METRICS, showEvalMetrics.isSelected());
+    result.put(RUNNER_HEAP_ALERT_PERCENT, runnerHeapAlert.getValue());
+    result.put(RUNNER_GC_ALERT_PERCENT, runnerGcAlert.getValue());
+    result.put(SESSION_SNAPSHOT_MAX_MB, sessionSnapshotMax.getValue());
+    result.put(SESSION_SNAPSHOT_MAX_VARIABLE_MB, sessionSnapshotMaxVariable.getValue());
+    result.put(QUERY_CACHE_MAX_MB, queryCacheMax.getValue());
+    result.put(QUERY_CACHE_MAX_DISK_MB, queryCacheMaxDisk.getValue());
+    result.put(QUERY_CACHE_TTL_MINUTES, queryCacheTtl.getValue());
+    result.put(SQL_MAX_PARALLEL_QUERIES, sqlMaxParallel.getValue());
     return result;
   }
 
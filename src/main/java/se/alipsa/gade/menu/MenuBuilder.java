@@ -28,8 +28,11 @@ import se.alipsa.gade.Gade;
 import se.alipsa.gade.code.CodeTextArea;
 import se.alipsa.gade.code.CodeType;
 import se.alipsa.gade.code.TextAreaTab;
+import se.alipsa.gade.code.largefile.LargeFileTab;
 import se.alipsa.gade.code.munin.MuninGmdTab;
 import se.alipsa.gade.code.munin.MuninGroovyTab;
+import se.alipsa.gade.environment.connections.QueryResultCache;
+import se.alipsa.gade.inout.FileTreeFilter;
 import se.alipsa.gade.model.MuninConnection;
 import se.alipsa.gade.model.MuninReport;
 import se.alipsa.gade.model.ReportType;
@@ -151,6 +154,10 @@ public class MenuBuilder {
   }
 
   public void displayFind() {
+    if (gui.getCodeComponent().getActiveTab() instanceof LargeFileTab largeFileTab) {
+      largeFileTab.focusSearch();
+      return;
+    }
     if (searchWindow != null) {
       searchWindow.toFront();
       searchWindow.requestFocus();
@@ -238,6 +245,13 @@ public class MenuBuilder {
     displayFind();
   }
 
+  private void displayFindInFiles(ActionEvent actionEvent) {
+    TextAreaTab codeTab = gui.getCodeComponent().getActiveTab();
+    CodeTextArea codeArea = codeTab == null ? null : codeTab.getCodeArea();
+    String selected = codeArea == null ? null : codeArea.getSelectedText();
+    gui.getInoutComponent().showFindInFiles(selected);
+  }
+
   public MuninConnection configureMuninConnection() {
     Dialog<MuninConnection> dialog = new Dialog<>();
     GridPane pane = new GridPane();
@@ -429,7 +443,9 @@ public class MenuBuilder {
     redo.setOnAction(this::redo);
     MenuItem find = new MenuItem("Find ctrl+F");
     find.setOnAction(this::displayFind);
-    menu.getItems().addAll(undo, redo, find);
+    MenuItem findInFiles = new MenuItem("Find in files ctrl+shift+F");
+    findInFiles.setOnAction(this::displayFindInFiles);
+    menu.getItems().addAll(undo, redo, find, findInFiles);
     return menu;
   }
 
@@ -668,6 +684,32 @@ public class MenuBuilder {
     gui.getPrefs().putBoolean(ADD_IMPORTS, result.getBoolean(ADD_IMPORTS));
     gui.getPrefs().putBoolean(ADD_DEPENDENCIES, result.getBoolean(ADD_DEPENDENCIES));
 
+    String fileTreeExcludes = result.getString(FILE_TREE_EXCLUDES);
+    if (!fileTreeExcludes.equals(gui.getPrefs().get(FILE_TREE_EXCLUDES, FileTreeFilter.DEFAULT_EXCLUDES))) {
+      gui.getPrefs().put(FILE_TREE_EXCLUDES, fileTreeExcludes);
+      gui.getInoutComponent().setFileTreeExcludes(fileTreeExcludes);
+    }
+
+    gui.getPrefs().putInt(LARGE_FILE_THRESHOLD_MB, result.getInt(LARGE_FILE_THRESHOLD_MB));
+
+    gui.getPrefs().putInt(PLOT_HISTORY_LIVE_PLOTS, result.getInt(PLOT_HISTORY_LIVE_PLOTS));
+    gui.getPrefs().putInt(PLOT_HISTORY_MAX_PLOTS, result.getInt(PLOT_HISTORY_MAX_PLOTS));
+    gui.getInoutComponent().getPlotsTab().setLimits(result.getInt(PLOT_HISTORY_LIVE_PLOTS),
+        result.getInt(PLOT_HISTORY_MAX_PLOTS));
+    gui.getPrefs().putBoolean(SHOW_EVAL_METRICS, result.getBoolean(SHOW_EVAL_METRICS));
+    gui.getPrefs().putInt(RUNNER_HEAP_ALERT_PERCENT, result.getInt(RUNNER_HEAP_ALERT_PERCENT));
+    gui.getPrefs().putInt(RUNNER_GC_ALERT_PERCENT, result.getInt(RUNNER_GC_ALERT_PERCENT));
+    gui.getConsoleComponent().setRunnerHealthAlerts(result.getInt(RUNNER_HEAP_ALERT_PERCENT),
+        result.getInt(RUNNER_GC_ALERT_PERCENT));
+    gui.getPrefs().putInt(SESSION_SNAPSHOT_MAX_MB, result.getInt(SESSION_SNAPSHOT_MAX_MB));
+    gui.getPrefs().putInt(SESSION_SNAPSHOT_MAX_VARIABLE_MB, result.getInt(SESSION_SNAPSHOT_MAX_VARIABLE_MB));
+    gui.getPrefs().putInt(QUERY_CACHE_MAX_MB, result.getInt(QUERY_CACHE_MAX_MB));
+    gui.getPrefs().putInt(QUERY_CACHE_MAX_DISK_MB, result.getInt(QUERY_CACHE_MAX_DISK_MB));
+    gui.getPrefs().putInt(QUERY_CACHE_TTL_MINUTES, result.getInt(QUERY_CACHE_TTL_MINUTES));
+    QueryResultCache.shared().configure(result.getInt(QUERY_CACHE_MAX_MB), result.getInt(QUERY_CACHE_MAX_DISK_MB),
+        result.getInt(QUERY_CACHE_TTL_MINUTES));
+    gui.getPrefs().putInt(SQL_MAX_PARALLEL_QUERIES, result.getInt(SQL_MAX_PARALLEL_QUERIES));
+
     if (shouldRestart) {
       restartEngine.run();
     }
@@ -686,7 +728,13 @@ public class MenuBuilder {
     MenuItem sessionInfo = new MenuItem("SessionInfo");
     sessionInfo.setOnAction(this::showSessionInfo);
 
-    sessionMenu.getItems().addAll(restartMI, interruptMI, sessionInfo);
+    MenuItem evalMetrics = new MenuItem("Run metrics history");
+    evalMetrics.setOnAction(this::showEvalMetricsHistory);
+
+    MenuItem heapHistogram = new MenuItem("Runner heap histogram");
+    heapHistogram.setOnAction(e -> gui.getConsoleComponent().showHeapHistogram());
+
+    sessionMenu.getItems().addAll(restartMI, interruptMI, sessionInfo, evalMetrics, heapHistogram);
     return sessionMenu;
   }
 
@@ -726,6 +774,15 @@ public class MenuBuilder {
     Alerts.showInfoAlert("Session info", content, 600, 300);
   }
 
+  private void showEvalMetricsHistory(ActionEvent actionEvent) {
+    var history = gui.getConsoleComponent().getEvalMetricsHistory();
+    if (history.getEntries().isEmpty()) {
+      Alerts.info("Run metrics history", "No scripts have been run yet");
+      return;
+    }
+    gui.getInoutComponent().viewTable(history.toMatrix(), "Run metrics");
+  }
+
   private void interruptProcess(ActionEvent actionEvent) {
     gui.getConsoleComponent().interruptProcess();
   }
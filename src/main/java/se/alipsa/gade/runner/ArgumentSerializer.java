@@ -1,10 +1,7 @@
 package se.alipsa.gade.runner;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Base64;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,6 +43,17 @@ public class ArgumentSerializer {
    * @return Serialized form (primitives, maps, or strings)
    */
   public static Object serialize(Object arg) {
+    return serialize(arg, null);
+  }
+
+  /**
+   * Serialize an argument for remote method invocation, sending image data to the sink.
+   *
+   * @param arg The argument to serialize
+   * @param imageSink where to stream the chunks of an image, or null to put them in the serialized map
+   * @return Serialized form (primitives, maps, or strings)
+   */
+  public static Object serialize(Object arg, ImageTransfer.ChunkSink imageSink) {
     if (arg == null) {
       return null;
     }
@@ -79,19 +87,19 @@ public class ArgumentSerializer {
       return ConnectionInfoSerializer.serialize(arg);
     }
 
-    // JavaFX Node - render as PNG
+    // JavaFX Node - render as an image
     if (JAVAFX_AVAILABLE && className.startsWith("javafx.scene.")) {
       if (isJavaFXNode(arg)) {
-        return JavaFXSerializer.serializeNode(arg);
+        return JavaFXSerializer.serializeNode(arg, imageSink);
       }
       if (isJavaFXImage(arg)) {
-        return JavaFXSerializer.serializeImage(arg);
+        return JavaFXSerializer.serializeImage(arg, imageSink);
       }
     }
 
-    // BufferedImage - encode as PNG
+    // BufferedImage - encode as configured by ImageTransfer
     if (AWT_AVAILABLE && className.equals("java.awt.image.BufferedImage")) {
-      return ImageSerializer.serializeBufferedImage(arg);
+      return ImageSerializer.serializeBufferedImage(arg, imageSink);
     }
 
     // Fallback: convert to string
@@ -232,12 +240,12 @@ public class ArgumentSerializer {
   // === JavaFX Serialization (lazy-loaded) ===
 
   static class JavaFXSerializer {
-    static Object serializeNode(Object nodeObj) {
+    static Object serializeNode(Object nodeObj, ImageTransfer.ChunkSink imageSink) {
       try {
         javafx.scene.Node node = (javafx.scene.Node) nodeObj;
         javafx.scene.image.WritableImage writableImage = node.snapshot(null, null);
         java.awt.image.BufferedImage buffered = javafx.embed.swing.SwingFXUtils.fromFXImage(writableImage, null);
-        return ImageSerializer.serializeBufferedImage(buffered);
+        return ImageSerializer.serializeBufferedImage(buffered, imageSink);
       } catch (Exception e) {
         System.err.println("ArgumentSerializer: Failed to serialize Node");
         e.printStackTrace(System.err);
@@ -245,11 +253,11 @@ public class ArgumentSerializer {
       }
     }
 
-    static Object serializeImage(Object imageObj) {
+    static Object serializeImage(Object imageObj, ImageTransfer.ChunkSink imageSink) {
       try {
         javafx.scene.image.Image image = (javafx.scene.image.Image) imageObj;
         java.awt.image.BufferedImage buffered = javafx.embed.swing.SwingFXUtils.fromFXImage(image, null);
-        return ImageSerializer.serializeBufferedImage(buffered);
+        return ImageSerializer.serializeBufferedImage(buffered, imageSink);
       } catch (Exception e) {
         System.err.println("ArgumentSerializer: Failed to serialize Image");
         e.printStackTrace(System.err);
@@ -257,18 +265,21 @@ public class ArgumentSerializer {
       }
     }
 
+    /**
+     * Raw pixels are written straight into a WritableImage, this does not need the FX thread.
+     */
     static Object deserializeImage(Map<String, Object> map) {
       try {
-        String base64 = (String) map.get("data");
-        if (base64 == null) {
-          throw new IllegalArgumentException("Image map missing 'data' field");
+        int[] argb = ImageTransfer.decodeArgb(map);
+        if (argb == null) {
+          return javafx.embed.swing.SwingFXUtils.toFXImage(ImageTransfer.decode(map), null);
         }
-
-        byte[] imageBytes = Base64.getDecoder().decode(base64);
-        ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes);
-        java.awt.image.BufferedImage buffered = javax.imageio.ImageIO.read(bais);
-
-        return javafx.embed.swing.SwingFXUtils.toFXImage(buffered, null);
+        int width = ((Number) map.get("width")).intValue();
+        int height = ((Number) map.get("height")).intValue();
+        javafx.scene.image.WritableImage image = new javafx.scene.image.WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height,
+            javafx.scene.image.PixelFormat.getIntArgbInstance(), argb, 0, width);
+        return image;
       } catch (IOException e) {
         System.err.println("ArgumentSerializer: Failed to deserialize Image");
         e.printStackTrace(System.err);
@@ -280,19 +291,10 @@ public class ArgumentSerializer {
   // === Image Serialization (lazy-loaded) ===
 
   static class ImageSerializer {
-    static Object serializeBufferedImage(Object imageObj) {
+    static Object serializeBufferedImage(Object imageObj, ImageTransfer.ChunkSink imageSink) {
       try {
         java.awt.image.BufferedImage image = (java.awt.image.BufferedImage) imageObj;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        javax.imageio.ImageIO.write(image, "png", baos);
-        String base64 = Base64.getEncoder().encodeToString(baos.toByteArray());
-
-        Map<String, Object> map = new HashMap<>();
-        map.put("_type", "image");
-        map.put("data", base64);
-        map.put("width", image.getWidth());
-        map.put("height", image.getHeight());
-        return map;
+        return ImageTransfer.encode(image, ImageTransfer.Mode.configured(), imageSink);
       } catch (IOException e) {
         System.err.println("ArgumentSerializer: Failed to serialize BufferedImage");
         e.printStackTrace(System.err);
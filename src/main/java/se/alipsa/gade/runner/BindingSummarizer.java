@@ -0,0 +1,343 @@
+package se.alipsa.gade.runner;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates bounded summaries (type, size and a short preview) of the variables in the script binding so that the
+ * environment view can be updated without calling toString() on (and transferring) every value.
+ * <p>
+ * The summarizer remembers what was sent last time: only variables that are new, point to another object, or whose
+ * cheap "version" (size, row count etc.) changed are included in the next summary. Values are only rendered in full
+ * on request, see {@link #render(Object, int)}.
+ * <p>
+ * Matrix values are inspected by reflection since the Matrix library might not be on the classpath of the runtime.
+ */
+public class BindingSummarizer {
+
+  static final int PREVIEW_LENGTH = 200;
+  static final int PREVIEW_ELEMENTS = 10;
+  private static final int ELEMENT_LENGTH = 40;
+  private static final String MATRIX_CLASS = "se.alipsa.matrix.core.Matrix";
+
+  private record Snapshot(WeakReference<Object> ref, String version) {}
+
+  private final Map<String, Snapshot> snapshots = new HashMap<>();
+
+  /**
+   * @param variables the variables of the binding
+   * @param full if true all variables are summarized, otherwise only the ones that changed since the last call
+   * @return a map with the summaries of the changed variables (name -> summary) under "changed" and the names of
+   * the variables that no longer exist under "removed"
+   */
+  public synchronized Map<String, Object> summarize(Map<?, ?> variables, boolean full) {
+    if (full) {
+      snapshots.clear();
+    }
+    Map<String, Object> changed = new LinkedHashMap<>();
+    Set<String> names = new HashSet<>();
+    for (Map.Entry<?, ?> entry : variables.entrySet()) {
+      String name = String.valueOf(entry.getKey());
+      Object value = entry.getValue();
+      names.add(name);
+      String version = version(value);
+      Snapshot previous = snapshots.get(name);
+      if (previous == null || previous.ref().get() != value || !previous.version().equals(version)) {
+        changed.put(name, summary(value));
+        snapshots.put(name, new Snapshot(new WeakReference<>(value), version));
+      }
+    }
+    List<String> removed = new ArrayList<>();
+    snapshots.keySet().removeIf(name -> {
+      if (names.contains(name)) {
+        return false;
+      }
+      removed.add(name);
+      return true;
+    });
+    Map<String, Object> result = new HashMap<>();
+    result.put("changed", changed);
+    result.put("removed", removed);
+    return result;
+  }
+
+  /** Forget all snapshots so that the next summary contains every variable */
+  public synchronized void reset() {
+    snapshots.clear();
+  }
+
+  /**
+   * @return a map with the keys type, size (empty if not applicable) and preview (at most PREVIEW_LENGTH characters)
+   */
+  static Map<String, Object> summary(Object value) {
+    Map<String, Object> summary = new HashMap<>();
+    if (value instanceof SessionBinding.Unread unread) {
+      summary.put("type", unread.entry().type());
+      summary.put("size", unread.entry().size());
+      summary.put("preview", unread.toString());
+      return summary;
+    }
+    summary.put("type", value == null ? "null" : value.getClass().getSimpleName());
+    summary.put("size", size(value));
+    summary.put("preview", preview(value));
+    return summary;
+  }
+
+  /**
+   * A cheap fingerprint of the state of the value, used to detect in place modifications (elements added to a list,
+   * rows added to a Matrix etc.). Modifications that do not change the size of a container are not detected.
+   */
+  static String version(Object value) {
+    if (value == null) {
+      return "null";
+    }
+    String identity = Integer.toHexString(System.identityHashCode(value));
+    if (value instanceof List<?> list) {
+      int size = list.size();
+      if (size == 0) {
+        return identity + ":0";
+      }
+      return identity + ":" + size + ":" + System.identityHashCode(list.get(0)) + ":"
+          + System.identityHashCode(list.get(size - 1));
+    }
+    if (value instanceof Collection<?> col) {
+      return identity + ":" + col.size();
+    }
+    if (value instanceof Map<?, ?> map) {
+      return identity + ":" + map.size();
+    }
+    if (value instanceof CharSequence cs) {
+      return identity + ":" + cs.length();
+    }
+    if (value.getClass().isArray()) {
+      return identity + ":" + Array.getLength(value);
+    }
+    if (isMatrix(value)) {
+      return identity + ":" + invoke(value, "rowCount") + "x" + invoke(value, "columnCount")
+          + ":" + invoke(value, "getMatrixName");
+    }
+    return identity;
+  }
+
+  static String size(Object value) {
+    if (value == null) {
+      return "";
+    }
+    if (value instanceof Collection<?> col) {
+      return col.size() + " elements";
+    }
+    if (value instanceof Map<?, ?> map) {
+      return map.size() + " entries";
+    }
+    if (value instanceof CharSequence cs) {
+      return "length " + cs.length();
+    }
+    if (value.getClass().isArray()) {
+      return Array.getLength(value) + " elements";
+    }
+    if (isMatrix(value)) {
+      return invoke(value, "rowCount") + " x " + invoke(value, "columnCount");
+    }
+    return "";
+  }
+
+  static String preview(Object value) {
+    try {
+      return render(value, PREVIEW_LENGTH, PREVIEW_ELEMENTS);
+    } catch (RuntimeException e) {
+      return "<failed to render: " + e + ">";
+    }
+  }
+
+  /**
+   * Render the value as text, rendering stops when maxChars characters have been produced.
+   *
+   * @param value the value to render
+   * @param maxChars the maximum length of the result (excluding the "..." marker added when truncated)
+   * @return the text representation of the value
+   */
+  public static String render(Object value, int maxChars) {
+    return render(value, maxChars, Integer.MAX_VALUE);
+  }
+
+  private static String render(Object value, int maxChars, int maxElements) {
+    BoundedText text = new BoundedText(maxChars);
+    if (value == null) {
+      text.append("null");
+    } else if (value instanceof CharSequence cs) {
+      text.append(cs);
+    } else if (value instanceof Map<?, ?> map) {
+      renderElements(map.entrySet().iterator(), maxElements, text, true);
+    } else if (value instanceof Collection<?> col) {
+      renderElements(col.iterator(), maxElements, text, false);
+    } else if (value.getClass().isArray()) {
+      renderElements(arrayIterator(value), maxElements, text, false);
+    } else if (isMatrix(value)) {
+      renderMatrix(value, maxElements, text);
+    } else {
+      text.append(String.valueOf(value));
+    }
+    return text.toString();
+  }
+
+  private static void renderElements(Iterator<?> it, int maxElements, BoundedText text, boolean entries) {
+    text.append("[");
+    int count = 0;
+    while (it.hasNext() && !text.isFull()) {
+      if (count == maxElements) {
+        text.append(", ...");
+        break;
+      }
+      if (count > 0) {
+        text.append(", ");
+      }
+      Object element = it.next();
+      if (entries && element instanceof Map.Entry<?, ?> entry) {
+        text.append(element(entry.getKey(), maxElements)).append(":").append(element(entry.getValue(), maxElements));
+      } else {
+        text.append(element(element, maxElements));
+      }
+      count++;
+    }
+    text.append("]");
+  }
+
+  /** Nested containers are only described when previewing to keep the preview small */
+  private static String element(Object element, int maxElements) {
+    if (maxElements == Integer.MAX_VALUE) {
+      return element == null ? "null" : String.valueOf(element);
+    }
+    if (element == null) {
+      return "null";
+    }
+    String size = size(element);
+    if (!size.isEmpty() && !(element instanceof CharSequence)) {
+      return element.getClass().getSimpleName() + "(" + size + ")";
+    }
+    String str = String.valueOf(element);
+    return str.length() > ELEMENT_LENGTH ? str.substring(0, ELEMENT_LENGTH) + "..." : str;
+  }
+
+  private static void renderMatrix(Object matrix, int maxRows, BoundedText text) {
+    Object name = invoke(matrix, "getMatrixName");
+    Object columnNames = invoke(matrix, "columnNames");
+    if (name != null) {
+      text.append(String.valueOf(name)).append(": ");
+    }
+    text.append(String.valueOf(columnNames));
+    if (maxRows == Integer.MAX_VALUE && columnNames instanceof List<?> columns) {
+      // full rendering, one line per row
+      Object rows = invoke(matrix, "rowCount");
+      int rowCount = rows instanceof Number n ? n.intValue() : 0;
+      Method getAt = method(matrix, "getAt", int.class, int.class);
+      if (getAt == null) {
+        return;
+      }
+      for (int r = 0; r < rowCount && !text.isFull(); r++) {
+        text.append("\n");
+        for (int c = 0; c < columns.size(); c++) {
+          if (c > 0) {
+            text.append("\t");
+          }
+          try {
+            text.append(String.valueOf(getAt.invoke(matrix, r, c)));
+          } catch (ReflectiveOperationException e) {
+            text.append("?");
+          }
+        }
+      }
+    }
+  }
+
+  private static Iterator<Object> arrayIterator(Object array) {
+    int length = Array.getLength(array);
+    return new Iterator<>() {
+      int pos;
+
+      @Override
+      public boolean hasNext() {
+        return pos < length;
+      }
+
+      @Override
+      public Object next() {
+        return Array.get(array, pos++);
+      }
+    };
+  }
+
+  static boolean isMatrix(Object value) {
+    Class<?> cls = value.getClass();
+    while (cls != null) {
+      if (MATRIX_CLASS.equals(cls.getName())) {
+        return true;
+      }
+      cls = cls.getSuperclass();
+    }
+    return false;
+  }
+
+  static Method method(Object target, String name, Class<?>... parameterTypes) {
+    try {
+      return target.getClass().getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  static Object invoke(Object target, String name) {
+    Method method = method(target, name);
+    if (method == null) {
+      return null;
+    }
+    try {
+      return method.invoke(target);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /** A StringBuilder that stops growing at a limit */
+  private static final class BoundedText {
+    private final StringBuilder sb = new StringBuilder();
+    private final int limit;
+    private boolean truncated;
+
+    BoundedText(int limit) {
+      this.limit = limit;
+    }
+
+    BoundedText append(CharSequence cs) {
+      if (truncated) {
+        return this;
+      }
+      int room = limit - sb.length();
+      if (cs.length() > room) {
+        sb.append(cs, 0, room);
+        truncated = true;
+      } else {
+        sb.append(cs);
+      }
+      return this;
+    }
+
+    boolean isFull() {
+      return truncated;
+    }
+
+    @Override
+    public String toString() {
+      return truncated ? sb + "..." : sb.toString();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package se.alipsa.gade.runner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves many charts to png or svg files in parallel, used for {@code io.saveAll(charts, dir, format)}.
+ * <p>
+ * Every chart is rendered and encoded on a worker thread; the number of charts in flight is bounded so that a
+ * few thousand charts do not all sit in memory as images at the same time. Vector formats are written directly by
+ * the chart library, nothing is rasterized for svg.
+ * <p>
+ * Supported charts are found by class name so that neither the runner nor the main process needs the chart
+ * libraries on its own classpath:
+ * <ul>
+ *   <li>XChart charts: {@code BitmapEncoder} for png, {@code VectorGraphicsEncoder} for svg</li>
+ *   <li>matrix-charts charts: {@code Plot.png} and, if the matrix-charts version has it, {@code Plot.svg}</li>
+ *   <li>{@link BufferedImage}: png only</li>
+ * </ul>
+ * Note: This class uses System.err for logging instead of Log4j to avoid classpath issues in the runner.
+ */
+public final class ChartExporter {
+
+  private static final String XCHART_BASE = "org.knowm.xchart.internal.chartpart.Chart";
+  private static final String MATRIX_CHART_BASE = "se.alipsa.matrix.charts.Chart";
+  private static final String MATRIX_PLOT = "se.alipsa.matrix.charts.Plot";
+
+  /**
+   * The outcome of a batch export.
+   *
+   * @param files the files written, in the order of the charts
+   * @param failures one message per chart that could not be saved
+   * @param millis the wall clock time of the export
+   */
+  public record Report(List<File> files, List<String> failures, long millis) {
+
+    public double chartsPerSecond() {
+      return millis == 0 ? files.size() * 1000.0 : files.size() * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "Saved %d charts in %.1f s (%.1f charts/s), %d failed",
+          files.size(), millis / 1000.0, chartsPerSecond(), failures.size());
+    }
+  }
+
+  private ChartExporter() {
+    // static utility
+  }
+
+  /**
+   * Save the charts as chart-0001.png, chart-0002.png etc. in the dir.
+   *
+   * @param charts the charts
+   * @param dir the dir to write to, created if it does not exist
+   * @param format png or svg
+   * @param width the width of png images
+   * @param height the height of png images
+   * @return a future that completes when all charts have been written (or failed)
+   */
+  public static CompletableFuture<Report> saveAll(List<?> charts, File dir, String format, int width, int height) {
+    String fmt = format == null ? "png" : format.toLowerCase(Locale.ROOT);
+    if (!"png".equals(fmt) && !"svg".equals(fmt)) {
+      throw new IllegalArgumentException("Unsupported format " + format + ", use png or svg");
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IllegalArgumentException("Failed to create " + dir);
+    }
+    int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism, daemonThreads());
+    // submits the charts and waits for them, not one of the pool threads since it would take a rendering slot
+    ExecutorService coordinator = Executors.newSingleThreadExecutor(daemonThreads());
+    // bounds the number of rendered but not yet written images
+    Semaphore inFlight = new Semaphore(parallelism * 2);
+    int digits = Math.max(4, String.valueOf(charts.size()).length());
+    long start = System.currentTimeMillis();
+    List<File> files = Collections.synchronizedList(new ArrayList<>());
+    List<String> failures = Collections.synchronizedList(new ArrayList<>());
+
+    return CompletableFuture.supplyAsync(() -> {
+      List<CompletableFuture<Void>> tasks = new ArrayList<>();
+      for (int i = 0; i < charts.size(); i++) {
+        Object chart = charts.get(i);
+        File file = new File(dir, String.format("chart-%0" + digits + "d.%s", i + 1, fmt));
+        try {
+          inFlight.acquire();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failures.add("Export interrupted before " + file.getName());
+          break;
+        }
+        tasks.add(CompletableFuture.runAsync(() -> {
+          try {
+            save(chart, file, fmt, width, height);
+            files.add(file);
+          } catch (Exception e) {
+            failures.add(file.getName() + ": " + describe(e));
+          } finally {
+            inFlight.release();
+          }
+        }, pool));
+      }
+      CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+      List<File> sorted = new ArrayList<>(files);
+      Collections.sort(sorted);
+      return new Report(sorted, List.copyOf(failures), System.currentTimeMillis() - start);
+    }, coordinator).whenComplete((r, t) -> {
+      pool.shutdown();
+      coordinator.shutdown();
+    });
+  }
+
+  static void save(Object chart, File file, String format, int width, int height) throws Exception {
+    if (chart == null) {
+      throw new IllegalArgumentException("chart is null");
+    }
+    if (chart instanceof BufferedImage image) {
+      if (!"png".equals(format)) {
+        throw new IllegalArgumentException("an image can only be saved as png");
+      }
+      writePng(image, file);
+    } else if (isInstance(chart, XCHART_BASE)) {
+      saveXChart(chart, file, format);
+    } else if (isInstance(chart, MATRIX_CHART_BASE)) {
+      saveMatrixChart(chart, file, format, width, height);
+    } else {
+      throw new IllegalArgumentException("don't know how to save a " + chart.getClass().getName());
+    }
+  }
+
+  /**
+   * @return true if the chart is of a kind that {@link #toSvg(Object)} knows how to render
+   */
+  public static boolean canExportSvg(Object chart) {
+    return chart != null && (isInstance(chart, XCHART_BASE) || isInstance(chart, MATRIX_CHART_BASE));
+  }
+
+  /**
+   * Render an XChart or matrix-charts chart as svg.
+   *
+   * @return the svg document
+   */
+  public static String toSvg(Object chart) throws Exception {
+    File file = File.createTempFile("gade-chart", ".svg");
+    try {
+      save(chart, file, "svg", 0, 0);
+      return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+    } finally {
+      Files.deleteIfExists(file.toPath());
+    }
+  }
+
+  private static void saveXChart(Object chart, File file, String format) throws Exception {
+    ClassLoader cl = chart.getClass().getClassLoader();
+    Class<?> base = cl.loadClass(XCHART_BASE);
+    if ("png".equals(format)) {
+      Class<?> encoder = cl.loadClass("org.knowm.xchart.BitmapEncoder");
+      BufferedImage image = (BufferedImage) invoke(encoder.getMethod("getBufferedImage", base), chart);
+      writePng(image, file);
+    } else {
+      Class<?> encoder = cl.loadClass("org.knowm.xchart.VectorGraphicsEncoder");
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      Object svg = Enum.valueOf((Class<Enum>) cl.loadClass(
+          "org.knowm.xchart.VectorGraphicsEncoder$VectorGraphicsFormat"), "SVG");
+      Method save = encoder.getMethod("saveVectorGraphic", base, String.class, svg.getClass());
+      // the encoder adds the .svg suffix itself
+      String path = file.getAbsolutePath();
+      invoke(save, chart, path.substring(0, path.length() - ".svg".length()), svg);
+    }
+  }
+
+  private static void saveMatrixChart(Object chart, File file, String format, int width, int height)
+      throws Exception {
+    Class<?> plot = chart.getClass().getClassLoader().loadClass(MATRIX_PLOT);
+    if ("png".equals(format)) {
+      Method png = findStatic(plot, "png", chart, File.class, double.class, double.class);
+      if (png == null) {
+        throw new UnsupportedOperationException(MATRIX_PLOT + ".png(chart, file, width, height) not found");
+      }
+      invoke(png, chart, file, (double) width, (double) height);
+      return;
+    }
+    Method svgToFile = findStatic(plot, "svg", chart, File.class);
+    if (svgToFile != null) {
+      invoke(svgToFile, chart, file);
+      return;
+    }
+    Method svgString = findStatic(plot, "svg", chart);
+    if (svgString != null && svgString.getReturnType() == String.class) {
+      Files.writeString(file.toPath(), (String) invoke(svgString, chart), StandardCharsets.UTF_8);
+      return;
+    }
+    throw new UnsupportedOperationException("svg export needs a matrix-charts version with Plot.svg");
+  }
+
+  private static Method findStatic(Class<?> type, String name, Object chart, Class<?>... rest) {
+    for (Method m : type.getMethods()) {
+      Class<?>[] params = m.getParameterTypes();
+      if (!m.getName().equals(name) || !Modifier.isStatic(m.getModifiers()) || params.length != rest.length + 1
+          || !params[0].isInstance(chart)) {
+        continue;
+      }
+      boolean match = true;
+      for (int i = 0; i < rest.length; i++) {
+        match &= params[i + 1] == rest[i];
+      }
+      if (match) {
+        return m;
+      }
+    }
+    return null;
+  }
+
+  private static Object invoke(Method method, Object... args) throws Exception {
+    try {
+      return method.invoke(null, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  private static void writePng(BufferedImage image, File file) throws IOException {
+    if (!ImageIO.write(image, "png", file)) {
+      throw new IOException("No png writer available");
+    }
+  }
+
+  private static boolean isInstance(Object obj, String className) {
+    for (Class<?> c = obj.getClass(); c != null; c = c.getSuperclass()) {
+      if (c.getName().equals(className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String describe(Exception e) {
+    return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+  }
+
+  private static ThreadFactory daemonThreads() {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "gade-chart-export-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -2,13 +2,71 @@ package se.alipsa.gade.runner;
 
 import groovy.lang.GroovyClassLoader;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.jar.Manifest;
+import java.util.stream.IntStream;
+import java.util.zip.ZipFile;
+
 /**
  * A GroovyClassLoader variant with child-first delegation for non-JDK classes.
+ * <p>
+ * With hundreds of dependency jars the linear search of {@link java.net.URLClassLoader} is slow: every class and
+ * resource lookup probes the jars one by one (opening each one the first time), and since delegation is child-first
+ * every class of the parent (e.g. groovy.*) is first searched for in all jars. This loader indexes the directories
+ * of its jars (see {@link JarPackageIndex}) when they are added and goes straight to the jars that have the package
+ * of the class or resource; a class in a package that none of the jars have fails immediately.
+ * <p>
+ * Class path directories (e.g. build output) are not indexed since their content changes, they are probed on each
+ * lookup (a file existence check). The index is turned off with {@code -Dgade.runner.noJarIndex=true}, and is not
+ * used if the class path has URLs that are not files.
  */
 public class ChildFirstGroovyClassLoader extends GroovyClassLoader {
 
+  private static final int[] NONE = new int[0];
+  // a static updater rather than an AtomicInteger field since GroovyClassLoader may add URLs in its constructor
+  private static final AtomicIntegerFieldUpdater<ChildFirstGroovyClassLoader> URL_ADDS =
+      AtomicIntegerFieldUpdater.newUpdater(ChildFirstGroovyClassLoader.class, "urlAdds");
+
+  private final boolean indexed;
+  private final Path indexCacheDir;
+  private final Object indexLock = new Object();
+  private volatile ClassPathIndex index = ClassPathIndex.EMPTY;
+  /** Counts the calls to addURL so that a lookup does not have to copy the URLs to see if any were added */
+  private volatile int urlAdds;
+
   public ChildFirstGroovyClassLoader(ClassLoader parent) {
+    this(parent, !Boolean.getBoolean("gade.runner.noJarIndex"), JarPackageIndex.defaultCacheDir());
+  }
+
+  /**
+   * @param parent the parent loader
+   * @param indexed true to use the package index, false for the linear search of URLClassLoader
+   * @param indexCacheDir where the package lists of the jars are cached, null for no caching
+   */
+  public ChildFirstGroovyClassLoader(ClassLoader parent, boolean indexed, Path indexCacheDir) {
     super(parent);
+    this.indexed = indexed;
+    this.indexCacheDir = indexCacheDir;
   }
 
   @Override
@@ -42,4 +100,317 @@ public class ChildFirstGroovyClassLoader extends GroovyClassLoader {
         || className.startsWith("org.xml.")
         || className.startsWith("org.ietf.");
   }
+
+  @Override
+  public void addURL(URL url) {
+    super.addURL(url);
+    URL_ADDS.incrementAndGet(this);
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    ClassPathIndex classPath = currentIndex();
+    if (classPath == null) {
+      return super.findClass(name);
+    }
+    String path = name.replace('.', '/').concat(".class");
+    try {
+      for (int pos : classPath.positions(path)) {
+        Location location = classPath.locations.get(pos);
+        Class<?> c = location.isDirectory() ? defineFromDirectory(name, path, location)
+            : defineFromJar(name, path, location);
+        if (c != null) {
+          return c;
+        }
+      }
+    } catch (IOException e) {
+      throw new ClassNotFoundException(name, e);
+    }
+    throw new ClassNotFoundException(name);
+  }
+
+  @Override
+  public URL findResource(String name) {
+    ClassPathIndex classPath = currentIndex();
+    if (classPath == null) {
+      return super.findResource(name);
+    }
+    for (int pos : classPath.positions(name)) {
+      URL url = classPath.locations.get(pos).resource(name);
+      if (url != null) {
+        return url;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Enumeration<URL> findResources(String name) throws IOException {
+    ClassPathIndex classPath = currentIndex();
+    if (classPath == null) {
+      return super.findResources(name);
+    }
+    List<URL> urls = new ArrayList<>();
+    for (int pos : classPath.positions(name)) {
+      URL url = classPath.locations.get(pos).resource(name);
+      if (url != null) {
+        urls.add(url);
+      }
+    }
+    return Collections.enumeration(urls);
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Location location : index.locations) {
+      location.close();
+    }
+    super.close();
+  }
+
+  private Class<?> defineFromJar(String name, String path, Location location) throws IOException {
+    JarFile jar = location.jar();
+    if (jar == null) {
+      return null;
+    }
+    JarEntry entry = jar.getJarEntry(path);
+    if (entry == null) {
+      return null;
+    }
+    byte[] bytes;
+    try (InputStream in = jar.getInputStream(entry)) {
+      bytes = in.readAllBytes();
+    }
+    definePackageIfNeeded(name, jar.getManifest(), location.url);
+    // the signers are known once the entry has been read
+    CodeSigner[] signers = entry.getCodeSigners();
+    return defineClass(name, bytes, 0, bytes.length, new CodeSource(location.url, signers));
+  }
+
+  private Class<?> defineFromDirectory(String name, String path, Location location) throws IOException {
+    File file = new File(location.file, path);
+    if (!file.isFile()) {
+      return null;
+    }
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    definePackageIfNeeded(name, null, location.url);
+    return defineClass(name, bytes, 0, bytes.length, new CodeSource(location.url, (CodeSigner[]) null));
+  }
+
+  private void definePackageIfNeeded(String className, Manifest manifest, URL url) {
+    int dot = className.lastIndexOf('.');
+    if (dot < 0) {
+      return;
+    }
+    String packageName = className.substring(0, dot);
+    if (getDefinedPackage(packageName) != null) {
+      return;
+    }
+    try {
+      if (manifest != null) {
+        definePackage(packageName, manifest, url);
+      } else {
+        definePackage(packageName, null, null, null, null, null, null, null);
+      }
+    } catch (IllegalArgumentException e) {
+      // defined by another thread in the meantime
+    }
+  }
+
+  /**
+   * @return the index of the current class path, indexing URLs added since the last call, or null if the index is
+   * not used
+   */
+  private ClassPathIndex currentIndex() {
+    if (!indexed) {
+      return null;
+    }
+    ClassPathIndex current = index;
+    if (urlAdds != current.urlAdds) {
+      synchronized (indexLock) {
+        current = index;
+        int adds = urlAdds;
+        if (adds != current.urlAdds) {
+          current = current.extend(getURLs(), adds, indexCacheDir);
+          index = current;
+        }
+      }
+    }
+    return current.opaque ? null : current;
+  }
+
+  /**
+   * An immutable snapshot of the index, URLs are only ever added to a URLClassLoader so a new snapshot extends the
+   * previous one.
+   */
+  private static final class ClassPathIndex {
+
+    static final ClassPathIndex EMPTY = new ClassPathIndex(List.of(), Map.of(), NONE, 0, 0, false);
+
+    final List<Location> locations;
+    /** directory of a resource -> positions of the jars that have it, in class path order */
+    final Map<String, int[]> packages;
+    /** positions of the directories and of the paths that did not exist when they were added */
+    final int[] unindexed;
+    final int urlCount;
+    final int urlAdds;
+    /** true if the class path has URLs that cannot be indexed */
+    final boolean opaque;
+
+    ClassPathIndex(List<Location> locations, Map<String, int[]> packages, int[] unindexed, int urlCount,
+                   int urlAdds, boolean opaque) {
+      this.locations = locations;
+      this.packages = packages;
+      this.unindexed = unindexed;
+      this.urlCount = urlCount;
+      this.urlAdds = urlAdds;
+      this.opaque = opaque;
+    }
+
+    /**
+     * @param urls all URLs of the loader, the first {@link #urlCount} are already indexed
+     * @param adds the number of addURL calls the URLs are the result of (duplicates are not added)
+     */
+    ClassPathIndex extend(URL[] urls, int adds, Path cacheDir) {
+      int start = urlCount;
+      List<Location> added = new ArrayList<>();
+      boolean nowOpaque = opaque;
+      for (int i = start; i < urls.length; i++) {
+        Location location = Location.of(urls[i]);
+        if (location == null) {
+          nowOpaque = true;
+          location = new Location(urls[i], null, Location.Kind.LATE);
+        }
+        added.add(location);
+      }
+      List<File> jars = added.stream().filter(l -> l.kind == Location.Kind.JAR).map(l -> l.file).toList();
+      Iterator<Set<String>> jarPackages = JarPackageIndex.packagesOf(jars, cacheDir).iterator();
+
+      List<Location> allLocations = new ArrayList<>(locations);
+      Map<String, int[]> allPackages = new HashMap<>(packages);
+      List<Integer> allUnindexed = new ArrayList<>();
+      for (int pos : unindexed) {
+        allUnindexed.add(pos);
+      }
+      for (int i = 0; i < added.size(); i++) {
+        int pos = start + i;
+        Location location = added.get(i);
+        allLocations.add(location);
+        if (location.kind == Location.Kind.JAR) {
+          for (String dir : jarPackages.next()) {
+            allPackages.merge(dir, new int[]{pos}, ChildFirstGroovyClassLoader::append);
+          }
+        } else {
+          allUnindexed.add(pos);
+        }
+      }
+      return new ClassPathIndex(List.copyOf(allLocations), allPackages,
+          allUnindexed.stream().mapToInt(Integer::intValue).toArray(), urls.length, adds, nowOpaque);
+    }
+
+    /** @return the positions of the locations that can have the resource, in class path order */
+    int[] positions(String resourceName) {
+      int[] jars = packages.getOrDefault(JarPackageIndex.dirOf(resourceName), NONE);
+      if (unindexed.length == 0) {
+        return jars;
+      }
+      if (jars.length == 0) {
+        return unindexed;
+      }
+      return IntStream.concat(IntStream.of(jars), IntStream.of(unindexed)).sorted().toArray();
+    }
+  }
+
+  private static int[] append(int[] positions, int[] more) {
+    int[] all = new int[positions.length + more.length];
+    System.arraycopy(positions, 0, all, 0, positions.length);
+    System.arraycopy(more, 0, all, positions.length, more.length);
+    return all;
+  }
+
+  /**
+   * One entry of the class path.
+   */
+  private static final class Location {
+
+    enum Kind {
+      JAR,
+      DIRECTORY,
+      /** did not exist when it was added, checked on each lookup */
+      LATE
+    }
+
+    final URL url;
+    final File file;
+    final Kind kind;
+    private JarFile jar;
+    private boolean closed;
+
+    Location(URL url, File file, Kind kind) {
+      this.url = url;
+      this.file = file;
+      this.kind = kind;
+    }
+
+    /** @return the location or null if the URL is not a file */
+    static Location of(URL url) {
+      if (!"file".equals(url.getProtocol())) {
+        return null;
+      }
+      File file;
+      try {
+        file = new File(url.toURI());
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        return null;
+      }
+      if (file.isDirectory()) {
+        return new Location(url, file, Kind.DIRECTORY);
+      }
+      return new Location(url, file, file.isFile() ? Kind.JAR : Kind.LATE);
+    }
+
+    boolean isDirectory() {
+      return kind == Kind.DIRECTORY || (kind == Kind.LATE && file.isDirectory());
+    }
+
+    /** @return the opened jar, null if this is a path that is (still) not a file */
+    synchronized JarFile jar() throws IOException {
+      if (jar == null && !closed) {
+        if (kind == Kind.LATE && !file.isFile()) {
+          return null;
+        }
+        jar = new JarFile(file, true, ZipFile.OPEN_READ, Runtime.version());
+      }
+      return jar;
+    }
+
+    URL resource(String name) {
+      try {
+        if (isDirectory()) {
+          File resource = new File(file, name);
+          return resource.exists() ? resource.toURI().toURL() : null;
+        }
+        JarFile jarFile = jar();
+        if (jarFile == null || jarFile.getJarEntry(name) == null) {
+          return null;
+        }
+        String encoded = new URI(null, null, name, null).getRawPath();
+        return URI.create("jar:" + url.toExternalForm() + "!/" + encoded).toURL();
+      } catch (IOException | URISyntaxException e) {
+        return null;
+      }
+    }
+
+    synchronized void close() {
+      closed = true;
+      if (jar != null) {
+        try {
+          jar.close();
+        } catch (IOException e) {
+          // closing anyway
+        }
+        jar = null;
+      }
+    }
+  }
 }
@@ -0,0 +1,213 @@
+package se.alipsa.gade.runner;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance metrics of one evaluation in the runner, sent to Gade as the {@code metrics} map of the
+ * {@code result} message.
+ * <p>
+ * CPU time and allocated bytes are those of the eval thread; work that the script hands to other threads (e.g.
+ * parallel streams) shows up in the process CPU time only. GC count and time are the totals of all collectors during
+ * the eval (for stop the world collectors the time is the pause time). The peak heap is the sum of the peak usage of
+ * the heap memory pools, which is an upper bound of the real peak. Values that the JVM cannot measure are -1.
+ * <p>
+ * Note: This class uses no logging to avoid classpath issues in the runner.
+ *
+ * @param wallMillis the elapsed time
+ * @param cpuMillis the CPU time of the eval thread
+ * @param processCpuMillis the CPU time of the whole runner process
+ * @param allocatedBytes the bytes allocated by the eval thread
+ * @param gcCount the number of garbage collections
+ * @param gcMillis the time spent in garbage collection
+ * @param peakHeapBytes the peak heap usage
+ * @param guiBlockedMillis the time the script waited for Gade to handle GUI requests (io.view, io.display etc.)
+ */
+public record EvalMetrics(long wallMillis, long cpuMillis, long processCpuMillis, long allocatedBytes, long gcCount,
+                          long gcMillis, long peakHeapBytes, long guiBlockedMillis) {
+
+  private static final AtomicLong GUI_BLOCKED_NANOS = new AtomicLong();
+
+  /**
+   * Add time spent waiting for a GUI request, called by {@link RemoteInOut}.
+   */
+  public static void recordGuiWait(long nanos) {
+    GUI_BLOCKED_NANOS.addAndGet(nanos);
+  }
+
+  /**
+   * Start measuring, must be called on the thread that runs the script.
+   */
+  public static Probe start() {
+    return new Probe();
+  }
+
+  /**
+   * @return the metrics as a map of longs for the protocol
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("wallMillis", wallMillis);
+    map.put("cpuMillis", cpuMillis);
+    map.put("processCpuMillis", processCpuMillis);
+    map.put("allocatedBytes", allocatedBytes);
+    map.put("gcCount", gcCount);
+    map.put("gcMillis", gcMillis);
+    map.put("peakHeapBytes", peakHeapBytes);
+    map.put("guiBlockedMillis", guiBlockedMillis);
+    return map;
+  }
+
+  /**
+   * @param value the metrics map of a result message
+   * @return the metrics or null if the value is not a metrics map (e.g. from a runner that does not send them)
+   */
+  public static EvalMetrics fromMap(Object value) {
+    if (!(value instanceof Map<?, ?> map) || !(map.get("wallMillis") instanceof Number)) {
+      return null;
+    }
+    return new EvalMetrics(toLong(map.get("wallMillis")), toLong(map.get("cpuMillis")),
+        toLong(map.get("processCpuMillis")), toLong(map.get("allocatedBytes")), toLong(map.get("gcCount")),
+        toLong(map.get("gcMillis")), toLong(map.get("peakHeapBytes")), toLong(map.get("guiBlockedMillis")));
+  }
+
+  private static long toLong(Object value) {
+    return value instanceof Number n ? n.longValue() : -1;
+  }
+
+  /**
+   * @return a one line summary, e.g. "wall 1.20 s, cpu 0.95 s, alloc 512.0 MB, gc 3 (45 ms), peak heap 800.0 MB"
+   */
+  public String summary() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("wall ").append(seconds(wallMillis));
+    if (cpuMillis >= 0) {
+      sb.append(", cpu ").append(seconds(cpuMillis));
+    }
+    if (processCpuMillis >= 0 && processCpuMillis > cpuMillis * 1.2) {
+      // other threads did a significant part of the work
+      sb.append(" (process ").append(seconds(processCpuMillis)).append(")");
+    }
+    if (allocatedBytes >= 0) {
+      sb.append(", alloc ").append(megabytes(allocatedBytes));
+    }
+    sb.append(", gc ").append(gcCount).append(" (").append(gcMillis).append(" ms)");
+    if (peakHeapBytes >= 0) {
+      sb.append(", peak heap ").append(megabytes(peakHeapBytes));
+    }
+    if (guiBlockedMillis > 0) {
+      sb.append(", gui ").append(guiBlockedMillis).append(" ms");
+    }
+    return sb.toString();
+  }
+
+  private static String seconds(long millis) {
+    return String.format(Locale.ROOT, "%.2f s", millis / 1000.0);
+  }
+
+  private static String megabytes(long bytes) {
+    return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+  }
+
+  /**
+   * The state at the start of an eval.
+   */
+  public static final class Probe {
+    private final long startNanos = System.nanoTime();
+    private final long startCpu;
+    private final long startProcessCpu;
+    private final long startAllocated;
+    private final long startGcCount;
+    private final long startGcMillis;
+    private final long startGuiBlocked = GUI_BLOCKED_NANOS.get();
+    private final long threadId = Thread.currentThread().threadId();
+
+    private Probe() {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      startCpu = threadCpu(threads);
+      startAllocated = allocated(threads, threadId);
+      startProcessCpu = processCpu();
+      long[] gc = gcTotals();
+      startGcCount = gc[0];
+      startGcMillis = gc[1];
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+          pool.resetPeakUsage();
+        }
+      }
+    }
+
+    /**
+     * Stop measuring, must be called on the thread that called {@link EvalMetrics#start()}.
+     */
+    public EvalMetrics stop() {
+      long wall = (System.nanoTime() - startNanos) / 1_000_000;
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      long cpu = threadCpu(threads);
+      long alloc = allocated(threads, threadId);
+      long processCpu = processCpu();
+      long[] gc = gcTotals();
+      long peakHeap = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+          peakHeap += pool.getPeakUsage().getUsed();
+        }
+      }
+      return new EvalMetrics(
+          wall,
+          cpu < 0 || startCpu < 0 ? -1 : (cpu - startCpu) / 1_000_000,
+          processCpu < 0 || startProcessCpu < 0 ? -1 : (processCpu - startProcessCpu) / 1_000_000,
+          alloc < 0 || startAllocated < 0 ? -1 : alloc - startAllocated,
+          gc[0] - startGcCount,
+          gc[1] - startGcMillis,
+          peakHeap,
+          (GUI_BLOCKED_NANOS.get() - startGuiBlocked) / 1_000_000);
+    }
+
+    private static long threadCpu(ThreadMXBean threads) {
+      try {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+      } catch (UnsupportedOperationException e) {
+        return -1;
+      }
+    }
+
+    private static long allocated(ThreadMXBean threads, long threadId) {
+      try {
+        if (threads instanceof com.sun.management.ThreadMXBean sunThreads
+            && sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+          return sunThreads.getThreadAllocatedBytes(threadId);
+        }
+      } catch (UnsupportedOperationException e) {
+        // not measurable on this JVM
+      }
+      return -1;
+    }
+
+    private static long processCpu() {
+      OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+      if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+        return sunOs.getProcessCpuTime();
+      }
+      return -1;
+    }
+
+    private static long[] gcTotals() {
+      long count = 0;
+      long millis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        count += Math.max(0, gc.getCollectionCount());
+        millis += Math.max(0, gc.getCollectionTime());
+      }
+      return new long[]{count, millis};
+    }
+  }
+}
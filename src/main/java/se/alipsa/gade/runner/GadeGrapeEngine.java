@@ -0,0 +1,352 @@
+package se.alipsa.gade.runner;
+
+import groovy.grape.Grape;
+import groovy.grape.GrapeEngine;
+import groovy.grape.GrapeIvy;
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.tools.RootLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.jar.JarFile;
+
+/**
+ * A {@link GrapeEngine} that resolves {@code @Grab} dependencies with {@link MavenResolver} (local Maven/Gradle/Grape
+ * caches first, parallel downloads of what is missing, cached dependency graphs) instead of Ivy.
+ * <p>
+ * Everything the resolver does not handle (version ranges, snapshots, Ivy configurations, non Maven resolvers etc.)
+ * as well as failed resolutions online are delegated to Groovy's {@link GrapeIvy}, which is only created when needed.
+ * In offline mode (-Dgade.grape.offline=true) a failed resolution is an error, nothing is downloaded, but what the
+ * resolver does not handle is still delegated so that Ivy can use its own cache.
+ * <p>
+ * Installed in the runner by {@link #install()} unless -Dgade.grape.ivy=true is set.
+ */
+public class GadeGrapeEngine implements GrapeEngine {
+
+  private static final Set<String> SUPPORTED_CONFS = Set.of("default", "compile", "runtime", "master");
+  private static final List<String> GROOVY_SERVICES = List.of(
+      "META-INF/groovy/org.codehaus.groovy.runtime.ExtensionModule",
+      "META-INF/services/org.codehaus.groovy.runtime.ExtensionModule",
+      "META-INF/services/org.codehaus.groovy.runtime.SerializedCategoryMethods",
+      "META-INF/services/org.codehaus.groovy.plugins.Runners");
+
+  private final MavenResolver resolver;
+  private final List<Map<String, Object>> addedResolvers = Collections.synchronizedList(new ArrayList<>());
+  private final Map<ClassLoader, List<Map<String, Object>>> grabbed = Collections.synchronizedMap(new WeakHashMap<>());
+  private final Map<ClassLoader, Set<URI>> added = Collections.synchronizedMap(new WeakHashMap<>());
+  private GrapeIvy ivy;
+
+  public GadeGrapeEngine(MavenResolver resolver) {
+    this.resolver = resolver;
+  }
+
+  /** Make this the engine used by {@link Grape} (and hence {@code @Grab}) */
+  public static void install() {
+    if (Boolean.getBoolean("gade.grape.ivy")) {
+      return;
+    }
+    Installer.install(new GadeGrapeEngine(MavenResolver.fromSystemProperties()));
+  }
+
+  /** Grape has no setter for the engine, the field is protected */
+  private static final class Installer extends Grape {
+    static synchronized void install(GrapeEngine engine) {
+      instance = engine;
+    }
+  }
+
+  @Override
+  public Object grab(String endorsedModule) {
+    return ivy().grab(endorsedModule);
+  }
+
+  @Override
+  public Object grab(Map args) {
+    return grab(args, args);
+  }
+
+  @Override
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public Object grab(Map args, Map... dependencies) {
+    try {
+      if (!isSupported(args, dependencies)) {
+        return ivy().grab(args, dependencies);
+      }
+      ClassLoader loader = chooseClassLoader(args);
+      if (loader == null) {
+        return ivy().grab(args, dependencies);
+      }
+      List<MavenResolver.Resolved> resolved = resolveArtifacts(args, dependencies);
+      Set<URI> uris = added.computeIfAbsent(loader, l -> Collections.synchronizedSet(new HashSet<>()));
+      for (MavenResolver.Resolved r : resolved) {
+        URI uri = r.file().toUri();
+        if (uris.add(uri)) {
+          addURL(loader, uri);
+        }
+      }
+      List<Map<String, Object>> deps = grabbed.computeIfAbsent(loader,
+          l -> Collections.synchronizedList(new ArrayList<>()));
+      for (Map dependency : dependencies) {
+        deps.add(new LinkedHashMap<>(dependency));
+      }
+      if (Boolean.TRUE.equals(args.get("initContextClassLoader"))) {
+        Thread.currentThread().setContextClassLoader(loader);
+      }
+      return null;
+    } catch (MavenResolver.UnsupportedException e) {
+      // e.g. a version range, Ivy might still resolve it from its cache when offline
+      return ivy().grab(args, dependencies);
+    } catch (IOException e) {
+      if (resolver.isOffline() || Boolean.FALSE.equals(args.get("autoDownload"))) {
+        RuntimeException failure = new RuntimeException("Error grabbing grapes -- " + e.getMessage(), e);
+        if (Boolean.TRUE.equals(args.get("noExceptions"))) {
+          return failure;
+        }
+        throw failure;
+      }
+      // e.g. an artifact that is only in a repository Ivy is configured for
+      return ivy().grab(args, dependencies);
+    }
+  }
+
+  @Override
+  public Map<String, Map<String, List<String>>> enumerateGrapes() {
+    return ivy().enumerateGrapes();
+  }
+
+  @Override
+  public URI[] resolve(Map args, Map... dependencies) {
+    return resolve(args, null, dependencies);
+  }
+
+  @Override
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public URI[] resolve(Map args, List depsInfo, Map... dependencies) {
+    if (!isSupported(args, dependencies)) {
+      return ivy().resolve(args, depsInfo, dependencies);
+    }
+    try {
+      List<MavenResolver.Resolved> resolved = resolveArtifacts(args, dependencies);
+      URI[] uris = new URI[resolved.size()];
+      for (int i = 0; i < uris.length; i++) {
+        MavenResolver.Resolved r = resolved.get(i);
+        uris[i] = r.file().toUri();
+        if (depsInfo != null) {
+          Map<String, String> info = new LinkedHashMap<>();
+          info.put("group", r.artifact().group());
+          info.put("module", r.artifact().module());
+          info.put("revision", r.artifact().version());
+          depsInfo.add(info);
+        }
+      }
+      return uris;
+    } catch (MavenResolver.UnsupportedException e) {
+      return ivy().resolve(args, depsInfo, dependencies);
+    } catch (IOException e) {
+      if (resolver.isOffline()) {
+        throw new RuntimeException("Error grabbing grapes -- " + e.getMessage(), e);
+      }
+      return ivy().resolve(args, depsInfo, dependencies);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public Map[] listDependencies(ClassLoader classLoader) {
+    List<Map> deps = new ArrayList<>(grabbed.getOrDefault(classLoader, List.of()));
+    GrapeIvy delegate = ivyIfCreated();
+    if (delegate != null) {
+      Map[] ivyDeps = delegate.listDependencies(classLoader);
+      if (ivyDeps != null) {
+        deps.addAll(Arrays.asList(ivyDeps));
+      }
+    }
+    return deps.isEmpty() ? null : deps.toArray(new Map[0]);
+  }
+
+  @Override
+  public void addResolver(Map<String, Object> args) {
+    addedResolvers.add(args);
+    Object root = args.get("root");
+    if (root != null && !Boolean.FALSE.equals(args.get("m2Compatible"))) {
+      resolver.addRemote(URI.create(String.valueOf(root)));
+    }
+    GrapeIvy delegate = ivyIfCreated();
+    if (delegate != null) {
+      delegate.addResolver(args);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private List<MavenResolver.Resolved> resolveArtifacts(Map args, Map... dependencies) throws IOException {
+    List<MavenResolver.Request> requests = new ArrayList<>();
+    for (Map dependency : dependencies) {
+      String ext = str(dependency.get("ext"));
+      if (ext == null) {
+        ext = str(dependency.get("type"));
+      }
+      MavenResolver.Artifact artifact = new MavenResolver.Artifact(
+          str(dependency.get("group")),
+          str(dependency.get("module")),
+          str(dependency.get("version")),
+          str(dependency.get("classifier")),
+          ext == null ? "jar" : ext);
+      requests.add(new MavenResolver.Request(artifact, !Boolean.FALSE.equals(dependency.get("transitive")),
+          List.of()));
+    }
+    List<MavenResolver.Exclusion> exclusions = new ArrayList<>();
+    if (args.get("excludes") instanceof List<?> excludes) {
+      for (Object exclude : excludes) {
+        if (exclude instanceof Map<?, ?> map) {
+          exclusions.add(new MavenResolver.Exclusion(str(map.get("group")), str(map.get("module"))));
+        }
+      }
+    }
+    return resolver.resolve(requests, exclusions, !Boolean.FALSE.equals(args.get("autoDownload")),
+        !Boolean.TRUE.equals(args.get("disableChecksums")));
+  }
+
+  /** @return false if the grab uses something only Ivy handles */
+  @SuppressWarnings("rawtypes")
+  static boolean isSupported(Map args, Map... dependencies) {
+    // Grape passes DEFAULT_CALLEE_DEPTH + 2 (the caller of Grape.grab), other depths are only understood by Ivy
+    Object calleeDepth = args.get(CALLEE_DEPTH);
+    if (calleeDepth != null && !String.valueOf(DEFAULT_CALLEE_DEPTH + 2).equals(String.valueOf(calleeDepth))
+        && args.get("classLoader") == null && args.get("refObject") == null) {
+      return false;
+    }
+    if (dependencies == null || dependencies.length == 0) {
+      return false;
+    }
+    for (Map dependency : dependencies) {
+      if (str(dependency.get("group")) == null || str(dependency.get("module")) == null
+          || str(dependency.get("version")) == null || Boolean.TRUE.equals(dependency.get("changing"))) {
+        return false;
+      }
+      Object conf = dependency.get("conf");
+      if (conf != null) {
+        List<?> confs = conf instanceof List<?> l ? l : List.of(String.valueOf(conf).split(","));
+        for (Object c : confs) {
+          if (!SUPPORTED_CONFS.contains(String.valueOf(c).trim())) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Same rules as GrapeIvy: the closest GroovyClassLoader or RootLoader of the given loader or of the caller */
+  @SuppressWarnings("rawtypes")
+  static ClassLoader chooseClassLoader(Map args) {
+    ClassLoader loader;
+    if (Boolean.TRUE.equals(args.get("systemClassLoader"))) {
+      loader = ClassLoader.getSystemClassLoader();
+    } else if (args.get("classLoader") instanceof ClassLoader cl) {
+      loader = cl;
+    } else if (args.get("refObject") != null) {
+      loader = args.get("refObject").getClass().getClassLoader();
+    } else {
+      Class<?> caller = callingClass();
+      loader = caller == null ? null : caller.getClassLoader();
+    }
+    while (loader != null && !isValidTarget(loader)) {
+      loader = loader.getParent();
+    }
+    return loader;
+  }
+
+  private static boolean isValidTarget(ClassLoader loader) {
+    return loader instanceof GroovyClassLoader || loader instanceof RootLoader;
+  }
+
+  /** @return the first class on the stack that is not part of Grape or the Groovy runtime, i.e. the script */
+  private static Class<?> callingClass() {
+    return StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE)
+        .walk(frames -> frames
+            .map(StackWalker.StackFrame::getDeclaringClass)
+            .filter(c -> !isInfrastructure(c.getName()))
+            .findFirst()
+            .orElse(null));
+  }
+
+  private static boolean isInfrastructure(String className) {
+    return className.startsWith(GadeGrapeEngine.class.getName())
+        || className.startsWith("groovy.grape.")
+        || className.startsWith("groovy.lang.")
+        || className.startsWith("org.codehaus.groovy.")
+        || className.startsWith("org.apache.groovy.")
+        || className.startsWith("java.")
+        || className.startsWith("jdk.")
+        || className.startsWith("sun.");
+  }
+
+  private void addURL(ClassLoader loader, URI uri) {
+    URL url;
+    try {
+      url = uri.toURL();
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("Invalid artifact location " + uri, e);
+    }
+    if (loader instanceof GroovyClassLoader gcl) {
+      gcl.addURL(url);
+    } else if (loader instanceof RootLoader rootLoader) {
+      rootLoader.addURL(url);
+    }
+    File file = new File(uri);
+    if (hasGroovyServices(file)) {
+      // extension modules etc. must be registered, Ivy's engine knows how
+      ivy().processOtherServices(loader, file);
+    }
+  }
+
+  private static boolean hasGroovyServices(File file) {
+    if (!file.getName().endsWith(".jar")) {
+      return false;
+    }
+    try (JarFile jar = new JarFile(file)) {
+      for (String service : GROOVY_SERVICES) {
+        if (jar.getEntry(service) != null) {
+          return true;
+        }
+      }
+      return false;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static String str(Object value) {
+    if (value == null) {
+      return null;
+    }
+    String str = String.valueOf(value).trim();
+    return str.isEmpty() ? null : str;
+  }
+
+  private synchronized GrapeIvy ivyIfCreated() {
+    return ivy;
+  }
+
+  private synchronized GrapeIvy ivy() {
+    if (ivy == null) {
+      ivy = new GrapeIvy();
+      synchronized (addedResolvers) {
+        addedResolvers.forEach(ivy::addResolver);
+      }
+    }
+    return ivy;
+  }
+}
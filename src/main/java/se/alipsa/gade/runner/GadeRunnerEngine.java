@@ -18,8 +18,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -38,17 +41,25 @@ import java.util.regex.Pattern;
  * Entry point: {@link #run(BufferedReader, BufferedWriter, String, String[], String[], String[])} — creates a
  * main/test {@link GroovyClassLoader} hierarchy, {@link GroovyShell} instances,
  * and enters the main read loop
- * handling eval, bindings, interrupt, setWorkingDir, shutdown, gui_response, gui_error.
+ * handling eval, bindings, startProfiling, stopProfiling, heapHistogram, interrupt, setWorkingDir, saveSession,
+ * restoreSession, shutdown, gui_response, gui_error. A {@link RunnerHealth} heartbeat is sent from a separate thread.
  */
 public class GadeRunnerEngine {
 
   private static final OutputStream ROOT_ERR = new FileOutputStream(FileDescriptor.err);
   private static final boolean VERBOSE = Boolean.getBoolean("gade.runner.verbose");
   private static final boolean DIAGNOSTICS = Boolean.getBoolean("gade.runner.diagnostics");
+  /** Set by the batch runner, there is no gui to forward io calls to */
+  private static final boolean HEADLESS = Boolean.getBoolean("gade.runner.headless");
   private static final String RUNNER_DIAG_PREFIX = "[RUNNER_DIAG] ";
   public static final String GUI_INTERACTION_KEYS = "__gadeGuiInteractionKeys";
   private static final AtomicReference<Thread> currentEvalThread = new AtomicReference<>();
+  private static volatile long evalStartNanos;
   private static final Pattern GRAB_COORDINATE_PATTERN = Pattern.compile("([\\w.-]+)#([\\w.-]+);([\\w.-]+)");
+  private static final BindingSummarizer BINDING_SUMMARIZER = new BindingSummarizer();
+  private static final int DEFAULT_RENDER_LENGTH = 1_000_000;
+  private static final GrabCache GRAB_CACHE = new GrabCache(
+      Boolean.getBoolean("gade.runner.noGrabCache") ? null : GrabCache.defaultCacheDir());
 
   private GadeRunnerEngine() {}
 
@@ -69,10 +80,11 @@ public class GadeRunnerEngine {
    */
   public static void run(BufferedReader reader, BufferedWriter writer, String runtimeType,
                          String[] mainDepPaths, String[] testDepPaths, String[] guiInteractionKeys) {
-    Binding binding;
+    SessionBinding binding;
     GroovyShell mainShell;
     GroovyShell testShell;
     try {
+      GadeGrapeEngine.install();
       ClassLoader rootLoader = Thread.currentThread().getContextClassLoader();
       GroovyClassLoader mainLoader = createScriptLoader(runtimeType, rootLoader);
       addDependencyPaths(mainLoader, mainDepPaths);
@@ -84,7 +96,7 @@ public class GadeRunnerEngine {
       CompilerConfiguration config = new CompilerConfiguration();
       config.setScriptBaseClass(GadeScript.class.getName());
 
-      binding = new Binding();
+      binding = new SessionBinding();
       binding.setVariable("gadeRuntime", runtimeType);
       mainShell = new GroovyShell(mainLoader, binding, config);
       testShell = testLoader == null ? mainShell : new GroovyShell(testLoader, binding, config);
@@ -110,6 +122,15 @@ public class GadeRunnerEngine {
       }
     }
 
+    if (HEADLESS) {
+      binding.setVariable("io", new UnsupportedGuiInteraction("io",
+          "is not available in a headless batch run; save results to the outputDir variable instead"));
+    }
+
+    RunnerHealth.startHeartbeat(writer,
+        Long.getLong("gade.runner.heartbeatMillis", RunnerHealth.DEFAULT_HEARTBEAT_MILLIS),
+        () -> currentEvalThread.get() == null ? -1 : (System.nanoTime() - evalStartNanos) / 1_000_000);
+
     try {
       String line;
       while ((line = reader.readLine()) != null) {
@@ -148,8 +169,21 @@ public class GadeRunnerEngine {
                 handleEval(binding, shell, id, (String) cmd.get("script"), bindings, writer, guiPending);
               }
               case "bindings" -> handleBindings(binding, id, writer);
+              case "bindingSummary" -> handleBindingSummary(binding, id, toBoolean(cmd.get("full")), writer);
+              case "fetchVar" -> handleFetchVar(binding, id, cmd, writer);
+              case "grabDeps" -> {
+                GroovyShell shell = toBoolean(cmd.get("testContext")) ? testShell : mainShell;
+                handleGrabDeps(shell, id, (String) cmd.get("header"), writer);
+              }
+              case "renderVar" -> handleRenderVar(binding, id, (String) cmd.get("name"), cmd.get("maxChars"), writer);
+              case "startProfiling" -> handleStartProfiling(id, writer);
+              case "stopProfiling" -> handleStopProfiling(id, writer);
+              case "heapHistogram" -> handleHeapHistogram(id, writer);
               case "interrupt" -> handleInterrupt(id, writer);
               case "setWorkingDir" -> handleSetWorkingDir(id, (String) cmd.get("dir"), writer);
+              case "saveSession" -> handleSaveSession(binding, id, cmd, writer);
+              case "restoreSession" -> handleRestoreSession(binding, mainShell.getClassLoader(), id,
+                  (String) cmd.get("file"), writer);
               case "shutdown" -> {
                 emit(Map.of("type", "shutdown", "id", id), writer);
                 return;
@@ -224,6 +258,7 @@ public class GadeRunnerEngine {
       return;
     }
     Thread t = new Thread(() -> {
+      evalStartNanos = System.nanoTime();
       currentEvalThread.set(Thread.currentThread());
       Thread.currentThread().setContextClassLoader(shell.getClassLoader());
       try {
@@ -235,8 +270,11 @@ public class GadeRunnerEngine {
             }
           });
         }
+        EvalMetrics.Probe probe = EvalMetrics.start();
         Object result = shell.evaluate(script);
-        emit(Map.of("type", "result", "id", id, "result", result == null ? "null" : String.valueOf(result)), writer);
+        EvalMetrics metrics = probe.stop();
+        emit(Map.of("type", "result", "id", id, "result", result == null ? "null" : String.valueOf(result),
+            "metrics", metrics.toMap()), writer);
       } catch (Exception e) {
         emitGrabDiagnosticsIfRelevant(e);
         emitError(id, e.getMessage(), getStackTrace(e), writer);
@@ -272,13 +310,116 @@ public class GadeRunnerEngine {
     }
   }
 
-  private static void handleBindings(Binding binding, String id, BufferedWriter writer) {
-    Map<String, Object> variables = binding.getVariables();
+  private static void handleBindings(SessionBinding binding, String id, BufferedWriter writer) {
+    Map<String, Object> variables = binding.variablesWithoutReading();
     Map<String, String> serialized = new HashMap<>();
     variables.forEach((k, v) -> serialized.put(String.valueOf(k), v == null ? "null" : v.toString()));
     emit(Map.of("type", "bindings", "id", id, "bindings", serialized), writer);
   }
 
+  private static void handleBindingSummary(SessionBinding binding, String id, boolean full, BufferedWriter writer) {
+    Map<String, Object> summary = BINDING_SUMMARIZER.summarize(binding.variablesWithoutReading(), full);
+    Map<String, Object> payload = new HashMap<>(summary);
+    payload.put("type", "bindings_summary");
+    payload.put("id", id);
+    emit(payload, writer);
+  }
+
+  /** Resolving may take a while (downloads), so it is done in the background to keep the command loop responsive */
+  private static void handleGrabDeps(GroovyShell shell, String id, String header, BufferedWriter writer) {
+    if (header == null || header.isBlank()) {
+      emit(Map.of("type", "result", "id", id, "result", GrabCache.Outcome.MEMOIZED.name()), writer);
+      return;
+    }
+    Thread t = new Thread(() -> {
+      try {
+        GrabCache.Outcome outcome = GRAB_CACHE.ensure(shell, header);
+        emitRaw("grab header " + outcome);
+        emit(Map.of("type", "result", "id", id, "result", outcome.name()), writer);
+      } catch (Exception e) {
+        emitGrabDiagnosticsIfRelevant(e);
+        emitError(id, e.getMessage(), getStackTrace(e), writer);
+      }
+    }, "gade-runner-grab");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private static void handleFetchVar(SessionBinding binding, String id, Map<String, Object> cmd,
+                                     BufferedWriter writer) {
+    // encoding a page of a large matrix takes a while, keep the command loop free to handle an interrupt meanwhile
+    Thread t = new Thread(() -> {
+      try {
+        binding.read((String) cmd.get("name"));
+        Map<String, Object> value = VarEncoder.fetch(binding.getVariables(), (String) cmd.get("name"),
+            (String) cmd.get("path"), toInt(cmd.get("offset")), toInt(cmd.get("limit")), toInt(cmd.get("maxChars")));
+        emit(Map.of("type", "var_value", "id", id, "value", value), writer);
+      } catch (Exception e) {
+        emitError(id, e.getMessage(), getStackTrace(e), writer);
+      }
+    }, "gade-runner-fetch");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private static int toInt(Object value) {
+    return value instanceof Number n ? n.intValue() : 0;
+  }
+
+  private static void handleRenderVar(Binding binding, String id, String name, Object maxChars, BufferedWriter writer) {
+    if (name == null || !binding.hasVariable(name)) {
+      emitError(id, "No such variable: " + name, null, writer);
+      return;
+    }
+    int limit = maxChars instanceof Number n ? n.intValue() : DEFAULT_RENDER_LENGTH;
+    String text = BindingSummarizer.render(binding.getVariable(name), limit);
+    emit(Map.of("type", "var_render", "id", id, "text", text), writer);
+  }
+
+  /**
+   * Written on its own thread since a big session can take a while. Variables that belong to the runner (gui
+   * interactions and gadeRuntime) are left out, the new runner has its own. Nothing is saved while a script is
+   * running since it may still change the variables (and the restart is often meant to stop it).
+   */
+  private static void handleSaveSession(SessionBinding binding, String id, Map<String, Object> cmd,
+                                        BufferedWriter writer) {
+    if (currentEvalThread.get() != null) {
+      emitError(id, "a script is still running", null, writer);
+      return;
+    }
+    Thread t = new Thread(() -> {
+      try {
+        Map<String, Object> variables = new LinkedHashMap<>(binding.getVariables());
+        Set<String> exclude = new HashSet<>();
+        exclude.add("gadeRuntime");
+        variables.forEach((name, value) -> {
+          if (value instanceof RemoteInOut || value instanceof UnsupportedGuiInteraction) {
+            exclude.add(name);
+          }
+        });
+        SessionSnapshot.Saved saved = SessionSnapshot.save(variables, binding.unread(), exclude,
+            Path.of((String) cmd.get("file")), toLong(cmd.get("maxBytes")), toLong(cmd.get("maxVariableBytes")));
+        emit(Map.of("type", "result", "id", id, "variables", saved.variables(), "skipped", saved.skipped(),
+            "bytes", saved.bytes()), writer);
+      } catch (Exception e) {
+        emitError(id, e.getMessage(), getStackTrace(e), writer);
+      }
+    }, "gade-runner-snapshot");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /** Only the index is read, the variables are read when first used */
+  private static void handleRestoreSession(SessionBinding binding, ClassLoader loader, String id, String file,
+                                           BufferedWriter writer) throws IOException {
+    List<String> names = binding.restore(SessionSnapshot.index(Path.of(file)), loader);
+    emit(Map.of("type", "result", "id", id, "variables", names), writer);
+  }
+
+  private static long toLong(Object value) {
+    return value instanceof Number n ? n.longValue() : Long.MAX_VALUE;
+  }
+
   private static void handleSetWorkingDir(String id, String dir, BufferedWriter writer) {
     if (dir != null && !dir.isBlank()) {
       System.setProperty("user.dir", dir);
@@ -287,6 +428,37 @@ public class GadeRunnerEngine {
     emit(Map.of("type", "result", "id", id, "result", dir == null ? "" : dir), writer);
   }
 
+  private static void handleStartProfiling(String id, BufferedWriter writer) throws IOException {
+    ScriptProfiler.start();
+    emit(Map.of("type", "result", "id", id, "result", "recording"), writer);
+  }
+
+  /** The recording is sent as blob messages ahead of the result that refers to it */
+  private static void handleStopProfiling(String id, BufferedWriter writer) throws IOException {
+    Path file = ScriptProfiler.stop();
+    try (InputStream in = Files.newInputStream(file)) {
+      String blobId = id + "-jfr";
+      long bytes = ImageTransfer.writeBytes(in, ImageTransfer.blobSink(blobId, writer));
+      emit(Map.of("type", "result", "id", id, "result", "recorded", "blob", blobId, "bytes", bytes), writer);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /** Runs on its own thread since the full GC of the histogram can take a while on a big heap */
+  private static void handleHeapHistogram(String id, BufferedWriter writer) {
+    Thread t = new Thread(() -> {
+      try {
+        emit(Map.of("type", "result", "id", id, "result", RunnerHealth.heapHistogram(RunnerHealth.HISTOGRAM_LINES)),
+            writer);
+      } catch (Exception e) {
+        emitError(id, e.getMessage(), getStackTrace(e), writer);
+      }
+    }, "gade-runner-histogram");
+    t.setDaemon(true);
+    t.start();
+  }
+
   private static void handleInterrupt(String id, BufferedWriter writer) {
     Thread running = currentEvalThread.get();
     if (running != null) {
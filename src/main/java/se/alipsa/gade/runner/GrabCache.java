@@ -0,0 +1,190 @@
+package se.alipsa.gade.runner;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyShell;
+import groovy.lang.GroovySystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers which {@code @Grab} headers have been resolved so that running the same script again does not resolve
+ * its dependencies again.
+ * <p>
+ * A header is resolved by compiling it in a throw away shell, the jars Grape adds to that shell are the complete
+ * (transitive) set of jars of the header. They are added to the script class loader and written to a file named
+ * after the hash of the header in the cache dir, so a later session can add the jars directly without involving
+ * Grape/Ivy at all. Within a session a header that has already been handled is a no-op.
+ * <p>
+ * Headers with changing versions (SNAPSHOT, latest.*, ranges) are resolved once per session but never cached on
+ * disk, and a cached entry is ignored if any of its jars has disappeared.
+ */
+public class GrabCache {
+
+  private static final Pattern CHANGING_VERSION = Pattern.compile(
+      "(?i)SNAPSHOT|latest\\.|changing\\s*=\\s*true|[\\[*+]|,\\s*\\)");
+
+  private final Path cacheDir;
+  private final Map<ClassLoader, Set<String>> resolved = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * @param cacheDir where the jar lists are stored, null to only remember headers for this session
+   */
+  public GrabCache(Path cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /** @return the default cache dir, ~/.gade/cache/grab */
+  public static Path defaultCacheDir() {
+    return Path.of(System.getProperty("user.home", "."), ".gade", "cache", "grab");
+  }
+
+  /** The outcome of {@link #ensure(GroovyShell, String)} */
+  public enum Outcome {
+    /** already done in this session */
+    MEMOIZED,
+    /** the jars were added from the disk cache */
+    CACHED,
+    /** the dependencies were resolved by Grape */
+    RESOLVED
+  }
+
+  /**
+   * Make sure the dependencies of the header are on the class path of the shell.
+   *
+   * @param shell the shell the script will be run in
+   * @param header the {@code @Grab} lines of the script
+   * @return how the dependencies were made available
+   */
+  public Outcome ensure(GroovyShell shell, String header) throws IOException {
+    GroovyClassLoader loader = shell.getClassLoader();
+    String key = hash(GroovySystem.getVersion() + "\n" + header.strip());
+    Set<String> done = resolved.computeIfAbsent(loader, l -> Collections.synchronizedSet(new HashSet<>()));
+    if (done.contains(key)) {
+      return Outcome.MEMOIZED;
+    }
+    boolean cacheable = cacheDir != null && isCacheable(header);
+    if (cacheable) {
+      List<URL> cached = readCache(key);
+      if (cached != null) {
+        addAll(loader, cached);
+        done.add(key);
+        return Outcome.CACHED;
+      }
+    }
+    List<URL> jars = resolve(loader, header);
+    addAll(loader, jars);
+    if (cacheable && !jars.isEmpty()) {
+      writeCache(key, jars);
+    }
+    done.add(key);
+    return Outcome.RESOLVED;
+  }
+
+  /** @return false if the header has versions that may resolve to other jars later */
+  static boolean isCacheable(String header) {
+    return !CHANGING_VERSION.matcher(header).find();
+  }
+
+  /** Compile the header in a fresh shell and collect the jars Grape adds to it */
+  private static List<URL> resolve(GroovyClassLoader parent, String header) throws IOException {
+    GroovyShell probe = new GroovyShell(parent, new Binding());
+    try {
+      // @Grab must annotate something
+      probe.parse(header + "\nimport java.lang.Object");
+      List<URL> jars = new ArrayList<>();
+      Set<URL> inherited = new HashSet<>(Arrays.asList(parent.getURLs()));
+      for (URL url : probe.getClassLoader().getURLs()) {
+        if (!inherited.contains(url)) {
+          jars.add(url);
+        }
+      }
+      return jars;
+    } finally {
+      probe.getClassLoader().close();
+    }
+  }
+
+  private static void addAll(GroovyClassLoader loader, List<URL> jars) {
+    Set<URL> existing = new HashSet<>(Arrays.asList(loader.getURLs()));
+    for (URL jar : jars) {
+      if (!existing.contains(jar)) {
+        loader.addURL(jar);
+      }
+    }
+  }
+
+  /** @return the jars of the cached entry, null if there is none or if any of its jars has disappeared */
+  List<URL> readCache(String key) {
+    Path file = cacheDir.resolve(key + ".jars");
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      List<URL> jars = new ArrayList<>();
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (line.isBlank()) {
+          continue;
+        }
+        URI uri = URI.create(line.trim());
+        if ("file".equals(uri.getScheme()) && !new File(uri).exists()) {
+          // e.g. the grape cache was cleared, resolve again
+          return null;
+        }
+        jars.add(uri.toURL());
+      }
+      return jars;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private void writeCache(String key, List<URL> jars) throws IOException {
+    Files.createDirectories(cacheDir);
+    List<String> lines = new ArrayList<>();
+    for (URL jar : jars) {
+      lines.add(jar.toExternalForm());
+    }
+    // write and move so that a concurrent reader never sees half a file
+    Path tmp = Files.createTempFile(cacheDir, key, ".tmp");
+    Files.write(tmp, lines, StandardCharsets.UTF_8);
+    try {
+      Files.move(tmp, cacheDir.resolve(key + ".jars"), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, cacheDir.resolve(key + ".jars"), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  static String hash(String text) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest(text.getBytes(StandardCharsets.UTF_8))) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+}
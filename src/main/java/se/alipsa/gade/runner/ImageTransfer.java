@@ -0,0 +1,422 @@
+package se.alipsa.gade.runner;
+
+import se.alipsa.gade.runtime.ProtocolXml;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes images for transfer between the runner and Gade, and decodes them again.
+ * <p>
+ * The pixels are written as they are read from the image, through an optional fast compression and Base64, into
+ * chunks of {@link #CHUNK_CHARS} characters. No complete copy of the encoded image is ever built: the runner sends
+ * each chunk as a {@code blob} message as soon as it is full, and Gade collects the chunks in a {@link BlobStore}
+ * until the {@code gui_request} that refers to the blob is decoded.
+ * <p>
+ * The encoding is chosen with the system property {@value #MODE_PROPERTY} (png, raw or deflate, default deflate).
+ * Raw ARGB pixels compressed with deflate level 1 are much cheaper to produce than a png and, for charts with
+ * large areas of one color, about as small.
+ * <p>
+ * Other binary payloads, such as profiling recordings, are sent the same way with
+ * {@link #writeBytes(InputStream, ChunkSink)} and read back with {@link #openBlob(String)}.
+ * <p>
+ * Note: This class uses System.err for logging instead of Log4j to avoid classpath issues in the runner.
+ */
+public final class ImageTransfer {
+
+  public static final String MODE_PROPERTY = "gade.imageTransfer";
+  /** The size of a chunk in Base64 characters, a multiple of 4 so that each chunk can be decoded on its own */
+  static final int CHUNK_CHARS = 256 * 1024;
+
+  /** How the pixels of an image are encoded */
+  public enum Mode {
+    PNG("png"), RAW("raw-argb"), DEFLATE("raw-argb-deflate");
+
+    private final String encoding;
+
+    Mode(String encoding) {
+      this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+      return encoding;
+    }
+
+    public static Mode fromEncoding(String encoding) {
+      for (Mode mode : values()) {
+        if (mode.encoding.equals(encoding)) {
+          return mode;
+        }
+      }
+      throw new IllegalArgumentException("Unknown image encoding " + encoding);
+    }
+
+    /** @return the mode set by the {@value #MODE_PROPERTY} system property, deflate if not set */
+    public static Mode configured() {
+      String value = System.getProperty(MODE_PROPERTY, "deflate").trim().toUpperCase(Locale.ROOT);
+      try {
+        return valueOf(value);
+      } catch (IllegalArgumentException e) {
+        System.err.println("ImageTransfer: unknown " + MODE_PROPERTY + " '" + value + "', using deflate");
+        return DEFLATE;
+      }
+    }
+  }
+
+  /** Receives the chunks of an encoded image, in order */
+  public interface ChunkSink {
+
+    /** @return the id that the receiver will know the chunks by */
+    String blobId();
+
+    void accept(String chunk, boolean last) throws IOException;
+  }
+
+  private ImageTransfer() {
+    // static utility
+  }
+
+  /**
+   * Encode an image.
+   *
+   * @param image the image
+   * @param mode how to encode the pixels
+   * @param sink where to send the chunks, if null the chunks are put in the returned map
+   * @return the image description: _type image, encoding, width, height and either chunks or a blob id
+   */
+  public static Map<String, Object> encode(BufferedImage image, Mode mode, ChunkSink sink) throws IOException {
+    Map<String, Object> map = new HashMap<>();
+    map.put("_type", "image");
+    map.put("encoding", mode.getEncoding());
+    map.put("width", image.getWidth());
+    map.put("height", image.getHeight());
+    List<String> chunks = new ArrayList<>();
+    ChunkSink target = sink != null ? sink : new ChunkSink() {
+      @Override
+      public String blobId() {
+        return null;
+      }
+
+      @Override
+      public void accept(String chunk, boolean last) {
+        chunks.add(chunk);
+      }
+    };
+    try (OutputStream out = Base64.getEncoder().wrap(new ChunkingOutputStream(target))) {
+      writePixels(image, mode, out);
+    }
+    if (sink != null) {
+      map.put("blob", sink.blobId());
+    } else {
+      map.put("chunks", chunks);
+    }
+    return map;
+  }
+
+  /**
+   * Send the bytes of a stream as Base64 chunks.
+   *
+   * @return the number of bytes sent
+   */
+  public static long writeBytes(InputStream in, ChunkSink sink) throws IOException {
+    try (OutputStream out = Base64.getEncoder().wrap(new ChunkingOutputStream(sink))) {
+      return in.transferTo(out);
+    }
+  }
+
+  /**
+   * A sink that sends each chunk as a {@code blob} message on the writer.
+   */
+  public static ChunkSink blobSink(String blobId, Writer writer) {
+    return new ChunkSink() {
+      @Override
+      public String blobId() {
+        return blobId;
+      }
+
+      @Override
+      public void accept(String chunk, boolean last) throws IOException {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", "blob");
+        msg.put("id", blobId);
+        msg.put("data", chunk);
+        msg.put("last", last);
+        synchronized (writer) {
+          writer.write(ProtocolXml.toXml(msg));
+          writer.write("\n");
+          writer.flush();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the decoded bytes of a blob received with {@link BlobStore#receive(String, String, boolean)}, waiting
+   * for the last chunk if needed
+   */
+  public static InputStream openBlob(String blobId) throws IOException {
+    return openStream(Map.of("blob", blobId));
+  }
+
+  private static void writePixels(BufferedImage image, Mode mode, OutputStream out) throws IOException {
+    if (mode == Mode.PNG) {
+      if (!javax.imageio.ImageIO.write(image, "png", out)) {
+        throw new IOException("No png writer available");
+      }
+      return;
+    }
+    OutputStream pixelOut = out;
+    Deflater deflater = null;
+    if (mode == Mode.DEFLATE) {
+      deflater = new Deflater(Deflater.BEST_SPEED);
+      pixelOut = new DeflaterOutputStream(out, deflater, 64 * 1024);
+    }
+    int width = image.getWidth();
+    int[] row = new int[width];
+    ByteBuffer bytes = ByteBuffer.allocate(width * 4);
+    for (int y = 0; y < image.getHeight(); y++) {
+      image.getRGB(0, y, width, 1, row, 0, width);
+      bytes.clear();
+      bytes.asIntBuffer().put(row);
+      pixelOut.write(bytes.array(), 0, width * 4);
+    }
+    if (pixelOut instanceof DeflaterOutputStream dos) {
+      dos.finish();
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decode the pixels of an image map created by {@link #encode(BufferedImage, Mode, ChunkSink)}.
+   *
+   * @param map the image map
+   * @return the pixels as ARGB, row by row, or null for a png encoded image (use {@link #openStream(Map)})
+   */
+  public static int[] decodeArgb(Map<String, Object> map) throws IOException {
+    Mode mode = modeOf(map);
+    if (mode == Mode.PNG) {
+      return null;
+    }
+    int width = ((Number) map.get("width")).intValue();
+    int height = ((Number) map.get("height")).intValue();
+    int[] pixels = new int[width * height];
+    InputStream in = openStream(map);
+    if (mode == Mode.DEFLATE) {
+      in = new InflaterInputStream(in, new java.util.zip.Inflater(), 64 * 1024);
+    }
+    try (DataInputStream data = new DataInputStream(in)) {
+      byte[] row = new byte[width * 4];
+      for (int y = 0; y < height; y++) {
+        data.readFully(row);
+        ByteBuffer.wrap(row).asIntBuffer().get(pixels, y * width, width);
+      }
+    } catch (EOFException e) {
+      throw new IOException("Image data is truncated", e);
+    }
+    return pixels;
+  }
+
+  /**
+   * Decode an image map to a BufferedImage.
+   */
+  public static BufferedImage decode(Map<String, Object> map) throws IOException {
+    if (modeOf(map) == Mode.PNG) {
+      try (InputStream in = openStream(map)) {
+        return javax.imageio.ImageIO.read(in);
+      }
+    }
+    int width = ((Number) map.get("width")).intValue();
+    int height = ((Number) map.get("height")).intValue();
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    image.setRGB(0, 0, width, height, decodeArgb(map), 0, width);
+    return image;
+  }
+
+  static Mode modeOf(Map<String, Object> map) {
+    Object encoding = map.get("encoding");
+    // images without an encoding are base64 png in the data field (protocol 1.1)
+    return encoding == null ? Mode.PNG : Mode.fromEncoding(String.valueOf(encoding));
+  }
+
+  /**
+   * @return the encoded bytes of the image (without the Base64 encoding), read chunk by chunk
+   */
+  static InputStream openStream(Map<String, Object> map) throws IOException {
+    List<String> chunks;
+    if (map.get("blob") != null) {
+      chunks = BlobStore.take(String.valueOf(map.get("blob")));
+    } else if (map.get("chunks") instanceof List<?> list) {
+      chunks = list.stream().map(String::valueOf).toList();
+    } else if (map.get("data") instanceof String data) {
+      chunks = List.of(data);
+    } else {
+      throw new IllegalArgumentException("Image map has no data, chunks or blob field");
+    }
+    Iterator<String> it = chunks.iterator();
+    return new java.io.SequenceInputStream(new java.util.Enumeration<>() {
+      @Override
+      public boolean hasMoreElements() {
+        return it.hasNext();
+      }
+
+      @Override
+      public InputStream nextElement() {
+        return new ByteArrayInputStream(Base64.getDecoder().decode(it.next()));
+      }
+    });
+  }
+
+  /**
+   * Collects the chunks of blob messages until the message that uses the blob is decoded. Blobs that are never
+   * taken (the message using them failed or never arrived) are dropped after {@link #EXPIRY_MILLIS} and when the
+   * runner stops.
+   */
+  public static final class BlobStore {
+
+    private static final long TIMEOUT_SECONDS = 60;
+    static final long EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final Map<String, Blob> BLOBS = new ConcurrentHashMap<>();
+
+    private record Blob(List<String> chunks, CompletableFuture<List<String>> complete, long created) {
+    }
+
+    private BlobStore() {
+      // static utility
+    }
+
+    /**
+     * Add a chunk to a blob.
+     *
+     * @param id the blob id
+     * @param chunk the Base64 chunk
+     * @param last true if this is the last chunk of the blob
+     */
+    public static void receive(String id, String chunk, boolean last) {
+      Blob blob = blob(id);
+      if (chunk != null && !chunk.isEmpty()) {
+        blob.chunks().add(chunk);
+      }
+      if (last) {
+        blob.complete().complete(List.copyOf(blob.chunks()));
+      }
+    }
+
+    /**
+     * Remove a blob, waiting for its last chunk if needed.
+     *
+     * @return the chunks of the blob
+     */
+    static List<String> take(String id) throws IOException {
+      try {
+        return blob(id).complete().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for blob " + id, e);
+      } catch (ExecutionException | TimeoutException e) {
+        throw new IOException("Blob " + id + " was not received", e);
+      } finally {
+        BLOBS.remove(id);
+      }
+    }
+
+    static int size() {
+      return BLOBS.size();
+    }
+
+    /** Drop all blobs, e.g. when the runner that sent them has stopped */
+    public static void clear() {
+      BLOBS.values().forEach(b -> b.complete().completeExceptionally(new IOException("Runner stopped")));
+      BLOBS.clear();
+    }
+
+    /**
+     * Drop the blobs received more than {@link #EXPIRY_MILLIS} before now.
+     *
+     * @return the number of blobs dropped
+     */
+    static int expire(long now) {
+      int before = BLOBS.size();
+      BLOBS.values().removeIf(b -> b.created() < now - EXPIRY_MILLIS);
+      return before - BLOBS.size();
+    }
+
+    private static Blob blob(String id) {
+      Blob blob = BLOBS.get(id);
+      if (blob != null) {
+        return blob;
+      }
+      // a new blob is a good time to look for old ones, it is rare compared to chunks
+      long now = System.currentTimeMillis();
+      expire(now);
+      return BLOBS.computeIfAbsent(id, k ->
+          new Blob(Collections.synchronizedList(new ArrayList<>()), new CompletableFuture<>(), now));
+    }
+  }
+
+  /** Cuts the Base64 text into chunks of {@link #CHUNK_CHARS} characters */
+  private static final class ChunkingOutputStream extends OutputStream {
+    private final ChunkSink sink;
+    private final byte[] buf = new byte[CHUNK_CHARS];
+    private int count;
+
+    private ChunkingOutputStream(ChunkSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buf.length) {
+        emit(false);
+      }
+      buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buf.length) {
+          emit(false);
+        }
+        int n = Math.min(len, buf.length - count);
+        System.arraycopy(b, off, buf, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      emit(true);
+    }
+
+    private void emit(boolean last) throws IOException {
+      sink.accept(new String(buf, 0, count, StandardCharsets.US_ASCII), last);
+      count = 0;
+    }
+  }
+}
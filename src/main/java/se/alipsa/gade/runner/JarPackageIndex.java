@@ -0,0 +1,281 @@
+package se.alipsa.gade.runner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * The packages (more precisely: the directories holding files, so resource dirs like META-INF/services are included)
+ * of jars, used by {@link ChildFirstGroovyClassLoader} to go straight to the jars that can have a class or resource
+ * instead of probing every jar on the class path.
+ * <p>
+ * Reading the central directory of a big jar takes a few milliseconds, so the packages of the jars added to a loader
+ * together (typically the whole dependency list) are cached in one file, named after the paths of the jars. Each jar
+ * in it is keyed by its fingerprint (path, size and modification time), so only the jars that were rebuilt are read
+ * again. Jars that are not in the file of their list (e.g. after an upgraded dependency changed the list) are looked
+ * up in the most recently used other files first. Files that have not been used for {@value #MAX_AGE_DAYS} days are
+ * deleted.
+ * <p>
+ * Note: This class uses no logging to avoid classpath issues in the runner.
+ */
+final class JarPackageIndex {
+
+  private static final String FORMAT = "gade-jar-index 2";
+  private static final String JAR_PREFIX = "@";
+  private static final String VERSIONS_DIR = "META-INF/versions/";
+  private static final String SUFFIX = ".pkgs";
+  static final int MAX_AGE_DAYS = 30;
+  /** The max number of other cache files read to find jars that are not in the file of their list */
+  private static final int MAX_OTHER_FILES = 8;
+
+  private JarPackageIndex() {
+    // static utility
+  }
+
+  /** @return the default cache dir, ~/.gade/cache/jarindex */
+  static Path defaultCacheDir() {
+    return Path.of(System.getProperty("user.home", "."), ".gade", "cache", "jarindex");
+  }
+
+  /**
+   * @param jars the jar files
+   * @param cacheDir where the packages are cached, null to always scan
+   * @return the directories of the files in each jar, e.g. "org/apache/commons/lang3" (the root is ""), in the order
+   * of the jars. A jar that cannot be read has no directories.
+   */
+  static List<Set<String>> packagesOf(List<File> jars, Path cacheDir) {
+    if (jars.isEmpty()) {
+      return List.of();
+    }
+    List<String> fingerprints = new ArrayList<>(jars.size());
+    for (File jar : jars) {
+      fingerprints.add(fingerprint(jar));
+    }
+    Path cacheFile = cacheDir == null ? null : cacheFile(cacheDir, jars);
+    Map<String, Set<String>> cached = new HashMap<>();
+    boolean complete = false;
+    if (cacheFile != null) {
+      cached.putAll(read(cacheFile));
+      Set<String> missing = new HashSet<>(fingerprints);
+      missing.removeAll(cached.keySet());
+      complete = missing.isEmpty();
+      if (!complete) {
+        readOthers(cacheDir, cacheFile, missing, cached);
+      }
+    }
+    List<Set<String>> packages = IntStream.range(0, jars.size()).parallel()
+        .mapToObj(i -> {
+          Set<String> jarPackages = cached.get(fingerprints.get(i));
+          // reading the central directories is IO bound, do the jars that are not cached in parallel
+          return jarPackages != null ? jarPackages : scanQuietly(jars.get(i));
+        })
+        .toList();
+    if (cacheFile != null) {
+      try {
+        if (complete) {
+          touch(cacheFile);
+        } else {
+          write(cacheFile, fingerprints, packages);
+          prune(cacheDir);
+        }
+      } catch (IOException e) {
+        // the cache is an optimization only, e.g. a read only home dir
+      }
+    }
+    return packages;
+  }
+
+  /** @return the cache file of a list of jars, named after their paths */
+  static Path cacheFile(Path cacheDir, List<File> jars) {
+    List<String> paths = new ArrayList<>(jars.size());
+    for (File jar : jars) {
+      paths.add(jar.getAbsolutePath());
+    }
+    return cacheDir.resolve(key(paths) + SUFFIX);
+  }
+
+  private static Set<String> scanQuietly(File jar) {
+    try {
+      return scan(jar);
+    } catch (IOException e) {
+      // not a readable zip, URLClassLoader would skip it as well
+      return Set.of();
+    }
+  }
+
+  /**
+   * Read the directories of the jar. Classes in the versioned part of a multi-release jar are indexed under their
+   * package too since the loader opens jars with the runtime version.
+   */
+  static Set<String> scan(File jar) throws IOException {
+    Set<String> packages = new HashSet<>();
+    try (ZipFile zip = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        String name = entry.getName();
+        packages.add(dirOf(name));
+        if (name.startsWith(VERSIONS_DIR)) {
+          int slash = name.indexOf('/', VERSIONS_DIR.length());
+          if (slash > 0) {
+            packages.add(dirOf(name.substring(slash + 1)));
+          }
+        }
+      }
+    }
+    return packages;
+  }
+
+  /** @return the directory part of a resource name, e.g. "a/b" for "a/b/C.class" and "" for "C.class" */
+  static String dirOf(String resourceName) {
+    int slash = resourceName.lastIndexOf('/');
+    return slash < 0 ? "" : resourceName.substring(0, slash);
+  }
+
+  /** @return the path, size and modification time of the jar */
+  static String fingerprint(File jar) {
+    return jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified();
+  }
+
+  /** @return the cache file name of a list of jar paths */
+  static String key(List<String> paths) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for (String path : paths) {
+        md.update(path.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) '\n');
+      }
+      return HexFormat.of().formatHex(md.digest(), 0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  /** @return the packages by jar fingerprint, empty if there is no (valid) cache file */
+  private static Map<String, Set<String>> read(Path cacheFile) {
+    if (!Files.isRegularFile(cacheFile)) {
+      return Map.of();
+    }
+    Map<String, Set<String>> packages = new HashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+      if (!FORMAT.equals(reader.readLine())) {
+        return Map.of();
+      }
+      Set<String> current = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(JAR_PREFIX)) {
+          current = new HashSet<>();
+          packages.put(line.substring(JAR_PREFIX.length()), current);
+        } else if (current != null) {
+          current.add(line);
+        }
+      }
+      return packages;
+    } catch (IOException | RuntimeException e) {
+      return Map.of();
+    }
+  }
+
+  /**
+   * Find the missing jars in the other cache files, the most recently used first.
+   *
+   * @param missing the fingerprints of the jars to find, the ones found are removed
+   * @param cached where the packages of the jars found are added
+   */
+  private static void readOthers(Path cacheDir, Path cacheFile, Set<String> missing,
+                                 Map<String, Set<String>> cached) {
+    List<Path> others;
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      others = files
+          .filter(p -> p.getFileName().toString().endsWith(SUFFIX) && !p.equals(cacheFile))
+          .sorted(Comparator.comparingLong((Path p) -> p.toFile().lastModified()).reversed())
+          .limit(MAX_OTHER_FILES)
+          .toList();
+    } catch (IOException | RuntimeException e) {
+      // no cache dir yet
+      return;
+    }
+    for (Path other : others) {
+      for (Map.Entry<String, Set<String>> entry : read(other).entrySet()) {
+        if (missing.remove(entry.getKey())) {
+          cached.put(entry.getKey(), entry.getValue());
+        }
+      }
+      if (missing.isEmpty()) {
+        return;
+      }
+    }
+  }
+
+  /** Mark the cache file as used, at most once a day */
+  private static void touch(Path cacheFile) throws IOException {
+    long now = System.currentTimeMillis();
+    if (cacheFile.toFile().lastModified() < now - TimeUnit.DAYS.toMillis(1)) {
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(now));
+    }
+  }
+
+  /** Delete the cache files that have not been used for MAX_AGE_DAYS */
+  private static void prune(Path cacheDir) {
+    long oldest = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      files.filter(p -> p.getFileName().toString().endsWith(SUFFIX) && p.toFile().lastModified() < oldest)
+          .forEach(p -> p.toFile().delete());
+    } catch (IOException | RuntimeException e) {
+      // another runner may be pruning at the same time
+    }
+  }
+
+  private static void write(Path cacheFile, List<String> fingerprints, List<Set<String>> packages) throws IOException {
+    Path dir = cacheFile.getParent();
+    Files.createDirectories(dir);
+    // write and move so that a concurrent reader (another runner) never sees half a file
+    Path tmp = Files.createTempFile(dir, "index", ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      writer.write(FORMAT);
+      writer.newLine();
+      for (int i = 0; i < fingerprints.size(); i++) {
+        // directory names cannot start with @ in a jar that javac or a build tool produced, the root dir is ""
+        writer.write(JAR_PREFIX);
+        writer.write(fingerprints.get(i));
+        writer.newLine();
+        for (String pkg : packages.get(i)) {
+          writer.write(pkg);
+          writer.newLine();
+        }
+      }
+    }
+    try {
+      Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,892 @@
+package se.alipsa.gade.runner;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves Maven artifacts and their (transitive) dependencies to local files without Ivy.
+ * <p>
+ * Artifacts are looked up in the local sources first: the configured local repositories (Maven layout, e.g.
+ * ~/.m2/repository), the Gradle cache and the Grape (Ivy) cache. Only what is missing is downloaded from the remote
+ * repositories, in parallel, into the download repository. When there are no remote repositories (offline) nothing
+ * is ever downloaded.
+ * <p>
+ * The resolved graph (the jars of a set of coordinates) is kept in memory and on disk, so resolving the same set again
+ * only checks that the files still exist.
+ * <p>
+ * Only the parts of the POM model that matter for resolving compile/runtime dependencies are supported: parents,
+ * properties, dependency management (including imported BOMs), exclusions, optional and scoped dependencies.
+ * Version ranges, snapshots and profiles are not; such requests throw {@link UnsupportedException} so that the caller
+ * can fall back to Ivy.
+ */
+public class MavenResolver {
+
+  /** Maven Central */
+  public static final URI MAVEN_CENTRAL = URI.create("https://repo1.maven.org/maven2/");
+  private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)}");
+  private static final Pattern UNSUPPORTED_VERSION = Pattern.compile("(?i)[\\[\\](),*+]|SNAPSHOT|^latest\\.");
+  private static final Set<String> TRANSITIVE_SCOPES = Set.of("compile", "runtime");
+  private static final int CONNECT_TIMEOUT_MS = 10_000;
+  private static final int READ_TIMEOUT_MS = 60_000;
+
+  /** Thrown when a request uses something this resolver does not handle */
+  public static class UnsupportedException extends IOException {
+    public UnsupportedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A Maven artifact, the ext is null for artifacts that only have a POM (packaging pom).
+   */
+  public record Artifact(String group, String module, String version, String classifier, String ext) {
+
+    public Artifact(String group, String module, String version) {
+      this(group, module, version, null, "jar");
+    }
+
+    /** @return the key used to decide which version of an artifact wins */
+    String conflictKey() {
+      return group + ":" + module + ":" + (classifier == null ? "" : classifier) + ":" + ext;
+    }
+
+    String path(String extension, String withClassifier) {
+      String file = module + "-" + version + (withClassifier == null ? "" : "-" + withClassifier) + "." + extension;
+      return group.replace('.', '/') + "/" + module + "/" + version + "/" + file;
+    }
+
+    Artifact pom() {
+      return new Artifact(group, module, version, null, "pom");
+    }
+
+    @Override
+    public String toString() {
+      return group + ":" + module + ":" + version + (classifier == null ? "" : ":" + classifier)
+          + (ext == null || "jar".equals(ext) ? "" : "@" + ext);
+    }
+  }
+
+  /** A group:module to exclude, * matches anything */
+  public record Exclusion(String group, String module) {
+    boolean matches(String g, String m) {
+      return ("*".equals(group) || group.equals(g)) && (module == null || "*".equals(module) || module.equals(m));
+    }
+  }
+
+  /** A requested dependency */
+  public record Request(Artifact artifact, boolean transitive, List<Exclusion> exclusions) {
+    public Request(Artifact artifact) {
+      this(artifact, true, List.of());
+    }
+  }
+
+  /** A resolved artifact and its file */
+  public record Resolved(Artifact artifact, Path file) {}
+
+  /** Where artifacts can be found locally */
+  @FunctionalInterface
+  interface Source {
+    /** @return the file of the path (in Maven layout) of the artifact or null if this source does not have it */
+    Path find(Artifact artifact, String path);
+  }
+
+  private record Dep(String group, String module, String version, String type, String classifier, String scope,
+                     boolean optional, List<Exclusion> exclusions) {
+    String managementKey() {
+      return group + ":" + module + ":" + type + ":" + (classifier == null ? "" : classifier);
+    }
+  }
+
+  private record Pom(String packaging, Map<String, String> properties, Map<String, Dep> managed, List<Dep> deps) {}
+
+  private record GraphNode(Artifact artifact, boolean transitive, Set<Exclusion> exclusions) {}
+
+  private final List<Source> sources;
+  private final Path downloadRepo;
+  private final List<URI> remotes = new CopyOnWriteArrayList<>();
+  private final boolean offline;
+  private final Path graphCacheDir;
+  private final int parallelism;
+  private final Map<String, List<Resolved>> graphs = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<Optional<Path>>> located = new ConcurrentHashMap<>();
+  private final Map<Artifact, CompletableFuture<Optional<Pom>>> poms = new ConcurrentHashMap<>();
+  private volatile ExecutorService executor;
+
+  /**
+   * @param sources the local sources, searched in order
+   * @param downloadRepo where downloaded artifacts are stored (Maven layout), it is also searched first
+   * @param remotes the remote repositories, empty to work offline (remotes added later are then ignored)
+   * @param graphCacheDir where the resolved graphs are stored, null to only keep them in memory
+   * @param parallelism the number of concurrent downloads
+   */
+  MavenResolver(List<Source> sources, Path downloadRepo, List<URI> remotes, Path graphCacheDir, int parallelism) {
+    this.sources = new ArrayList<>();
+    this.sources.add(mavenRepo(downloadRepo));
+    this.sources.addAll(sources);
+    this.downloadRepo = downloadRepo;
+    this.offline = remotes.isEmpty();
+    remotes.forEach(this::addRemote);
+    this.graphCacheDir = graphCacheDir;
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Create a resolver configured from system properties:
+   * <ul>
+   *   <li>gade.grape.localRepo - additional local repositories (Maven layout) searched before anything else,
+   *   separated by the path separator</li>
+   *   <li>gade.grape.repositories - comma separated remote repositories, default Maven Central</li>
+   *   <li>gade.grape.offline - if true nothing is downloaded</li>
+   *   <li>gade.grape.parallelism - the number of concurrent downloads, default 8</li>
+   * </ul>
+   * The local Maven repository, the Gradle cache and the Grape cache are always searched.
+   */
+  public static MavenResolver fromSystemProperties() {
+    Path home = Path.of(System.getProperty("user.home", "."));
+    List<Source> sources = new ArrayList<>();
+    String localRepos = System.getProperty("gade.grape.localRepo");
+    if (localRepos != null && !localRepos.isBlank()) {
+      for (String repo : localRepos.split(Pattern.quote(File.pathSeparator))) {
+        if (!repo.isBlank()) {
+          sources.add(mavenRepo(Path.of(repo.trim())));
+        }
+      }
+    }
+    sources.add(mavenRepo(home.resolve(".m2").resolve("repository")));
+    String gradleHome = System.getenv("GRADLE_USER_HOME");
+    Path gradleUserHome = gradleHome == null || gradleHome.isBlank() ? home.resolve(".gradle") : Path.of(gradleHome);
+    sources.add(gradleCache(gradleUserHome.resolve("caches").resolve("modules-2").resolve("files-2.1")));
+    String grapeRoot = System.getProperty("grape.root");
+    Path grapes = grapeRoot == null || grapeRoot.isBlank()
+        ? home.resolve(".groovy").resolve("grapes")
+        : Path.of(grapeRoot).resolve("grapes");
+    sources.add(grapeCache(grapes));
+
+    List<URI> remotes = new ArrayList<>();
+    if (!Boolean.getBoolean("gade.grape.offline")) {
+      String repositories = System.getProperty("gade.grape.repositories");
+      if (repositories == null || repositories.isBlank()) {
+        remotes.add(MAVEN_CENTRAL);
+      } else {
+        for (String repo : repositories.split(",")) {
+          if (!repo.isBlank()) {
+            remotes.add(URI.create(repo.trim()));
+          }
+        }
+      }
+    }
+    Path cache = home.resolve(".gade").resolve("cache").resolve("grape");
+    return new MavenResolver(sources, cache.resolve("repository"), remotes, cache.resolve("graphs"),
+        Integer.getInteger("gade.grape.parallelism", 8));
+  }
+
+  /** A local repository in Maven layout */
+  static Source mavenRepo(Path root) {
+    return (artifact, path) -> {
+      Path file = root.resolve(path);
+      return Files.isRegularFile(file) ? file : null;
+    };
+  }
+
+  /** The Gradle cache, files are stored as group/module/version/sha1/file */
+  static Source gradleCache(Path root) {
+    return (artifact, path) -> {
+      Path versionDir = root.resolve(artifact.group()).resolve(artifact.module()).resolve(artifact.version());
+      if (!Files.isDirectory(versionDir)) {
+        return null;
+      }
+      String fileName = path.substring(path.lastIndexOf('/') + 1);
+      try (DirectoryStream<Path> hashes = Files.newDirectoryStream(versionDir)) {
+        for (Path hash : hashes) {
+          Path file = hash.resolve(fileName);
+          if (Files.isRegularFile(file)) {
+            return file;
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      return null;
+    };
+  }
+
+  /** The Grape (Ivy) cache, Ivy keeps the POM of artifacts from Maven repositories as ivy-version.xml.original */
+  static Source grapeCache(Path root) {
+    return (artifact, path) -> {
+      Path moduleDir = root.resolve(artifact.group()).resolve(artifact.module());
+      if (!Files.isDirectory(moduleDir)) {
+        return null;
+      }
+      String fileName = path.substring(path.lastIndexOf('/') + 1);
+      List<Path> candidates = new ArrayList<>();
+      if (fileName.endsWith(".pom")) {
+        candidates.add(moduleDir.resolve("ivy-" + artifact.version() + ".xml.original"));
+      } else {
+        for (String dir : List.of("jars", "bundles")) {
+          candidates.add(moduleDir.resolve(dir).resolve(fileName));
+        }
+      }
+      for (Path file : candidates) {
+        if (Files.isRegularFile(file)) {
+          return file;
+        }
+      }
+      return null;
+    };
+  }
+
+  /** Add a remote repository (Maven layout), it is searched after the ones already known */
+  public void addRemote(URI root) {
+    if (offline) {
+      return;
+    }
+    URI normalized = root.toString().endsWith("/") ? root : URI.create(root + "/");
+    if (!remotes.contains(normalized)) {
+      remotes.add(normalized);
+    }
+  }
+
+  /** @return true if nothing will be downloaded */
+  public boolean isOffline() {
+    return offline;
+  }
+
+  /**
+   * Resolve the requests and their transitive dependencies.
+   *
+   * @param requests the requested artifacts
+   * @param exclusions exclusions applying to the whole graph
+   * @param download false to only use what is available locally
+   * @param verifyChecksums true to verify downloaded files against the sha1 published with them
+   * @return the resolved artifacts, nearest first
+   * @throws UnsupportedException if the request uses versions this resolver does not handle
+   * @throws IOException if an artifact cannot be found or downloaded
+   */
+  public List<Resolved> resolve(List<Request> requests, List<Exclusion> exclusions, boolean download,
+                                boolean verifyChecksums) throws IOException {
+    for (Request request : requests) {
+      checkVersion(request.artifact().toString(), request.artifact().version());
+    }
+    String key = graphKey(requests, exclusions);
+    List<Resolved> cached = graphs.get(key);
+    if (cached == null) {
+      cached = readGraph(key);
+    }
+    if (cached != null && cached.stream().allMatch(r -> Files.isRegularFile(r.file()))) {
+      graphs.put(key, cached);
+      return cached;
+    }
+    boolean remote = download && !remotes.isEmpty();
+    List<Artifact> artifacts = collect(requests, exclusions, remote, verifyChecksums);
+    List<CompletableFuture<Resolved>> jars = new ArrayList<>();
+    for (Artifact artifact : artifacts) {
+      jars.add(async(() -> new Resolved(artifact, require(artifact, remote, verifyChecksums))));
+    }
+    List<Resolved> resolved = new ArrayList<>();
+    for (CompletableFuture<Resolved> jar : jars) {
+      resolved.add(join(jar));
+    }
+    resolved = List.copyOf(resolved);
+    graphs.put(key, resolved);
+    writeGraph(key, resolved);
+    return resolved;
+  }
+
+  /**
+   * Walk the dependency graph breadth first (nearest wins, like Maven), the POMs of each level are fetched in
+   * parallel.
+   *
+   * @return the artifacts that have a file (i.e. not packaging pom)
+   */
+  private List<Artifact> collect(List<Request> requests, List<Exclusion> exclusions, boolean remote,
+                                 boolean verifyChecksums) throws IOException {
+    Map<String, Artifact> selected = new LinkedHashMap<>();
+    List<GraphNode> level = new ArrayList<>();
+    for (Request request : requests) {
+      level.add(new GraphNode(request.artifact(), request.transitive(), new LinkedHashSet<>(request.exclusions())));
+    }
+    while (!level.isEmpty()) {
+      List<GraphNode> fresh = new ArrayList<>();
+      for (GraphNode node : level) {
+        Artifact a = node.artifact();
+        // nearest wins: a module already selected (in any version) is not added again
+        if (isExcluded(exclusions, a.group(), a.module()) || selected.containsKey(a.conflictKey())) {
+          continue;
+        }
+        selected.put(a.conflictKey(), a);
+        fresh.add(node);
+      }
+      List<CompletableFuture<Optional<Pom>>> pomFutures = new ArrayList<>();
+      for (GraphNode node : fresh) {
+        pomFutures.add(async(() -> pom(node.artifact().pom(), remote, verifyChecksums)));
+      }
+      List<GraphNode> next = new ArrayList<>();
+      for (int i = 0; i < fresh.size(); i++) {
+        GraphNode node = fresh.get(i);
+        Optional<Pom> pom = join(pomFutures.get(i));
+        Artifact artifact = node.artifact();
+        if (pom.isPresent() && "pom".equals(pom.get().packaging()) && "jar".equals(artifact.ext())
+            && artifact.classifier() == null) {
+          // e.g. a bom or an aggregating module, there is no jar
+          selected.put(artifact.conflictKey(), new Artifact(artifact.group(), artifact.module(), artifact.version(),
+              null, null));
+        }
+        if (!node.transitive() || pom.isEmpty()) {
+          continue;
+        }
+        for (Dep dep : pom.get().deps()) {
+          String scope = dep.scope() == null ? "compile" : dep.scope();
+          if (dep.optional() || !TRANSITIVE_SCOPES.contains(scope)
+              || isExcluded(node.exclusions(), dep.group(), dep.module())) {
+            continue;
+          }
+          if (dep.version() == null) {
+            throw new IOException("No version for " + dep.group() + ":" + dep.module() + " in " + artifact);
+          }
+          checkVersion(dep.group() + ":" + dep.module() + ":" + dep.version(), dep.version());
+          Set<Exclusion> childExclusions = new LinkedHashSet<>(node.exclusions());
+          childExclusions.addAll(dep.exclusions());
+          next.add(new GraphNode(toArtifact(dep), true, childExclusions));
+        }
+      }
+      level = next;
+    }
+    List<Artifact> artifacts = new ArrayList<>();
+    for (Artifact artifact : selected.values()) {
+      if (artifact.ext() != null && !"pom".equals(artifact.ext())) {
+        artifacts.add(artifact);
+      }
+    }
+    return artifacts;
+  }
+
+  private static Artifact toArtifact(Dep dep) {
+    String type = dep.type() == null ? "jar" : dep.type();
+    String classifier = dep.classifier();
+    String ext = switch (type) {
+      case "test-jar" -> {
+        classifier = classifier == null ? "tests" : classifier;
+        yield "jar";
+      }
+      case "bundle", "maven-plugin", "ejb", "ejb-client", "java-source", "javadoc" -> "jar";
+      default -> type;
+    };
+    return new Artifact(dep.group(), dep.module(), dep.version(), classifier, ext);
+  }
+
+  private static boolean isExcluded(Collection<Exclusion> exclusions, String group, String module) {
+    for (Exclusion exclusion : exclusions) {
+      if (exclusion.matches(group, module)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void checkVersion(String what, String version) throws UnsupportedException {
+    if (version == null || version.isBlank() || UNSUPPORTED_VERSION.matcher(version).find()) {
+      throw new UnsupportedException("Unsupported version in " + what);
+    }
+  }
+
+  /* ---------------------------------------------------------------- POMs */
+
+  /** Load the POM, or wait for the thread already loading it */
+  private Optional<Pom> pom(Artifact pomArtifact, boolean remote, boolean verifyChecksums) throws IOException {
+    CompletableFuture<Optional<Pom>> future = new CompletableFuture<>();
+    CompletableFuture<Optional<Pom>> existing = poms.putIfAbsent(pomArtifact, future);
+    if (existing != null) {
+      return join(existing);
+    }
+    try {
+      Optional<Pom> pom = Optional.ofNullable(loadPom(pomArtifact, remote, verifyChecksums));
+      future.complete(pom);
+      return pom;
+    } catch (IOException | RuntimeException e) {
+      // do not remember failures, a later attempt (e.g. online) may succeed
+      poms.remove(pomArtifact, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /** Load the effective POM, i.e. with the parent merged and properties interpolated */
+  private Pom loadPom(Artifact pomArtifact, boolean remote, boolean verifyChecksums) throws IOException {
+    Path file = locate(pomArtifact, pomArtifact.path("pom", null), remote, verifyChecksums);
+    if (file == null) {
+      return null;
+    }
+    Element project = parse(file).getDocumentElement();
+    if (!"project".equals(name(project))) {
+      return null;
+    }
+    Map<String, String> properties = new LinkedHashMap<>();
+    Map<String, Dep> managed = new LinkedHashMap<>();
+    List<Dep> deps = new ArrayList<>();
+
+    Element parent = child(project, "parent");
+    Pom parentPom = null;
+    if (parent != null) {
+      Artifact parentArtifact = new Artifact(text(parent, "groupId"), text(parent, "artifactId"),
+          text(parent, "version"), null, "pom");
+      parentPom = parentArtifact.group() == null || parentArtifact.version() == null
+          ? null
+          : pom(parentArtifact, remote, verifyChecksums).orElse(null);
+      if (parentPom != null) {
+        properties.putAll(parentPom.properties());
+      }
+      properties.put("project.parent.groupId", parentArtifact.group());
+      properties.put("project.parent.version", parentArtifact.version());
+      properties.put("parent.version", parentArtifact.version());
+    }
+    properties.put("project.groupId", pomArtifact.group());
+    properties.put("project.artifactId", pomArtifact.module());
+    properties.put("project.version", pomArtifact.version());
+    properties.put("pom.groupId", pomArtifact.group());
+    properties.put("pom.version", pomArtifact.version());
+    properties.put("groupId", pomArtifact.group());
+    properties.put("version", pomArtifact.version());
+    Element props = child(project, "properties");
+    if (props != null) {
+      for (Element prop : children(props)) {
+        properties.put(name(prop), prop.getTextContent().trim());
+      }
+    }
+
+    Element management = child(project, "dependencyManagement");
+    if (management != null) {
+      for (Dep dep : deps(child(management, "dependencies"), properties)) {
+        if ("import".equals(dep.scope()) && "pom".equals(dep.type())) {
+          if (dep.version() == null) {
+            continue;
+          }
+          Artifact bom = new Artifact(dep.group(), dep.module(), dep.version(), null, "pom");
+          pom(bom, remote, verifyChecksums).ifPresent(b -> b.managed().forEach(managed::putIfAbsent));
+        } else {
+          managed.putIfAbsent(dep.managementKey(), dep);
+        }
+      }
+    }
+    if (parentPom != null) {
+      parentPom.managed().forEach(managed::putIfAbsent);
+      deps.addAll(parentPom.deps());
+    }
+    for (Dep dep : deps(child(project, "dependencies"), properties)) {
+      Dep m = managed.get(dep.managementKey());
+      if (m != null) {
+        List<Exclusion> exclusions = new ArrayList<>(dep.exclusions());
+        exclusions.addAll(m.exclusions());
+        dep = new Dep(dep.group(), dep.module(), dep.version() == null ? m.version() : dep.version(), dep.type(),
+            dep.classifier(), dep.scope() == null ? m.scope() : dep.scope(), dep.optional(), exclusions);
+      }
+      deps.add(dep);
+    }
+    String packaging = text(project, "packaging");
+    return new Pom(packaging == null ? "jar" : interpolate(packaging, properties), properties, managed, deps);
+  }
+
+  private static List<Dep> deps(Element dependencies, Map<String, String> properties) {
+    List<Dep> deps = new ArrayList<>();
+    if (dependencies == null) {
+      return deps;
+    }
+    for (Element dependency : children(dependencies)) {
+      if (!"dependency".equals(name(dependency))) {
+        continue;
+      }
+      List<Exclusion> exclusions = new ArrayList<>();
+      Element exclusionsElement = child(dependency, "exclusions");
+      if (exclusionsElement != null) {
+        for (Element exclusion : children(exclusionsElement)) {
+          exclusions.add(new Exclusion(interpolate(text(exclusion, "groupId"), properties),
+              interpolate(text(exclusion, "artifactId"), properties)));
+        }
+      }
+      String type = interpolate(text(dependency, "type"), properties);
+      deps.add(new Dep(
+          interpolate(text(dependency, "groupId"), properties),
+          interpolate(text(dependency, "artifactId"), properties),
+          interpolate(text(dependency, "version"), properties),
+          type == null ? "jar" : type,
+          interpolate(text(dependency, "classifier"), properties),
+          interpolate(text(dependency, "scope"), properties),
+          "true".equals(interpolate(text(dependency, "optional"), properties)),
+          exclusions));
+    }
+    return deps;
+  }
+
+  static String interpolate(String value, Map<String, String> properties) {
+    if (value == null) {
+      return null;
+    }
+    String result = value;
+    for (int i = 0; i < 10 && result.contains("${"); i++) {
+      Matcher m = PROPERTY.matcher(result);
+      StringBuilder sb = new StringBuilder();
+      boolean replaced = false;
+      while (m.find()) {
+        String name = m.group(1);
+        String replacement = properties.get(name);
+        if (replacement == null) {
+          replacement = name.startsWith("env.") ? System.getenv(name.substring(4)) : System.getProperty(name);
+        }
+        if (replacement == null) {
+          replacement = m.group(0);
+        } else {
+          replaced = true;
+        }
+        m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+      }
+      m.appendTail(sb);
+      result = sb.toString();
+      if (!replaced) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  private static Document parse(Path file) throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      factory.setExpandEntityReferences(false);
+      DocumentBuilder builder = factory.newDocumentBuilder();
+      try (InputStream in = Files.newInputStream(file)) {
+        return builder.parse(in);
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Failed to parse " + file + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static String name(Element element) {
+    return element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+  }
+
+  private static List<Element> children(Element parent) {
+    List<Element> elements = new ArrayList<>();
+    NodeList nodes = parent.getChildNodes();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+        elements.add((Element) nodes.item(i));
+      }
+    }
+    return elements;
+  }
+
+  private static Element child(Element parent, String name) {
+    for (Element element : children(parent)) {
+      if (name.equals(name(element))) {
+        return element;
+      }
+    }
+    return null;
+  }
+
+  private static String text(Element parent, String name) {
+    Element element = child(parent, name);
+    if (element == null) {
+      return null;
+    }
+    String text = element.getTextContent().trim();
+    return text.isEmpty() ? null : text;
+  }
+
+  /* ---------------------------------------------------------------- files */
+
+  private Path require(Artifact artifact, boolean remote, boolean verifyChecksums) throws IOException {
+    Path file = locate(artifact, artifact.path(artifact.ext(), artifact.classifier()), remote, verifyChecksums);
+    if (file == null) {
+      throw new FileNotFoundException(artifact + (remote ? " was not found in " + remotes
+          : " is not available locally and downloading is disabled (offline)"));
+    }
+    return file;
+  }
+
+  /** Find the file in the local sources, download it if it is missing and remote is true */
+  private Path locate(Artifact artifact, String path, boolean remote, boolean verifyChecksums) throws IOException {
+    for (Source source : sources) {
+      Path file = source.find(artifact, path);
+      if (file != null) {
+        return file;
+      }
+    }
+    if (!remote) {
+      return null;
+    }
+    // only one thread downloads a file, the others wait for it
+    CompletableFuture<Optional<Path>> future = new CompletableFuture<>();
+    CompletableFuture<Optional<Path>> existing = located.putIfAbsent(path, future);
+    if (existing != null) {
+      return join(existing).orElse(null);
+    }
+    try {
+      Path file = download(path, verifyChecksums);
+      future.complete(Optional.ofNullable(file));
+      return file;
+    } catch (IOException | RuntimeException e) {
+      located.remove(path, future);
+      future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private Path download(String path, boolean verifyChecksums) throws IOException {
+    IOException failure = null;
+    for (URI remote : remotes) {
+      URI uri = remote.resolve(path);
+      Path target = downloadRepo.resolve(path);
+      Files.createDirectories(target.getParent());
+      Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+      try {
+        if (!fetch(uri, tmp)) {
+          continue;
+        }
+        if (verifyChecksums) {
+          verifySha1(remote.resolve(path + ".sha1"), tmp, uri);
+        }
+        try {
+          Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return null;
+  }
+
+  /** @return false if the remote does not have the file */
+  private static boolean fetch(URI uri, Path target) throws IOException {
+    URLConnection conn = uri.toURL().openConnection();
+    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    conn.setReadTimeout(READ_TIMEOUT_MS);
+    conn.setRequestProperty("User-Agent", "Gade");
+    if (conn instanceof HttpURLConnection http) {
+      int status = http.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+        http.disconnect();
+        return false;
+      }
+      if (status >= 400) {
+        http.disconnect();
+        throw new IOException("HTTP " + status + " for " + uri);
+      }
+    }
+    try (InputStream in = conn.getInputStream()) {
+      Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (FileNotFoundException | java.nio.file.NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private static void verifySha1(URI sha1Uri, Path file, URI source) throws IOException {
+    Path sha1File = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".sha1");
+    try {
+      if (!fetch(sha1Uri, sha1File)) {
+        // not all repositories publish checksums
+        return;
+      }
+      String content = Files.readString(sha1File, StandardCharsets.UTF_8).trim();
+      String expected = content.isEmpty() ? "" : content.split("\\s+")[0].toLowerCase(Locale.ROOT);
+      String actual = sha1(file);
+      if (!expected.isEmpty() && !expected.equals(actual)) {
+        throw new IOException("Checksum mismatch for " + source + ": expected " + expected + " but was " + actual);
+      }
+    } finally {
+      Files.deleteIfExists(sha1File);
+    }
+  }
+
+  private static String sha1(Path file) throws IOException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      try (InputStream in = Files.newInputStream(file)) {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          md.update(buffer, 0, read);
+        }
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not available", e);
+    }
+  }
+
+  /* ---------------------------------------------------------------- graph cache */
+
+  private String graphKey(List<Request> requests, List<Exclusion> exclusions) {
+    Set<String> parts = new TreeSet<>();
+    for (Request request : requests) {
+      StringBuilder sb = new StringBuilder(request.artifact().toString());
+      if (!request.transitive()) {
+        sb.append(";intransitive");
+      }
+      request.exclusions().stream().map(e -> e.group() + ":" + e.module()).sorted()
+          .forEach(e -> sb.append(";-").append(e));
+      parts.add(sb.toString());
+    }
+    exclusions.stream().map(e -> "-" + e.group() + ":" + e.module()).forEach(parts::add);
+    return GrabCache.hash(String.join("\n", parts));
+  }
+
+  private List<Resolved> readGraph(String key) {
+    if (graphCacheDir == null) {
+      return null;
+    }
+    Path file = graphCacheDir.resolve(key + ".graph");
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      List<Resolved> resolved = new ArrayList<>();
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        String[] parts = line.split("\t");
+        if (parts.length != 6) {
+          continue;
+        }
+        Artifact artifact = new Artifact(parts[0], parts[1], parts[2], parts[3].isEmpty() ? null : parts[3],
+            parts[4]);
+        resolved.add(new Resolved(artifact, Path.of(URI.create(parts[5]))));
+      }
+      return List.copyOf(resolved);
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private void writeGraph(String key, List<Resolved> resolved) {
+    if (graphCacheDir == null) {
+      return;
+    }
+    List<String> lines = new ArrayList<>();
+    for (Resolved r : resolved) {
+      Artifact a = r.artifact();
+      lines.add(String.join("\t", a.group(), a.module(), a.version(), a.classifier() == null ? "" : a.classifier(),
+          a.ext(), r.file().toUri().toString()));
+    }
+    try {
+      Files.createDirectories(graphCacheDir);
+      Path tmp = Files.createTempFile(graphCacheDir, key, ".tmp");
+      Files.write(tmp, lines, StandardCharsets.UTF_8);
+      try {
+        Files.move(tmp, graphCacheDir.resolve(key + ".graph"), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, graphCacheDir.resolve(key + ".graph"), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      // the cache is an optimization only
+    }
+  }
+
+  /* ---------------------------------------------------------------- concurrency */
+
+  @FunctionalInterface
+  private interface IoSupplier<T> {
+    T get() throws IOException;
+  }
+
+  private <T> CompletableFuture<T> async(IoSupplier<T> supplier) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return supplier.get();
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, ensureExecutor());
+  }
+
+  private static <T> T join(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException io) {
+        throw io;
+      }
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private ExecutorService ensureExecutor() {
+    ExecutorService ex = executor;
+    if (ex == null) {
+      synchronized (this) {
+        ex = executor;
+        if (ex == null) {
+          AtomicInteger count = new AtomicInteger();
+          ex = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "gade-grape-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          });
+          executor = ex;
+        }
+      }
+    }
+    return ex;
+  }
+}
@@ -58,6 +58,14 @@ public class RemoteInOut extends GroovyObjectSupport {
       return handleDisplayFigure(argsArray);
     }
 
+    if ("display".equals(name) && argsArray.length >= 1 && ChartExporter.canExportSvg(argsArray[0])) {
+      return handleDisplayChart(argsArray);
+    }
+
+    if ("saveAll".equals(name)) {
+      return handleSaveAll(argsArray);
+    }
+
     // Send GUI request and wait for response
     return sendGuiRequest(name, argsArray);
   }
@@ -184,6 +192,43 @@ public class RemoteInOut extends GroovyObjectSupport {
     }
   }
 
+  /**
+   * Render an XChart or matrix-charts chart to svg locally and forward it as a displaySvg call so that it is shown
+   * in the Plots tab (and its history) like other plots, the svg is much smaller than a snapshot of the chart and
+   * is not rasterized at all.
+   */
+  private Object handleDisplayChart(Object[] args) {
+    String svg;
+    try {
+      svg = ChartExporter.toSvg(args[0]);
+    } catch (Exception e) {
+      System.err.println("RemoteInOut: svg export failed (" + e.getMessage() + "), sending the chart as is");
+      return sendGuiRequest("display", args);
+    }
+    String[] titleArgs = extractTrailingStrings(args);
+    if (titleArgs.length > 0) {
+      return sendGuiRequest("displaySvg", svg, titleArgs[0]);
+    }
+    return sendGuiRequest("displaySvg", svg);
+  }
+
+  /**
+   * Save charts to files locally in the subprocess (where the chart objects are live), charts cannot be sent
+   * to the main process. Arguments are (charts, dir, format[, width, height]).
+   *
+   * @return a future of the export report, it is up to the script to print or check it
+   */
+  private Object handleSaveAll(Object[] args) {
+    if (args.length < 3) {
+      throw new IllegalArgumentException("saveAll requires charts, dir and format arguments");
+    }
+    List<?> charts = args[0] instanceof Object[] arr ? Arrays.asList(arr) : new ArrayList<>((Collection<?>) args[0]);
+    java.io.File dir = args[1] instanceof java.io.File f ? f : new java.io.File(String.valueOf(args[1]));
+    int width = args.length > 3 ? ((Number) args[3]).intValue() : 800;
+    int height = args.length > 4 ? ((Number) args[4]).intValue() : 600;
+    return ChartExporter.saveAll(charts, dir, String.valueOf(args[2]), width, height);
+  }
+
   /**
    * Extract trailing String/String[] arguments (the optional title parameter).
    */
@@ -212,10 +257,10 @@ public class RemoteInOut extends GroovyObjectSupport {
     try {
       String id = UUID.randomUUID().toString();
 
-      // Serialize arguments
+      // Serialize arguments, image data is streamed ahead of the request as blob messages
       List<Object> serializedArgs = new ArrayList<>();
-      for (Object arg : args) {
-        serializedArgs.add(ArgumentSerializer.serialize(arg));
+      for (int i = 0; i < args.length; i++) {
+        serializedArgs.add(ArgumentSerializer.serialize(args[i], blobSink(id + "-" + i)));
       }
 
       // Create request
@@ -229,15 +274,19 @@ public class RemoteInOut extends GroovyObjectSupport {
       CompletableFuture<Object> future = new CompletableFuture<>();
       pending.put(id, future);
 
-      // Send request
-      synchronized (writer) {
-        writer.write(ProtocolXml.toXml(request));
-        writer.write("\n");
-        writer.flush();
+      // Send request and wait for the response, the wait is reported in the eval metrics
+      long waitStart = System.nanoTime();
+      Object result;
+      try {
+        synchronized (writer) {
+          writer.write(ProtocolXml.toXml(request));
+          writer.write("\n");
+          writer.flush();
+        }
+        result = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } finally {
+        EvalMetrics.recordGuiWait(System.nanoTime() - waitStart);
       }
-
-      // Wait for response
-      Object result = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
       return ArgumentSerializer.deserialize(result);
 
     } catch (TimeoutException e) {
@@ -257,6 +306,10 @@ public class RemoteInOut extends GroovyObjectSupport {
     }
   }
 
+  private ImageTransfer.ChunkSink blobSink(String blobId) {
+    return ImageTransfer.blobSink(blobId, writer);
+  }
+
   @Override
   public String toString() {
     return "Remote GUI interaction proxy (forwards to main Gade process)";
@@ -0,0 +1,190 @@
+package se.alipsa.gade.runner;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A heartbeat of the runner JVM, sent to Gade as a {@code health} message every
+ * {@code gade.runner.heartbeatMillis} (default 1000, 0 turns the heartbeat off) so that memory pressure is visible
+ * while a script is running rather than after the runner has died.
+ * <p>
+ * The heartbeat thread only reads the platform MXBeans so it keeps running while the eval thread is busy; a heartbeat
+ * that stops arriving while the process is alive usually means the runner is stuck in GC.
+ * <p>
+ * Note: This class uses no logging to avoid classpath issues in the runner.
+ *
+ * @param heapUsed the used heap in bytes
+ * @param heapCommitted the committed heap in bytes
+ * @param heapMax the max heap in bytes, -1 if undefined
+ * @param nonHeapUsed the used non heap memory (metaspace, code cache etc.) in bytes
+ * @param gcCount the total number of garbage collections since the runner started
+ * @param gcMillis the total time spent in garbage collection since the runner started
+ * @param threadCount the number of live threads
+ * @param evalMillis the elapsed time of the running eval, -1 if the runner is idle
+ */
+public record RunnerHealth(long heapUsed, long heapCommitted, long heapMax, long nonHeapUsed, long gcCount,
+                           long gcMillis, int threadCount, long evalMillis) {
+
+  public static final long DEFAULT_HEARTBEAT_MILLIS = 1000;
+  /** The number of classes in a heap histogram */
+  public static final int HISTOGRAM_LINES = 40;
+
+  /**
+   * @param evalMillis the elapsed time of the running eval, -1 if idle
+   * @return the current state of this JVM
+   */
+  public static RunnerHealth sample(long evalMillis) {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    MemoryUsage heap = memory.getHeapMemoryUsage();
+    MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+    long count = 0;
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return new RunnerHealth(heap.getUsed(), heap.getCommitted(), heap.getMax(), nonHeap.getUsed(), count, millis,
+        ManagementFactory.getThreadMXBean().getThreadCount(), evalMillis);
+  }
+
+  /**
+   * Start the heartbeat thread.
+   *
+   * @param writer the socket writer
+   * @param intervalMillis the time between heartbeats, nothing is started if 0 or less
+   * @param evalMillis supplies the elapsed time of the running eval, -1 if idle
+   */
+  static void startHeartbeat(BufferedWriter writer, long intervalMillis, LongSupplier evalMillis) {
+    if (intervalMillis <= 0) {
+      return;
+    }
+    Thread heartbeat = new Thread(() -> {
+      while (!Thread.currentThread().isInterrupted()) {
+        try {
+          Thread.sleep(intervalMillis);
+        } catch (InterruptedException e) {
+          return;
+        }
+        Map<String, Object> payload = sample(evalMillis.getAsLong()).toMap();
+        payload.put("type", "health");
+        GadeRunnerEngine.emit(payload, writer);
+      }
+    }, "gade-runner-heartbeat");
+    heartbeat.setDaemon(true);
+    heartbeat.start();
+  }
+
+  /**
+   * @return the heap used as a percentage of the max heap, -1 if there is no max
+   */
+  public double heapUsedPercent() {
+    return heapMax <= 0 ? -1 : heapUsed * 100.0 / heapMax;
+  }
+
+  /**
+   * @return the fields as a map of numbers for the protocol
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("heapUsed", heapUsed);
+    map.put("heapCommitted", heapCommitted);
+    map.put("heapMax", heapMax);
+    map.put("nonHeapUsed", nonHeapUsed);
+    map.put("gcCount", gcCount);
+    map.put("gcMillis", gcMillis);
+    map.put("threadCount", threadCount);
+    map.put("evalMillis", evalMillis);
+    return map;
+  }
+
+  /**
+   * @param msg a health message
+   * @return the health or null if the message has no heap usage
+   */
+  public static RunnerHealth fromMap(Map<?, ?> msg) {
+    if (!(msg.get("heapUsed") instanceof Number)) {
+      return null;
+    }
+    return new RunnerHealth(toLong(msg.get("heapUsed")), toLong(msg.get("heapCommitted")), toLong(msg.get("heapMax")),
+        toLong(msg.get("nonHeapUsed")), toLong(msg.get("gcCount")), toLong(msg.get("gcMillis")),
+        (int) toLong(msg.get("threadCount")), toLong(msg.get("evalMillis")));
+  }
+
+  private static long toLong(Object value) {
+    return value instanceof Number n ? n.longValue() : -1;
+  }
+
+  /**
+   * @return a one line summary, e.g. "heap 512.0 of 2048.0 MB (25%), 23 threads, gc 12 (340 ms)"
+   */
+  public String summary() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("heap ").append(megabytes(heapUsed));
+    if (heapMax > 0) {
+      sb.append(" of ").append(megabytes(heapMax))
+          .append(String.format(Locale.ROOT, " MB (%.0f%%)", heapUsedPercent()));
+    } else {
+      sb.append(" MB");
+    }
+    sb.append(", ").append(threadCount).append(" threads");
+    sb.append(", gc ").append(gcCount).append(" (").append(gcMillis).append(" ms)");
+    if (evalMillis >= 0) {
+      sb.append(String.format(Locale.ROOT, ", running %.1f s", evalMillis / 1000.0));
+    }
+    return sb.toString();
+  }
+
+  private static String megabytes(long bytes) {
+    return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+  }
+
+  /**
+   * A class histogram of the live objects in the heap (like {@code jcmd <pid> GC.class_histogram}). Note that this
+   * forces a full GC.
+   *
+   * @param maxClasses the max number of classes to include, the total line is always included
+   * @return the histogram as text
+   */
+  static String heapHistogram(int maxClasses) throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName diagnostics = new ObjectName("com.sun.management:type=DiagnosticCommand");
+    Object histogram;
+    try {
+      histogram = server.invoke(diagnostics, "gcClassHistogram", new Object[]{new String[0]},
+          new String[]{String[].class.getName()});
+    } catch (javax.management.InstanceNotFoundException e) {
+      throw new IllegalStateException("Heap histograms are not supported by this JVM", e);
+    }
+    return truncateHistogram(String.valueOf(histogram), maxClasses);
+  }
+
+  /** Keep the header, the first maxClasses classes and the total line */
+  static String truncateHistogram(String histogram, int maxClasses) {
+    String[] lines = histogram.split("\\R");
+    StringBuilder sb = new StringBuilder();
+    int classes = 0;
+    boolean truncated = false;
+    for (String line : lines) {
+      String trimmed = line.trim();
+      boolean classLine = !trimmed.isEmpty() && Character.isDigit(trimmed.charAt(0));
+      if (classLine && classes++ >= maxClasses) {
+        truncated = true;
+        continue;
+      }
+      if (truncated && trimmed.startsWith("Total")) {
+        sb.append(" ...\n");
+      }
+      sb.append(line).append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,86 @@
+package se.alipsa.gade.runner;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Controls a JDK Flight Recorder recording in the runner, started and stopped by Gade around an eval
+ * ({@code startProfiling} / {@code stopProfiling}).
+ * <p>
+ * The recording uses the JDK "profile" settings with the events that the profile summary in Gade is made of:
+ * execution samples every 10 ms, allocation samples, and contended monitor enters and thread parks of 1 ms or
+ * more, all with stack traces.
+ * <p>
+ * Note: This class uses no logging to avoid classpath issues in the runner.
+ */
+final class ScriptProfiler {
+
+  private static Recording recording;
+
+  private ScriptProfiler() {
+    // static utility
+  }
+
+  /**
+   * Start a recording, a recording that is already running is discarded.
+   *
+   * @throws IllegalStateException if the runner JVM has no flight recorder
+   */
+  static synchronized void start() throws IOException {
+    discard();
+    Recording r;
+    try {
+      r = new Recording(Configuration.getConfiguration("profile"));
+    } catch (ParseException e) {
+      throw new IOException("Failed to read the JFR profile settings", e);
+    } catch (LinkageError | UnsupportedOperationException e) {
+      throw new IllegalStateException("JDK Flight Recorder is not available in this runtime (" + e + ")", e);
+    }
+    r.setName("gade-profile");
+    r.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(10)).withStackTrace();
+    r.enable("jdk.ObjectAllocationSample").withStackTrace();
+    r.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ofMillis(1)).withStackTrace();
+    r.enable("jdk.ThreadPark").withThreshold(Duration.ofMillis(1)).withStackTrace();
+    r.start();
+    recording = r;
+  }
+
+  /**
+   * Stop the recording and write it to a temporary file, the caller deletes the file.
+   *
+   * @return the .jfr file
+   * @throws IllegalStateException if no recording is running
+   */
+  static synchronized Path stop() throws IOException {
+    if (recording == null) {
+      throw new IllegalStateException("No profiling recording is running");
+    }
+    Recording r = recording;
+    recording = null;
+    try {
+      r.stop();
+      Path file = Files.createTempFile("gade-profile", ".jfr");
+      r.dump(file);
+      return file;
+    } finally {
+      r.close();
+    }
+  }
+
+  static synchronized boolean isRecording() {
+    return recording != null;
+  }
+
+  private static void discard() {
+    if (recording != null) {
+      recording.close();
+      recording = null;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package se.alipsa.gade.runner;
+
+import groovy.lang.Binding;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binding of the runner. Variables restored from a {@link SessionSnapshot} after a restart are only read from
+ * the snapshot file when a script (or the environment view) first uses them, so a restart does not wait for, or
+ * fill the heap with, data that is never used again.
+ */
+public class SessionBinding extends Binding {
+
+  private final Map<String, SessionSnapshot.Entry> unread = Collections.synchronizedMap(new LinkedHashMap<>());
+  private final Object readLock = new Object();
+  private volatile ClassLoader loader;
+
+  /**
+   * A variable that has not been read from the snapshot yet, shown in the environment with the type and size it
+   * had when it was saved.
+   */
+  public record Unread(SessionSnapshot.Entry entry) {
+    @Override
+    public String toString() {
+      return "<" + entry.type() + " restored from the session snapshot, read when first used>";
+    }
+  }
+
+  /**
+   * @param entries the variables of a snapshot, variables that already exist (e.g. gadeRuntime) are not replaced
+   * @param loader used to load the classes of the restored values
+   * @return the names of the variables that were added
+   */
+  public List<String> restore(List<SessionSnapshot.Entry> entries, ClassLoader loader) {
+    this.loader = loader;
+    List<String> names = new ArrayList<>();
+    for (SessionSnapshot.Entry entry : entries) {
+      if (!super.hasVariable(entry.name())) {
+        unread.put(entry.name(), entry);
+        names.add(entry.name());
+      }
+    }
+    return names;
+  }
+
+  /** @return the variables that have not been read from the snapshot yet */
+  public List<SessionSnapshot.Entry> unread() {
+    synchronized (unread) {
+      return new ArrayList<>(unread.values());
+    }
+  }
+
+  /**
+   * @return the variables with the unread ones as {@link Unread} placeholders, nothing is read from the snapshot
+   */
+  @SuppressWarnings("unchecked")
+  public Map<String, Object> variablesWithoutReading() {
+    Map<String, Object> variables = new LinkedHashMap<>(getVariables());
+    unread.forEach((name, entry) -> variables.putIfAbsent(name, new Unread(entry)));
+    return variables;
+  }
+
+  /**
+   * Read the variable from the snapshot if it has not been read yet.
+   *
+   * @throws IllegalStateException if it cannot be read
+   */
+  public void read(String name) {
+    if (name == null || !unread.containsKey(name)) {
+      return;
+    }
+    synchronized (readLock) {
+      SessionSnapshot.Entry entry = unread.get(name);
+      if (entry == null) {
+        return;
+      }
+      Object value;
+      try {
+        value = SessionSnapshot.read(entry, loader);
+      } catch (IOException | RuntimeException e) {
+        unread.remove(name, entry);
+        throw new IllegalStateException("Failed to restore " + name + " from the session snapshot: "
+            + e.getMessage(), e);
+      }
+      // a script may have assigned the variable while it was read
+      if (unread.remove(name, entry)) {
+        super.setVariable(name, value);
+      }
+    }
+  }
+
+  @Override
+  public Object getVariable(String name) {
+    read(name);
+    return super.getVariable(name);
+  }
+
+  @Override
+  public boolean hasVariable(String name) {
+    return unread.containsKey(name) || super.hasVariable(name);
+  }
+
+  @Override
+  public void setVariable(String name, Object value) {
+    unread.remove(name);
+    super.setVariable(name, value);
+  }
+
+  @Override
+  public void removeVariable(String name) {
+    unread.remove(name);
+    super.removeVariable(name);
+  }
+}
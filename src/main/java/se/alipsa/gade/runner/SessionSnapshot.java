@@ -0,0 +1,790 @@
+package se.alipsa.gade.runner;
+
+import groovy.lang.MissingMethodException;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the variables of the binding to a file so that they survive a restart of the runner, and reads them back
+ * one at a time, see {@link SessionBinding}.
+ * <p>
+ * The file has a header, one block per variable and an index of the blocks at the end, so a variable can be read
+ * without reading the ones before it. Null, strings, numbers, booleans, dates, lists, sets, maps, primitive arrays and
+ * Matrix values are written; anything else (connections, closures, instances of script classes etc.) is skipped
+ * with a reason, as are variables over the size limits.
+ * <p>
+ * A Matrix is written column by column: a column where all values have the same type is stored as a primitive
+ * array with a null mask, a string column with few distinct values as a dictionary and codes, any other column
+ * value by value. Matrix values are handled by reflection since the Matrix library might not be on the classpath
+ * of the runtime.
+ */
+public final class SessionSnapshot {
+
+  static final byte[] MAGIC = "GADESNAP".getBytes(StandardCharsets.US_ASCII);
+  static final int FORMAT_VERSION = 1;
+  private static final String MATRIX_CLASS = "se.alipsa.matrix.core.Matrix";
+  private static final int MAX_DEPTH = 100;
+
+  // value tags
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte FLOAT = 5;
+  private static final byte SHORT = 6;
+  private static final byte BYTE = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte CHARACTER = 9;
+  private static final byte BIG_DECIMAL = 10;
+  private static final byte BIG_INTEGER = 11;
+  private static final byte LOCAL_DATE = 12;
+  private static final byte LOCAL_DATE_TIME = 13;
+  private static final byte LOCAL_TIME = 14;
+  private static final byte INSTANT = 15;
+  private static final byte DATE = 16;
+  private static final byte SQL_DATE = 17;
+  private static final byte SQL_TIMESTAMP = 18;
+  private static final byte LIST = 19;
+  private static final byte SET = 20;
+  private static final byte MAP = 21;
+  private static final byte INT_ARRAY = 22;
+  private static final byte LONG_ARRAY = 23;
+  private static final byte DOUBLE_ARRAY = 24;
+  private static final byte MATRIX = 25;
+
+  // matrix column encodings
+  private static final byte COLUMN_VALUES = 0;
+  private static final byte COLUMN_INT = 1;
+  private static final byte COLUMN_LONG = 2;
+  private static final byte COLUMN_DOUBLE = 3;
+  private static final byte COLUMN_BOOLEAN = 4;
+  private static final byte COLUMN_STRING = 5;
+  private static final byte COLUMN_DICTIONARY = 6;
+  private static final byte COLUMN_DATE = 7;
+
+  /**
+   * A variable in a snapshot file.
+   *
+   * @param file the snapshot file
+   * @param name the name of the variable
+   * @param type the simple class name of the value
+   * @param size the size as shown in the environment, e.g. "100 x 3"
+   * @param offset where the block of the variable starts
+   * @param length the length of the block
+   */
+  public record Entry(Path file, String name, String type, String size, long offset, long length) {}
+
+  /**
+   * @param variables the names of the variables that were written
+   * @param skipped the names of the variables that were not written and why
+   * @param bytes the size of the file
+   */
+  public record Saved(List<String> variables, Map<String, String> skipped, long bytes) {}
+
+  private SessionSnapshot() {
+    // static utility
+  }
+
+  /**
+   * @param variables the variables of the binding
+   * @param unread variables restored from an earlier snapshot that have not been read yet, their blocks are copied
+   * @param exclude names of variables that belong to the runner (gui interactions etc.), these are not mentioned in
+   * the result
+   * @param file the snapshot file, replaced if it exists
+   * @param maxBytes the max size of the file
+   * @param maxVariableBytes the max size of one variable
+   */
+  public static Saved save(Map<?, ?> variables, Collection<Entry> unread, Set<String> exclude, Path file,
+                           long maxBytes, long maxVariableBytes) throws IOException {
+    List<String> saved = new ArrayList<>();
+    Map<String, String> skipped = new LinkedHashMap<>();
+    List<Entry> index = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      BlockOutput block = new BlockOutput(channel);
+      DataOutputStream out = new DataOutputStream(block);
+      out.write(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      for (Map.Entry<?, ?> variable : variables.entrySet()) {
+        String name = String.valueOf(variable.getKey());
+        if (exclude.contains(name)) {
+          continue;
+        }
+        Object value = variable.getValue();
+        long start = block.position();
+        block.limit(start + Math.min(maxVariableBytes, maxBytes - start));
+        try {
+          writeValue(out, value, 0);
+          index.add(new Entry(file, name, value == null ? "null" : value.getClass().getSimpleName(),
+              BindingSummarizer.size(value), start, block.position() - start));
+          saved.add(name);
+        } catch (Skip e) {
+          block.rollback(start);
+          skipped.put(name, e.getMessage());
+        } catch (LimitExceeded e) {
+          block.rollback(start);
+          skipped.put(name, tooLarge(start, maxBytes, maxVariableBytes));
+        } catch (RuntimeException e) {
+          // e.g. modified by a running script while being written
+          block.rollback(start);
+          skipped.put(name, e.toString());
+        }
+      }
+      for (Entry entry : unread) {
+        if (exclude.contains(entry.name()) || variables.containsKey(entry.name())) {
+          continue;
+        }
+        long start = block.position();
+        if (entry.length() > maxVariableBytes || start + entry.length() > maxBytes) {
+          skipped.put(entry.name(), tooLarge(start, maxBytes, maxVariableBytes));
+          continue;
+        }
+        block.limit(Long.MAX_VALUE);
+        copy(entry, block);
+        index.add(new Entry(file, entry.name(), entry.type(), entry.size(), start, entry.length()));
+        saved.add(entry.name());
+      }
+      block.limit(Long.MAX_VALUE);
+      long indexOffset = block.position();
+      out.writeInt(index.size());
+      for (Entry entry : index) {
+        writeString(out, entry.name());
+        writeString(out, entry.type());
+        writeString(out, entry.size());
+        out.writeLong(entry.offset());
+        out.writeLong(entry.length());
+      }
+      out.writeLong(indexOffset);
+      block.flush();
+      return new Saved(saved, skipped, block.position());
+    }
+  }
+
+  private static String tooLarge(long position, long maxBytes, long maxVariableBytes) {
+    if (maxBytes - position < maxVariableBytes) {
+      return "the snapshot is full (max " + formatBytes(maxBytes) + ")";
+    }
+    return "larger than " + formatBytes(maxVariableBytes);
+  }
+
+  private static String formatBytes(long bytes) {
+    return bytes >= 1024 * 1024 ? bytes / (1024 * 1024) + " MB" : Math.max(1, bytes / 1024) + " KB";
+  }
+
+  private static void copy(Entry entry, OutputStream out) throws IOException {
+    try (FileChannel source = FileChannel.open(entry.file(), StandardOpenOption.READ)) {
+      source.position(entry.offset());
+      InputStream in = Channels.newInputStream(source);
+      byte[] buffer = new byte[64 * 1024];
+      long remaining = entry.length();
+      while (remaining > 0) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          throw new EOFException("Snapshot " + entry.file() + " is truncated");
+        }
+        out.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  /**
+   * @return the variables in the snapshot, nothing is read but the index
+   */
+  public static List<Entry> index(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+      byte[] magic = header.readNBytes(MAGIC.length);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException(file + " is not a session snapshot");
+      }
+      int version = header.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported session snapshot version " + version);
+      }
+      channel.position(channel.size() - Long.BYTES);
+      long indexOffset = new DataInputStream(Channels.newInputStream(channel)).readLong();
+      channel.position(indexOffset);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      int count = in.readInt();
+      List<Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        entries.add(new Entry(file, readString(in), readString(in), readString(in), in.readLong(), in.readLong()));
+      }
+      return entries;
+    }
+  }
+
+  /**
+   * @param entry the variable to read
+   * @param loader used to load the Matrix class and the column types
+   * @return the value of the variable
+   */
+  public static Object read(Entry entry, ClassLoader loader) throws IOException {
+    try (FileChannel channel = FileChannel.open(entry.file(), StandardOpenOption.READ)) {
+      channel.position(entry.offset());
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+          64 * 1024));
+      return readValue(in, loader);
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, Object value, int depth) throws IOException {
+    if (depth > MAX_DEPTH) {
+      throw new Skip("nested more than " + MAX_DEPTH + " levels deep");
+    }
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof CharSequence cs) {
+      // includes GStrings, restored as String
+      out.writeByte(STRING);
+      writeString(out, cs.toString());
+    } else if (value instanceof Integer i) {
+      out.writeByte(INTEGER);
+      out.writeInt(i);
+    } else if (value instanceof Long l) {
+      out.writeByte(LONG);
+      out.writeLong(l);
+    } else if (value instanceof Double d) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(d);
+    } else if (value instanceof Float f) {
+      out.writeByte(FLOAT);
+      out.writeFloat(f);
+    } else if (value instanceof Short s) {
+      out.writeByte(SHORT);
+      out.writeShort(s);
+    } else if (value instanceof Byte b) {
+      out.writeByte(BYTE);
+      out.writeByte(b);
+    } else if (value instanceof Boolean b) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean(b);
+    } else if (value instanceof Character c) {
+      out.writeByte(CHARACTER);
+      out.writeChar(c);
+    } else if (value instanceof BigDecimal bd) {
+      out.writeByte(BIG_DECIMAL);
+      writeString(out, bd.toString());
+    } else if (value instanceof BigInteger bi) {
+      out.writeByte(BIG_INTEGER);
+      writeString(out, bi.toString());
+    } else if (value instanceof LocalDate date) {
+      out.writeByte(LOCAL_DATE);
+      out.writeLong(date.toEpochDay());
+    } else if (value instanceof LocalDateTime dateTime) {
+      out.writeByte(LOCAL_DATE_TIME);
+      writeString(out, dateTime.toString());
+    } else if (value instanceof LocalTime time) {
+      out.writeByte(LOCAL_TIME);
+      out.writeLong(time.toNanoOfDay());
+    } else if (value instanceof Instant instant) {
+      out.writeByte(INSTANT);
+      out.writeLong(instant.getEpochSecond());
+      out.writeInt(instant.getNano());
+    } else if (value instanceof java.sql.Timestamp timestamp) {
+      out.writeByte(SQL_TIMESTAMP);
+      out.writeLong(timestamp.getTime());
+      out.writeInt(timestamp.getNanos());
+    } else if (value instanceof java.sql.Date date) {
+      out.writeByte(SQL_DATE);
+      out.writeLong(date.getTime());
+    } else if (value.getClass() == java.util.Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((java.util.Date) value).getTime());
+    } else if (value instanceof Map<?, ?> map) {
+      out.writeByte(MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeValue(out, entry.getKey(), depth + 1);
+        writeValue(out, entry.getValue(), depth + 1);
+      }
+    } else if (value instanceof List<?> || value instanceof Set<?>) {
+      Collection<?> col = (Collection<?>) value;
+      out.writeByte(value instanceof List<?> ? LIST : SET);
+      out.writeInt(col.size());
+      for (Object element : col) {
+        writeValue(out, element, depth + 1);
+      }
+    } else if (value instanceof int[] ints) {
+      out.writeByte(INT_ARRAY);
+      out.writeInt(ints.length);
+      for (int i : ints) {
+        out.writeInt(i);
+      }
+    } else if (value instanceof long[] longs) {
+      out.writeByte(LONG_ARRAY);
+      out.writeInt(longs.length);
+      for (long l : longs) {
+        out.writeLong(l);
+      }
+    } else if (value instanceof double[] doubles) {
+      out.writeByte(DOUBLE_ARRAY);
+      out.writeInt(doubles.length);
+      for (double d : doubles) {
+        out.writeDouble(d);
+      }
+    } else if (BindingSummarizer.isMatrix(value)) {
+      writeMatrix(out, value, depth);
+    } else {
+      throw new Skip(value.getClass().getName() + " cannot be saved");
+    }
+  }
+
+  private static void writeMatrix(DataOutputStream out, Object matrix, int depth) throws IOException {
+    Object name = BindingSummarizer.invoke(matrix, "getMatrixName");
+    List<?> columnNames = BindingSummarizer.invoke(matrix, "columnNames") instanceof List<?> l ? l : List.of();
+    List<?> types = BindingSummarizer.invoke(matrix, "types") instanceof List<?> l ? l : List.of();
+    int rowCount = BindingSummarizer.invoke(matrix, "rowCount") instanceof Number n ? n.intValue() : 0;
+    out.writeByte(MATRIX);
+    out.writeBoolean(name != null);
+    if (name != null) {
+      writeString(out, String.valueOf(name));
+    }
+    out.writeInt(columnNames.size());
+    out.writeInt(rowCount);
+    Method getAt = BindingSummarizer.method(matrix, "getAt", int.class, int.class);
+    for (int c = 0; c < columnNames.size(); c++) {
+      writeString(out, String.valueOf(columnNames.get(c)));
+      writeString(out, c < types.size() && types.get(c) instanceof Class<?> cls ? cls.getName() : "java.lang.Object");
+      writeColumn(out, column(matrix, getAt, c, rowCount), depth);
+    }
+  }
+
+  private static List<Object> column(Object matrix, Method getAt, int column, int rowCount) {
+    List<Object> values = new ArrayList<>(rowCount);
+    try {
+      for (int r = 0; r < rowCount; r++) {
+        values.add(getAt.invoke(matrix, r, column));
+      }
+    } catch (ReflectiveOperationException | NullPointerException e) {
+      throw new IllegalStateException("Failed to read column " + column + " of the matrix", e);
+    }
+    return values;
+  }
+
+  private static void writeColumn(DataOutputStream out, List<Object> values, int depth) throws IOException {
+    Class<?> type = commonType(values);
+    if (type == Integer.class) {
+      out.writeByte(COLUMN_INT);
+      writeNulls(out, values);
+      for (Object v : values) {
+        out.writeInt(v == null ? 0 : (Integer) v);
+      }
+    } else if (type == Long.class) {
+      out.writeByte(COLUMN_LONG);
+      writeNulls(out, values);
+      for (Object v : values) {
+        out.writeLong(v == null ? 0 : (Long) v);
+      }
+    } else if (type == Double.class) {
+      out.writeByte(COLUMN_DOUBLE);
+      writeNulls(out, values);
+      for (Object v : values) {
+        out.writeDouble(v == null ? 0 : (Double) v);
+      }
+    } else if (type == LocalDate.class) {
+      out.writeByte(COLUMN_DATE);
+      writeNulls(out, values);
+      for (Object v : values) {
+        out.writeLong(v == null ? 0 : ((LocalDate) v).toEpochDay());
+      }
+    } else if (type == Boolean.class) {
+      out.writeByte(COLUMN_BOOLEAN);
+      for (Object v : values) {
+        out.writeByte(v == null ? 2 : ((Boolean) v ? 1 : 0));
+      }
+    } else if (type == String.class) {
+      writeStringColumn(out, values);
+    } else {
+      out.writeByte(COLUMN_VALUES);
+      for (Object v : values) {
+        writeValue(out, v, depth + 1);
+      }
+    }
+  }
+
+  /** @return the class of all non null values, null if they differ or all values are null */
+  private static Class<?> commonType(List<Object> values) {
+    Class<?> type = null;
+    for (Object v : values) {
+      if (v == null) {
+        continue;
+      }
+      if (type == null) {
+        type = v.getClass();
+      } else if (type != v.getClass()) {
+        return null;
+      }
+    }
+    return type;
+  }
+
+  private static void writeNulls(DataOutputStream out, List<Object> values) throws IOException {
+    BitSet nulls = new BitSet(values.size());
+    for (int i = 0; i < values.size(); i++) {
+      if (values.get(i) == null) {
+        nulls.set(i);
+      }
+    }
+    long[] words = nulls.toLongArray();
+    out.writeInt(words.length);
+    for (long word : words) {
+      out.writeLong(word);
+    }
+  }
+
+  private static void writeStringColumn(DataOutputStream out, List<Object> values) throws IOException {
+    Map<String, Integer> codes = new LinkedHashMap<>();
+    for (Object v : values) {
+      if (v != null) {
+        codes.putIfAbsent((String) v, codes.size());
+        if (codes.size() > values.size() / 2) {
+          break;
+        }
+      }
+    }
+    if (codes.size() > values.size() / 2) {
+      out.writeByte(COLUMN_STRING);
+      for (Object v : values) {
+        out.writeBoolean(v != null);
+        if (v != null) {
+          writeString(out, (String) v);
+        }
+      }
+      return;
+    }
+    out.writeByte(COLUMN_DICTIONARY);
+    out.writeInt(codes.size());
+    for (String s : codes.keySet()) {
+      writeString(out, s);
+    }
+    for (Object v : values) {
+      out.writeInt(v == null ? -1 : codes.get(v));
+    }
+  }
+
+  private static Object readValue(DataInputStream in, ClassLoader loader) throws IOException {
+    byte tag = in.readByte();
+    return switch (tag) {
+      case NULL -> null;
+      case STRING -> readString(in);
+      case INTEGER -> in.readInt();
+      case LONG -> in.readLong();
+      case DOUBLE -> in.readDouble();
+      case FLOAT -> in.readFloat();
+      case SHORT -> in.readShort();
+      case BYTE -> in.readByte();
+      case BOOLEAN -> in.readBoolean();
+      case CHARACTER -> in.readChar();
+      case BIG_DECIMAL -> new BigDecimal(readString(in));
+      case BIG_INTEGER -> new BigInteger(readString(in));
+      case LOCAL_DATE -> LocalDate.ofEpochDay(in.readLong());
+      case LOCAL_DATE_TIME -> LocalDateTime.parse(readString(in));
+      case LOCAL_TIME -> LocalTime.ofNanoOfDay(in.readLong());
+      case INSTANT -> Instant.ofEpochSecond(in.readLong(), in.readInt());
+      case DATE -> new java.util.Date(in.readLong());
+      case SQL_DATE -> new java.sql.Date(in.readLong());
+      case SQL_TIMESTAMP -> {
+        java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        yield timestamp;
+      }
+      case MAP -> {
+        int size = in.readInt();
+        Map<Object, Object> map = new LinkedHashMap<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+          map.put(readValue(in, loader), readValue(in, loader));
+        }
+        yield map;
+      }
+      case LIST, SET -> {
+        int size = in.readInt();
+        Collection<Object> col = tag == LIST ? new ArrayList<>(size) : new LinkedHashSet<>(capacity(size));
+        for (int i = 0; i < size; i++) {
+          col.add(readValue(in, loader));
+        }
+        yield col;
+      }
+      case INT_ARRAY -> {
+        int[] ints = new int[in.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+          ints[i] = in.readInt();
+        }
+        yield ints;
+      }
+      case LONG_ARRAY -> {
+        long[] longs = new long[in.readInt()];
+        for (int i = 0; i < longs.length; i++) {
+          longs[i] = in.readLong();
+        }
+        yield longs;
+      }
+      case DOUBLE_ARRAY -> {
+        double[] doubles = new double[in.readInt()];
+        for (int i = 0; i < doubles.length; i++) {
+          doubles[i] = in.readDouble();
+        }
+        yield doubles;
+      }
+      case MATRIX -> readMatrix(in, loader);
+      default -> throw new IOException("Unknown value tag " + tag + " in the session snapshot");
+    };
+  }
+
+  private static int capacity(int size) {
+    return (int) Math.min(Integer.MAX_VALUE, size * 4L / 3 + 1);
+  }
+
+  private static Object readMatrix(DataInputStream in, ClassLoader loader) throws IOException {
+    String name = in.readBoolean() ? readString(in) : null;
+    int columnCount = in.readInt();
+    int rowCount = in.readInt();
+    List<String> columnNames = new ArrayList<>(columnCount);
+    List<Class<?>> types = new ArrayList<>(columnCount);
+    List<List<Object>> columns = new ArrayList<>(columnCount);
+    for (int c = 0; c < columnCount; c++) {
+      columnNames.add(readString(in));
+      types.add(classFor(readString(in), loader));
+      columns.add(readColumn(in, rowCount, loader));
+    }
+    Class<?> matrixClass;
+    try {
+      matrixClass = Class.forName(MATRIX_CLASS, true, loader);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("the Matrix library is not on the classpath of this runtime", e);
+    }
+    Object builder = InvokerHelper.invokeStaticMethod(matrixClass, "builder", null);
+    if (name != null) {
+      InvokerHelper.invokeMethod(builder, "matrixName", new Object[]{name});
+    }
+    try {
+      InvokerHelper.invokeMethod(builder, "columns", new Object[]{columns});
+    } catch (MissingMethodException e) {
+      // older Matrix versions can only be built from rows
+      InvokerHelper.invokeMethod(builder, "rows", new Object[]{transpose(columns, rowCount)});
+    }
+    InvokerHelper.invokeMethod(builder, "columnNames", new Object[]{columnNames});
+    InvokerHelper.invokeMethod(builder, "types", new Object[]{types});
+    return InvokerHelper.invokeMethod(builder, "build", null);
+  }
+
+  private static List<List<Object>> transpose(List<List<Object>> columns, int rowCount) {
+    List<List<Object>> rows = new ArrayList<>(rowCount);
+    for (int r = 0; r < rowCount; r++) {
+      List<Object> row = new ArrayList<>(columns.size());
+      for (List<Object> column : columns) {
+        row.add(column.get(r));
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static Class<?> classFor(String name, ClassLoader loader) {
+    try {
+      return Class.forName(name, false, loader);
+    } catch (ClassNotFoundException | LinkageError e) {
+      return Object.class;
+    }
+  }
+
+  private static List<Object> readColumn(DataInputStream in, int rowCount, ClassLoader loader) throws IOException {
+    byte encoding = in.readByte();
+    List<Object> values = new ArrayList<>(rowCount);
+    switch (encoding) {
+      case COLUMN_INT -> {
+        BitSet nulls = readNulls(in);
+        for (int r = 0; r < rowCount; r++) {
+          int v = in.readInt();
+          values.add(nulls.get(r) ? null : v);
+        }
+      }
+      case COLUMN_LONG -> {
+        BitSet nulls = readNulls(in);
+        for (int r = 0; r < rowCount; r++) {
+          long v = in.readLong();
+          values.add(nulls.get(r) ? null : v);
+        }
+      }
+      case COLUMN_DOUBLE -> {
+        BitSet nulls = readNulls(in);
+        for (int r = 0; r < rowCount; r++) {
+          double v = in.readDouble();
+          values.add(nulls.get(r) ? null : v);
+        }
+      }
+      case COLUMN_DATE -> {
+        BitSet nulls = readNulls(in);
+        for (int r = 0; r < rowCount; r++) {
+          long v = in.readLong();
+          values.add(nulls.get(r) ? null : LocalDate.ofEpochDay(v));
+        }
+      }
+      case COLUMN_BOOLEAN -> {
+        for (int r = 0; r < rowCount; r++) {
+          byte v = in.readByte();
+          values.add(v == 2 ? null : v == 1);
+        }
+      }
+      case COLUMN_STRING -> {
+        for (int r = 0; r < rowCount; r++) {
+          values.add(in.readBoolean() ? readString(in) : null);
+        }
+      }
+      case COLUMN_DICTIONARY -> {
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+          dictionary[i] = readString(in);
+        }
+        for (int r = 0; r < rowCount; r++) {
+          int code = in.readInt();
+          values.add(code < 0 ? null : dictionary[code]);
+        }
+      }
+      case COLUMN_VALUES -> {
+        for (int r = 0; r < rowCount; r++) {
+          values.add(readValue(in, loader));
+        }
+      }
+      default -> throw new IOException("Unknown column encoding " + encoding + " in the session snapshot");
+    }
+    return values;
+  }
+
+  private static BitSet readNulls(DataInputStream in) throws IOException {
+    long[] words = new long[in.readInt()];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = in.readLong();
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /** Unlike writeUTF there is no 64 KB limit */
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+  }
+
+  /** The value cannot be saved, the message is the reason */
+  private static final class Skip extends IOException {
+    Skip(String reason) {
+      super(reason);
+    }
+  }
+
+  /** The variable does not fit within the size limits */
+  private static final class LimitExceeded extends IOException {
+    LimitExceeded() {
+      super("size limit exceeded");
+    }
+  }
+
+  /**
+   * Buffered output to the file that knows its position, stops at a limit and can throw away what was written
+   * after a position, so a variable that cannot be saved leaves no trace.
+   */
+  private static final class BlockOutput extends OutputStream {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private long position;
+    private long limit = Long.MAX_VALUE;
+
+    BlockOutput(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    long position() {
+      return position;
+    }
+
+    void limit(long limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (position + 1 > limit) {
+        throw new LimitExceeded();
+      }
+      if (!buffer.hasRemaining()) {
+        drain();
+      }
+      buffer.put((byte) b);
+      position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (position + len > limit) {
+        throw new LimitExceeded();
+      }
+      while (len > 0) {
+        if (!buffer.hasRemaining()) {
+          drain();
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.put(b, off, n);
+        off += n;
+        len -= n;
+        position += n;
+      }
+    }
+
+    void rollback(long to) throws IOException {
+      drain();
+      channel.truncate(to);
+      channel.position(to);
+      position = to;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain();
+    }
+
+    private void drain() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+}
@@ -5,9 +5,19 @@ import groovy.lang.GroovyObjectSupport;
 final class UnsupportedGuiInteraction extends GroovyObjectSupport {
 
   private final String name;
+  private final String reason;
 
   UnsupportedGuiInteraction(String name) {
+    this(name, "is not available in external runtimes; select the GADE runtime for GUI interactions");
+  }
+
+  /**
+   * @param name the binding name, e.g. "io"
+   * @param reason the rest of the error message, e.g. "is not available in a headless batch run"
+   */
+  UnsupportedGuiInteraction(String name, String reason) {
     this.name = name == null ? "" : name;
+    this.reason = reason;
   }
 
   @Override
@@ -31,7 +41,7 @@ final class UnsupportedGuiInteraction extends GroovyObjectSupport {
   }
 
   private String message() {
-    return "'" + name + "' is not available in external runtimes; select the GADE runtime for GUI interactions";
+    return "'" + name + "' " + reason;
   }
 }
 
@@ -0,0 +1,465 @@
+package se.alipsa.gade.runner;
+
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Encodes (a part of) a variable in the runner as typed data for the {@code fetchVar} command so that a single
+ * variable, or a path into it, can be transferred without stringifying the whole session.
+ * <p>
+ * The result is a map with a {@code _kind} key:
+ * <ul>
+ *   <li>{@code null}</li>
+ *   <li>{@code scalar}: {@code type} (class name) and {@code value}, numbers and booleans are sent as such,
+ *   other values (BigDecimal, dates etc.) as their string representation (a java.util.Date as an ISO instant and
+ *   an enum as its name)</li>
+ *   <li>{@code string}: {@code length} and the {@code value} starting at {@code offset}, at most maxChars long</li>
+ *   <li>{@code list}: {@code type}, {@code size} and the {@code elements} starting at {@code offset}</li>
+ *   <li>{@code map}: {@code type}, {@code size} and the {@code keys} and {@code values} starting at {@code offset}</li>
+ *   <li>{@code matrix}: {@code name}, {@code rowCount}, {@code columnNames}, {@code types} (class names) and
+ *   {@code columns}, one list per column holding the rows starting at {@code offset}. A cell of another class
+ *   than its column (e.g. in a column of type Object) is sent typed like the elements of a list</li>
+ *   <li>{@code object}: {@code type}, {@code length} and the {@code text} (toString) of anything else</li>
+ * </ul>
+ * When there is more to fetch the result contains a {@code continuation}: the offset to ask for next.
+ * Elements of lists and maps are scalars; nested containers are described as {@code ref} (with {@code type}
+ * and {@code size}) and can be fetched by extending the path, e.g. {@code customers[3].orders}.
+ * <p>
+ * Matrix values are handled by reflection since the Matrix library might not be on the classpath of the runtime.
+ */
+public class VarEncoder {
+
+  public static final int DEFAULT_LIMIT = 1000;
+  public static final int DEFAULT_MAX_CHARS = 100_000;
+
+  private VarEncoder() {
+    // utility class
+  }
+
+  /**
+   * @param variables the variables of the binding
+   * @param name the name of the variable
+   * @param path a path into the variable (property/key names separated by . and [index] for lists), may be null
+   * @param offset the first element, row or character to include
+   * @param limit the maximum number of elements or rows to include
+   * @param maxChars the maximum number of characters of strings and object texts to include
+   * @return the encoded value
+   * @throws IllegalArgumentException if there is no such variable or the path does not exist
+   */
+  public static Map<String, Object> fetch(Map<?, ?> variables, String name, String path, int offset, int limit,
+                                          int maxChars) {
+    if (name == null || !variables.containsKey(name)) {
+      throw new IllegalArgumentException("No such variable: " + name);
+    }
+    Object value = resolve(variables.get(name), path);
+    return encode(value, Math.max(0, offset), limit <= 0 ? DEFAULT_LIMIT : limit,
+        maxChars <= 0 ? DEFAULT_MAX_CHARS : maxChars);
+  }
+
+  static Object resolve(Object root, String path) {
+    if (path == null || path.isBlank()) {
+      return root;
+    }
+    Object current = root;
+    for (String segment : parsePath(path)) {
+      current = step(current, segment, path);
+    }
+    return current;
+  }
+
+  /** a.b[2].c -> a, b, [2], c */
+  static List<String> parsePath(String path) {
+    List<String> segments = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '.' || c == '[') {
+        if (!sb.isEmpty()) {
+          segments.add(sb.toString());
+          sb.setLength(0);
+        }
+        if (c == '[') {
+          int end = path.indexOf(']', i);
+          if (end < 0) {
+            throw new IllegalArgumentException("Unbalanced [ in path " + path);
+          }
+          segments.add(path.substring(i, end + 1));
+          i = end;
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    if (!sb.isEmpty()) {
+      segments.add(sb.toString());
+    }
+    return segments;
+  }
+
+  private static Object step(Object current, String segment, String path) {
+    if (current == null) {
+      throw new IllegalArgumentException("Cannot resolve " + segment + " in " + path + ": value is null");
+    }
+    boolean indexed = segment.startsWith("[");
+    String key = indexed ? segment.substring(1, segment.length() - 1).trim() : segment;
+    if (current instanceof Map<?, ?> map) {
+      if (map.containsKey(key)) {
+        return map.get(key);
+      }
+      Integer index = toIndex(key);
+      if (index != null && map.containsKey(index)) {
+        return map.get(index);
+      }
+      throw new IllegalArgumentException("No key " + key + " in " + path);
+    }
+    Indexed indexedView = indexed(current);
+    if (indexedView != null && indexed) {
+      Integer index = toIndex(key);
+      if (index == null || index < 0 || index >= indexedView.size()) {
+        throw new IllegalArgumentException("Index " + key + " out of bounds in " + path);
+      }
+      return indexedView.get(index);
+    }
+    if (BindingSummarizer.isMatrix(current)) {
+      if (indexed) {
+        Integer row = toIndex(key);
+        if (row == null) {
+          throw new IllegalArgumentException("Not a row number: " + key + " in " + path);
+        }
+        return matrixRow(current, row);
+      }
+      return matrixColumn(current, key, path);
+    }
+    try {
+      return InvokerHelper.getProperty(current, key);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("No property " + key + " in " + path + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static Integer toIndex(String key) {
+    try {
+      return Integer.parseInt(key);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  static Map<String, Object> encode(Object value, int offset, int limit, int maxChars) {
+    Map<String, Object> result = new HashMap<>();
+    if (value == null) {
+      result.put("_kind", "null");
+      return result;
+    }
+    if (value instanceof CharSequence cs) {
+      result.put("_kind", "string");
+      addText(result, "value", cs, offset, maxChars);
+      return result;
+    }
+    if (isScalar(value)) {
+      result.put("_kind", "scalar");
+      result.put("type", typeName(value));
+      result.put("value", scalarValue(value));
+      return result;
+    }
+    if (value instanceof Map<?, ?> map) {
+      result.put("_kind", "map");
+      result.put("type", value.getClass().getName());
+      result.put("size", map.size());
+      List<Object> keys = new ArrayList<>();
+      List<Object> values = new ArrayList<>();
+      Iterator<? extends Map.Entry<?, ?>> it = map.entrySet().iterator();
+      skip(it, offset);
+      while (it.hasNext() && keys.size() < limit) {
+        Map.Entry<?, ?> entry = it.next();
+        keys.add(element(entry.getKey()));
+        values.add(element(entry.getValue()));
+      }
+      result.put("offset", offset);
+      result.put("keys", keys);
+      result.put("values", values);
+      addContinuation(result, offset + keys.size(), map.size());
+      return result;
+    }
+    if (BindingSummarizer.isMatrix(value)) {
+      return encodeMatrix(value, offset, limit);
+    }
+    Indexed indexed = indexed(value);
+    if (indexed != null) {
+      result.put("_kind", "list");
+      result.put("type", value.getClass().getName());
+      int size = indexed.size();
+      result.put("size", size);
+      List<Object> elements = new ArrayList<>();
+      if (indexed.random()) {
+        for (int i = offset; i < size && elements.size() < limit; i++) {
+          elements.add(element(indexed.get(i)));
+        }
+      } else {
+        Iterator<?> it = ((Collection<?>) value).iterator();
+        skip(it, offset);
+        while (it.hasNext() && elements.size() < limit) {
+          elements.add(element(it.next()));
+        }
+      }
+      result.put("offset", offset);
+      result.put("elements", elements);
+      addContinuation(result, offset + elements.size(), size);
+      return result;
+    }
+    result.put("_kind", "object");
+    result.put("type", value.getClass().getName());
+    addText(result, "text", String.valueOf(value), offset, maxChars);
+    return result;
+  }
+
+  private static Map<String, Object> encodeMatrix(Object matrix, int offset, int limit) {
+    Map<String, Object> result = new HashMap<>();
+    result.put("_kind", "matrix");
+    result.put("type", matrix.getClass().getName());
+    Object name = BindingSummarizer.invoke(matrix, "getMatrixName");
+    if (name != null) {
+      result.put("name", String.valueOf(name));
+    }
+    int rowCount = BindingSummarizer.invoke(matrix, "rowCount") instanceof Number n ? n.intValue() : 0;
+    List<String> columnNames = new ArrayList<>();
+    if (BindingSummarizer.invoke(matrix, "columnNames") instanceof List<?> names) {
+      names.forEach(n -> columnNames.add(String.valueOf(n)));
+    }
+    List<String> types = new ArrayList<>();
+    if (BindingSummarizer.invoke(matrix, "types") instanceof List<?> classes) {
+      classes.forEach(c -> types.add(c instanceof Class<?> cls ? cls.getName() : Object.class.getName()));
+    }
+    Method getAt = BindingSummarizer.method(matrix, "getAt", int.class, int.class);
+    int end = Math.min(rowCount, offset + limit);
+    List<Object> columns = new ArrayList<>();
+    for (int c = 0; c < columnNames.size(); c++) {
+      List<Object> column = new ArrayList<>(Math.max(0, end - offset));
+      String type = c < types.size() ? types.get(c) : Object.class.getName();
+      for (int r = offset; r < end; r++) {
+        Object cell = getAt(getAt, matrix, r, c);
+        boolean typed = !isNative(cell) && isScalar(cell) && !typeName(cell).equals(type);
+        column.add(typed ? element(cell) : scalarValue(cell));
+      }
+      columns.add(column);
+    }
+    result.put("rowCount", rowCount);
+    result.put("columnNames", columnNames);
+    result.put("types", types);
+    result.put("offset", offset);
+    result.put("columns", columns);
+    addContinuation(result, Math.max(offset, end), rowCount);
+    return result;
+  }
+
+  private static Object getAt(Method getAt, Object matrix, int row, int column) {
+    if (getAt == null) {
+      return null;
+    }
+    try {
+      return getAt.invoke(matrix, row, column);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to get value at " + row + ", " + column, e);
+    }
+  }
+
+  private static List<Object> matrixRow(Object matrix, int row) {
+    int rowCount = BindingSummarizer.invoke(matrix, "rowCount") instanceof Number n ? n.intValue() : 0;
+    if (row < 0 || row >= rowCount) {
+      throw new IllegalArgumentException("Row " + row + " out of bounds, the matrix has " + rowCount + " rows");
+    }
+    int columnCount = BindingSummarizer.invoke(matrix, "columnCount") instanceof Number n ? n.intValue() : 0;
+    Method getAt = BindingSummarizer.method(matrix, "getAt", int.class, int.class);
+    List<Object> values = new ArrayList<>(columnCount);
+    for (int c = 0; c < columnCount; c++) {
+      values.add(getAt(getAt, matrix, row, c));
+    }
+    return values;
+  }
+
+  /** A view of one column that reads the values from the matrix when asked for, no copy is made */
+  private static List<Object> matrixColumn(Object matrix, String columnName, String path) {
+    List<?> names = BindingSummarizer.invoke(matrix, "columnNames") instanceof List<?> l ? l : List.of();
+    int column = names.indexOf(columnName);
+    if (column < 0) {
+      throw new IllegalArgumentException("No column " + columnName + " in " + path);
+    }
+    int rowCount = BindingSummarizer.invoke(matrix, "rowCount") instanceof Number n ? n.intValue() : 0;
+    Method getAt = BindingSummarizer.method(matrix, "getAt", int.class, int.class);
+    return new MatrixColumn(matrix, getAt, column, rowCount);
+  }
+
+  private static final class MatrixColumn extends AbstractList<Object> implements RandomAccess {
+    private final Object matrix;
+    private final Method getAt;
+    private final int column;
+    private final int rowCount;
+
+    MatrixColumn(Object matrix, Method getAt, int column, int rowCount) {
+      this.matrix = matrix;
+      this.getAt = getAt;
+      this.column = column;
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public Object get(int index) {
+      return getAt(getAt, matrix, index, column);
+    }
+
+    @Override
+    public int size() {
+      return rowCount;
+    }
+  }
+
+  private static void addText(Map<String, Object> result, String key, CharSequence text, int offset, int maxChars) {
+    int length = text.length();
+    int start = Math.min(offset, length);
+    int end = (int) Math.min(length, (long) start + maxChars);
+    result.put("length", length);
+    result.put("offset", start);
+    result.put(key, text.subSequence(start, end).toString());
+    addContinuation(result, end, length);
+  }
+
+  private static void addContinuation(Map<String, Object> result, int next, int size) {
+    if (next < size) {
+      result.put("continuation", next);
+    }
+  }
+
+  private static void skip(Iterator<?> it, int count) {
+    for (int i = 0; i < count && it.hasNext(); i++) {
+      it.next();
+    }
+  }
+
+  /** Values the protocol can send as they are */
+  private static boolean isNative(Object value) {
+    return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+        || value instanceof Double || value instanceof Float || value instanceof Boolean;
+  }
+
+  private static boolean isScalar(Object value) {
+    return isNative(value) || value instanceof Number || value instanceof Character || value instanceof Enum<?>
+        || value instanceof java.time.temporal.Temporal || value instanceof java.util.Date
+        || value instanceof java.util.UUID;
+  }
+
+  private static Object scalarValue(Object value) {
+    return isNative(value) ? value : scalarText(value);
+  }
+
+  /** @return the class name of the value, the enum of an enum constant with a body of its own */
+  private static String typeName(Object value) {
+    return value instanceof Enum<?> e ? e.getDeclaringClass().getName() : value.getClass().getName();
+  }
+
+  /** @return the text of a scalar that can be parsed back into it */
+  private static String scalarText(Object value) {
+    if (value instanceof Enum<?> e) {
+      return e.name();
+    }
+    if (value != null && value.getClass() == java.util.Date.class) {
+      return ((java.util.Date) value).toInstant().toString();
+    }
+    return String.valueOf(value);
+  }
+
+  /** Elements of lists and maps: native values as is, other scalars typed, containers as a reference */
+  private static Object element(Object value) {
+    if (isNative(value)) {
+      return value;
+    }
+    Map<String, Object> encoded = new HashMap<>();
+    encoded.put("type", typeName(value));
+    if (isScalar(value)) {
+      encoded.put("_kind", "scalar");
+      encoded.put("value", scalarText(value));
+      return encoded;
+    }
+    encoded.put("_kind", "ref");
+    encoded.put("size", BindingSummarizer.size(value));
+    return encoded;
+  }
+
+  private interface Indexed {
+    int size();
+
+    Object get(int index);
+
+    /** true if get is cheap, otherwise the collection is iterated */
+    boolean random();
+  }
+
+  private static Indexed indexed(Object value) {
+    if (value instanceof List<?> list) {
+      return new Indexed() {
+        @Override
+        public int size() {
+          return list.size();
+        }
+
+        @Override
+        public Object get(int index) {
+          return list.get(index);
+        }
+
+        @Override
+        public boolean random() {
+          return list instanceof RandomAccess;
+        }
+      };
+    }
+    if (value instanceof Collection<?> col) {
+      return new Indexed() {
+        @Override
+        public int size() {
+          return col.size();
+        }
+
+        @Override
+        public Object get(int index) {
+          Iterator<?> it = col.iterator();
+          skip(it, index);
+          return it.next();
+        }
+
+        @Override
+        public boolean random() {
+          return false;
+        }
+      };
+    }
+    if (value != null && value.getClass().isArray()) {
+      return new Indexed() {
+        @Override
+        public int size() {
+          return Array.getLength(value);
+        }
+
+        @Override
+        public Object get(int index) {
+          return Array.get(value, index);
+        }
+
+        @Override
+        public boolean random() {
+          return true;
+        }
+      };
+    }
+    return null;
+  }
+}
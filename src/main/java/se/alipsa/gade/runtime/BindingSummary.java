@@ -0,0 +1,22 @@
+package se.alipsa.gade.runtime;
+
+import java.util.Map;
+
+/**
+ * A bounded description of a variable in the runner, see {@link se.alipsa.gade.runner.BindingSummarizer}.
+ *
+ * @param name the variable name
+ * @param type the simple class name of the value
+ * @param size the size or dimensions (e.g. "10 elements", "100 x 5"), empty if not applicable
+ * @param preview the start of the text representation of the value
+ */
+public record BindingSummary(String name, String type, String size, String preview) {
+
+  static BindingSummary fromMap(String name, Map<?, ?> map) {
+    return new BindingSummary(name, text(map.get("type")), text(map.get("size")), text(map.get("preview")));
+  }
+
+  private static String text(Object value) {
+    return value == null ? "" : String.valueOf(value);
+  }
+}
@@ -0,0 +1,12 @@
+package se.alipsa.gade.runtime;
+
+import se.alipsa.gade.runner.EvalMetrics;
+
+/**
+ * The outcome of an eval in the runner.
+ *
+ * @param result the text representation of the value of the script
+ * @param metrics the performance metrics of the eval, null if the runner did not send any
+ */
+public record EvalResult(String result, EvalMetrics metrics) {
+}
@@ -15,6 +15,49 @@ package se.alipsa.gade.runtime;
  *       <li>Features: Script evaluation, stdout/stderr forwarding, basic error reporting</li>
  *     </ul>
  *   </li>
+ *   <li><b>1.1</b> - Summarized environment and targeted variable fetch
+ *     <ul>
+ *       <li>Messages: {@code bindingSummary} / {@code bindings_summary} (type, size and preview of the variables
+ *       changed since the last request), {@code renderVar} / {@code var_render} (full text of one variable),
+ *       {@code fetchVar} / {@code var_value} (one variable or a path into it as typed, paged data),
+ *       {@code grabDeps} (resolve a {@code @Grab} header once and remember it)</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>1.2</b> - Streamed image transfer
+ *     <ul>
+ *       <li>Messages: {@code blob} (one Base64 chunk of an image, sent ahead of the {@code gui_request} that refers
+ *       to it by blob id)</li>
+ *       <li>Features: images are sent as raw or deflated ARGB pixels by default, see
+ *       {@link se.alipsa.gade.runner.ImageTransfer}</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>1.3</b> - Eval telemetry
+ *     <ul>
+ *       <li>Features: the {@code result} of an {@code eval} has a {@code metrics} map with wall and CPU time,
+ *       allocated bytes, GC count and time, peak heap and time blocked on GUI requests, see
+ *       {@link se.alipsa.gade.runner.EvalMetrics}</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>1.4</b> - Profiling
+ *     <ul>
+ *       <li>Messages: {@code startProfiling} (start a JDK Flight Recorder recording in the runner),
+ *       {@code stopProfiling} (stop it, the recording is sent as {@code blob} messages ahead of the {@code result}
+ *       that refers to it by blob id)</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>1.5</b> - Runner health
+ *     <ul>
+ *       <li>Messages: {@code health} (heartbeat with heap, GC, thread count and eval elapsed time, see
+ *       {@link se.alipsa.gade.runner.RunnerHealth}), {@code heapHistogram} (class histogram of the runner heap)</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>1.6</b> - Session snapshots
+ *     <ul>
+ *       <li>Messages: {@code saveSession} (write the variables to a snapshot file, the {@code result} lists the
+ *       saved and skipped variables), {@code restoreSession} (restore a snapshot in a new runner, the variables are
+ *       read when first used), see {@link se.alipsa.gade.runner.SessionSnapshot}</li>
+ *     </ul>
+ *   </li>
  * </ul>
  *
  * <h2>Protocol Messages (XML format):</h2>
@@ -48,13 +91,13 @@ package se.alipsa.gade.runtime;
 public final class ProtocolVersion {
 
   /** Current protocol version (MAJOR.MINOR format) */
-  public static final String CURRENT = "1.0";
+  public static final String CURRENT = "1.6";
 
   /** Protocol major version (breaking changes increment this) */
   public static final int MAJOR = 1;
 
   /** Protocol minor version (backward-compatible features increment this) */
-  public static final int MINOR = 0;
+  public static final int MINOR = 6;
 
   private ProtocolVersion() {
     throw new AssertionError("No instances");
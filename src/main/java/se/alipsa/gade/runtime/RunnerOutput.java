@@ -0,0 +1,18 @@
+package se.alipsa.gade.runtime;
+
+/**
+ * Where the output of a runner goes: the console in the gui, or e.g. a log file per script in a headless batch run.
+ * Both methods may be called from any thread.
+ */
+public interface RunnerOutput {
+
+  /**
+   * @param text what the script wrote to System.out, not necessarily a whole line
+   */
+  void out(String text);
+
+  /**
+   * @param text what the script wrote to System.err, or a message about the runner process itself
+   */
+  void warning(String text);
+}
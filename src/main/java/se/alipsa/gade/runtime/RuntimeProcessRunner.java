@@ -6,7 +6,10 @@ import org.apache.logging.log4j.Logger;
 import se.alipsa.gade.Gade;
 import se.alipsa.gade.console.ConsoleTextArea;
 import se.alipsa.gade.runner.ArgumentSerializer;
+import se.alipsa.gade.runner.EvalMetrics;
 import se.alipsa.gade.runner.GadeRunnerMain;
+import se.alipsa.gade.runner.ImageTransfer;
+import se.alipsa.gade.runner.RunnerHealth;
 import se.alipsa.gade.utils.gradle.GradleUtils;
 import se.alipsa.gi.GuiInteraction;
 import se.alipsa.groovy.resolver.Dependency;
@@ -17,6 +20,9 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.net.ServerSocket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -25,6 +31,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Manages a long-lived external Groovy runner process for non-GADE runtimes.
@@ -63,7 +71,16 @@ public class RuntimeProcessRunner implements Closeable {
   );
   private static final List<String> INHERITED_RUNNER_SYSTEM_PROPERTIES = List.of(
       "gade.runner.diagnostics",
-      "gade.runner.verbose"
+      "gade.runner.verbose",
+      "gade.runner.noGrabCache",
+      "gade.runner.noJarIndex",
+      "gade.runner.heartbeatMillis",
+      "gade.grape.ivy",
+      "gade.grape.offline",
+      "gade.grape.localRepo",
+      "gade.grape.repositories",
+      "gade.grape.parallelism",
+      "grape.root"
   );
   private static final List<String> INHERITED_DISPLAY_SYSTEM_PROPERTIES = List.of(
       "glass.gtk.uiScale",
@@ -80,9 +97,10 @@ public class RuntimeProcessRunner implements Closeable {
   private final List<String> groovyEntries;
   private final List<String> mainDepEntries;
   private final List<String> testDepEntries;
-  private final ConsoleTextArea console;
+  private final RunnerOutput output;
   private final Map<String, GuiInteraction> guiInteractions;
   private volatile File workingDir;
+  private volatile boolean headless;
 
   private Process process;
   private Socket socket;
@@ -90,10 +108,19 @@ public class RuntimeProcessRunner implements Closeable {
   private BufferedReader socketReader;
   private int runnerPort;
   private ExecutorService readerService;
+  /** Decodes gui request arguments (e.g. images) off the FX thread, one request at a time to keep their order */
+  private final ExecutorService guiDecoder = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "gade-gui-decoder");
+    t.setDaemon(true);
+    return t;
+  });
   private final AtomicBoolean shutdownRequested = new AtomicBoolean(false);
+  private final AtomicLong startCount = new AtomicLong();
   private final Map<String, CompletableFuture<Map<String, Object>>> pending = new ConcurrentHashMap<>();
   private final LinkedBlockingDeque<String> stderrBuffer = new LinkedBlockingDeque<>(STDERR_BUFFER_SIZE);
   private final Object procLock = new Object();
+  private volatile Consumer<RunnerHealth> healthListener;
+  private volatile RunnerHealth lastHealth;
 
   public RuntimeProcessRunner(RuntimeConfig runtime, List<String> classPathEntries, ConsoleTextArea console, Map<String, GuiInteraction> guiInteractions) {
     this(runtime, classPathEntries, List.of(), List.of(), List.of(), console, guiInteractions, null);
@@ -112,12 +139,22 @@ public class RuntimeProcessRunner implements Closeable {
   public RuntimeProcessRunner(RuntimeConfig runtime, List<String> classPathEntries,
                                List<String> groovyEntries, List<String> mainDepEntries, List<String> testDepEntries,
                                ConsoleTextArea console, Map<String, GuiInteraction> guiInteractions, File workingDir) {
+    this(runtime, classPathEntries, groovyEntries, mainDepEntries, testDepEntries, consoleOutput(console),
+        guiInteractions, workingDir);
+  }
+
+  /**
+   * @param output where the output of scripts and the runner goes, e.g. a log file in a headless batch run
+   */
+  public RuntimeProcessRunner(RuntimeConfig runtime, List<String> classPathEntries,
+                               List<String> groovyEntries, List<String> mainDepEntries, List<String> testDepEntries,
+                               RunnerOutput output, Map<String, GuiInteraction> guiInteractions, File workingDir) {
     this.runtime = runtime;
     this.classPathEntries = classPathEntries;
     this.groovyEntries = groovyEntries;
     this.mainDepEntries = mainDepEntries;
     this.testDepEntries = testDepEntries;
-    this.console = console;
+    this.output = output;
     this.guiInteractions = guiInteractions;
     this.workingDir = workingDir;
     if (log.isDebugEnabled()) {
@@ -134,6 +171,28 @@ public class RuntimeProcessRunner implements Closeable {
     }
   }
 
+  private static RunnerOutput consoleOutput(ConsoleTextArea console) {
+    return new RunnerOutput() {
+      @Override
+      public void out(String text) {
+        console.appendFx(text, false);
+      }
+
+      @Override
+      public void warning(String text) {
+        console.appendWarningFx(text);
+      }
+    };
+  }
+
+  /**
+   * Run the runner without a gui: {@code io} is bound to an object that explains that gui interactions are not
+   * available instead of forwarding them to the main process. Takes effect when the runner is (re)started.
+   */
+  public void setHeadless(boolean headless) {
+    this.headless = headless;
+  }
+
   public synchronized void start() throws IOException {
     synchronized (procLock) {
       if (process != null && process.isAlive() && socket != null && socket.isConnected() && !socket.isClosed()) {
@@ -142,7 +201,7 @@ public class RuntimeProcessRunner implements Closeable {
       shutdownRequested.set(false);
       log.info("Starting runner for runtime {}", runtime.getName());
       if (classPathEntries.isEmpty()) {
-        console.appendWarningFx("Cannot start runtime process: no classpath entries were found");
+        output.warning("Cannot start runtime process: no classpath entries were found");
         throw new IOException("Classpath for runner is empty");
       }
       log.info("Runner command javaHome={}, classpath size={}", runtime.getJavaHome(), classPathEntries.size());
@@ -164,6 +223,9 @@ public class RuntimeProcessRunner implements Closeable {
       addInheritedRunnerSystemProperties(cmd);
       addInheritedDisplaySystemProperties(cmd);
       cmd.add("-Dgade.runtime=" + (runtime.getType() == null ? RuntimeType.GADE.name() : runtime.getType().name()));
+      if (headless) {
+        cmd.add("-Dgade.runner.headless=true");
+      }
       if (hasProcessRootLoaderOnClasspath(cpOrdered)) {
         cmd.add("-Djava.system.class.loader=se.alipsa.gade.runner.GroovyProcessRootLoader");
       }
@@ -184,6 +246,7 @@ public class RuntimeProcessRunner implements Closeable {
       }
       try {
         process = pb.start();
+        startCount.incrementAndGet();
         process.onExit().thenAccept(p -> logAsyncExit(p.exitValue()));
         readerService = Executors.newFixedThreadPool(2, r -> {
           Thread t = new Thread(r, "gade-runner-reader");
@@ -199,7 +262,7 @@ public class RuntimeProcessRunner implements Closeable {
           throw new IOException("Runtime runner exited immediately");
         }
       } catch (IOException e) {
-        console.appendWarningFx("Failed to start runtime process: " + e.getMessage());
+        output.warning("Failed to start runtime process: " + e.getMessage());
         throw e;
       } catch (InterruptedException ie) {
         Thread.currentThread().interrupt();
@@ -240,6 +303,14 @@ public class RuntimeProcessRunner implements Closeable {
   }
 
   public CompletableFuture<String> eval(String script, Map<String, Object> bindings, boolean testContext) throws IOException {
+    return evalWithMetrics(script, bindings, testContext).thenApply(EvalResult::result);
+  }
+
+  /**
+   * Evaluate a script and also get the performance metrics of the eval.
+   */
+  public CompletableFuture<EvalResult> evalWithMetrics(String script, Map<String, Object> bindings,
+                                                       boolean testContext) throws IOException {
     ensureStarted();
     String id = UUID.randomUUID().toString();
     Map<String, Object> payload = new HashMap<>();
@@ -253,7 +324,58 @@ public class RuntimeProcessRunner implements Closeable {
     CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
     pending.put(id, future);
     send(payload);
-    return future.thenApply(map -> (String) map.getOrDefault("result", ""));
+    return future.thenApply(map -> new EvalResult((String) map.getOrDefault("result", ""),
+        EvalMetrics.fromMap(map.get("metrics"))));
+  }
+
+  /**
+   * Start a JDK Flight Recorder recording in the runner, see {@link #stopProfiling(Path)}.
+   */
+  public CompletableFuture<Void> startProfiling() throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(Map.of("cmd", "startProfiling", "id", id));
+    return future.thenApply(map -> null);
+  }
+
+  /**
+   * Stop the recording started by {@link #startProfiling()} and save it.
+   *
+   * @param target the .jfr file to write
+   * @return the target file
+   */
+  public CompletableFuture<Path> stopProfiling(Path target) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(Map.of("cmd", "stopProfiling", "id", id));
+    // the blob messages arrive before the result, so reading the blob does not wait for the reader thread
+    return future.thenApply(map -> {
+      try (InputStream in = ImageTransfer.openBlob(String.valueOf(map.get("blob")))) {
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to save the recording to " + target, e);
+      }
+    });
+  }
+
+  /**
+   * Get a class histogram of the runner heap. Note that this forces a full GC in the runner.
+   *
+   * @return the histogram as text
+   */
+  public CompletableFuture<String> heapHistogram() throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(Map.of("cmd", "heapHistogram", "id", id));
+    return future.thenApply(map -> String.valueOf(map.get("result")));
   }
 
   public CompletableFuture<Map<String, String>> fetchBindings() throws IOException {
@@ -274,6 +396,183 @@ public class RuntimeProcessRunner implements Closeable {
     });
   }
 
+  /**
+   * The changes to the variables of the runner since the last call.
+   *
+   * @param changed summaries of the variables that are new or changed, keyed by name
+   * @param removed names of variables that no longer exist
+   */
+  public record BindingsDelta(Map<String, BindingSummary> changed, List<String> removed) {}
+
+  /**
+   * @return the number of times the runner process has been started, state kept in the runner (e.g. what
+   * {@link #fetchBindingSummary(boolean)} has already reported) is lost when this changes
+   */
+  public long getStartCount() {
+    return startCount.get();
+  }
+
+  /**
+   * Fetch summaries of the variables instead of their full text (see {@link #fetchBindings()}).
+   *
+   * @param full if true all variables are included, otherwise only the ones that changed since the last call
+   */
+  public CompletableFuture<BindingsDelta> fetchBindingSummary(boolean full) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    Map<String, Object> payload = Map.of("cmd", "bindingSummary", "id", id, "full", full);
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(payload);
+    return future.thenApply(map -> {
+      Map<String, BindingSummary> changed = new LinkedHashMap<>();
+      if (map.get("changed") instanceof Map<?, ?> m) {
+        m.forEach((k, v) -> {
+          if (v instanceof Map<?, ?> summary) {
+            changed.put(String.valueOf(k), BindingSummary.fromMap(String.valueOf(k), summary));
+          }
+        });
+      }
+      List<String> removed = new ArrayList<>();
+      if (map.get("removed") instanceof List<?> l) {
+        l.forEach(name -> removed.add(String.valueOf(name)));
+      }
+      return new BindingsDelta(changed, removed);
+    });
+  }
+
+  /**
+   * Make sure the dependencies in the {@code @Grab} header are on the class path of the runner. The runner remembers
+   * headers it has handled (and caches the jars of resolved headers on disk) so this is cheap for unchanged headers.
+   *
+   * @param header the {@code @Grab} lines of a script
+   * @param testContext whether the script will run in the test context
+   * @return how the runner handled it: MEMOIZED, CACHED or RESOLVED
+   */
+  public CompletableFuture<String> grabDependencies(String header, boolean testContext) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    Map<String, Object> payload = Map.of("cmd", "grabDeps", "id", id, "header", header, "testContext", testContext);
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(payload);
+    return future.thenApply(map -> String.valueOf(map.getOrDefault("result", "")));
+  }
+
+  /**
+   * Fetch one page of a single variable, or of a path into it, as typed data.
+   * See {@link se.alipsa.gade.runner.VarEncoder} for the format and {@link VarDecoder} to turn it into objects.
+   *
+   * @param name the name of the variable
+   * @param path a path into the variable (e.g. {@code customers[3].orders}), null for the variable itself
+   * @param offset the first element, row or character to fetch
+   * @param limit the maximum number of elements or rows to fetch
+   * @param maxChars the maximum number of characters of a string to fetch
+   */
+  public CompletableFuture<Map<String, Object>> fetchVar(String name, String path, int offset, int limit,
+                                                         int maxChars) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    Map<String, Object> payload = new HashMap<>();
+    payload.put("cmd", "fetchVar");
+    payload.put("id", id);
+    payload.put("name", name);
+    if (path != null) {
+      payload.put("path", path);
+    }
+    payload.put("offset", offset);
+    payload.put("limit", limit);
+    payload.put("maxChars", maxChars);
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(payload);
+    return future.thenApply(map -> map.get("value") instanceof Map<?, ?> value
+        ? castMap(value) : Map.of("_kind", "null"));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> castMap(Map<?, ?> map) {
+    return (Map<String, Object>) map;
+  }
+
+  /**
+   * Render a variable as text in the runner.
+   *
+   * @param name the name of the variable
+   * @param maxChars the maximum length of the text returned
+   */
+  public CompletableFuture<String> renderVar(String name, int maxChars) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    Map<String, Object> payload = Map.of("cmd", "renderVar", "id", id, "name", name, "maxChars", maxChars);
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(payload);
+    return future.thenApply(map -> String.valueOf(map.getOrDefault("text", "")));
+  }
+
+  /**
+   * The outcome of {@link #saveSession(Path, long, long)} and {@link #restoreSession(Path)}.
+   *
+   * @param variables the names of the variables that were saved or restored
+   * @param skipped the variables that were not saved and why
+   * @param bytes the size of the snapshot file
+   */
+  public record SessionSnapshotResult(List<String> variables, Map<String, String> skipped, long bytes) {}
+
+  /**
+   * Save the variables of the runner to a snapshot file, see {@link se.alipsa.gade.runner.SessionSnapshot}.
+   *
+   * @param file the snapshot file, it must not be a file the runner restored from
+   * @param maxBytes the max size of the file
+   * @param maxVariableBytes the max size of one variable
+   */
+  public CompletableFuture<SessionSnapshotResult> saveSession(Path file, long maxBytes, long maxVariableBytes)
+      throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(Map.of("cmd", "saveSession", "id", id, "file", file.toAbsolutePath().toString(), "maxBytes", maxBytes,
+        "maxVariableBytes", maxVariableBytes));
+    return future.thenApply(RuntimeProcessRunner::toSnapshotResult);
+  }
+
+  /**
+   * Restore the variables of a snapshot saved by {@link #saveSession(Path, long, long)}. The runner only reads the
+   * index, each variable is read when it is first used so the file must be kept until the runner is stopped.
+   */
+  public CompletableFuture<SessionSnapshotResult> restoreSession(Path file) throws IOException {
+    ensureStarted();
+    String id = UUID.randomUUID().toString();
+    CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    pending.put(id, future);
+    send(Map.of("cmd", "restoreSession", "id", id, "file", file.toAbsolutePath().toString()));
+    return future.thenApply(RuntimeProcessRunner::toSnapshotResult);
+  }
+
+  private static SessionSnapshotResult toSnapshotResult(Map<String, Object> map) {
+    List<String> variables = new ArrayList<>();
+    if (map.get("variables") instanceof List<?> l) {
+      l.forEach(name -> variables.add(String.valueOf(name)));
+    }
+    Map<String, String> skipped = new LinkedHashMap<>();
+    if (map.get("skipped") instanceof Map<?, ?> m) {
+      m.forEach((k, v) -> skipped.put(String.valueOf(k), String.valueOf(v)));
+    }
+    long bytes = map.get("bytes") instanceof Number n ? n.longValue() : 0;
+    return new SessionSnapshotResult(variables, skipped, bytes);
+  }
+
+  /**
+   * @return true if the runner process is up, unlike the other methods this does not start it
+   */
+  public boolean isRunning() {
+    synchronized (procLock) {
+      return process != null && process.isAlive() && socket != null && socket.isConnected() && !socket.isClosed();
+    }
+  }
+
   public void setWorkingDir(File dir) {
     this.workingDir = dir;
     if (dir == null) {
@@ -394,6 +693,8 @@ public class RuntimeProcessRunner implements Closeable {
     } finally {
       pending.values().forEach(f -> f.completeExceptionally(new IllegalStateException("Runner stopped")));
       pending.clear();
+      // the messages using the blobs that were sent last will never arrive
+      ImageTransfer.BlobStore.clear();
       logProcessExit("socketReadLoop end");
       cleanup();
     }
@@ -403,7 +704,7 @@ public class RuntimeProcessRunner implements Closeable {
     try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
       String line;
       while ((line = reader.readLine()) != null) {
-        console.appendWarningFx(line);
+        output.warning(line);
         log.warn("Runner stderr: {}", line);
         bufferStderrLine(line);
       }
@@ -448,7 +749,7 @@ public class RuntimeProcessRunner implements Closeable {
         log.warn("Runner for {} exited in {} with code {}", runtime.getName(), context, exit);
         if (!err.isBlank()) {
           log.warn("Runner stderr ({}):\n{}", context, err);
-          console.appendWarningFx("Runtime runner stderr: " + err);
+          output.warning("Runtime runner stderr: " + err);
         }
         if (!out.isBlank()) {
           log.warn("Runner stdout ({}):\n{}", context, out);
@@ -470,7 +771,7 @@ public class RuntimeProcessRunner implements Closeable {
         if (!ProtocolVersion.isCompatible(version)) {
           log.error("Runner {} protocol version incompatible: {}", runtime.getName(),
               ProtocolVersion.getCompatibilityMessage(version));
-          console.appendWarningFx("Runner protocol version incompatible: " + version);
+          output.warning("Runner protocol version incompatible: " + version);
         } else {
           log.debug("Runner {} handshake received: {} - {}",
               runtime.getName(), msg, ProtocolVersion.getCompatibilityMessage(version));
@@ -481,22 +782,51 @@ public class RuntimeProcessRunner implements Closeable {
         if (log.isDebugEnabled()) {
           log.debug("Runner {} out: {}", runtime.getName(), text.replace("\n", "\\n"));
         }
-        console.appendFx(text, false);
+        output.out(text);
       }
       case "err" -> {
         String text = (String) msg.getOrDefault("text", "");
         if (log.isDebugEnabled()) {
           log.debug("Runner {} err: {}", runtime.getName(), text.replace("\n", "\\n"));
         }
-        console.appendWarningFx(text);
+        output.warning(text);
       }
-      case "result", "bindings", "interrupted", "shutdown" -> complete(msg);
+      case "result", "bindings", "bindings_summary", "var_render", "var_value", "interrupted", "shutdown" -> complete(msg);
       case "error" -> completeExceptionally(msg);
       case "gui_request" -> handleGuiRequest(msg);
+      case "health" -> handleHealth(msg);
+      case "blob" -> ImageTransfer.BlobStore.receive((String) msg.get("id"), (String) msg.get("data"),
+          Boolean.TRUE.equals(msg.get("last")));
       default -> log.debug("Unhandled runner message type {}", type);
     }
   }
 
+  private void handleHealth(Map<String, Object> msg) {
+    RunnerHealth health = RunnerHealth.fromMap(msg);
+    if (health == null) {
+      return;
+    }
+    lastHealth = health;
+    Consumer<RunnerHealth> listener = healthListener;
+    if (listener != null) {
+      listener.accept(health);
+    }
+  }
+
+  /**
+   * @param listener called with each heartbeat of the runner, on the socket reader thread
+   */
+  public void setHealthListener(Consumer<RunnerHealth> listener) {
+    this.healthListener = listener;
+  }
+
+  /**
+   * @return the latest heartbeat of the runner or null if none has arrived yet
+   */
+  public RunnerHealth getLastHealth() {
+    return lastHealth;
+  }
+
   private void complete(Map<String, Object> msg) {
     String id = (String) msg.get("id");
     CompletableFuture<Map<String, Object>> future = pending.remove(id);
@@ -513,12 +843,13 @@ public class RuntimeProcessRunner implements Closeable {
     }
     String err = (String) msg.getOrDefault("error", "");
     String stack = (String) msg.getOrDefault("stacktrace", "");
-    console.appendWarningFx(err + (stack == null ? "" : "\n" + stack));
+    output.warning(err + (stack == null ? "" : "\n" + stack));
   }
 
   /**
    * Handle GUI request from remote runner.
-   * Deserializes arguments, invokes the real InOut method on JavaFX thread, and sends response.
+   * Deserializes arguments on a worker thread, invokes the real InOut method on the JavaFX thread, and sends
+   * the response.
    */
   private void handleGuiRequest(Map<String, Object> msg) {
     String id = (String) msg.get("id");
@@ -538,41 +869,49 @@ public class RuntimeProcessRunner implements Closeable {
       return;
     }
 
-    // Run on JavaFX thread since GUI operations require it
-    Platform.runLater(() -> {
-      try {
-        // Get the real InOut instance
-        GuiInteraction inOut = guiInteractions.get("io");
-        if (inOut == null) {
-          sendGuiError(id, "InOut instance not available");
-          return;
-        }
+    // Deserialize arguments (image decoding in particular) on a worker, then run on the JavaFX thread
+    // since GUI operations require it
+    CompletableFuture.supplyAsync(() -> argsList == null ? new Object[0] : argsList.stream()
+        .map(ArgumentSerializer::deserialize)
+        .toArray(), guiDecoder)
+        .whenComplete((args, error) -> {
+          if (error != null) {
+            log.error("Failed to deserialize GUI request: method={}, id={}", method, id, error);
+            sendGuiError(id, (error.getCause() == null ? error : error.getCause()).getMessage());
+            return;
+          }
+          Platform.runLater(() -> invokeGuiRequest(id, method, args));
+        });
+  }
 
-        // Deserialize arguments
-        Object[] args = argsList == null ? new Object[0] : argsList.stream()
-            .map(ArgumentSerializer::deserialize)
-            .toArray();
+  private void invokeGuiRequest(String id, String method, Object[] args) {
+    try {
+      // Get the real InOut instance
+      GuiInteraction inOut = guiInteractions.get("io");
+      if (inOut == null) {
+        sendGuiError(id, "InOut instance not available");
+        return;
+      }
 
-        // Invoke method via reflection
-        Object result = invokeMethod(inOut, method, args);
+      // Invoke method via reflection
+      Object result = invokeMethod(inOut, method, args);
 
-        // Serialize result
-        Object serializedResult = ArgumentSerializer.serialize(result);
+      // Serialize result
+      Object serializedResult = ArgumentSerializer.serialize(result);
 
-        // Send response
-        Map<String, Object> response = new HashMap<>();
-        response.put("type", "gui_response");
-        response.put("id", id);
-        response.put("result", serializedResult);
-        send(response);
+      // Send response
+      Map<String, Object> response = new HashMap<>();
+      response.put("type", "gui_response");
+      response.put("id", id);
+      response.put("result", serializedResult);
+      send(response);
 
-        log.debug("GUI request completed: method={}, id={}", method, id);
+      log.debug("GUI request completed: method={}, id={}", method, id);
 
-      } catch (Exception e) {
-        log.error("GUI request failed: method={}, id={}", method, id, e);
-        sendGuiError(id, e.getMessage());
-      }
-    });
+    } catch (Exception e) {
+      log.error("GUI request failed: method={}, id={}", method, id, e);
+      sendGuiError(id, e.getMessage());
+    }
   }
 
   /**
@@ -773,7 +1112,7 @@ public class RuntimeProcessRunner implements Closeable {
       if (java.exists()) {
         return java.getAbsolutePath();
       }
-      console.appendWarningFx("JAVA_HOME '" + javaHome + "' is not usable, falling back to current JVM");
+      output.warning("JAVA_HOME '" + javaHome + "' is not usable, falling back to current JVM");
       log.warn("JAVA_HOME '{}' does not contain bin/java, falling back to default", javaHome);
     }
     return "java";
@@ -860,11 +1199,11 @@ public class RuntimeProcessRunner implements Closeable {
             }
             String type = (String) msg.get("type");
             if ("out".equals(type)) {
-              console.appendFx(String.valueOf(msg.getOrDefault("text", "")), false);
+              output.out(String.valueOf(msg.getOrDefault("text", "")));
               continue;
             }
             if ("err".equals(type)) {
-              console.appendWarningFx(String.valueOf(msg.getOrDefault("text", "")));
+              output.warning(String.valueOf(msg.getOrDefault("text", "")));
               continue;
             }
             if ("error".equals(type)) {
@@ -973,11 +1312,11 @@ public class RuntimeProcessRunner implements Closeable {
         }
         String type = (String) msg.get("type");
         if ("out".equals(type)) {
-          console.appendFx(String.valueOf(msg.getOrDefault("text", "")), false);
+          output.out(String.valueOf(msg.getOrDefault("text", "")));
           continue;
         }
         if ("err".equals(type)) {
-          console.appendWarningFx(String.valueOf(msg.getOrDefault("text", "")));
+          output.warning(String.valueOf(msg.getOrDefault("text", "")));
           continue;
         }
         if ("error".equals(type)) {
@@ -0,0 +1,239 @@
+package se.alipsa.gade.runtime;
+
+import se.alipsa.matrix.core.Matrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Turns the typed pages returned by {@link RuntimeProcessRunner#fetchVar(String, String, int, int, int)}
+ * (see {@link se.alipsa.gade.runner.VarEncoder}) back into objects, following the continuations until the whole
+ * value (or maxElements of it) has been fetched.
+ */
+public final class VarDecoder {
+
+  /** A nested container that was not transferred, fetch it by extending the path */
+  public record Ref(String type, String size) {
+    @Override
+    public String toString() {
+      return type + "(" + size + ")";
+    }
+  }
+
+  /** Fetches the page starting at the offset */
+  @FunctionalInterface
+  public interface PageFetcher {
+    Map<String, Object> fetch(int offset) throws Exception;
+  }
+
+  private VarDecoder() {
+    // utility class
+  }
+
+  /**
+   * @param fetcher fetches a page of the value
+   * @param maxElements stop after this many elements, rows or characters
+   * @return the value: null, a scalar, a String, a List, a Map, a Matrix or (for other objects) the text of it
+   */
+  public static Object fetchAll(PageFetcher fetcher, int maxElements) throws Exception {
+    Map<String, Object> page = fetcher.fetch(0);
+    String kind = String.valueOf(page.get("_kind"));
+    switch (kind) {
+      case "null" -> {
+        return null;
+      }
+      case "scalar" -> {
+        return toValue(page.get("value"), (String) page.get("type"));
+      }
+      case "string", "object" -> {
+        String key = "string".equals(kind) ? "value" : "text";
+        StringBuilder sb = new StringBuilder(String.valueOf(page.getOrDefault(key, "")));
+        while (page.get("continuation") instanceof Number next && sb.length() < maxElements) {
+          page = fetcher.fetch(next.intValue());
+          sb.append(page.getOrDefault(key, ""));
+        }
+        return sb.toString();
+      }
+      case "list" -> {
+        List<Object> list = new ArrayList<>();
+        addAll(list, page.get("elements"));
+        while (page.get("continuation") instanceof Number next && list.size() < maxElements) {
+          page = fetcher.fetch(next.intValue());
+          addAll(list, page.get("elements"));
+        }
+        return list;
+      }
+      case "map" -> {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        putAll(map, page);
+        while (page.get("continuation") instanceof Number next && map.size() < maxElements) {
+          page = fetcher.fetch(next.intValue());
+          putAll(map, page);
+        }
+        return map;
+      }
+      case "matrix" -> {
+        return toMatrix(fetcher, page, maxElements);
+      }
+      default -> throw new IllegalArgumentException("Unknown kind of value: " + kind);
+    }
+  }
+
+  private static void addAll(List<Object> list, Object elements) {
+    if (elements instanceof List<?> l) {
+      l.forEach(e -> list.add(element(e)));
+    }
+  }
+
+  private static void putAll(Map<Object, Object> map, Map<String, Object> page) {
+    if (page.get("keys") instanceof List<?> keys && page.get("values") instanceof List<?> values) {
+      for (int i = 0; i < keys.size() && i < values.size(); i++) {
+        map.put(element(keys.get(i)), element(values.get(i)));
+      }
+    }
+  }
+
+  private static Object element(Object element) {
+    if (element instanceof Map<?, ?> map) {
+      String type = String.valueOf(map.get("type"));
+      if ("scalar".equals(map.get("_kind"))) {
+        return toValue(map.get("value"), type);
+      }
+      return new Ref(type, String.valueOf(map.get("size")));
+    }
+    return element;
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static Matrix toMatrix(PageFetcher fetcher, Map<String, Object> page, int maxRows) throws Exception {
+    List<String> columnNames = new ArrayList<>();
+    if (page.get("columnNames") instanceof List<?> names) {
+      names.forEach(n -> columnNames.add(String.valueOf(n)));
+    }
+    List<String> typeNames = new ArrayList<>();
+    if (page.get("types") instanceof List<?> types) {
+      types.forEach(t -> typeNames.add(String.valueOf(t)));
+    }
+    List<Class> types = new ArrayList<>();
+    for (int c = 0; c < columnNames.size(); c++) {
+      types.add(c < typeNames.size() ? classFor(typeNames.get(c)) : Object.class);
+    }
+    List<List<?>> rows = new ArrayList<>();
+    while (true) {
+      if (page.get("columns") instanceof List<?> columns && !columns.isEmpty()) {
+        int rowsInPage = ((List<?>) columns.get(0)).size();
+        for (int r = 0; r < rowsInPage; r++) {
+          List<Object> row = new ArrayList<>(columns.size());
+          for (int c = 0; c < columns.size(); c++) {
+            Object cell = ((List<?>) columns.get(c)).get(r);
+            row.add(cell instanceof Map<?, ?> ? element(cell)
+                : toValue(cell, c < typeNames.size() ? typeNames.get(c) : null));
+          }
+          rows.add(row);
+        }
+      }
+      if (!(page.get("continuation") instanceof Number next) || rows.size() >= maxRows) {
+        break;
+      }
+      page = fetcher.fetch(next.intValue());
+    }
+    for (int c = 0; c < types.size(); c++) {
+      types.set(c, columnType(types.get(c), rows, c));
+    }
+    return Matrix.builder()
+        .matrixName((String) page.get("name"))
+        .columnNames(columnNames.toArray(new String[0]))
+        .rows((List) rows)
+        .types(types)
+        .build();
+  }
+
+  /**
+   * @return the declared type of the column, or String (Object when the values are of mixed types) when some value
+   * could not be turned back into it so that the matrix does not claim a type its values do not have
+   */
+  private static Class<?> columnType(Class<?> declared, List<List<?>> rows, int column) {
+    boolean allStrings = true;
+    boolean allDeclared = true;
+    for (List<?> row : rows) {
+      Object value = column < row.size() ? row.get(column) : null;
+      if (value != null) {
+        allDeclared &= declared.isInstance(value);
+        allStrings &= value instanceof String;
+      }
+    }
+    if (allDeclared) {
+      return declared;
+    }
+    return allStrings ? String.class : Object.class;
+  }
+
+  private static Class<?> classFor(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException | LinkageError e) {
+      return Object.class;
+    }
+  }
+
+  /**
+   * Convert a value sent as its string representation back to its type, values of types we do not know are
+   * returned as strings.
+   */
+  static Object toValue(Object value, String type) {
+    if (!(value instanceof String str) || type == null) {
+      return value;
+    }
+    try {
+      return switch (type) {
+        case "java.lang.String" -> str;
+        case "java.math.BigDecimal" -> new BigDecimal(str);
+        case "java.math.BigInteger" -> new BigInteger(str);
+        case "java.lang.Short" -> Short.valueOf(str);
+        case "java.lang.Byte" -> Byte.valueOf(str);
+        case "java.lang.Character" -> str.isEmpty() ? null : str.charAt(0);
+        case "java.time.LocalDate" -> LocalDate.parse(str);
+        case "java.time.LocalDateTime" -> LocalDateTime.parse(str);
+        case "java.time.LocalTime" -> LocalTime.parse(str);
+        case "java.util.UUID" -> UUID.fromString(str);
+        case "java.util.Date" -> Date.from(Instant.parse(str));
+        case "java.sql.Date" -> java.sql.Date.valueOf(str);
+        case "java.sql.Time" -> java.sql.Time.valueOf(str);
+        case "java.sql.Timestamp" -> java.sql.Timestamp.valueOf(str);
+        case "java.time.Instant" -> Instant.parse(str);
+        case "java.time.OffsetDateTime" -> OffsetDateTime.parse(str);
+        case "java.time.ZonedDateTime" -> ZonedDateTime.parse(str);
+        case "java.time.OffsetTime" -> OffsetTime.parse(str);
+        case "java.time.Year" -> Year.parse(str);
+        case "java.time.YearMonth" -> YearMonth.parse(str);
+        case "java.time.Duration" -> Duration.parse(str);
+        default -> toEnum(str, type);
+      };
+    } catch (RuntimeException e) {
+      return str;
+    }
+  }
+
+  /** @return the enum constant if the type is an enum we can load, otherwise the name */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static Object toEnum(String name, String type) {
+    Class<?> cls = classFor(type);
+    return cls.isEnum() ? Enum.valueOf((Class) cls, name) : name;
+  }
+}
@@ -1,6 +1,5 @@
 package se.alipsa.gade.utils;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.tika.parser.txt.CharsetDetector;
@@ -8,9 +7,12 @@ import org.apache.tika.parser.txt.CharsetMatch;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 /**
  * We need to initialize config when using Tika otherwise we get warnings about optional dependencies not being available, e.g:
@@ -22,6 +24,9 @@ public class TikaUtils {
 
   private static final TikaUtils INSTANCE = new TikaUtils();
 
+  /** The number of bytes from the start of a file used to detect its charset */
+  public static final int CHARSET_SAMPLE_SIZE = 64 * 1024;
+
   private final org.apache.tika.Tika apacheTika;
 
   public static TikaUtils instance() {
@@ -49,14 +54,31 @@ public class TikaUtils {
     }
   }
 
+  /**
+   * Detect the charset of a file based on a sample of {@link #CHARSET_SAMPLE_SIZE} bytes
+   * from the beginning of the file, i.e. without reading the whole file.
+   */
   public Charset detectCharset(File file) throws IOException {
     /* This is not as reliable as using the CharsetDetector so commenting it out
     try(InputStream is = TikaInputStream.get(Files.newInputStream(file.toPath()))) {
       return config.getEncodingDetector().detect(is, new Metadata());
     }
     */
-    byte[] textBytes = FileUtils.readFileToByteArray(file);
-    return detectCharset(textBytes, file.getName());
+    byte[] sample;
+    try (InputStream is = Files.newInputStream(file.toPath())) {
+      sample = is.readNBytes(CHARSET_SAMPLE_SIZE);
+    }
+    return detectCharset(sample, file.getName());
+  }
+
+  /**
+   * @return the charset detected from (at most) the first {@link #CHARSET_SAMPLE_SIZE} bytes of the content
+   */
+  public Charset detectCharsetFromSample(byte[] content, String context) {
+    if (content.length <= CHARSET_SAMPLE_SIZE) {
+      return detectCharset(content, context);
+    }
+    return detectCharset(Arrays.copyOf(content, CHARSET_SAMPLE_SIZE), context);
   }
 
   public String detectContentType(File file) throws IOException {
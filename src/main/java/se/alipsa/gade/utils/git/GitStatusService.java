@@ -0,0 +1,195 @@
+package se.alipsa.gade.utils.git;
+
+import static se.alipsa.gade.Constants.GitStatus.GIT_ADDED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_CHANGED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_CONFLICT;
+import static se.alipsa.gade.Constants.GitStatus.GIT_IGNORED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_MODIFIED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_NONE;
+import static se.alipsa.gade.Constants.GitStatus.GIT_UNTRACKED;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import se.alipsa.gade.Constants.GitStatus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a cache of the git status of every path in the work tree that is not clean
+ * and refreshes it in the background.
+ * <p>
+ * A full refresh is done when the service starts and whenever the index or HEAD has changed
+ * (i.e. after add, commit, checkout etc.), otherwise only the paths that were reported as changed are
+ * re-examined using an {@link IndexDiff} (a {@link FileTreeIterator} walk with a path filter that relies on
+ * the index entry timestamps to avoid reading unchanged files).
+ * Listeners are only told about the paths whose status actually changed.
+ */
+public class GitStatusService implements Closeable {
+
+  private static final Logger log = LogManager.getLogger(GitStatusService.class);
+
+  private final Git git;
+  private final Map<String, GitStatus> statusByPath = new ConcurrentHashMap<>();
+  private final Consumer<Map<String, GitStatus>> deltaListener;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "gade-git-status");
+    t.setDaemon(true);
+    return t;
+  });
+  // Only accessed from the executor thread
+  private long indexTimestamp = -1;
+  private ObjectId headId;
+  private boolean initialized;
+
+  /**
+   * @param git the repository to track
+   * @param deltaListener called from the background thread with the paths (relative to the work tree)
+   *                      whose status changed, clean paths are reported as {@link GitStatus#GIT_NONE}
+   */
+  public GitStatusService(Git git, Consumer<Map<String, GitStatus>> deltaListener) {
+    this.git = git;
+    this.deltaListener = deltaListener;
+  }
+
+  /**
+   * @param path path relative to the work tree root (as returned by {@link GitUtils#asRelativePath(File, File)})
+   * @return the cached status of the path, {@link GitStatus#GIT_NONE} if it is clean or unknown
+   */
+  public GitStatus getStatus(String path) {
+    return statusByPath.getOrDefault(path, GIT_NONE);
+  }
+
+  public void refreshAll() {
+    executor.execute(() -> {
+      try {
+        refresh(null);
+      } catch (Exception e) {
+        log.warn("Failed to refresh git status", e);
+      }
+    });
+  }
+
+  /**
+   * Re-examines the given paths (files or directories) in the background.
+   *
+   * @param paths paths relative to the work tree root
+   */
+  public void refreshPaths(Collection<String> paths) {
+    Set<String> toCheck = new LinkedHashSet<>();
+    for (String path : paths) {
+      if (path == null || path.isEmpty() || ".".equals(path)) {
+        refreshAll();
+        return;
+      }
+      toCheck.add(path);
+    }
+    if (toCheck.isEmpty()) {
+      return;
+    }
+    executor.execute(() -> {
+      try {
+        refresh(toCheck);
+      } catch (Exception e) {
+        log.warn("Failed to refresh git status for {}", toCheck, e);
+      }
+    });
+  }
+
+  private void refresh(Set<String> paths) throws IOException {
+    Repository repo = git.getRepository();
+    long currentIndexTimestamp = repo.getIndexFile().lastModified();
+    ObjectId currentHead = repo.resolve(Constants.HEAD);
+    if (!initialized || currentIndexTimestamp != indexTimestamp || !Objects.equals(currentHead, headId)) {
+      // The index or HEAD moved so the status of any path might have changed
+      paths = null;
+    }
+    IndexDiff diff = new IndexDiff(repo, currentHead, new FileTreeIterator(repo));
+    if (paths != null) {
+      diff.setFilter(PathFilterGroup.createFromStrings(paths));
+    }
+    diff.diff();
+    Map<String, GitStatus> current = toStatusMap(diff);
+
+    Map<String, GitStatus> delta = new HashMap<>();
+    for (Map.Entry<String, GitStatus> entry : current.entrySet()) {
+      if (statusByPath.get(entry.getKey()) != entry.getValue()) {
+        delta.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (String cachedPath : statusByPath.keySet()) {
+      if (!current.containsKey(cachedPath) && isWithin(cachedPath, paths)) {
+        delta.put(cachedPath, GIT_NONE);
+      }
+    }
+    delta.forEach((path, status) -> {
+      if (status == GIT_NONE) {
+        statusByPath.remove(path);
+      } else {
+        statusByPath.put(path, status);
+      }
+    });
+    indexTimestamp = currentIndexTimestamp;
+    headId = currentHead;
+    initialized = true;
+    if (!delta.isEmpty()) {
+      log.debug("git status changed for {} paths", delta.size());
+      deltaListener.accept(delta);
+    }
+  }
+
+  static boolean isWithin(String path, Set<String> filterPaths) {
+    if (filterPaths == null) {
+      return true;
+    }
+    for (String filterPath : filterPaths) {
+      if (path.equals(filterPath) || path.startsWith(filterPath + "/")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Collapse the sets of the diff into one state per path using the same precedence as the git status dialog
+   */
+  static Map<String, GitStatus> toStatusMap(IndexDiff diff) {
+    Map<String, GitStatus> map = new HashMap<>();
+    diff.getIgnoredNotInIndex().forEach(p -> map.put(p, GIT_IGNORED));
+    diff.getUntrackedFolders().forEach(p -> map.put(p, GIT_UNTRACKED));
+    diff.getUntracked().forEach(p -> map.put(p, GIT_UNTRACKED));
+    diff.getModified().forEach(p -> map.put(p, GIT_MODIFIED));
+    diff.getChanged().forEach(p -> map.put(p, GIT_CHANGED));
+    diff.getAdded().forEach(p -> map.put(p, GIT_ADDED));
+    diff.getConflicting().forEach(p -> map.put(p, GIT_CONFLICT));
+    return map;
+  }
+
+  public Git getGit() {
+    return git;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    statusByPath.clear();
+  }
+}
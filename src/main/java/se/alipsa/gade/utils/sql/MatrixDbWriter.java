@@ -0,0 +1,372 @@
+package se.alipsa.gade.utils.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.alipsa.matrix.core.Matrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the rows of a Matrix to an existing table using one PreparedStatement per writer and JDBC batches.
+ * <p>
+ * Values are bound as parameters using the sql type matching the column type of the Matrix, so the statement
+ * is only parsed once by the database and no values are ever concatenated into the sql.
+ * With {@link #setWriters(int)} &gt; 1 the rows are split into that many consecutive ranges, each written on its own
+ * connection and thread. Note that when committing per batch (the default), or when using several writers, a failure
+ * leaves the batches that were already committed in the database.
+ */
+public class MatrixDbWriter {
+
+  private static final Logger log = LogManager.getLogger(MatrixDbWriter.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+  /** How long to wait for the other writers to stop after one of them failed */
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  /** Opens a new connection for a writer */
+  @FunctionalInterface
+  public interface ConnectionSupplier {
+    Connection get() throws SQLException;
+  }
+
+  private final ConnectionSupplier connectionSupplier;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private boolean commitPerBatch = true;
+  private int writers = 1;
+
+  /**
+   * @param connectionSupplier called once per writer, the connections are closed when done
+   */
+  public MatrixDbWriter(ConnectionSupplier connectionSupplier) {
+    this.connectionSupplier = connectionSupplier;
+  }
+
+  public MatrixDbWriter setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+    return this;
+  }
+
+  /**
+   * @param commitPerBatch if true commit after each batch, otherwise each writer commits once when all its rows
+   *                       are written
+   */
+  public MatrixDbWriter setCommitPerBatch(boolean commitPerBatch) {
+    this.commitPerBatch = commitPerBatch;
+    return this;
+  }
+
+  /**
+   * @param writers the number of parallel connections to write with
+   */
+  public MatrixDbWriter setWriters(int writers) {
+    this.writers = Math.max(1, writers);
+    return this;
+  }
+
+  /**
+   * Update the rows in the table matching the values of the match columns of each row.
+   *
+   * @return the number of rows updated
+   */
+  public int update(Matrix matrix, String tableName, String... matchColumns) throws SQLException {
+    requireMatchColumns(matchColumns);
+    List<String> setColumns = nonMatchColumns(matrix, matchColumns);
+    if (setColumns.isEmpty()) {
+      throw new IllegalArgumentException("There are no columns to update besides the match columns");
+    }
+    List<String> paramColumns = new ArrayList<>(setColumns);
+    paramColumns.addAll(List.of(matchColumns));
+    String sql = "update " + tableName + " set "
+        + setColumns.stream().map(c -> c + " = ?").collect(Collectors.joining(", "))
+        + " where " + List.of(matchColumns).stream().map(c -> c + " = ?").collect(Collectors.joining(" and "));
+    return write(matrix, paramColumns, dialect -> sql);
+  }
+
+  /**
+   * Insert the rows that do not exist (based on the match columns, which must be a unique or primary key)
+   * and update the ones that do.
+   *
+   * @return the number of rows affected as reported by the driver
+   */
+  public int upsert(Matrix matrix, String tableName, String... matchColumns) throws SQLException {
+    requireMatchColumns(matchColumns);
+    List<String> columns = new ArrayList<>(matrix.columnNames());
+    List<String> setColumns = nonMatchColumns(matrix, matchColumns);
+    return write(matrix, columns, dialect -> createUpsertSql(dialect, tableName, columns, List.of(matchColumns), setColumns));
+  }
+
+  static String createUpsertSql(SqlDialect dialect, String tableName, List<String> columns, List<String> keys,
+                                List<String> setColumns) {
+    String columnList = String.join(", ", columns);
+    String params = columns.stream().map(c -> "?").collect(Collectors.joining(", "));
+    return switch (dialect) {
+      case POSTGRES -> "insert into " + tableName + " (" + columnList + ") values (" + params + ") on conflict ("
+          + String.join(", ", keys) + ") do "
+          + (setColumns.isEmpty() ? "nothing" : "update set " + assignments(setColumns, "", "excluded."));
+      case MYSQL -> "insert into " + tableName + " (" + columnList + ") values (" + params + ") on duplicate key update "
+          + (setColumns.isEmpty() ? keys.getFirst() + " = " + keys.getFirst()
+          : setColumns.stream().map(c -> c + " = values(" + c + ")").collect(Collectors.joining(", ")));
+      case H2 -> "merge into " + tableName + " (" + columnList + ") key (" + String.join(", ", keys) + ") values ("
+          + params + ")";
+      case ORACLE -> merge(tableName, "(select " + columns.stream().map(c -> "? " + c).collect(Collectors.joining(", "))
+          + " from dual) src", columns, keys, setColumns, "");
+      case SQLSERVER -> merge(tableName, "(values (" + params + ")) as src (" + columnList + ")", columns, keys,
+          setColumns, ";");
+      default -> merge(tableName, "(values (" + params + ")) as src (" + columnList + ")", columns, keys, setColumns, "");
+    };
+  }
+
+  private static String merge(String tableName, String source, List<String> columns, List<String> keys,
+                              List<String> setColumns, String terminator) {
+    String sql = "merge into " + tableName + " tgt using " + source + " on ("
+        + keys.stream().map(k -> "tgt." + k + " = src." + k).collect(Collectors.joining(" and ")) + ")";
+    if (!setColumns.isEmpty()) {
+      sql += " when matched then update set " + assignments(setColumns, "tgt.", "src.");
+    }
+    return sql + " when not matched then insert (" + String.join(", ", columns) + ") values ("
+        + columns.stream().map(c -> "src." + c).collect(Collectors.joining(", ")) + ")" + terminator;
+  }
+
+  private static String assignments(List<String> columns, String targetPrefix, String sourcePrefix) {
+    return columns.stream().map(c -> targetPrefix + c + " = " + sourcePrefix + c).collect(Collectors.joining(", "));
+  }
+
+  private interface SqlFactory {
+    String create(SqlDialect dialect) throws SQLException;
+  }
+
+  private int write(Matrix matrix, List<String> paramColumns, SqlFactory sqlFactory) throws SQLException {
+    int rowCount = matrix.rowCount();
+    int writerCount = (int) Math.min(writers, Math.max(1, (rowCount + batchSize - 1L) / batchSize));
+    int[] columnIndexes = new int[paramColumns.size()];
+    int[] sqlTypes = new int[paramColumns.size()];
+    for (int i = 0; i < columnIndexes.length; i++) {
+      columnIndexes[i] = matrix.columnIndex(paramColumns.get(i));
+      if (columnIndexes[i] < 0) {
+        throw new IllegalArgumentException("There is no column named " + paramColumns.get(i));
+      }
+      sqlTypes[i] = sqlType(matrix.type(paramColumns.get(i)));
+    }
+    // Connect on the calling thread, a password might need to be prompted for
+    List<Connection> connections = new ArrayList<>(writerCount);
+    try {
+      for (int i = 0; i < writerCount; i++) {
+        connections.add(connectionSupplier.get());
+      }
+      String sql = sqlFactory.create(SqlDialect.fromUrl(connections.getFirst().getMetaData().getURL()));
+      log.debug("Writing {} rows with {} writer(s): {}", rowCount, writerCount, sql);
+      if (writerCount == 1) {
+        return writeRange(connections.getFirst(), sql, matrix, columnIndexes, sqlTypes, 0, rowCount, null);
+      }
+      return writeParallel(connections, sql, matrix, columnIndexes, sqlTypes);
+    } finally {
+      for (Connection con : connections) {
+        try {
+          con.close();
+        } catch (SQLException e) {
+          log.warn("Failed to close connection", e);
+        }
+      }
+    }
+  }
+
+  private int writeParallel(List<Connection> connections, String sql, Matrix matrix, int[] columnIndexes,
+                            int[] sqlTypes) throws SQLException {
+    int rowCount = matrix.rowCount();
+    int writerCount = connections.size();
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(writerCount, r -> {
+      Thread t = new Thread(r, "gade-db-writer-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    Set<Statement> running = ConcurrentHashMap.newKeySet();
+    boolean done = false;
+    try {
+      List<Future<Integer>> results = new ArrayList<>(writerCount);
+      int rangeSize = (rowCount + writerCount - 1) / writerCount;
+      for (int i = 0; i < writerCount; i++) {
+        Connection con = connections.get(i);
+        int from = i * rangeSize;
+        int to = Math.min(rowCount, from + rangeSize);
+        results.add(executor.submit(() -> writeRange(con, sql, matrix, columnIndexes, sqlTypes, from, to, running)));
+      }
+      int total = 0;
+      for (Future<Integer> result : results) {
+        total += result.get();
+      }
+      done = true;
+      return total;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while writing rows", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException sqlException) {
+        throw sqlException;
+      }
+      throw new SQLException("Failed to write rows", e.getCause());
+    } finally {
+      // after a failure the other writers are stopped and rolled back before the caller closes their connections
+      if (!done) {
+        for (Statement stm : running) {
+          try {
+            stm.cancel();
+          } catch (SQLException e) {
+            log.debug("Failed to cancel statement", e);
+          }
+        }
+      }
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          log.warn("Writers did not stop within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * @param running if not null the statement is added to it so that it can be cancelled from another thread
+   */
+  private int writeRange(Connection con, String sql, Matrix matrix, int[] columnIndexes, int[] sqlTypes,
+                         int fromRow, int toRow, Set<Statement> running) throws SQLException {
+    boolean autoCommit = con.getAutoCommit();
+    con.setAutoCommit(false);
+    int total = 0;
+    try (PreparedStatement ps = con.prepareStatement(sql)) {
+      if (running != null) {
+        running.add(ps);
+      }
+      int batched = 0;
+      for (int row = fromRow; row < toRow; row++) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new SQLException("Interrupted while writing rows");
+        }
+        for (int i = 0; i < columnIndexes.length; i++) {
+          bind(ps, i + 1, matrix.getAt(row, columnIndexes[i]), sqlTypes[i]);
+        }
+        ps.addBatch();
+        if (++batched == batchSize) {
+          total += executeBatch(ps, con);
+          batched = 0;
+        }
+      }
+      if (batched > 0) {
+        total += executeBatch(ps, con);
+      }
+      con.commit();
+    } catch (SQLException e) {
+      try {
+        con.rollback();
+      } catch (SQLException re) {
+        log.warn("Failed to rollback", re);
+      }
+      throw e;
+    } finally {
+      con.setAutoCommit(autoCommit);
+    }
+    return total;
+  }
+
+  private int executeBatch(PreparedStatement ps, Connection con) throws SQLException {
+    int count = 0;
+    for (int result : ps.executeBatch()) {
+      if (result > 0) {
+        count += result;
+      } else if (result == Statement.SUCCESS_NO_INFO) {
+        count++;
+      }
+    }
+    ps.clearBatch();
+    if (commitPerBatch) {
+      con.commit();
+    }
+    return count;
+  }
+
+  static void bind(PreparedStatement ps, int index, Object value, int sqlType) throws SQLException {
+    if (value == null) {
+      ps.setNull(index, sqlType);
+      return;
+    }
+    switch (value) {
+      case BigInteger bi -> ps.setBigDecimal(index, new BigDecimal(bi));
+      case java.sql.Date d -> ps.setDate(index, d);
+      case java.sql.Time t -> ps.setTime(index, t);
+      case java.sql.Timestamp ts -> ps.setTimestamp(index, ts);
+      case java.util.Date d -> ps.setTimestamp(index, new Timestamp(d.getTime()));
+      case ZonedDateTime zdt -> ps.setObject(index, zdt.toOffsetDateTime(), Types.TIMESTAMP_WITH_TIMEZONE);
+      case Character c -> ps.setString(index, String.valueOf(c));
+      default -> {
+        if (sqlType == Types.OTHER) {
+          ps.setObject(index, value);
+        } else {
+          ps.setObject(index, value, sqlType);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the sql type (java.sql.Types) corresponding to the Matrix column type
+   */
+  static int sqlType(Class<?> type) {
+    if (type == null) {
+      return Types.OTHER;
+    }
+    if (String.class.equals(type) || Character.class.equals(type) || CharSequence.class.isAssignableFrom(type)) {
+      return Types.VARCHAR;
+    }
+    if (Integer.class.equals(type)) return Types.INTEGER;
+    if (Long.class.equals(type)) return Types.BIGINT;
+    if (Short.class.equals(type)) return Types.SMALLINT;
+    if (Byte.class.equals(type)) return Types.TINYINT;
+    if (Double.class.equals(type)) return Types.DOUBLE;
+    if (Float.class.equals(type)) return Types.REAL;
+    if (BigDecimal.class.equals(type) || BigInteger.class.equals(type)) return Types.NUMERIC;
+    if (Boolean.class.equals(type)) return Types.BOOLEAN;
+    if (LocalDate.class.equals(type) || java.sql.Date.class.equals(type)) return Types.DATE;
+    if (LocalTime.class.equals(type) || java.sql.Time.class.equals(type)) return Types.TIME;
+    if (LocalDateTime.class.equals(type) || java.util.Date.class.isAssignableFrom(type)) return Types.TIMESTAMP;
+    if (OffsetDateTime.class.equals(type) || ZonedDateTime.class.equals(type)) return Types.TIMESTAMP_WITH_TIMEZONE;
+    if (byte[].class.equals(type)) return Types.VARBINARY;
+    return Types.OTHER;
+  }
+
+  private static void requireMatchColumns(String[] matchColumns) {
+    if (matchColumns == null || matchColumns.length == 0) {
+      throw new IllegalArgumentException("At least one column to match rows on must be given");
+    }
+  }
+
+  private static List<String> nonMatchColumns(Matrix matrix, String[] matchColumns) {
+    List<String> columns = new ArrayList<>(matrix.columnNames());
+    columns.removeAll(List.of(matchColumns));
+    return columns;
+  }
+}
@@ -0,0 +1,49 @@
+package se.alipsa.gade.utils.sql;
+
+import java.util.Locale;
+
+/**
+ * The differences between databases that matter when splitting a script into statements
+ * and when generating sql (e.g. upserts).
+ */
+public enum SqlDialect {
+  /** Statements end with ;, standard quoting and comments */
+  GENERIC,
+  /** Adds dollar quoting ($$ ... $$, $tag$ ... $tag$), nested block comments and E'' strings */
+  POSTGRES,
+  /** Adds backtick identifiers, # comments, backslash escapes in strings and the DELIMITER command */
+  MYSQL,
+  /** Batches are separated by GO on a line of its own (like sqlcmd), [bracketed] identifiers */
+  SQLSERVER,
+  /** Splits like GENERIC, upserts are done with MERGE ... KEY */
+  H2,
+  /** PL/SQL blocks (DECLARE, BEGIN, CREATE PROCEDURE etc.) end with / on a line of its own */
+  ORACLE;
+
+  /**
+   * @param jdbcUrl the url of the connection the script will run against
+   * @return the dialect to use for that database, GENERIC if unknown
+   */
+  public static SqlDialect fromUrl(String jdbcUrl) {
+    if (jdbcUrl == null) {
+      return GENERIC;
+    }
+    String url = jdbcUrl.toLowerCase(Locale.ROOT);
+    if (url.startsWith("jdbc:postgresql:") || url.startsWith("jdbc:redshift:") || url.startsWith("jdbc:pgsql:")) {
+      return POSTGRES;
+    }
+    if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+      return MYSQL;
+    }
+    if (url.startsWith("jdbc:sqlserver:") || url.startsWith("jdbc:jtds:") || url.startsWith("jdbc:sybase:")) {
+      return SQLSERVER;
+    }
+    if (url.startsWith("jdbc:oracle:")) {
+      return ORACLE;
+    }
+    if (url.startsWith("jdbc:h2:")) {
+      return H2;
+    }
+    return GENERIC;
+  }
+}
@@ -0,0 +1,325 @@
+package se.alipsa.gade.utils.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Executes a sql script statement by statement as it is read (see {@link SqlStatementReader}).
+ * <p>
+ * Consecutive DML statements (insert, update, delete...) are sent as JDBC batches of {@link #setBatchSize(int)}
+ * statements, other statements are executed one by one. When the connection is not in auto commit mode a commit is
+ * done every {@link #setCommitInterval(int)} statements (and at the end) so that the transaction log of the database
+ * does not have to hold the whole script. On failure the current transaction is rolled back and an SQLException
+ * telling which statement failed (and on what line) is thrown.
+ * <p>
+ * SQL Server scripts are split at GO lines, or at ; if the script has no GO lines.
+ */
+public class SqlScriptExecutor {
+
+  private static final Logger log = LogManager.getLogger(SqlScriptExecutor.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final int DEFAULT_COMMIT_INTERVAL = 10_000;
+  private static final long PROGRESS_INTERVAL_MS = 1000;
+  private static final Set<String> BATCHABLE = Set.of("INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "UPSERT");
+
+  private final Connection con;
+  private final SqlDialect dialect;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+  private Consumer<Progress> progressListener;
+  private ResultSetHandler resultSetHandler;
+  private volatile Statement currentStatement;
+
+  /**
+   * Progress of a script execution.
+   *
+   * @param statements the number of statements executed
+   * @param updateCount the sum of the update counts reported by the database
+   * @param bytesRead how much of the script has been read
+   * @param totalBytes the size of the script or -1 if unknown
+   */
+  public record Progress(long statements, long updateCount, long bytesRead, long totalBytes) {
+
+    /** @return the part of the script that has been processed (0 - 1) or -1 if the size is unknown */
+    public double fraction() {
+      return totalBytes <= 0 ? -1 : Math.min(1d, (double) bytesRead / totalBytes);
+    }
+  }
+
+  /** Receives the result sets of queries in the script */
+  @FunctionalInterface
+  public interface ResultSetHandler {
+    void handle(long statementNumber, ResultSet rs) throws SQLException;
+  }
+
+  public SqlScriptExecutor(Connection con, SqlDialect dialect) {
+    this.con = con;
+    this.dialect = dialect;
+  }
+
+  /**
+   * Create an executor using the dialect matching the url of the connection
+   */
+  public SqlScriptExecutor(Connection con) throws SQLException {
+    this(con, SqlDialect.fromUrl(con.getMetaData().getURL()));
+  }
+
+  public SqlScriptExecutor setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+    return this;
+  }
+
+  /**
+   * @param commitInterval the number of statements between commits, 0 means only commit at the end
+   */
+  public SqlScriptExecutor setCommitInterval(int commitInterval) {
+    this.commitInterval = Math.max(0, commitInterval);
+    return this;
+  }
+
+  /**
+   * @param progressListener called (on the executing thread) about once a second and when the script is done
+   */
+  public SqlScriptExecutor setProgressListener(Consumer<Progress> progressListener) {
+    this.progressListener = progressListener;
+    return this;
+  }
+
+  /**
+   * @param resultSetHandler handles result sets of queries, if not set result sets are ignored
+   */
+  public SqlScriptExecutor setResultSetHandler(ResultSetHandler resultSetHandler) {
+    this.resultSetHandler = resultSetHandler;
+    return this;
+  }
+
+  /**
+   * Execute the script file.
+   *
+   * @param file the script
+   * @param charset the encoding of the script
+   * @return the final progress, i.e. the number of statements executed and rows affected
+   */
+  public Progress execute(File file, Charset charset) throws IOException, SQLException {
+    boolean goBatches = dialect == SqlDialect.SQLSERVER
+        && SqlStatementReader.hasGoLine(new InputStreamReader(Files.newInputStream(file.toPath()), charset));
+    try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+         SqlStatementReader reader = new SqlStatementReader(new InputStreamReader(in, charset), dialect, goBatches)) {
+      return execute(reader, in, file.length());
+    }
+  }
+
+  /**
+   * Execute the statements from the reader.
+   */
+  public Progress execute(SqlStatementReader reader) throws IOException, SQLException {
+    return execute(reader, null, -1);
+  }
+
+  private Progress execute(SqlStatementReader reader, CountingInputStream in, long totalBytes) throws IOException, SQLException {
+    boolean autoCommit = con.getAutoCommit();
+    long statements = 0;
+    long updateCount = 0;
+    // the line of each statement in the current batch, used to tell which one failed
+    List<Long> batchLines = new ArrayList<>();
+    long sinceCommit = 0;
+    long lastReport = System.currentTimeMillis();
+    String sql = null;
+    try (Statement stm = con.createStatement()) {
+      currentStatement = stm;
+      while ((sql = reader.next()) != null) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new SQLException("Script execution interrupted after " + statements + " statements");
+        }
+        // a GO batch may hold several statements so it is sent as is
+        boolean batchable = !reader.isGoBatches() && batchSize > 1
+            && BATCHABLE.contains(reader.getStatementKeyword());
+        if (batchable) {
+          stm.addBatch(sql);
+          batchLines.add(reader.getStatementLine());
+          if (batchLines.size() >= batchSize) {
+            updateCount += executeBatch(stm);
+            statements += batchLines.size();
+            sinceCommit += batchLines.size();
+            batchLines.clear();
+          }
+        } else {
+          if (!batchLines.isEmpty()) {
+            updateCount += executeBatch(stm);
+            statements += batchLines.size();
+            sinceCommit += batchLines.size();
+            batchLines.clear();
+          }
+          updateCount += executeSingle(stm, sql, statements + 1);
+          statements++;
+          sinceCommit++;
+        }
+        if (!autoCommit && commitInterval > 0 && sinceCommit >= commitInterval && batchLines.isEmpty()) {
+          con.commit();
+          sinceCommit = 0;
+        }
+        if (progressListener != null && System.currentTimeMillis() - lastReport >= PROGRESS_INTERVAL_MS) {
+          progressListener.accept(new Progress(statements, updateCount, in == null ? -1 : in.getCount(), totalBytes));
+          lastReport = System.currentTimeMillis();
+        }
+      }
+      if (!batchLines.isEmpty()) {
+        updateCount += executeBatch(stm);
+        statements += batchLines.size();
+        batchLines.clear();
+      }
+      if (!autoCommit) {
+        con.commit();
+      }
+    } catch (SQLException e) {
+      if (!autoCommit) {
+        try {
+          con.rollback();
+        } catch (SQLException re) {
+          log.warn("Failed to rollback", re);
+        }
+      }
+      String context;
+      if (!batchLines.isEmpty()) {
+        context = batchContext(e, batchLines, statements);
+      } else {
+        context = sql == null ? "" : ", statement " + reader.getStatementCount() + " on line "
+            + reader.getStatementLine();
+      }
+      throw new SQLException("Failed to execute script" + context + ": " + e.getMessage(), e.getSQLState(),
+          e.getErrorCode(), e);
+    } finally {
+      currentStatement = null;
+    }
+    Progress progress = new Progress(statements, updateCount, in == null ? -1 : in.getCount(), totalBytes);
+    if (progressListener != null) {
+      progressListener.accept(progress);
+    }
+    return progress;
+  }
+
+  private long executeBatch(Statement stm) throws SQLException {
+    long count = 0;
+    for (int result : stm.executeBatch()) {
+      if (result > 0) {
+        count += result;
+      }
+    }
+    stm.clearBatch();
+    return count;
+  }
+
+  /**
+   * Tells which statement of a failed batch failed, using the update counts of the BatchUpdateException
+   * (drivers either stop at the failing statement or mark it as EXECUTE_FAILED).
+   *
+   * @param statementsBefore the number of statements executed before the batch
+   */
+  private static String batchContext(SQLException e, List<Long> batchLines, long statementsBefore) {
+    int failed = -1;
+    if (e instanceof BatchUpdateException bue && bue.getUpdateCounts() != null) {
+      int[] counts = bue.getUpdateCounts();
+      for (int i = 0; i < counts.length && failed < 0; i++) {
+        if (counts[i] == Statement.EXECUTE_FAILED) {
+          failed = i;
+        }
+      }
+      if (failed < 0 && counts.length < batchLines.size()) {
+        failed = counts.length;
+      }
+    }
+    if (failed < 0) {
+      return ", statements " + (statementsBefore + 1) + " - " + (statementsBefore + batchLines.size())
+          + " on lines " + batchLines.get(0) + " - " + batchLines.get(batchLines.size() - 1);
+    }
+    return ", statement " + (statementsBefore + failed + 1) + " on line " + batchLines.get(failed);
+  }
+
+  private long executeSingle(Statement stm, String sql, long statementNumber) throws SQLException {
+    long count = 0;
+    boolean hasResultSet = stm.execute(sql);
+    while (true) {
+      if (hasResultSet) {
+        try (ResultSet rs = stm.getResultSet()) {
+          if (resultSetHandler != null) {
+            resultSetHandler.handle(statementNumber, rs);
+          }
+        }
+      } else {
+        int updates = stm.getUpdateCount();
+        if (updates == -1) {
+          break;
+        }
+        count += updates;
+      }
+      hasResultSet = stm.getMoreResults();
+    }
+    return count;
+  }
+
+  /**
+   * Cancel the statement currently executing (if any), can be called from another thread.
+   */
+  public void cancel() throws SQLException {
+    Statement stm = currentStatement;
+    if (stm != null) {
+      stm.cancel();
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,427 @@
+package se.alipsa.gade.utils.sql;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a sql script into statements while reading it, so that scripts of any size can be processed
+ * in constant memory (well, proportional to the largest statement).
+ * <p>
+ * Unlike {@link se.alipsa.gade.utils.SqlParser} this does not parse the sql, it only tracks enough of the lexical
+ * structure (quotes, comments, dollar quoting etc. depending on the {@link SqlDialect}) to know where a statement
+ * ends. The statement text is returned as written, comments included.
+ */
+public class SqlStatementReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int HEAD_LENGTH = 64;
+  private static final Pattern GO = Pattern.compile("(?i)go(\\s+\\d+)?");
+  private static final Pattern DELIMITER_COMMAND = Pattern.compile("(?i)delimiter\\s+(\\S+)");
+  private static final Pattern PLSQL_BLOCK = Pattern.compile(
+      "^(DECLARE|BEGIN|CREATE (OR REPLACE )?((NON)?EDITIONABLE )?(PROCEDURE|FUNCTION|TRIGGER|PACKAGE|TYPE|LIBRARY))\\b.*");
+
+  private enum State {
+    NORMAL, SINGLE_QUOTE, DOUBLE_QUOTE, BACKTICK, BRACKET, LINE_COMMENT, BLOCK_COMMENT, DOLLAR_QUOTE
+  }
+
+  private final Reader reader;
+  private final SqlDialect dialect;
+  private final boolean goBatches;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int bufferPos;
+  private int bufferLength;
+  private String delimiter;
+
+  private final StringBuilder statement = new StringBuilder();
+  private final StringBuilder head = new StringBuilder();
+  private int lineStart;
+  private long codeChars;
+  private long codeCharsAtLineStart;
+  private long lineNumber = 1;
+  private long statementLine;
+  private long statementCount;
+  private String statementHead = "";
+  private String repeatedStatement;
+  private long repeats;
+
+  /**
+   * @param reader the script, does not need to be buffered
+   * @param dialect the dialect of the script
+   */
+  public SqlStatementReader(Reader reader, SqlDialect dialect) {
+    this(reader, dialect, dialect == SqlDialect.SQLSERVER);
+  }
+
+  /**
+   * @param reader the script, does not need to be buffered
+   * @param dialect the dialect of the script
+   * @param goBatches only used for SQL Server, true if statements end at GO lines only, false if they also end
+   *                  at ; (for scripts without GO lines, see {@link #hasGoLine(Reader)})
+   */
+  public SqlStatementReader(Reader reader, SqlDialect dialect, boolean goBatches) {
+    this.reader = reader;
+    this.dialect = dialect;
+    this.goBatches = dialect == SqlDialect.SQLSERVER && goBatches;
+    delimiter = this.goBatches ? null : ";";
+  }
+
+  /**
+   * Checks if a SQL Server script uses GO lines to separate batches, a GO in a comment or string spanning
+   * several lines also counts.
+   *
+   * @param script the script, read until the first GO line and closed
+   * @return true if the script has a line with only a GO command
+   */
+  public static boolean hasGoLine(Reader script) throws IOException {
+    try (BufferedReader br = new BufferedReader(script)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (GO.matcher(line.trim()).matches()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the next statement (without the terminating delimiter) or null if there are no more statements. A SQL
+   * Server batch ended by {@code GO n} is returned n times in a row.
+   */
+  public String next() throws IOException {
+    if (repeats > 0) {
+      repeats--;
+      statementCount++;
+      return repeatedStatement;
+    }
+    resetStatement();
+    State state = State.NORMAL;
+    int commentDepth = 0;
+    int dollarTagEnd = 0;
+    String dollarTag = null;
+    boolean backslashEscapes = false;
+    int c;
+    while ((c = read()) != -1) {
+      char ch = (char) c;
+      statement.append(ch);
+      if (ch == '\n') {
+        lineNumber++;
+      }
+      switch (state) {
+        case NORMAL -> {
+          if (ch == '\n') {
+            String result = endOfLine();
+            if (result != null) {
+              return result;
+            }
+            newLine();
+          } else if (ch == '-' && peek() == '-') {
+            statement.append((char) read());
+            state = State.LINE_COMMENT;
+          } else if (ch == '#' && dialect == SqlDialect.MYSQL) {
+            state = State.LINE_COMMENT;
+          } else if (ch == '/' && peek() == '*') {
+            statement.append((char) read());
+            state = State.BLOCK_COMMENT;
+            commentDepth = 1;
+          } else if (Character.isWhitespace(ch)) {
+            if (!head.isEmpty() && head.charAt(head.length() - 1) != ' ' && head.length() < HEAD_LENGTH) {
+              head.append(' ');
+            }
+          } else if (isDelimiterEnd()) {
+            String result = finish(statement.length() - delimiter.length());
+            if (result != null) {
+              return result;
+            }
+            resetStatement();
+          } else {
+            markCode(ch);
+            if (ch == '\'') {
+              backslashEscapes = dialect == SqlDialect.MYSQL || (dialect == SqlDialect.POSTGRES && isEscapeStringPrefix());
+              state = State.SINGLE_QUOTE;
+            } else if (ch == '"') {
+              backslashEscapes = dialect == SqlDialect.MYSQL;
+              state = State.DOUBLE_QUOTE;
+            } else if (ch == '`' && dialect == SqlDialect.MYSQL) {
+              state = State.BACKTICK;
+            } else if (ch == '[' && dialect == SqlDialect.SQLSERVER) {
+              state = State.BRACKET;
+            } else if (ch == '$' && dialect == SqlDialect.POSTGRES && !isIdentifierCharBefore(statement.length() - 1)) {
+              int tagStart = statement.length() - 1;
+              while (peek() != -1 && peek() != '$' && Character.isJavaIdentifierPart(peek())) {
+                statement.append((char) read());
+              }
+              if (peek() == '$') {
+                statement.append((char) read());
+                dollarTag = statement.substring(tagStart);
+                dollarTagEnd = statement.length();
+                state = State.DOLLAR_QUOTE;
+              }
+            }
+          }
+        }
+        case SINGLE_QUOTE, DOUBLE_QUOTE -> {
+          if (ch == '\n') {
+            newLine();
+          } else if (backslashEscapes && ch == '\\') {
+            int next = read();
+            if (next != -1) {
+              statement.append((char) next);
+            }
+          } else if ((ch == '\'' && state == State.SINGLE_QUOTE) || (ch == '"' && state == State.DOUBLE_QUOTE)) {
+            state = State.NORMAL;
+          }
+        }
+        case BACKTICK -> {
+          if (ch == '\n') {
+            newLine();
+          } else if (ch == '`') {
+            state = State.NORMAL;
+          }
+        }
+        case BRACKET -> {
+          if (ch == '\n') {
+            newLine();
+          } else if (ch == ']') {
+            if (peek() == ']') {
+              statement.append((char) read());
+            } else {
+              state = State.NORMAL;
+            }
+          }
+        }
+        case LINE_COMMENT -> {
+          if (ch == '\n') {
+            newLine();
+            state = State.NORMAL;
+          }
+        }
+        case BLOCK_COMMENT -> {
+          if (ch == '\n') {
+            newLine();
+          } else if (ch == '*' && peek() == '/') {
+            statement.append((char) read());
+            commentDepth--;
+            if (commentDepth == 0) {
+              state = State.NORMAL;
+            }
+          } else if (ch == '/' && peek() == '*' && dialect == SqlDialect.POSTGRES) {
+            statement.append((char) read());
+            commentDepth++;
+          }
+        }
+        case DOLLAR_QUOTE -> {
+          if (ch == '\n') {
+            newLine();
+          } else if (ch == '$' && statement.length() >= dollarTagEnd + dollarTag.length() && endsWith(dollarTag)) {
+            state = State.NORMAL;
+          }
+        }
+      }
+    }
+    if (state == State.NORMAL || state == State.LINE_COMMENT) {
+      String result = endOfLine();
+      if (result != null) {
+        return result;
+      }
+    }
+    return finish(statement.length());
+  }
+
+  /**
+   * Handles the client commands that must be on a line of their own: GO, / and DELIMITER.
+   *
+   * @return the statement ended by the command, null if there is none
+   */
+  private String endOfLine() throws IOException {
+    if (dialect == SqlDialect.GENERIC || dialect == SqlDialect.H2 || dialect == SqlDialect.POSTGRES) {
+      return null;
+    }
+    String line = statement.substring(lineStart).trim();
+    if (line.isEmpty()) {
+      return null;
+    }
+    long count = 1;
+    boolean separator = switch (dialect) {
+      case SQLSERVER -> {
+        Matcher m = GO.matcher(line);
+        if (m.matches() && m.group(1) != null) {
+          count = goCount(m.group(1).trim());
+        }
+        yield m.matches();
+      }
+      case ORACLE -> "/".equals(line);
+      case MYSQL -> {
+        Matcher m = DELIMITER_COMMAND.matcher(line);
+        if (m.matches()) {
+          delimiter = m.group(1);
+          yield true;
+        }
+        yield false;
+      }
+      default -> false;
+    };
+    if (!separator) {
+      return null;
+    }
+    codeChars = codeCharsAtLineStart;
+    String result = finish(lineStart);
+    resetStatement();
+    if (result != null && count > 1) {
+      repeatedStatement = result;
+      repeats = count - 1;
+    }
+    return result;
+  }
+
+  private long goCount(String count) throws IOException {
+    try {
+      long n = Long.parseLong(count);
+      if (n > 0) {
+        return n;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    long line = statement.charAt(statement.length() - 1) == '\n' ? lineNumber - 1 : lineNumber;
+    throw new IOException("Invalid GO count " + count + " on line " + line
+        + ", it must be a positive number of times to run the batch");
+  }
+
+  private void newLine() {
+    lineStart = statement.length();
+    codeCharsAtLineStart = codeChars;
+  }
+
+  private boolean isDelimiterEnd() {
+    if (delimiter == null || !endsWith(delimiter)) {
+      return false;
+    }
+    if (dialect == SqlDialect.ORACLE && PLSQL_BLOCK.matcher(head).matches()) {
+      // ; ends statements inside the block, the block itself ends with a / line
+      return false;
+    }
+    // the DELIMITER command itself is not terminated by the delimiter
+    return dialect != SqlDialect.MYSQL || !DELIMITER_COMMAND.matcher(statement.substring(lineStart).trim()).matches();
+  }
+
+  private boolean endsWith(String suffix) {
+    int offset = statement.length() - suffix.length();
+    if (offset < 0) {
+      return false;
+    }
+    for (int i = suffix.length() - 1; i >= 0; i--) {
+      if (statement.charAt(offset + i) != suffix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isEscapeStringPrefix() {
+    int pos = statement.length() - 2;
+    return pos >= 0 && (statement.charAt(pos) == 'E' || statement.charAt(pos) == 'e') && !isIdentifierCharBefore(pos);
+  }
+
+  private boolean isIdentifierCharBefore(int pos) {
+    return pos > 0 && Character.isJavaIdentifierPart(statement.charAt(pos - 1));
+  }
+
+  private void markCode(char ch) {
+    if (codeChars == 0) {
+      statementLine = lineNumber;
+    }
+    codeChars++;
+    if (head.length() < HEAD_LENGTH) {
+      head.append(Character.toUpperCase(ch));
+    }
+  }
+
+  private String finish(int end) {
+    String result = null;
+    if (codeChars > 0) {
+      result = statement.substring(0, end).trim();
+      statementHead = head.toString();
+      statementCount++;
+    }
+    return result;
+  }
+
+  private void resetStatement() {
+    statement.setLength(0);
+    head.setLength(0);
+    lineStart = 0;
+    codeChars = 0;
+    codeCharsAtLineStart = 0;
+  }
+
+  private int read() throws IOException {
+    if (bufferPos >= bufferLength && !fill()) {
+      return -1;
+    }
+    return buffer[bufferPos++];
+  }
+
+  private int peek() throws IOException {
+    if (bufferPos >= bufferLength && !fill()) {
+      return -1;
+    }
+    return buffer[bufferPos];
+  }
+
+  private boolean fill() throws IOException {
+    int n;
+    do {
+      n = reader.read(buffer, 0, buffer.length);
+    } while (n == 0);
+    bufferPos = 0;
+    bufferLength = Math.max(n, 0);
+    return n > 0;
+  }
+
+  /**
+   * @return the first keyword (upper case) of the statement last returned by {@link #next()}, e.g. INSERT
+   */
+  public String getStatementKeyword() {
+    int end = 0;
+    while (end < statementHead.length() && Character.isLetter(statementHead.charAt(end))) {
+      end++;
+    }
+    return statementHead.substring(0, end).toUpperCase(Locale.ROOT);
+  }
+
+  /**
+   * @return the line number where the statement last returned by {@link #next()} starts
+   */
+  public long getStatementLine() {
+    return statementLine;
+  }
+
+  /**
+   * @return the number of statements returned so far
+   */
+  public long getStatementCount() {
+    return statementCount;
+  }
+
+  /**
+   * @return true if statements only end at GO lines, i.e. each statement is a SQL Server batch
+   */
+  public boolean isGoBatches() {
+    return goBatches;
+  }
+
+  public SqlDialect getDialect() {
+    return dialect;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
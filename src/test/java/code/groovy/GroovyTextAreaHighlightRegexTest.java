@@ -1,7 +1,7 @@
 package code.groovy;
 
 import org.junit.jupiter.api.Test;
-import se.alipsa.gade.code.groovytab.GroovyTextArea;
+import se.alipsa.gade.code.groovytab.GroovySyntax;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -15,7 +15,7 @@ public class GroovyTextAreaHighlightRegexTest {
     String line1 = "//@GrabConfig(systemClassLoader=true)\n";
     String line2 = "//@Grab('org.apache.ant:ant:1.10.15')\n";
 
-    Pattern comments = Pattern.compile(GroovyTextArea.COMMENT_PATTERN);
+    Pattern comments = Pattern.compile(GroovySyntax.COMMENT_PATTERN);
     Matcher m1 = comments.matcher(line1);
     Matcher m2 = comments.matcher(line2);
 
@@ -41,8 +41,8 @@ public class GroovyTextAreaHighlightRegexTest {
   void commentPrecedenceOverString_inCombinedPattern() {
     // Simulate the combined pattern with COMMENT first, then STRING
     Pattern combined = Pattern.compile(
-        "(?<COMMENT>" + GroovyTextArea.COMMENT_PATTERN + ")"
-            + "|(?<STRING>" + GroovyTextArea.STRING_PATTERN + ")"
+        "(?<COMMENT>" + GroovySyntax.COMMENT_PATTERN + ")"
+            + "|(?<STRING>" + GroovySyntax.STRING_PATTERN + ")"
     );
 
     String code = "//@Grab('x')\n";
@@ -0,0 +1,75 @@
+package se.alipsa.gade.batch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest {
+
+  @Test
+  void outputNamesAreUniquePerFile() {
+    List<File> files = List.of(new File("a/report.groovy"), new File("b/report.gmd"), new File("c/other.groovy"),
+        new File("d/report.groovy"));
+    assertEquals(List.of("report", "report-2", "other", "report-3"), BatchRunner.outputNames(files));
+  }
+
+  @Test
+  void longestPreviousJobsStartFirst() {
+    File fast = new File("fast.groovy").getAbsoluteFile();
+    File slow = new File("slow.groovy").getAbsoluteFile();
+    File fresh = new File("fresh.groovy").getAbsoluteFile();
+    Map<String, Long> previous = Map.of(fast.getAbsolutePath(), 100L, slow.getAbsolutePath(), 5000L);
+    assertEquals(List.of(2, 1, 0), BatchRunner.startOrder(List.of(fast, slow, fresh), previous));
+  }
+
+  @Test
+  void htmlResultsAreRecognized() {
+    assertTrue(BatchRunner.looksLikeHtml("  <!DOCTYPE html><html></html>"));
+    assertTrue(BatchRunner.looksLikeHtml("<html><body/></html>"));
+    assertFalse(BatchRunner.looksLikeHtml("42"));
+    assertFalse(BatchRunner.looksLikeHtml("<htm"));
+  }
+
+  @Test
+  void parseArguments(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("one.groovy"), "1");
+    Files.createDirectories(dir.resolve("sub"));
+    Files.writeString(dir.resolve("sub/two.gmd"), "# Two");
+    Files.writeString(dir.resolve("notes.txt"), "not runnable");
+    GadeBatch.Arguments args = GadeBatch.parse(new String[]{"-j", "3", "--timeout", "60", "--pdf",
+        "-o", dir.resolve("out").toString(), dir.toString()});
+    assertNotNull(args);
+    assertEquals(2, args.files().size());
+    assertEquals(3, args.jobs());
+    assertEquals(60, args.timeout().toSeconds());
+    assertTrue(args.pdf());
+    assertEquals(new File(dir.resolve("out").toFile(), GadeBatch.REPORT_NAME), args.reportFile());
+
+    assertNull(GadeBatch.parse(new String[]{"--help"}));
+    assertThrows(IllegalArgumentException.class, () -> GadeBatch.parse(new String[]{"-j", "0", dir.toString()}));
+    assertThrows(IllegalArgumentException.class, () -> GadeBatch.parse(new String[]{"--bogus", dir.toString()}));
+    assertThrows(IllegalArgumentException.class, () -> GadeBatch.parse(new String[0]));
+  }
+
+  @Test
+  void reportRoundTrip(@TempDir Path dir) throws Exception {
+    BatchReport report = new BatchReport("2024-01-01T00:00:00Z", 2000, 2, 2, 150, List.of(
+        new BatchReport.JobResult("/x/a.groovy", "groovy", BatchReport.OK, "gade-batch-1", 0, 1500,
+            List.of("a/a.txt"), null, Map.of("cpuMillis", 1200)),
+        new BatchReport.JobResult("/x/b.gmd", "gmd", BatchReport.FAILED, "gade-batch-2", 10, 500,
+            List.of(), "boom", null)));
+    File file = dir.resolve("report.json").toFile();
+    report.write(file);
+    BatchReport read = BatchReport.read(file);
+    assertEquals(report, read);
+    assertEquals(1, read.failureCount());
+    assertEquals(Map.of("/x/a.groovy", 1500L, "/x/b.gmd", 500L), read.millisByFile());
+  }
+}
@@ -0,0 +1,106 @@
+package se.alipsa.gade.code.completion;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class AsyncCompletionTest {
+
+  private static final CompletionContext CONTEXT = CompletionContext.builder()
+      .fullText("pri")
+      .caretPosition(3)
+      .tokenPrefix("pri")
+      .build();
+
+  /** Adds "fast" right away and "slow" once released */
+  private static final class SlowEngine implements CompletionEngine {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public List<CompletionItem> complete(CompletionContext context) {
+      throw new UnsupportedOperationException("only the streaming variant is used");
+    }
+
+    @Override
+    public void complete(CompletionContext context, List<CompletionItem> out) {
+      out.add(new CompletionItem("fast", CompletionItem.Kind.KEYWORD));
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      out.add(new CompletionItem("slow", CompletionItem.Kind.KEYWORD));
+    }
+
+    @Override
+    public Set<String> supportedLanguages() {
+      return Set.of("slow");
+    }
+  }
+
+  @Test
+  void partialResultIsShownWhenTheBudgetExpiresThenTheFullResult() throws Exception {
+    SlowEngine engine = new SlowEngine();
+    List<AsyncCompletion.Result> results = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(2);
+    AsyncCompletion completion = new AsyncCompletion(Runnable::run);
+
+    completion.request(engine, CONTEXT, 20, r -> {
+      results.add(r);
+      done.countDown();
+    });
+    Thread.sleep(200);
+    engine.release.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS), "Should get a partial and a full result");
+    assertTrue(results.get(0).partial());
+    assertEquals(List.of("fast"), results.get(0).items().stream().map(CompletionItem::completion).toList());
+    assertFalse(results.get(1).partial());
+    assertEquals(2, results.get(1).items().size());
+    assertNotNull(CompletionRegistry.getInstance().latencyStats(engine.name()), "Latency should be recorded");
+  }
+
+  @Test
+  void resultsOfSupersededRequestsAreDropped() throws Exception {
+    SlowEngine slow = new SlowEngine();
+    List<AsyncCompletion.Result> results = new CopyOnWriteArrayList<>();
+    CountDownLatch done = new CountDownLatch(1);
+    AsyncCompletion completion = new AsyncCompletion(Runnable::run);
+
+    long first = completion.request(slow, CONTEXT, 10_000, results::add);
+    long second = completion.request(slow, CONTEXT, 10_000, r -> {
+      results.add(r);
+      done.countDown();
+    });
+    slow.release.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertFalse(completion.isCurrent(first));
+    assertEquals(1, results.size(), "Only the latest request delivers");
+    assertEquals(second, results.get(0).generation());
+  }
+
+  @Test
+  void cancelDropsThePendingResult() throws Exception {
+    SlowEngine slow = new SlowEngine();
+    List<AsyncCompletion.Result> results = new CopyOnWriteArrayList<>();
+    AsyncCompletion completion = new AsyncCompletion(Runnable::run);
+
+    completion.request(slow, CONTEXT, 10_000, results::add);
+    completion.cancel();
+    slow.release.countDown();
+
+    Thread.sleep(200);
+    assertTrue(results.isEmpty());
+  }
+}
@@ -226,6 +226,37 @@ class CompletionRegistryTest {
     assertTrue(engine.wasCompleteInvoked(), "Should invoke engine.complete()");
   }
 
+  @Test
+  void testCompleteRecordsLatencyPerEngine() {
+    MockCompletionEngine engine = new MockCompletionEngine("latency-lang");
+    registry.register(engine);
+    CompletionContext context = CompletionContext.builder().fullText("x").caretPosition(1).build();
+
+    registry.complete("latency-lang", context);
+    registry.complete("latency-lang", context);
+
+    CompletionRegistry.LatencyStats stats = registry.latencyStats(engine.name());
+    assertNotNull(stats, "Latency should be recorded for the engine");
+    assertEquals(2, stats.count());
+    assertTrue(stats.p50Millis() <= stats.p99Millis() && stats.p99Millis() <= stats.maxMillis());
+    registry.unregister(engine);
+  }
+
+  @Test
+  void testLatencyPercentiles() {
+    MockCompletionEngine engine = new MockCompletionEngine("percentile-lang");
+    for (int ms = 1; ms <= 100; ms++) {
+      registry.recordLatency(engine, ms * 1_000_000L);
+    }
+
+    CompletionRegistry.LatencyStats stats = registry.latencyStats(engine.name());
+    assertEquals(50.0, stats.p50Millis(), 0.001);
+    assertEquals(90.0, stats.p90Millis(), 0.001);
+    assertEquals(99.0, stats.p99Millis(), 0.001);
+    assertEquals(100.0, stats.maxMillis(), 0.001);
+    assertNull(registry.latencyStats("no-such-engine"));
+  }
+
   @Test
   void testCompleteWithUnregisteredLanguageReturnsEmptyList() {
     CompletionContext context = CompletionContext.builder()
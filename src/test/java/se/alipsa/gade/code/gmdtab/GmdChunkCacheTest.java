@@ -0,0 +1,125 @@
+package se.alipsa.gade.code.gmdtab;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GmdChunkCacheTest {
+
+  private static final Pattern ESCAPED = Pattern.compile("\\$\\{new String\\(java.util.Base64.getDecoder\\(\\)"
+      + ".decode\\('([^']*)'\\), 'UTF-8'\\)}");
+
+  @Test
+  void splitsExecutableChunksFromText() {
+    List<GmdChunkCache.Segment> segments = GmdChunkCache.split("""
+        # Title
+        ```{groovy echo=true}
+        def a = 1
+        ```
+        ```groovy
+        def shown = 2
+        ```
+        end""");
+    assertEquals(3, segments.size());
+    assertEquals("# Title\n", segments.get(0).text());
+    assertTrue(segments.get(1).isChunk());
+    assertTrue(segments.get(1).echo());
+    assertEquals("def a = 1\n", segments.get(1).text());
+    assertFalse(segments.get(2).isChunk(), "plain code blocks are not executed");
+    assertEquals("```groovy\ndef shown = 2\n```\nend", segments.get(2).text());
+  }
+
+  @Test
+  void onlyChangedChunksAndTheChunksAfterThemAreExecuted() throws Exception {
+    GmdChunkCache cache = new GmdChunkCache();
+    String doc = """
+        ```{groovy}
+        import java.time.LocalDate
+        def base = 10
+        out.println("first")
+        ```
+        Base is `=base`
+        ```{groovy}
+        def doubled = base * 2
+        ```
+        ```{groovy}
+        out.print("doubled ${doubled} ${LocalDate.of(2020, 1, 1).year}")
+        ```
+        """;
+    assertEquals("first\nBase is 10\ndoubled 20 2020\n", decode(cache.render(doc)));
+    assertEquals(new GmdChunkCache.RenderStats(3, 3, 0, cache.getLastStats().millis()), cache.getLastStats());
+
+    assertEquals("first\nBase is 10\ndoubled 20 2020\n", decode(cache.render(doc)));
+    assertEquals(0, cache.getLastStats().executed());
+
+    String edited = doc.replace("base * 2", "base * 3");
+    assertEquals("first\nBase is 10\ndoubled 30 2020\n", decode(cache.render(edited)));
+    assertEquals(2, cache.getLastStats().executed());
+    assertEquals(1, cache.getLastStats().reused());
+
+    cache.clear();
+    cache.render(edited);
+    assertEquals(3, cache.getLastStats().executed());
+  }
+
+  @Test
+  void echoIncludesTheCode() throws Exception {
+    String rendered = decode(new GmdChunkCache().render("```{groovy echo=true}\nout.print(1 + 1)\n```\n"));
+    assertEquals("```groovy\nout.print(1 + 1)\n```\n2\n", rendered);
+  }
+
+  @Test
+  void typedDeclarationsKeepTheirType() throws Exception {
+    String rendered = decode(new GmdChunkCache().render("""
+        ```{groovy}
+        int x = 1.7
+        int y
+        String s
+        ```
+        ```{groovy}
+        out.print("${x} ${y} ${s}")
+        ```
+        """));
+    assertEquals("1 0 null\n", rendered);
+  }
+
+  @Test
+  void documentsDefiningMethodsOrClassesAreLeftForGmd() throws Exception {
+    assertTrue(GmdChunkCache.definesMethodsOrClasses("def twice(n) { n * 2 }"));
+    assertTrue(GmdChunkCache.definesMethodsOrClasses("class Point { int x }"));
+    assertFalse(GmdChunkCache.definesMethodsOrClasses("def x = [1, 2].collect { it * 2 }"));
+
+    GmdChunkCache cache = new GmdChunkCache();
+    String doc = "```{groovy}\ndef twice(n) { n * 2 }\n```\n```{groovy}\nout.print(twice(2))\n```\n";
+    assertEquals(doc, cache.render(doc));
+    assertTrue(cache.getLastStats().full());
+    assertEquals(0, cache.getLastStats().executed());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void failingChunkIsReported() {
+    GmdChunkCache cache = new GmdChunkCache();
+    GmdChunkCache.ChunkException e = assertThrows(GmdChunkCache.ChunkException.class,
+        () -> cache.render("```{groovy}\nthrow new IllegalStateException('boom')\n```\n"));
+    assertTrue(e.getMessage().contains("Chunk 1"), e.getMessage());
+    assertEquals(0, cache.size());
+  }
+
+  private static String decode(String rendered) {
+    Matcher m = ESCAPED.matcher(rendered);
+    StringBuilder sb = new StringBuilder();
+    while (m.find()) {
+      m.appendReplacement(sb, Matcher.quoteReplacement(
+          new String(Base64.getDecoder().decode(m.group(1)), StandardCharsets.UTF_8)));
+    }
+    m.appendTail(sb);
+    return sb.toString();
+  }
+}
@@ -1,95 +1,69 @@
 package se.alipsa.gade.code.gmdtab;
 
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.File;
-import java.lang.reflect.Field;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Files;
+import java.util.List;
 
-import javafx.application.Platform;
-import javafx.scene.web.WebView;
-import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.BeforeEach;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
-import org.mockito.Mockito;
-import se.alipsa.gade.Gade;
-import se.alipsa.gade.console.ConsoleComponent;
-import se.alipsa.gmd.core.GmdException;
 
 class GmdUtilPdfTest {
 
-  private static Field instanceField;
-  private Gade previousInstance;
-
-  @BeforeAll
-  static void initFx() throws Exception {
-    try {
-      Platform.startup(() -> {});
-    } catch (IllegalStateException ignored) {
-      // already started
-    }
-    instanceField = Gade.class.getDeclaredField("instance");
-    instanceField.setAccessible(true);
-  }
-
-  @BeforeEach
-  void setUp() throws Exception {
-    previousInstance = (Gade) instanceField.get(null);
-    Gade mockGui = Mockito.mock(Gade.class);
-    ConsoleComponent console = Mockito.mock(ConsoleComponent.class);
-    Mockito.when(mockGui.getConsoleComponent()).thenReturn(console);
-    instanceField.set(null, mockGui);
-  }
-
-  @AfterEach
-  void tearDown() throws Exception {
-    instanceField.set(null, previousInstance);
-  }
-
   @Test
   void saveGmdAsPdfCreatesNonEmptyFile(@TempDir File tempDir) throws Exception {
-    assumeTrue(canCreateWebView(), "JavaFX WebView not available in this environment");
-
     File pdf = new File(tempDir, "sample.pdf");
     assertFalse(pdf.exists(), "PDF should not exist before export");
 
-    CompletableFuture<Void> future = new CompletableFuture<>();
-    Platform.runLater(() -> {
-      try {
-        GmdUtil.saveGmdAsPdf("# Title\n\nHello world", pdf);
-        future.complete(null);
-      } catch (GmdException e) {
-        future.completeExceptionally(e);
-      }
-    });
+    // no FX thread and no WebView needed
+    GmdUtil.saveGmdAsPdf("# Title\n\nHello world\n\n```groovy\ndef a = 'x' // comment\n```", pdf);
 
-    assertDoesNotThrow(() -> future.get(40, TimeUnit.SECONDS), "PDF export should complete");
     assertTrue(pdf.exists(), "PDF should exist after export");
     assertTrue(pdf.length() > 0, "PDF should be non-empty");
   }
 
-  private static boolean canCreateWebView() {
-    try {
-      CompletableFuture<Boolean> ready = new CompletableFuture<>();
-      Platform.runLater(() -> {
-        try {
-          WebView view = new WebView();
-          assertNotNull(view);
-          ready.complete(true);
-        } catch (Throwable t) {
-          ready.complete(false);
-        }
-      });
-      return ready.get(5, TimeUnit.SECONDS);
-    } catch (Exception e) {
-      return false;
-    }
+  @Test
+  void exportAllConvertsFilesInParallel(@TempDir File tempDir) throws Exception {
+    File first = new File(tempDir, "first.gmd");
+    File second = new File(tempDir, "second.gmd");
+    Files.writeString(first.toPath(), "# First");
+    Files.writeString(second.toPath(), "# Second\n\n```{groovy}\nthrow new RuntimeException('boom')\n```");
+
+    List<GmdPdfExporter.ExportResult> results = GmdPdfExporter.exportAll(List.of(first, second), 2);
+
+    assertEquals(2, results.size());
+    assertTrue(results.get(0).isSuccess());
+    assertTrue(new File(tempDir, "first.pdf").length() > 0);
+    assertFalse(results.get(1).isSuccess(), "a failing chunk fails only that file");
+  }
+
+  @Test
+  void codeIsHighlightedAndScriptsRemoved() {
+    Document doc = GmdPdfExporter.prepare("<html><head><script>hljs.highlightAll();</script></head><body>"
+        + "<pre><code class=\"language-groovy\">def s = \"a &lt; b\" // done</code></pre></body></html>");
+
+    assertTrue(doc.select("script").isEmpty());
+    assertEquals("def", doc.select("span.hljs-keyword").text());
+    assertEquals("\"a < b\"", doc.select("span.hljs-string").text());
+    assertEquals("// done", doc.select("span.hljs-comment").text());
+    assertFalse(doc.select("head > style").isEmpty(), "highlight styles are inlined");
+  }
+
+  @Test
+  void onlyGroovyAndJavaCodeIsHighlighted() {
+    Document doc = GmdPdfExporter.prepare("<html><body>"
+        + "<pre><code class=\"java\">int n = 1;</code></pre>"
+        + "<pre><code class=\"language-sql\">select * from t where name = 'new'</code></pre>"
+        + "<pre><code>output for the class</code></pre></body></html>");
+
+    List<Element> blocks = doc.select("pre > code");
+    assertEquals("int", blocks.get(0).select("span.hljs-keyword").text());
+    assertTrue(blocks.get(1).children().isEmpty(), "sql is left as plain text");
+    assertTrue(blocks.get(2).children().isEmpty(), "blocks without a language are left as plain text");
   }
 }
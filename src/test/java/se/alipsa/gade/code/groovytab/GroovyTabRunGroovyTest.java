@@ -1,5 +1,7 @@
 package se.alipsa.gade.code.groovytab;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.Mockito.doAnswer;
@@ -200,6 +202,23 @@ class GroovyTabRunGroovyTest {
     prefs.removeNode();
   }
 
+  @Test
+  void grabAnnotationsAreCommentedOutOnceResolved() {
+    assertTrue(GroovyTab.isGrabOnly(List.of("@Grab('a:b:1.0')", "@GrabResolver(name='r', root='https://x')")));
+    assertFalse(GroovyTab.isGrabOnly(List.of("@Grab('a:b:1.0')", "io.addDependency('c:d:2.0')")));
+    assertFalse(GroovyTab.isGrabOnly(List.of("@GrabConfig(systemClassLoader=true)")));
+    assertFalse(GroovyTab.isGrabOnly(List.of("@Grab(group='a',")), "multi line annotations are not handled");
+
+    String code = "@Grab('a:b:1.0')\n  @Grab('c:d:2.0') import foo.Bar\nprintln 'hi'";
+    assertEquals("/*@Grab('a:b:1.0')*/\n  /*@Grab('c:d:2.0')*/ import foo.Bar\nprintln 'hi'",
+        GroovyTab.commentOutGrabs(code));
+
+    String later = "// deps\n@Grab('a:b:1.0')\n\nimport foo.Bar\nprintln '''\n@Grab('x:y:1.0')\n'''\n@Grab('c:d:2.0')\ndef x";
+    assertEquals(List.of(1), GroovyTab.grabHeaderLines(later));
+    assertEquals(later.replace("@Grab('a:b:1.0')", "/*@Grab('a:b:1.0')*/"), GroovyTab.commentOutGrabs(later),
+        "only the @Grab lines of the header are commented out");
+  }
+
   /**
    * Ensures socket binding on loopback behaves like the runner does; if the environment blocks
    * sockets we want to see the same Operation not permitted that the IDE reports.
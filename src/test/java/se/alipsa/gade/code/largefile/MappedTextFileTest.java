@@ -0,0 +1,102 @@
+package se.alipsa.gade.code.largefile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class MappedTextFileTest {
+
+  @TempDir
+  Path dir;
+
+  private File createCsv(int rows, boolean trailingNewline) throws Exception {
+    File file = dir.resolve("data.csv").toFile();
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("id,name\n");
+      for (int i = 1; i <= rows; i++) {
+        writer.write(i + ",name" + i);
+        if (i < rows || trailingNewline) {
+          writer.write("\n");
+        }
+      }
+    }
+    return file;
+  }
+
+  @Test
+  void testLineIndexAndWindows() throws Exception {
+    File file = createCsv(5000, true);
+    try (MappedTextFile text = new MappedTextFile(file, StandardCharsets.UTF_8)) {
+      // Lines can be read before the index is built
+      assertEquals("2500,name2500\n", text.readLines(2500, 1));
+      text.buildLineIndex(null);
+      assertTrue(text.isIndexComplete());
+      assertEquals(5001, text.getIndexedLines());
+      assertEquals("id,name\n1,name1\n", text.readLines(0, 2));
+      assertEquals("3999,name3999\n4000,name4000\n", text.readLines(3999, 2));
+      assertEquals("5000,name5000\n", text.readLines(5000, 10));
+      assertEquals("", text.readLines(6000, 10));
+    }
+  }
+
+  @Test
+  void testLastLineWithoutNewline() throws Exception {
+    File file = createCsv(10, false);
+    try (MappedTextFile text = new MappedTextFile(file, StandardCharsets.UTF_8)) {
+      text.buildLineIndex(null);
+      assertEquals(11, text.getIndexedLines());
+      assertEquals("10,name10", text.readLines(10, 5));
+    }
+  }
+
+  @Test
+  void testFindAndLineOf() throws Exception {
+    File file = createCsv(3000, true);
+    try (MappedTextFile text = new MappedTextFile(file, StandardCharsets.UTF_8)) {
+      text.buildLineIndex(null);
+      long offset = text.find("name2345", 0);
+      assertTrue(offset > 0);
+      assertEquals(2345, text.lineOf(offset));
+      assertEquals(text.lineStartOffset(2345) + "2345,".length(), offset);
+      long next = text.find("name2345", offset + 1);
+      assertEquals(-1, next);
+      assertEquals(-1, text.find("does not exist", 0));
+    }
+  }
+
+  @Test
+  void testUtf8BomAndMultibyteContent() throws Exception {
+    File file = dir.resolve("bom.txt").toFile();
+    Files.write(file.toPath(), new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+    Files.writeString(file.toPath(), "åäö\nrad två\n", StandardCharsets.UTF_8, java.nio.file.StandardOpenOption.APPEND);
+    try (MappedTextFile text = new MappedTextFile(file, StandardCharsets.UTF_8)) {
+      text.buildLineIndex(null);
+      assertEquals(2, text.getIndexedLines());
+      assertEquals("åäö\n", text.readLines(0, 1));
+      assertEquals(1, text.lineOf(text.find("två", 0)));
+    }
+  }
+
+  @Test
+  void testUtf16FindOnlyMatchesWholeCharacters() throws Exception {
+    File file = dir.resolve("utf16.txt").toFile();
+    // in UTF-16LE the bytes of \u4100\u4200\u2000 contain those of "AB" starting at the odd offset 1
+    Files.writeString(file.toPath(), "\u4100\u4200\u2000\nAB\n", StandardCharsets.UTF_16LE);
+    try (MappedTextFile text = new MappedTextFile(file, StandardCharsets.UTF_16LE)) {
+      text.buildLineIndex(null);
+      long offset = text.find("AB", 0);
+      assertEquals(8, offset);
+      assertEquals(1, text.lineOf(offset));
+      assertEquals(8, text.find("AB", 1));
+      assertEquals(-1, text.find("AB", 9));
+    }
+  }
+}
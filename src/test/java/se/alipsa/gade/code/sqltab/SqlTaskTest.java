@@ -0,0 +1,28 @@
+package se.alipsa.gade.code.sqltab;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlTaskTest {
+
+  @Test
+  void selectsBeforeTheFirstWriteRunInParallel() {
+    assertEquals(List.of(0, 2, 3), SqlTask.parallelSelects(new String[] {
+        "select * from a", " ", "select * from b", "with x as (select 1 as n) select n from x",
+        "update a set n = 1", "select * from c"
+    }));
+    assertEquals(List.of(1, 3), SqlTask.parallelSelects(new String[] {"", "select 1", "\n", "select 2"}));
+    assertEquals(List.of(), SqlTask.parallelSelects(new String[] {"insert into a values (1)", "select * from a"}));
+    assertEquals(List.of(0), SqlTask.parallelSelects(new String[] {"select * from a", "select * into b from a"}));
+    assertEquals(List.of(), SqlTask.parallelSelects(new String[] {" ", ""}));
+  }
+
+  @Test
+  void resultsAreLabelledWithTheStatementNumber() {
+    assertEquals("query.sql 1.", SqlTask.resultLabel("query.sql", 0));
+    assertEquals("query.sql 4.", SqlTask.resultLabel("query.sql", 3));
+  }
+}
@@ -0,0 +1,64 @@
+package se.alipsa.gade.console;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.gade.runner.RunnerHealth;
+
+class RunnerHealthMonitorTest {
+
+  private static final long MB = 1024 * 1024;
+
+  private static RunnerHealth health(long heapUsedMb, long gcCount, long gcMillis) {
+    return new RunnerHealth(heapUsedMb * MB, 1000 * MB, 1000 * MB, 50 * MB, gcCount, gcMillis, 20, 100);
+  }
+
+  @Test
+  void heapAlertIsRaisedOnceUntilTheHeapDropsWellBelowTheThreshold() {
+    RunnerHealthMonitor monitor = new RunnerHealthMonitor(85, 0);
+    assertTrue(monitor.update(health(500, 0, 0), 1000).isEmpty());
+    List<String> alerts = monitor.update(health(900, 0, 0), 2000);
+    assertEquals(1, alerts.size());
+    assertTrue(alerts.get(0).startsWith("Runner heap is at 90% of max"), alerts.get(0));
+    assertTrue(monitor.isHeapAlert());
+    // still high, or just below the threshold: no new alert
+    assertTrue(monitor.update(health(950, 0, 0), 3000).isEmpty());
+    assertTrue(monitor.update(health(800, 0, 0), 4000).isEmpty());
+    assertTrue(monitor.update(health(900, 0, 0), 5000).isEmpty());
+    // dropped below the threshold minus the margin, so the next crossing alerts again
+    assertTrue(monitor.update(health(600, 0, 0), 6000).isEmpty());
+    assertFalse(monitor.isHeapAlert());
+    assertEquals(1, monitor.update(health(880, 0, 0), 7000).size());
+  }
+
+  @Test
+  void gcAlertUsesTheGcTimeBetweenHeartbeats() {
+    RunnerHealthMonitor monitor = new RunnerHealthMonitor(0, 50);
+    assertTrue(monitor.update(health(100, 10, 1000), 1000).isEmpty());
+    assertTrue(monitor.update(health(100, 12, 1200), 2000).isEmpty());
+    assertEquals(20, monitor.getGcPercent(), 0.001);
+    List<String> alerts = monitor.update(health(100, 20, 1900), 3000);
+    assertEquals(70, monitor.getGcPercent(), 0.001);
+    assertEquals(1, alerts.size());
+    assertTrue(alerts.get(0).contains("70% of the last 1.0 s"), alerts.get(0));
+    // a restarted runner starts its GC counters from 0
+    assertTrue(monitor.update(health(100, 0, 0), 4000).isEmpty());
+    assertEquals(0, monitor.getGcPercent(), 0.001);
+  }
+
+  @Test
+  void missingHeartbeatsMakeTheMonitorStale() {
+    RunnerHealthMonitor monitor = new RunnerHealthMonitor();
+    assertFalse(monitor.isStale(10_000, 1000));
+    monitor.update(health(100, 0, 0), 1000);
+    assertFalse(monitor.isStale(3000, 1000));
+    assertTrue(monitor.isStale(7000, 1000));
+    assertEquals(6000, monitor.millisSinceLast(7000));
+    monitor.reset();
+    assertFalse(monitor.isStale(7000, 1000));
+  }
+}
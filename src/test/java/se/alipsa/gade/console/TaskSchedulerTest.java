@@ -0,0 +1,191 @@
+package se.alipsa.gade.console;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskSchedulerTest {
+
+  private final TaskScheduler scheduler = new TaskScheduler(() -> null);
+
+  @Test
+  void tasksInALaneRunOneAtATimeInOrder() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    List<String> order = new CopyOnWriteArrayList<>();
+    scheduler.submit("lane", "first", () -> {
+      await(release);
+      order.add("first");
+      done.countDown();
+    });
+    scheduler.submit("lane", "second", () -> {
+      order.add("second");
+      done.countDown();
+    });
+    scheduler.submit("lane", "third", () -> {
+      order.add("third");
+      done.countDown();
+    });
+    TaskScheduler.LaneStats stats = scheduler.stats().get(0);
+    assertTrue(stats.busy());
+    assertEquals(2, stats.queued());
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("first", "second", "third"), order);
+  }
+
+  @Test
+  void otherLanesAreNotBlocked() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch otherDone = new CountDownLatch(1);
+    scheduler.submit(TaskScheduler.RUNNER_LANE, "long script", () -> await(release));
+    scheduler.submit(TaskScheduler.jdbcLane("db"), "query", otherDone::countDown);
+    assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  void waitingDuplicatesAreCoalesced() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    List<String> runs = new CopyOnWriteArrayList<>();
+    scheduler.submit("lane", "script", () -> await(release));
+    TaskScheduler.Ticket first = scheduler.submit("lane", "refresh", "refresh 1", () -> runs.add("refresh 1"));
+    TaskScheduler.Ticket second = scheduler.submit("lane", "refresh", "refresh 2", () -> runs.add("refresh 2"));
+    assertSame(first, second);
+    scheduler.submit("lane", "end", done::countDown);
+
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("refresh 1"), runs);
+    awaitIdle();
+    TaskScheduler.LaneStats stats = scheduler.stats().get(0);
+    assertEquals(4, stats.submitted());
+    assertEquals(1, stats.coalesced());
+    assertEquals(3, stats.completed());
+  }
+
+  @Test
+  void cancelDiscardsWaitingAndInterruptsRunningTasks() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    AtomicBoolean discarded = new AtomicBoolean();
+    AtomicBoolean ran = new AtomicBoolean();
+    TaskScheduler.Ticket running = scheduler.submit("lane", "running", () -> {
+      started.countDown();
+      try {
+        Thread.sleep(10_000);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+    });
+    TaskScheduler.Ticket waiting = scheduler.submit("lane", "waiting", new TaskScheduler.Job() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+
+      @Override
+      public void onDiscard() {
+        discarded.set(true);
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(scheduler.isBusy());
+
+    assertEquals(2, scheduler.cancelAll());
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    assertTrue(discarded.get());
+    assertTrue(waiting.isCancelled());
+    assertTrue(running.isCancelled());
+    assertFalse(waiting.cancel(), "already cancelled");
+
+    CountDownLatch next = new CountDownLatch(1);
+    scheduler.submit("lane", "next", next::countDown);
+    assertTrue(next.await(5, TimeUnit.SECONDS));
+    assertFalse(ran.get());
+  }
+
+  @Test
+  void jobsAreToldWhenTheyReallyStartAndEnd() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch firstEnded = new CountDownLatch(1);
+    CountDownLatch fourthEnded = new CountDownLatch(1);
+    CountDownLatch never = new CountDownLatch(1);
+    List<String> events = new CopyOnWriteArrayList<>();
+    scheduler.submit("lane", "first", recording("first", events, firstEnded, () -> {
+      started.countDown();
+      try {
+        Thread.sleep(10_000);
+      } catch (InterruptedException e) {
+        events.add("interrupted first");
+      }
+    }));
+    TaskScheduler.Ticket waiting = scheduler.submit("lane", "second", recording("second", events, never, () -> {}));
+    scheduler.submit("lane", "third", recording("third", events, never, () -> {}));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("start first"), events, "waiting jobs are not started");
+
+    waiting.cancel();
+    scheduler.cancelAll();
+    assertTrue(firstEnded.await(5, TimeUnit.SECONDS));
+    scheduler.submit("lane", "fourth", recording("fourth", events, fourthEnded, () -> {}));
+    assertTrue(fourthEnded.await(5, TimeUnit.SECONDS));
+    assertEquals(1, never.getCount(), "discarded jobs never end");
+    assertEquals(List.of("start first", "discard second", "discard third", "interrupt first", "interrupted first",
+        "end first", "start fourth", "end fourth"), events);
+    assertTrue(scheduler.stats().get(0).summary().startsWith("lane: idle, 0 waiting, 2 done, 3 cancelled"));
+  }
+
+  private static TaskScheduler.Job recording(String name, List<String> events, CountDownLatch ended, Runnable work) {
+    return new TaskScheduler.Job() {
+      @Override
+      public void run() {
+        work.run();
+      }
+
+      @Override
+      public void onStart() {
+        events.add("start " + name);
+      }
+
+      @Override
+      public void onEnd() {
+        events.add("end " + name);
+        ended.countDown();
+      }
+
+      @Override
+      public void onDiscard() {
+        events.add("discard " + name);
+      }
+
+      @Override
+      public void onInterrupt() {
+        events.add("interrupt " + name);
+      }
+    };
+  }
+
+  private void awaitIdle() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (scheduler.isBusy() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
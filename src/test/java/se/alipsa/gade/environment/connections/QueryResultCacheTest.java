@@ -0,0 +1,170 @@
+package se.alipsa.gade.environment.connections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.groovy.datautil.ConnectionInfo;
+import se.alipsa.matrix.core.Matrix;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryResultCacheTest {
+
+  @TempDir
+  Path dir;
+
+  private final TestClock clock = new TestClock();
+
+  private static ConnectionInfo connection(String user) {
+    ConnectionInfo ci = new ConnectionInfo();
+    ci.setName("test");
+    ci.setDriver("org.h2.Driver");
+    ci.setUrl("jdbc:h2:mem:testdb");
+    ci.setUser(user);
+    return ci;
+  }
+
+  private static Matrix table(int rows) {
+    List<List> data = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      data.add(Arrays.asList(i, "name " + i));
+    }
+    return Matrix.builder()
+        .matrixName("t")
+        .columnNames("id", "name")
+        .rows(data)
+        .types(Arrays.asList(Integer.class, String.class))
+        .build();
+  }
+
+  @Test
+  void queriesAreNormalizedAndOnlyReadOnlyQueriesAreCacheable() {
+    assertEquals("select * from t where name = 'a  -- b'",
+        QueryResultCache.normalize("  select *\n  from t -- all of it\n where /* hint */ name = 'a  -- b' ;\n"));
+    assertEquals(QueryResultCache.normalize("SELECT id FROM t"), QueryResultCache.normalize("SELECT  id\n\tFROM t;"));
+    assertNotEquals(QueryResultCache.normalize("select 'A'"), QueryResultCache.normalize("select 'a'"));
+    assertTrue(QueryResultCache.isCacheable("with x as (select 1 as n) select n from x"));
+    assertTrue(QueryResultCache.isCacheable("select \"update\" from t"));
+
+    assertFalse(QueryResultCache.isCacheable("insert into t values (1)"));
+    assertFalse(QueryResultCache.isCacheable("select * into t2 from t"));
+    assertFalse(QueryResultCache.isCacheable("select * from t for update"));
+    assertFalse(QueryResultCache.isCacheable("with x as (delete from t returning *) select * from x"));
+    assertFalse(QueryResultCache.isCacheable("select 1; select 2"));
+    assertFalse(QueryResultCache.isCacheable("exec sp_who"));
+    assertFalse(QueryResultCache.isCacheable(""));
+  }
+
+  @Test
+  void resultsAreKeyedByConnectionQueryAndRowLimit() {
+    QueryResultCache cache = new QueryResultCache(dir, clock);
+    assertNull(cache.get(connection("sa"), "select * from t", 0), "the cache is off until configured");
+    cache.put(connection("sa"), "select * from t", 0, table(3));
+    assertEquals(0, cache.size());
+
+    cache.configure(10, 0, 60);
+    Matrix result = table(3);
+    cache.put(connection("sa"), "select * from t", 0, result);
+    QueryResultCache.Hit hit = cache.get(connection("sa"), "select *\nfrom t;", 0);
+    assertNotNull(hit);
+    assertNotSame(result, hit.result());
+    assertEquals(result.columnNames(), hit.result().columnNames());
+    assertEquals(result.types(), hit.result().types());
+    assertEquals("name 2", (Object) hit.result().getAt(2, 1));
+    assertFalse(hit.fromDisk());
+    assertNotSame(hit.result(), cache.get(connection("sa"), "select * from t", 0).result(),
+        "every hit gets a copy of its own");
+    assertTrue(hit.describe(clock).startsWith("Cached result from"), hit.describe(clock));
+
+    assertNull(cache.get(connection("other"), "select * from t", 0));
+    assertNull(cache.get(connection("sa"), "select * from t", 200));
+    assertNull(cache.get(null, "select * from t", 0));
+
+    cache.put(connection("sa"), "delete from t", 0, table(1));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  void resultsExpireAndCanBeInvalidated() {
+    QueryResultCache cache = new QueryResultCache(dir, clock);
+    cache.configure(10, 0, 5);
+    cache.put(connection("sa"), "select * from t", 0, table(3));
+    cache.put(connection("other"), "select * from t", 0, table(3));
+
+    clock.advance(Duration.ofMinutes(4));
+    assertNotNull(cache.get(connection("sa"), "select * from t", 0));
+    clock.advance(Duration.ofMinutes(2));
+    assertNull(cache.get(connection("sa"), "select * from t", 0));
+
+    cache.configure(10, 0, 0);
+    assertNotNull(cache.get(connection("other"), "select * from t", 0), "0 minutes keeps results");
+    cache.invalidate(connection("other"));
+    assertNull(cache.get(connection("other"), "select * from t", 0));
+    assertEquals(0, cache.memoryBytes());
+  }
+
+  @Test
+  void leastRecentlyUsedResultsAreMovedToDiskAndRead() throws Exception {
+    QueryResultCache cache = new QueryResultCache(dir, clock);
+    cache.configure(1, 10, 60);
+    Matrix big = table(5000);
+    long bytes = QueryResultCache.estimateBytes(big);
+    assertTrue(bytes > 1024 * 1024 / 3 && bytes < 1024 * 1024 / 2, "estimate " + bytes);
+
+    cache.put(connection("sa"), "select 1 from t", 0, table(5000));
+    cache.put(connection("sa"), "select 2 from t", 0, table(5000));
+    // uses the first one so that the second is the least recently used
+    assertNotNull(cache.get(connection("sa"), "select 1 from t", 0));
+    cache.put(connection("sa"), "select 3 from t", 0, table(5000));
+
+    assertTrue(cache.memoryBytes() <= 1024 * 1024);
+    assertTrue(cache.diskBytes() > 0);
+    QueryResultCache.Hit hit = cache.get(connection("sa"), "select 2 from t", 0);
+    assertNotNull(hit);
+    assertTrue(hit.fromDisk());
+    assertEquals(5000, hit.result().rowCount());
+    assertEquals(List.of("id", "name"), hit.result().columnNames());
+    assertEquals("name 4999", (Object) hit.result().getAt(4999, 1));
+    assertFalse(cache.get(connection("sa"), "select 1 from t", 0).fromDisk());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(0, files.count(), "the results on disk are deleted");
+    }
+  }
+
+  private static final class TestClock extends Clock {
+    private Instant now = Instant.parse("2026-01-01T10:00:00Z");
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package se.alipsa.gade.inout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+class FileTreeFilterTest {
+
+  private final File root = new File("project").getAbsoluteFile();
+
+  @Test
+  void testNamePatternsMatchAtAnyDepth() {
+    FileTreeFilter filter = new FileTreeFilter("node_modules, *.class");
+    assertFalse(filter.accept(root, new File(root, "node_modules")));
+    assertFalse(filter.accept(root, new File(root, "web/app/node_modules")));
+    assertFalse(filter.accept(root, new File(root, "build/classes/Foo.class")));
+    assertTrue(filter.accept(root, new File(root, "src/Foo.groovy")));
+  }
+
+  @Test
+  void testPathPatternsAreRelativeToRoot() {
+    FileTreeFilter filter = new FileTreeFilter("data/raw/**");
+    assertFalse(filter.accept(root, new File(root, "data/raw/2024/sales.csv")));
+    assertTrue(filter.accept(root, new File(root, "data/raw")));
+    assertTrue(filter.accept(root, new File(root, "data/clean/sales.csv")));
+    assertTrue(filter.accept(root, new File(root, "other/data/raw/sales.csv")));
+  }
+
+  @Test
+  void testEmptyAndDefaultExcludes() {
+    FileTreeFilter empty = new FileTreeFilter(" , ");
+    assertTrue(empty.getPatterns().isEmpty());
+    assertTrue(empty.accept(root, new File(root, ".git")));
+    assertTrue(new FileTreeFilter(null).accept(root, new File(root, ".git")));
+
+    FileTreeFilter defaults = new FileTreeFilter(FileTreeFilter.DEFAULT_EXCLUDES);
+    assertEquals(4, defaults.getPatterns().size());
+    assertFalse(defaults.accept(root, new File(root, ".git")));
+    assertTrue(defaults.accept(root, new File(root, ".gitignore")));
+  }
+}
@@ -0,0 +1,121 @@
+package se.alipsa.gade.inout.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.gade.inout.FileTreeFilter;
+
+class ProjectIndexTest {
+
+  @Test
+  void findsTextAndSymbols(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("report.groovy"), """
+        import tech.tablesaw.api.Table
+
+        class SalesReport {
+          def summarize(Table table) {
+            table.summarize('amount', sum).by('region')
+          }
+        }
+        def total = 42
+        """);
+    Files.createDirectories(dir.resolve("sql"));
+    Files.writeString(dir.resolve("sql/schema.sql"), """
+        CREATE TABLE IF NOT EXISTS sales (region varchar(20), amount decimal);
+        create or replace view sales_by_region as select region, sum(amount) from sales group by region;
+        """);
+    Files.createDirectories(dir.resolve("build"));
+    Files.writeString(dir.resolve("build/generated.groovy"), "class SalesReport {}");
+    Files.write(dir.resolve("image.png"), new byte[]{1, 2, 3});
+
+    try (ProjectIndex index = new ProjectIndex(dir, new FileTreeFilter(FileTreeFilter.DEFAULT_EXCLUDES), null)) {
+      index.start(false).get(10, TimeUnit.SECONDS);
+      assertEquals(2, index.fileCount());
+
+      ProjectIndex.SearchResult result = index.search("REGION", false, false, 100);
+      assertEquals(3, result.matches().size(), result.matches().toString());
+      ProjectIndex.Match first = result.matches().get(0);
+      assertEquals("report.groovy", first.path());
+      assertEquals(5, first.line());
+
+      assertEquals(0, index.search("REGION", false, true, 100).matches().size());
+      assertEquals(0, index.search("nothing here", false, false, 100).candidates());
+
+      ProjectIndex.SearchResult regex = index.search("sum\\(amount\\)\\s+from", true, false, 100);
+      assertEquals(1, regex.matches().size());
+      assertEquals("sql/schema.sql", regex.matches().get(0).path());
+      assertEquals(1, regex.candidates());
+      assertEquals(2, index.search("^create", true, false, 100).matches().size(), "^ matches at each line start");
+      ProjectIndex.SearchResult lineEnd = index.search("region;$", true, false, 100);
+      assertEquals(1, lineEnd.matches().size());
+      assertEquals(2, lineEnd.matches().get(0).line());
+
+      List<ProjectIndex.Symbol> symbols = index.findSymbols("sales", 10);
+      assertEquals(List.of("sales", "SalesReport", "sales_by_region"),
+          symbols.stream().map(ProjectIndex.Symbol::name).toList());
+      assertEquals("table", symbols.get(0).kind());
+      assertEquals("method", index.findSymbols("summ", 10).get(0).kind());
+      assertEquals("variable", index.findSymbols("total", 10).get(0).kind());
+    }
+  }
+
+  @Test
+  void updatesAndPersists(@TempDir Path dir, @TempDir Path cache) throws Exception {
+    Path cacheFile = cache.resolve("test.idx");
+    Path script = dir.resolve("a.groovy");
+    Files.writeString(script, "println 'first version'\n");
+    Files.writeString(dir.resolve("b.sql"), "select 1\n");
+    try (ProjectIndex index = new ProjectIndex(dir, null, cacheFile)) {
+      index.start(false).get(10, TimeUnit.SECONDS);
+      assertEquals(1, index.search("first", false, false, 10).matches().size());
+
+      Files.writeString(script, "println 'second version, a bit longer'\n");
+      Files.delete(dir.resolve("b.sql"));
+      index.refresh(dir).get(10, TimeUnit.SECONDS);
+      assertEquals(0, index.search("first", false, false, 10).matches().size());
+      assertEquals(1, index.search("second", false, false, 10).matches().size());
+      assertEquals(1, index.fileCount());
+    }
+    assertTrue(Files.isRegularFile(cacheFile));
+
+    try (ProjectIndex reopened = new ProjectIndex(dir, null, cacheFile)) {
+      reopened.start(false).get(10, TimeUnit.SECONDS);
+      assertEquals(1, reopened.fileCount());
+      assertEquals(1, reopened.search("longer", false, false, 10).matches().size());
+    }
+  }
+
+  @Test
+  void overflowSyncsEverythingBelowTheRoot(@TempDir Path dir) throws Exception {
+    Files.writeString(dir.resolve("top.groovy"), "println 'top'\n");
+    try (ProjectIndex index = new ProjectIndex(dir, null, null)) {
+      index.start(false).get(10, TimeUnit.SECONDS);
+      Path nested = Files.createDirectories(dir.resolve("a/b"));
+      Files.writeString(nested.resolve("deep.groovy"), "println 'lost event'\n");
+
+      index.directoriesChanged(Set.of(dir), false).get(10, TimeUnit.SECONDS);
+      assertEquals(0, index.search("lost event", false, false, 10).matches().size(),
+          "only the files of the root are synced for a change event");
+      index.directoriesChanged(Set.of(dir), true).get(10, TimeUnit.SECONDS);
+      assertEquals(1, index.search("lost event", false, false, 10).matches().size());
+    }
+  }
+
+  @Test
+  void requiredLiterals() {
+    assertEquals(List.of("select", "from"), ProjectIndex.requiredLiterals("select\\s+.*from"));
+    assertEquals(List.of("foo.bar"), ProjectIndex.requiredLiterals("foo\\.bar"));
+    assertEquals(List.of("abc"), ProjectIndex.requiredLiterals("abcd?"));
+    assertEquals(List.of(), ProjectIndex.requiredLiterals("foo|bar"));
+    assertEquals(List.of(), ProjectIndex.requiredLiterals("(foobar)?x"));
+    assertEquals(List.of("count"), ProjectIndex.requiredLiterals("(?i)count[0-9]+"));
+  }
+}
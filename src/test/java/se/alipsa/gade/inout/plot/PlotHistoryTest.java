@@ -0,0 +1,62 @@
+package se.alipsa.gade.inout.plot;
+
+import javafx.scene.shape.Rectangle;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlotHistoryTest {
+
+  @TempDir
+  Path spillDir;
+
+  @Test
+  void oldPlotsReleaseTheirNodeOnceRasterized() {
+    PlotHistory history = new PlotHistory(2, 10, 1024, spillDir);
+    PlotHistory.Entry first = history.add("first", new Rectangle());
+    history.add("second", new Rectangle());
+    history.add("third", new Rectangle());
+    assertEquals(3, history.liveCount(), "a plot that is not rasterized keeps its node");
+
+    history.storeRaster(first, new byte[]{1, 2, 3});
+    assertEquals(2, history.liveCount());
+    assertNull(first.getNode());
+    assertArrayEquals(new byte[]{1, 2, 3}, history.getRaster(first));
+  }
+
+  @Test
+  void oldestPlotsAreDroppedWhenTheHistoryIsFull() {
+    PlotHistory history = new PlotHistory(1, 3, 1024, spillDir);
+    for (int i = 1; i <= 4; i++) {
+      history.add("plot " + i, null);
+    }
+    assertEquals(List.of("plot 2", "plot 3", "plot 4"),
+        history.getEntries().stream().map(PlotHistory.Entry::getTitle).toList());
+  }
+
+  @Test
+  void rastersBeyondTheMemoryBudgetAreSpilledToDisk() throws Exception {
+    PlotHistory history = new PlotHistory(1, 10, 10, spillDir);
+    PlotHistory.Entry first = history.add("first", null);
+    PlotHistory.Entry second = history.add("second", null);
+    history.storeRaster(first, new byte[8]);
+    history.storeRaster(second, new byte[]{1, 1, 1, 1, 1, 1, 1, 1});
+
+    assertEquals(8, history.getMemoryUsed());
+    try (var files = Files.list(spillDir)) {
+      assertEquals(1, files.count());
+    }
+    assertArrayEquals(new byte[8], history.getRaster(first), "spilled rasters are read back from disk");
+
+    history.clear();
+    assertEquals(0, history.getMemoryUsed());
+    try (var files = Files.list(spillDir)) {
+      assertEquals(0, files.count());
+    }
+  }
+}
@@ -170,14 +170,14 @@ class ArgumentSerializerTest {
 
     Map<String, Object> map = (Map<String, Object>) serialized;
     assertEquals("image", map.get("_type"), "Type should be image");
-    assertTrue(map.containsKey("data"), "Should contain base64 data");
+    assertEquals("raw-argb-deflate", map.get("encoding"), "Default encoding should be deflated raw pixels");
+    assertTrue(map.containsKey("chunks"), "Should contain base64 chunks");
     assertEquals(100, map.get("width"), "Width should match");
     assertEquals(100, map.get("height"), "Height should match");
 
-    // Verify base64 data is valid
-    String base64 = (String) map.get("data");
-    assertNotNull(base64, "Base64 data should not be null");
-    assertTrue(base64.length() > 0, "Base64 data should not be empty");
+    // Verify the pixels survive the round trip
+    BufferedImage decoded = ImageTransfer.decode(map);
+    assertEquals(java.awt.Color.BLUE.getRGB(), decoded.getRGB(50, 50), "Pixel should match");
   }
 
   @Test
@@ -197,7 +197,7 @@ class ArgumentSerializerTest {
 
     Map<String, Object> map = (Map<String, Object>) serialized;
     assertEquals("image", map.get("_type"), "Type should be image");
-    assertTrue(map.containsKey("data"), "Should contain base64 data");
+    assertTrue(map.containsKey("chunks"), "Should contain base64 chunks");
     assertEquals(50, map.get("width"), "Width should match");
     assertEquals(50, map.get("height"), "Height should match");
   }
@@ -279,7 +279,7 @@ class ArgumentSerializerTest {
 
     Map<String, Object> map = (Map<String, Object>) serialized[0];
     assertEquals("image", map.get("_type"), "Type should be image (Node rendered to image)");
-    assertTrue(map.containsKey("data"), "Should contain base64 data");
+    assertTrue(map.containsKey("chunks"), "Should contain base64 chunks");
   }
 
   @Test
@@ -0,0 +1,96 @@
+package se.alipsa.gade.runner;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.matrix.core.Matrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BindingSummarizerTest {
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> changed(Map<String, Object> summary) {
+    return (Map<String, Object>) summary.get("changed");
+  }
+
+  @Test
+  void onlyChangedVariablesAreSent() {
+    BindingSummarizer summarizer = new BindingSummarizer();
+    List<Integer> numbers = new ArrayList<>(List.of(1, 2, 3));
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("a", "hello");
+    vars.put("numbers", numbers);
+
+    assertEquals(2, changed(summarizer.summarize(vars, false)).size());
+    assertTrue(changed(summarizer.summarize(vars, false)).isEmpty(), "nothing changed");
+
+    numbers.add(4);
+    vars.put("a", "world");
+    Map<String, Object> summary = summarizer.summarize(vars, false);
+    assertEquals(List.of("a", "numbers"), new ArrayList<>(changed(summary).keySet()));
+
+    vars.remove("a");
+    summary = summarizer.summarize(vars, false);
+    assertTrue(changed(summary).isEmpty());
+    assertEquals(List.of("a"), summary.get("removed"));
+
+    assertEquals(1, changed(summarizer.summarize(vars, true)).size(), "full summary includes everything");
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void previewIsBounded() {
+    List<Integer> big = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      big.add(i);
+    }
+    Map<String, Object> summary = BindingSummarizer.summary(big);
+    assertEquals("ArrayList", summary.get("type"));
+    assertEquals("100000 elements", summary.get("size"));
+    assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, ...]", summary.get("preview"));
+
+    String longText = "x".repeat(10_000);
+    String preview = (String) BindingSummarizer.summary(longText).get("preview");
+    assertEquals(BindingSummarizer.PREVIEW_LENGTH + 3, preview.length());
+
+    String nested = (String) BindingSummarizer.summary(Map.of("key", new ArrayList<>(List.of(1, 2)))).get("preview");
+    assertEquals("[key:ArrayList(2 elements)]", nested);
+  }
+
+  @Test
+  void matrixSummary() {
+    Matrix m = Matrix.builder()
+        .matrixName("numbers")
+        .columnNames("id", "name")
+        .rows(Arrays.asList(
+            Arrays.asList(1, "a"),
+            Arrays.asList(2, "b"),
+            Arrays.asList(3, "c")
+        ))
+        .types(Arrays.asList(Integer.class, String.class))
+        .build();
+    Map<String, Object> summary = BindingSummarizer.summary(m);
+    assertEquals("Matrix", summary.get("type"));
+    assertEquals("3 x 2", summary.get("size"));
+    assertTrue(((String) summary.get("preview")).startsWith("numbers: "));
+
+    String full = BindingSummarizer.render(m, 10_000);
+    assertEquals(4, full.split("\n").length, "header and one line per row");
+  }
+
+  @Test
+  void renderStopsAtMaxChars() {
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      values.add("value" + i);
+    }
+    String text = BindingSummarizer.render(values, 50);
+    assertEquals(53, text.length());
+    assertTrue(text.endsWith("..."));
+  }
+}
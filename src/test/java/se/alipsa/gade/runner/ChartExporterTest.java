@@ -0,0 +1,141 @@
+package se.alipsa.gade.runner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.knowm.xchart.XYChart;
+import org.knowm.xchart.XYChartBuilder;
+
+class ChartExporterTest {
+
+  @Test
+  void savesImagesInOrderAndReportsFailures(@TempDir File tempDir) throws Exception {
+    List<Object> charts = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      charts.add(new BufferedImage(10 + i, 10, BufferedImage.TYPE_INT_RGB));
+    }
+    charts.add("not a chart");
+
+    ChartExporter.Report report = ChartExporter.saveAll(charts, new File(tempDir, "out"), "PNG", 100, 100)
+        .get(30, TimeUnit.SECONDS);
+
+    assertEquals(20, report.files().size());
+    assertEquals(1, report.failures().size());
+    assertTrue(report.failures().get(0).startsWith("chart-0021.png"), report.failures().get(0));
+    File first = report.files().get(0);
+    assertEquals("chart-0001.png", first.getName());
+    assertEquals(10, ImageIO.read(first).getWidth());
+    assertEquals(29, ImageIO.read(report.files().get(19)).getWidth());
+    assertTrue(report.toString().contains("20 charts"), report.toString());
+  }
+
+  @Test
+  void imagesCannotBeSavedAsSvg(@TempDir File tempDir) throws Exception {
+    ChartExporter.Report report = ChartExporter.saveAll(
+        List.of(new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB)), tempDir, "svg", 100, 100).get();
+    assertEquals(0, report.files().size());
+    assertEquals(1, report.failures().size());
+  }
+
+  @Test
+  void unknownFormatIsRejected(@TempDir File tempDir) {
+    assertThrows(IllegalArgumentException.class, () -> ChartExporter.saveAll(List.of(), tempDir, "gif", 1, 1));
+  }
+
+  @Test
+  void savesXChartsAsPngAndSvg(@TempDir File tempDir) throws Exception {
+    List<XYChart> charts = List.of(xchart(), xchart());
+    assertTrue(ChartExporter.canExportSvg(charts.get(0)));
+
+    ChartExporter.Report png = ChartExporter.saveAll(charts, new File(tempDir, "png"), "png", 10, 10)
+        .get(30, TimeUnit.SECONDS);
+    assertEquals(List.of(), png.failures());
+    assertEquals(2, png.files().size());
+    assertEquals(120, ImageIO.read(png.files().get(0)).getWidth(), "xcharts have their own size");
+
+    ChartExporter.Report svg = ChartExporter.saveAll(charts, new File(tempDir, "svg"), "svg", 10, 10)
+        .get(30, TimeUnit.SECONDS);
+    assertEquals(List.of(), svg.failures());
+    assertEquals("chart-0002.svg", svg.files().get(1).getName());
+    assertTrue(Files.readString(svg.files().get(0).toPath()).contains("<svg"));
+  }
+
+  @Test
+  void savesMatrixChartsThroughPlot(@TempDir File tempDir) throws Exception {
+    try (URLClassLoader loader = matrixChartsStub(tempDir)) {
+      Object chart = loader.loadClass("se.alipsa.matrix.charts.BarChart").getConstructor().newInstance();
+      assertTrue(ChartExporter.canExportSvg(chart));
+
+      ChartExporter.Report png = ChartExporter.saveAll(List.of(chart), new File(tempDir, "png"), "png", 30, 20)
+          .get(30, TimeUnit.SECONDS);
+      assertEquals(List.of(), png.failures());
+      BufferedImage image = ImageIO.read(png.files().get(0));
+      assertEquals(30, image.getWidth());
+      assertEquals(20, image.getHeight());
+
+      assertEquals("<svg id=\"stub\"/>", ChartExporter.toSvg(chart), "falls back to Plot.svg(chart) returning a String");
+    }
+  }
+
+  private static XYChart xchart() {
+    XYChart chart = new XYChartBuilder().width(120).height(80).title("Test").build();
+    chart.addSeries("values", new double[] {1, 2, 3}, new double[] {2, 4, 3});
+    return chart;
+  }
+
+  /**
+   * Compiles stand-ins for the matrix-charts Chart and Plot classes into a class loader of their own (the real Plot
+   * renders through JavaFX). ChartExporter finds them by name just like the real ones.
+   */
+  private static URLClassLoader matrixChartsStub(File tempDir) throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assumeTrue(compiler != null, "A JDK is needed to compile the matrix-charts stand-ins");
+    Path src = tempDir.toPath().resolve("stub-src");
+    Files.createDirectories(src);
+    Path chart = Files.writeString(src.resolve("Chart.java"),
+        "package se.alipsa.matrix.charts; public abstract class Chart {}");
+    Path barChart = Files.writeString(src.resolve("BarChart.java"),
+        "package se.alipsa.matrix.charts; public class BarChart extends Chart {}");
+    Path plot = Files.writeString(src.resolve("Plot.java"), """
+        package se.alipsa.matrix.charts;
+
+        import java.awt.image.BufferedImage;
+        import java.io.File;
+        import java.io.IOException;
+
+        public class Plot {
+          public static void png(Chart chart, File file, double width, double height) throws IOException {
+            javax.imageio.ImageIO.write(new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_RGB),
+                "png", file);
+          }
+
+          public static String svg(Chart chart) {
+            return "<svg id=\\"stub\\"/>";
+          }
+        }
+        """);
+    File classes = new File(tempDir, "stub-classes");
+    assertTrue(classes.mkdirs());
+    assertEquals(0, compiler.run(null, null, null, "-d", classes.getPath(),
+        chart.toString(), barChart.toString(), plot.toString()));
+    return new URLClassLoader(new URL[] {classes.toURI().toURL()}, ClassLoader.getPlatformClassLoader());
+  }
+}
@@ -0,0 +1,191 @@
+package se.alipsa.gade.runner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChildFirstGroovyClassLoaderTest {
+
+  @Test
+  void classesAndResourcesAreFoundInTheOwningJar(@TempDir Path dir) throws Exception {
+    Path cacheDir = dir.resolve("cache");
+    Path a = jar(dir.resolve("a.jar"), Map.of(
+        "org/a/One.class", classBytes("org/a/One"),
+        "shared/config.txt", "from a".getBytes(StandardCharsets.UTF_8)));
+    Path b = jar(dir.resolve("b.jar"), Map.of(
+        "org/b/Two.class", classBytes("org/b/Two"),
+        "org/a/One.class", classBytes("org/a/One"),
+        "shared/config.txt", "from b".getBytes(StandardCharsets.UTF_8)));
+
+    try (ChildFirstGroovyClassLoader loader = new ChildFirstGroovyClassLoader(getClass().getClassLoader(), true,
+        cacheDir)) {
+      loader.addURL(a.toUri().toURL());
+      loader.addURL(b.toUri().toURL());
+
+      Class<?> one = loader.loadClass("org.a.One");
+      assertSame(loader, one.getClassLoader());
+      assertEquals(a.toUri().toURL(), one.getProtectionDomain().getCodeSource().getLocation(),
+          "the first jar on the class path wins");
+      assertNotNull(one.getPackage());
+      assertSame(loader, loader.loadClass("org.b.Two").getClassLoader());
+
+      // not in any jar, found in the parent
+      assertSame(String.class, loader.loadClass("java.lang.String"));
+      assertSame(ChildFirstGroovyClassLoaderTest.class,
+          loader.loadClass(ChildFirstGroovyClassLoaderTest.class.getName()));
+      assertThrows(ClassNotFoundException.class, () -> loader.loadClass("org.a.Missing"));
+
+      assertEquals("from a", read(loader.findResource("shared/config.txt")));
+      List<URL> all = Collections.list(loader.findResources("shared/config.txt"));
+      assertEquals(2, all.size());
+      assertEquals("from b", read(all.get(1)));
+      assertNull(loader.findResource("shared/missing.txt"));
+    }
+    try (var files = Files.list(cacheDir)) {
+      assertEquals(1, files.filter(p -> p.toString().endsWith(".pkgs")).count(), "one index file for the jars added together");
+    }
+  }
+
+  @Test
+  void urlsAddedLaterAndDirectoriesAreSearched(@TempDir Path dir) throws Exception {
+    Path classesDir = dir.resolve("classes");
+    Files.createDirectories(classesDir.resolve("org/d"));
+    Files.write(classesDir.resolve("org/d/Three.class"), classBytes("org/d/Three"));
+    Path c = jar(dir.resolve("c.jar"), Map.of("org/c/Four.class", classBytes("org/c/Four")));
+
+    try (ChildFirstGroovyClassLoader loader = new ChildFirstGroovyClassLoader(getClass().getClassLoader(), true,
+        null)) {
+      loader.addURL(classesDir.toUri().toURL());
+      assertSame(loader, loader.loadClass("org.d.Three").getClassLoader());
+      assertThrows(ClassNotFoundException.class, () -> loader.loadClass("org.c.Four"));
+
+      // e.g. a @Grab after the first script
+      loader.addURL(c.toUri().toURL());
+      assertSame(loader, loader.loadClass("org.c.Four").getClassLoader());
+
+      // compiled after the loader was created
+      Files.write(classesDir.resolve("org/d/Five.class"), classBytes("org/d/Five"));
+      assertSame(loader, loader.loadClass("org.d.Five").getClassLoader());
+    }
+  }
+
+  @Test
+  void indexIsCachedByJarFingerprint(@TempDir Path dir) throws Exception {
+    Path cacheDir = dir.resolve("cache");
+    Path jar = jar(dir.resolve("lib.jar"), Map.of(
+        "x/y/Z.class", classBytes("x/y/Z"),
+        "Root.class", classBytes("Root"),
+        "META-INF/versions/17/x/v/V.class", classBytes("x/v/V")));
+    Path other = jar(dir.resolve("other.jar"), Map.of("o/O.class", classBytes("o/O")));
+    List<File> jars = List.of(jar.toFile(), other.toFile());
+    List<Set<String>> packages = JarPackageIndex.packagesOf(jars, cacheDir);
+    assertTrue(packages.get(0).containsAll(Set.of("x/y", "", "x/v")), packages.toString());
+    assertEquals(Set.of("o"), packages.get(1));
+    Path cacheFile = JarPackageIndex.cacheFile(cacheDir, jars);
+    assertTrue(Files.isRegularFile(cacheFile));
+
+    // the cached lists are used as long as the jars are unchanged
+    Files.writeString(cacheFile, "gade-jar-index 2\n@" + JarPackageIndex.fingerprint(jar.toFile()) + "\nfrom/cache\n@"
+        + JarPackageIndex.fingerprint(other.toFile()) + "\nother/cache\n");
+    assertEquals(List.of(Set.of("from/cache"), Set.of("other/cache")), JarPackageIndex.packagesOf(jars, cacheDir));
+
+    // a rebuilt jar has another fingerprint (size and modification time), the other jar is not read again
+    jar(jar, Map.of("p/Q.class", classBytes("p/Q"), "extra/file.txt", new byte[10]));
+    assertEquals(List.of(Set.of("p", "extra"), Set.of("other/cache")), JarPackageIndex.packagesOf(jars, cacheDir));
+    assertEquals(List.of(Set.of("p", "extra"), Set.of("other/cache")), JarPackageIndex.packagesOf(jars, cacheDir));
+  }
+
+  @Test
+  void jarsAreFoundInTheCacheOfAnotherListAndUnusedCachesArePruned(@TempDir Path dir) throws Exception {
+    Path cacheDir = dir.resolve("cache");
+    Path jar = jar(dir.resolve("lib.jar"), Map.of("x/Y.class", classBytes("x/Y")));
+    Path other = jar(dir.resolve("other.jar"), Map.of("o/O.class", classBytes("o/O")));
+    Path upgraded = jar(dir.resolve("other-2.jar"), Map.of("o2/O.class", classBytes("o2/O")));
+    List<File> jars = List.of(jar.toFile(), other.toFile());
+    JarPackageIndex.packagesOf(jars, cacheDir);
+    Path cacheFile = JarPackageIndex.cacheFile(cacheDir, jars);
+    Files.writeString(cacheFile, "gade-jar-index 2\n@" + JarPackageIndex.fingerprint(jar.toFile()) + "\nfrom/cache\n");
+    Files.setLastModifiedTime(cacheFile, FileTime.from(Instant.now()
+        .minus(Duration.ofDays(JarPackageIndex.MAX_AGE_DAYS + 1))));
+
+    List<File> upgradedJars = List.of(jar.toFile(), upgraded.toFile());
+    assertEquals(List.of(Set.of("from/cache"), Set.of("o2")), JarPackageIndex.packagesOf(upgradedJars, cacheDir));
+    assertFalse(Files.exists(cacheFile), "not used for " + JarPackageIndex.MAX_AGE_DAYS + " days");
+    assertTrue(Files.isRegularFile(JarPackageIndex.cacheFile(cacheDir, upgradedJars)));
+  }
+
+  @Test
+  void indexCanBeTurnedOff(@TempDir Path dir) throws Exception {
+    Path a = jar(dir.resolve("a.jar"), Map.of("org/a/One.class", classBytes("org/a/One")));
+    try (ChildFirstGroovyClassLoader loader = new ChildFirstGroovyClassLoader(getClass().getClassLoader(), false,
+        null)) {
+      loader.addURL(a.toUri().toURL());
+      assertSame(loader, loader.loadClass("org.a.One").getClassLoader());
+      assertNotNull(loader.findResource("org/a/One.class"));
+    }
+  }
+
+  static Path jar(Path file, Map<String, byte[]> entries) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file); JarOutputStream jar = new JarOutputStream(out)) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        jar.putNextEntry(new JarEntry(entry.getKey()));
+        jar.write(entry.getValue());
+        jar.closeEntry();
+      }
+    }
+    return file;
+  }
+
+  /** @return the bytes of an empty public class (no constructor, which is fine for loading) */
+  static byte[] classBytes(String internalName) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0xCAFEBABE);
+    out.writeShort(0);
+    out.writeShort(52);
+    out.writeShort(5);
+    out.writeByte(1);
+    out.writeUTF(internalName);
+    out.writeByte(7);
+    out.writeShort(1);
+    out.writeByte(1);
+    out.writeUTF("java/lang/Object");
+    out.writeByte(7);
+    out.writeShort(3);
+    out.writeShort(0x0021);
+    out.writeShort(2);
+    out.writeShort(4);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    out.writeShort(0);
+    return bytes.toByteArray();
+  }
+
+  private static String read(URL url) throws IOException {
+    try (InputStream in = url.openStream()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package se.alipsa.gade.runner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class EvalMetricsTest {
+
+  @Test
+  void measuresWallTimeAllocationsAndGuiWaits() throws Exception {
+    EvalMetrics.Probe probe = EvalMetrics.start();
+    List<byte[]> garbage = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      garbage.add(new byte[64 * 1024]);
+    }
+    Thread.sleep(20);
+    EvalMetrics.recordGuiWait(15_000_000);
+    EvalMetrics metrics = probe.stop();
+
+    assertTrue(metrics.wallMillis() >= 20, "wall " + metrics.wallMillis());
+    assertEquals(15, metrics.guiBlockedMillis());
+    if (metrics.allocatedBytes() >= 0) {
+      assertTrue(metrics.allocatedBytes() >= 64L * 64 * 1024, "allocated " + metrics.allocatedBytes());
+    }
+    assertTrue(metrics.peakHeapBytes() > 0);
+    assertTrue(metrics.gcCount() >= 0);
+    assertEquals(64, garbage.size());
+  }
+
+  @Test
+  void roundTripsThroughTheProtocolMap() {
+    EvalMetrics metrics = new EvalMetrics(1200, 950, 3000, 512L * 1024 * 1024, 3, 45, 800L * 1024 * 1024, 0);
+    Map<String, Object> map = metrics.toMap();
+    assertEquals(metrics, EvalMetrics.fromMap(map));
+    assertNull(EvalMetrics.fromMap(null));
+    assertNull(EvalMetrics.fromMap(Map.of("result", "x")));
+
+    String summary = metrics.summary();
+    assertTrue(summary.startsWith("wall 1.20 s, cpu 0.95 s (process 3.00 s), alloc 512.0 MB, gc 3 (45 ms)"), summary);
+    assertTrue(!summary.contains("gui"), summary);
+  }
+}
@@ -0,0 +1,49 @@
+package se.alipsa.gade.runner;
+
+import groovy.lang.GroovyShell;
+import groovy.lang.GroovySystem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GrabCacheTest {
+
+  @TempDir
+  Path cacheDir;
+
+  @Test
+  void cachedJarsAreAddedWithoutResolving() throws Exception {
+    String header = "@Grab('org.example:does-not-exist:1.0')";
+    Path jar = Files.createFile(cacheDir.resolve("lib.jar"));
+    String key = GrabCache.hash(GroovySystem.getVersion() + "\n" + header);
+    Files.write(cacheDir.resolve(key + ".jars"), List.of(jar.toUri().toString()));
+
+    GrabCache cache = new GrabCache(cacheDir);
+    GroovyShell shell = new GroovyShell();
+    // the artifact does not exist so resolving would fail, the cached entry must be used
+    assertEquals(GrabCache.Outcome.CACHED, cache.ensure(shell, header));
+    URL jarUrl = jar.toUri().toURL();
+    assertTrue(Arrays.asList(shell.getClassLoader().getURLs()).contains(jarUrl));
+
+    assertEquals(GrabCache.Outcome.MEMOIZED, cache.ensure(shell, header + "\n"), "same header is a no-op");
+    assertEquals(1, Arrays.stream(shell.getClassLoader().getURLs()).filter(jarUrl::equals).count());
+  }
+
+  @Test
+  void staleEntriesAndChangingVersionsAreNotUsed() throws Exception {
+    assertFalse(GrabCache.isCacheable("@Grab('org.example:lib:1.0-SNAPSHOT')"));
+    assertFalse(GrabCache.isCacheable("@Grab('org.example:lib:latest.release')"));
+    assertFalse(GrabCache.isCacheable("@Grab('org.example:lib:[1.0,2.0)')"));
+    assertTrue(GrabCache.isCacheable("@Grab(group='org.example', module='lib', version='1.0')"));
+
+    Files.write(cacheDir.resolve("stale.jars"), List.of(cacheDir.resolve("gone.jar").toUri().toString()));
+    assertNull(new GrabCache(cacheDir).readCache("stale"), "entries with missing jars are resolved again");
+  }
+}
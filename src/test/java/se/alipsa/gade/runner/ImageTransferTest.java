@@ -0,0 +1,106 @@
+package se.alipsa.gade.runner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ImageTransferTest {
+
+  private static BufferedImage noise(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Random random = new Random(42);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    return image;
+  }
+
+  @Test
+  void everyModeRoundTrips() throws IOException {
+    BufferedImage image = noise(37, 23);
+    int[] expected = image.getRGB(0, 0, 37, 23, null, 0, 37);
+    for (ImageTransfer.Mode mode : ImageTransfer.Mode.values()) {
+      Map<String, Object> map = ImageTransfer.encode(image, mode, null);
+      assertEquals(mode.getEncoding(), map.get("encoding"));
+      BufferedImage decoded = ImageTransfer.decode(map);
+      assertArrayEquals(expected, decoded.getRGB(0, 0, 37, 23, null, 0, 37), mode.name());
+    }
+  }
+
+  @Test
+  void largeImagesAreStreamedInChunksThroughTheBlobStore() throws IOException {
+    BufferedImage image = noise(400, 300);
+    List<String> sent = new ArrayList<>();
+    List<Boolean> lastFlags = new ArrayList<>();
+    ImageTransfer.ChunkSink sink = new ImageTransfer.ChunkSink() {
+      @Override
+      public String blobId() {
+        return "blob-1";
+      }
+
+      @Override
+      public void accept(String chunk, boolean last) {
+        assertEquals(0, chunk.length() % 4, "every chunk can be decoded on its own");
+        sent.add(chunk);
+        lastFlags.add(last);
+        ImageTransfer.BlobStore.receive("blob-1", chunk, last);
+      }
+    };
+
+    Map<String, Object> map = ImageTransfer.encode(image, ImageTransfer.Mode.RAW, sink);
+
+    assertEquals("blob-1", map.get("blob"));
+    assertTrue(sent.size() > 1, "400x300 raw pixels do not fit in one chunk");
+    assertTrue(sent.stream().limit(sent.size() - 1).allMatch(c -> c.length() == ImageTransfer.CHUNK_CHARS));
+    assertEquals(List.of(true), lastFlags.subList(lastFlags.size() - 1, lastFlags.size()));
+    int[] pixels = ImageTransfer.decodeArgb(map);
+    assertArrayEquals(image.getRGB(0, 0, 400, 300, null, 0, 400), pixels);
+    assertEquals(0, ImageTransfer.BlobStore.size(), "the blob is removed once it has been decoded");
+  }
+
+  @Test
+  void blobsThatAreNeverTakenAreDropped() {
+    ImageTransfer.BlobStore.receive("never-taken", "AAAA", false);
+    assertEquals(0, ImageTransfer.BlobStore.expire(System.currentTimeMillis()));
+    assertEquals(1, ImageTransfer.BlobStore.size());
+    assertEquals(1, ImageTransfer.BlobStore.expire(System.currentTimeMillis()
+        + ImageTransfer.BlobStore.EXPIRY_MILLIS + 1));
+    assertEquals(0, ImageTransfer.BlobStore.size());
+
+    ImageTransfer.BlobStore.receive("runner-stopped", "AAAA", true);
+    ImageTransfer.BlobStore.clear();
+    assertEquals(0, ImageTransfer.BlobStore.size());
+  }
+
+  @Test
+  void deflateIsSmallerForFlatImages() throws IOException {
+    BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+    int raw = size(ImageTransfer.encode(image, ImageTransfer.Mode.RAW, null));
+    int deflated = size(ImageTransfer.encode(image, ImageTransfer.Mode.DEFLATE, null));
+    assertTrue(deflated * 50 < raw, "deflated " + deflated + " vs raw " + raw);
+  }
+
+  @Test
+  void truncatedDataIsAnError() throws IOException {
+    Map<String, Object> map = ImageTransfer.encode(noise(10, 10), ImageTransfer.Mode.RAW, null);
+    map.put("height", 11);
+    assertThrows(IOException.class, () -> ImageTransfer.decodeArgb(map));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int size(Map<String, Object> map) {
+    return ((List<String>) map.get("chunks")).stream().mapToInt(String::length).sum();
+  }
+}
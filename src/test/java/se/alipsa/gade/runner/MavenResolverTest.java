@@ -0,0 +1,131 @@
+package se.alipsa.gade.runner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MavenResolverTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void resolvesTransitiveDependenciesFromLocalRepo() throws Exception {
+    Path repo = dir.resolve("repo");
+    pom(repo, "org.example", "parent", "1.0", "pom",
+        "<properties><lib.version>2.0</lib.version></properties>"
+            + "<dependencyManagement><dependencies>"
+            + dep("org.example", "lib", "${lib.version}", "")
+            + "</dependencies></dependencyManagement>");
+    pom(repo, "org.example", "app", "1.0", null,
+        "<parent><groupId>org.example</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+            + "<dependencies>"
+            + dep("org.example", "lib", null, "")
+            + dep("org.example", "tests-only", "1.0", "<scope>test</scope>")
+            + dep("org.example", "maybe", "1.0", "<optional>true</optional>")
+            + dep("org.example", "other", "1.0",
+            "<exclusions><exclusion><groupId>org.example</groupId><artifactId>excluded</artifactId></exclusion>"
+                + "</exclusions>")
+            + "</dependencies>");
+    pom(repo, "org.example", "lib", "2.0", null, "");
+    pom(repo, "org.example", "other", "1.0", null, "<dependencies>"
+        + dep("org.example", "lib", "1.0", "")
+        + dep("org.example", "excluded", "1.0", "")
+        + "</dependencies>");
+    jar(repo, "org.example", "app", "1.0");
+    jar(repo, "org.example", "lib", "2.0");
+    jar(repo, "org.example", "other", "1.0");
+
+    MavenResolver resolver = localResolver(repo, dir.resolve("graphs"));
+    List<MavenResolver.Resolved> resolved = resolver.resolve(
+        List.of(new MavenResolver.Request(new MavenResolver.Artifact("org.example", "app", "1.0"))),
+        List.of(), true, true);
+
+    // lib gets the managed version 2.0 (nearest wins over 1.0 from other), test/optional/excluded are skipped
+    assertEquals(List.of("org.example:app:1.0", "org.example:lib:2.0", "org.example:other:1.0"),
+        resolved.stream().map(r -> r.artifact().toString()).toList());
+    assertEquals(repo.resolve("org/example/lib/2.0/lib-2.0.jar"), resolved.get(1).file());
+  }
+
+  @Test
+  void downloadsMissingArtifactsAndCachesTheGraph() throws Exception {
+    Path remote = dir.resolve("remote");
+    pom(remote, "org.example", "app", "1.0", null, "<dependencies>" + dep("org.example", "lib", "1.0", "")
+        + "</dependencies>");
+    pom(remote, "org.example", "lib", "1.0", null, "");
+    jar(remote, "org.example", "app", "1.0");
+    jar(remote, "org.example", "lib", "1.0");
+    Path downloads = dir.resolve("downloads");
+    Path graphs = dir.resolve("graphs");
+    List<MavenResolver.Request> request =
+        List.of(new MavenResolver.Request(new MavenResolver.Artifact("org.example", "app", "1.0")));
+
+    MavenResolver online = new MavenResolver(List.of(), downloads, List.of(remote.toUri()), graphs, 4);
+    List<MavenResolver.Resolved> resolved = online.resolve(request, List.of(), true, true);
+    assertEquals(2, resolved.size());
+    assertTrue(Files.isRegularFile(downloads.resolve("org/example/lib/1.0/lib-1.0.jar")));
+
+    // a new (offline) resolver uses the cached graph without looking at any pom
+    Files.delete(downloads.resolve("org/example/app/1.0/app-1.0.pom"));
+    MavenResolver offline = new MavenResolver(List.of(), downloads, List.of(), graphs, 1);
+    assertTrue(offline.isOffline());
+    assertEquals(resolved, offline.resolve(request, List.of(), true, true));
+  }
+
+  @Test
+  void offlineMissingArtifactFails() {
+    MavenResolver resolver = localResolver(dir.resolve("empty"), null);
+    assertThrows(FileNotFoundException.class, () -> resolver.resolve(
+        List.of(new MavenResolver.Request(new MavenResolver.Artifact("org.example", "missing", "1.0"))),
+        List.of(), true, true));
+  }
+
+  @Test
+  void versionRangesAreLeftToIvy() {
+    MavenResolver resolver = localResolver(dir.resolve("empty"), null);
+    assertThrows(MavenResolver.UnsupportedException.class, () -> resolver.resolve(
+        List.of(new MavenResolver.Request(new MavenResolver.Artifact("org.example", "lib", "[1.0,2.0)"))),
+        List.of(), true, true));
+  }
+
+  @Test
+  void interpolatesNestedProperties() {
+    assertEquals("1.2.3", MavenResolver.interpolate("${a}",
+        java.util.Map.of("a", "${b}.3", "b", "1.2")));
+    assertEquals("${unknown}", MavenResolver.interpolate("${unknown}", java.util.Map.of()));
+  }
+
+  private MavenResolver localResolver(Path repo, Path graphs) {
+    return new MavenResolver(List.of(MavenResolver.mavenRepo(repo)), dir.resolve("downloads"), List.of(), graphs, 2);
+  }
+
+  private static String dep(String group, String module, String version, String extra) {
+    return "<dependency><groupId>" + group + "</groupId><artifactId>" + module + "</artifactId>"
+        + (version == null ? "" : "<version>" + version + "</version>") + extra + "</dependency>";
+  }
+
+  private static void pom(Path repo, String group, String module, String version, String packaging, String body)
+      throws IOException {
+    Path file = repo.resolve(group.replace('.', '/')).resolve(module).resolve(version)
+        .resolve(module + "-" + version + ".pom");
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "<project xmlns=\"http://maven.apache.org/POM/4.0.0\"><modelVersion>4.0.0</modelVersion>"
+        + "<groupId>" + group + "</groupId><artifactId>" + module + "</artifactId><version>" + version + "</version>"
+        + (packaging == null ? "" : "<packaging>" + packaging + "</packaging>")
+        + body + "</project>");
+  }
+
+  private static void jar(Path repo, String group, String module, String version) throws IOException {
+    Path file = repo.resolve(group.replace('.', '/')).resolve(module).resolve(version)
+        .resolve(module + "-" + version + ".jar");
+    Files.createDirectories(file.getParent());
+    Files.write(file, new byte[]{'P', 'K', 5, 6});
+  }
+}
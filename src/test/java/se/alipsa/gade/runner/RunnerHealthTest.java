@@ -0,0 +1,59 @@
+package se.alipsa.gade.runner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class RunnerHealthTest {
+
+  @Test
+  void samplesThisJvm() {
+    RunnerHealth health = RunnerHealth.sample(-1);
+    assertTrue(health.heapUsed() > 0);
+    assertTrue(health.heapCommitted() >= health.heapUsed());
+    assertTrue(health.threadCount() > 0);
+    assertTrue(health.summary().startsWith("heap "), health.summary());
+    assertFalse(health.summary().contains("running"));
+  }
+
+  @Test
+  void roundTripsThroughTheProtocolMap() {
+    RunnerHealth health = new RunnerHealth(512L << 20, 1024L << 20, 2048L << 20, 80L << 20, 12, 340, 23, 1500);
+    Map<String, Object> map = health.toMap();
+    map.put("type", "health");
+    assertEquals(health, RunnerHealth.fromMap(map));
+    assertEquals(25.0, health.heapUsedPercent(), 0.001);
+    assertEquals("heap 512.0 of 2048.0 MB (25%), 23 threads, gc 12 (340 ms), running 1.5 s", health.summary());
+    assertNull(RunnerHealth.fromMap(Map.of("type", "health")));
+  }
+
+  @Test
+  void histogramKeepsTheTopClassesAndTheTotal() throws Exception {
+    String histogram = RunnerHealth.heapHistogram(5);
+    assertTrue(histogram.contains("Total"), histogram);
+    long classLines = histogram.lines().filter(l -> l.trim().matches("\\d+:.*")).count();
+    assertTrue(classLines > 0 && classLines <= 5, histogram);
+  }
+
+  @Test
+  void truncatesHistogram() {
+    String histogram = """
+         num     #instances         #bytes  class name (module)
+        -------------------------------------------------------
+           1:           100           4000  [B (java.base@21)
+           2:            50           1200  java.lang.String (java.base@21)
+           3:            10            240  java.lang.Object (java.base@21)
+        Total           160           5440
+        """;
+    String truncated = RunnerHealth.truncateHistogram(histogram, 2);
+    assertTrue(truncated.contains("[B"));
+    assertTrue(truncated.contains("java.lang.String"));
+    assertFalse(truncated.contains("java.lang.Object"));
+    assertTrue(truncated.contains(" ...\nTotal"), truncated);
+  }
+}
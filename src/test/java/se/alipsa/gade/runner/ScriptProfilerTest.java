@@ -0,0 +1,53 @@
+package se.alipsa.gade.runner;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.gade.console.ProfileSummary;
+
+class ScriptProfilerTest {
+
+  @Test
+  void recordsAndSummarizesHotMethods() throws Exception {
+    ScriptProfiler.start();
+    assertTrue(ScriptProfiler.isRecording());
+    long sum = burn(1500);
+    Path jfr = ScriptProfiler.stop();
+    assertFalse(ScriptProfiler.isRecording());
+    try {
+      assertTrue(Files.size(jfr) > 0);
+      ProfileSummary summary = ProfileSummary.read(jfr, ProfileSummary.DEFAULT_TOP);
+      assertTrue(summary.executionSamples() > 0, "no execution samples, sum " + sum);
+      assertTrue(summary.totalTime().stream().anyMatch(r -> r.name().endsWith("ScriptProfilerTest.burn")),
+          summary.totalTime().toString());
+      String html = summary.toHtml();
+      assertTrue(html.contains("Hot methods (self)"));
+      assertTrue(html.contains("Allocation hotspots"));
+    } finally {
+      Files.deleteIfExists(jfr);
+    }
+  }
+
+  @Test
+  void stopWithoutStartFails() {
+    assertThrows(IllegalStateException.class, ScriptProfiler::stop);
+  }
+
+  private static long burn(long millis) {
+    long end = System.nanoTime() + millis * 1_000_000;
+    long sum = 0;
+    while (System.nanoTime() < end) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        sb.append(i);
+        sum += sb.length() ^ i;
+      }
+    }
+    return sum;
+  }
+}
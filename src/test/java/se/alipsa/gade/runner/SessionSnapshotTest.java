@@ -0,0 +1,131 @@
+package se.alipsa.gade.runner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.matrix.core.Matrix;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionSnapshotTest {
+
+  @TempDir
+  Path dir;
+
+  private static Matrix people() {
+    return Matrix.builder()
+        .matrixName("people")
+        .columnNames("name", "born", "score", "dept")
+        .rows(Arrays.asList(
+            Arrays.asList("Alice", LocalDate.of(1990, 1, 2), 1.5, "A"),
+            Arrays.asList("Bob", null, null, "A"),
+            Arrays.asList("Carl", LocalDate.of(2001, 5, 6), 3.25, "B"),
+            Arrays.asList("Dina", LocalDate.of(1970, 7, 8), 4.0, "A")
+        ))
+        .types(Arrays.asList(String.class, LocalDate.class, Double.class, String.class))
+        .build();
+  }
+
+  @Test
+  void variablesAreRestoredWhenFirstUsed() throws Exception {
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("people", people());
+    vars.put("amount", new BigDecimal("12.50"));
+    vars.put("names", new ArrayList<>(List.of("a", "b")));
+    vars.put("lookup", new LinkedHashMap<>(Map.of("x", List.of(1, 2L, 3.0))));
+    vars.put("nothing", null);
+    vars.put("gadeRuntime", "GADE");
+    Path file = dir.resolve("s.gsnap");
+
+    SessionSnapshot.Saved saved = SessionSnapshot.save(vars, List.of(), Set.of("gadeRuntime"), file,
+        Long.MAX_VALUE, Long.MAX_VALUE);
+    assertEquals(List.of("people", "amount", "names", "lookup", "nothing"), saved.variables());
+    assertTrue(saved.skipped().isEmpty());
+
+    SessionBinding binding = new SessionBinding();
+    binding.setVariable("gadeRuntime", "GRADLE");
+    List<String> restored = binding.restore(SessionSnapshot.index(file), getClass().getClassLoader());
+    assertEquals(saved.variables(), restored);
+    assertTrue(binding.hasVariable("people"));
+    assertFalse(binding.getVariables().containsKey("people"), "nothing is read before the variable is used");
+    assertInstanceOf(SessionBinding.Unread.class, binding.variablesWithoutReading().get("people"));
+
+    Matrix m = (Matrix) binding.getVariable("people");
+    Matrix expected = people();
+    assertEquals("people", m.getMatrixName());
+    assertEquals(expected.columnNames(), m.columnNames());
+    assertEquals(expected.types(), m.types());
+    assertEquals(expected.rowCount(), m.rowCount());
+    for (int r = 0; r < m.rowCount(); r++) {
+      for (int c = 0; c < m.columnCount(); c++) {
+        assertEquals((Object) expected.getAt(r, c), m.getAt(r, c), "row " + r + ", column " + c);
+      }
+    }
+    assertEquals(new BigDecimal("12.50"), binding.getVariable("amount"));
+    assertEquals(List.of("a", "b"), binding.getVariable("names"));
+    assertEquals(Map.of("x", List.of(1, 2L, 3.0)), binding.getVariable("lookup"));
+    assertNull(binding.getVariable("nothing"));
+    assertEquals("GRADLE", binding.getVariable("gadeRuntime"));
+  }
+
+  @Test
+  void assigningAnUnreadVariableReplacesIt() throws Exception {
+    Path file = dir.resolve("s.gsnap");
+    SessionSnapshot.save(Map.of("x", 1), List.of(), Set.of(), file, Long.MAX_VALUE, Long.MAX_VALUE);
+    SessionBinding binding = new SessionBinding();
+    binding.restore(SessionSnapshot.index(file), getClass().getClassLoader());
+    binding.setVariable("x", 2);
+    assertEquals(2, binding.getVariable("x"));
+    assertTrue(binding.unread().isEmpty());
+  }
+
+  @Test
+  void unsupportedAndTooLargeVariablesAreSkipped() throws Exception {
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("thread", Thread.currentThread());
+    vars.put("big", new double[100_000]);
+    vars.put("small", "kept");
+    Path file = dir.resolve("s.gsnap");
+
+    SessionSnapshot.Saved saved = SessionSnapshot.save(vars, List.of(), Set.of(), file, 10_000_000, 100_000);
+    assertEquals(List.of("small"), saved.variables());
+    assertEquals(Set.of("thread", "big"), saved.skipped().keySet());
+    assertTrue(saved.skipped().get("thread").contains(Thread.class.getName()), saved.skipped().get("thread"));
+    assertTrue(saved.skipped().get("big").startsWith("larger than"), saved.skipped().get("big"));
+
+    SessionBinding binding = new SessionBinding();
+    binding.restore(SessionSnapshot.index(file), getClass().getClassLoader());
+    assertEquals("kept", binding.getVariable("small"));
+  }
+
+  @Test
+  void unreadVariablesAreCopiedToTheNextSnapshot() throws Exception {
+    Path first = dir.resolve("first.gsnap");
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("people", people());
+    vars.put("n", 42);
+    SessionSnapshot.save(vars, List.of(), Set.of(), first, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    SessionBinding binding = new SessionBinding();
+    binding.restore(SessionSnapshot.index(first), getClass().getClassLoader());
+    binding.setVariable("n", 43);
+    Path second = dir.resolve("second.gsnap");
+    SessionSnapshot.Saved saved = SessionSnapshot.save(binding.getVariables(), binding.unread(), Set.of(), second,
+        Long.MAX_VALUE, Long.MAX_VALUE);
+    assertEquals(Set.of("people", "n"), Set.copyOf(saved.variables()));
+
+    SessionBinding restored = new SessionBinding();
+    restored.restore(SessionSnapshot.index(second), getClass().getClassLoader());
+    assertEquals(43, restored.getVariable("n"));
+    assertEquals(4, ((Matrix) restored.getVariable("people")).rowCount());
+  }
+}
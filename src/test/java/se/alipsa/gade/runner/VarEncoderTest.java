@@ -0,0 +1,139 @@
+package se.alipsa.gade.runner;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.gade.runtime.ProtocolXml;
+import se.alipsa.gade.runtime.VarDecoder;
+import se.alipsa.matrix.core.Matrix;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VarEncoderTest {
+
+  private static Map<String, Object> vars() {
+    List<Integer> numbers = new ArrayList<>();
+    for (int i = 0; i < 25; i++) {
+      numbers.add(i);
+    }
+    Map<String, Object> customer = new LinkedHashMap<>();
+    customer.put("name", "Per");
+    customer.put("orders", List.of(10, 20, 30));
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("numbers", numbers);
+    vars.put("customers", List.of(customer));
+    vars.put("text", "abcdefghij");
+    vars.put("amount", new BigDecimal("12.50"));
+    vars.put("nothing", null);
+    vars.put("m", Matrix.builder()
+        .matrixName("people")
+        .columnNames("name", "born")
+        .rows(Arrays.asList(
+            Arrays.asList("Alice", LocalDate.of(1990, 1, 2)),
+            Arrays.asList("Bob", LocalDate.of(1985, 3, 4)),
+            Arrays.asList("Carl", LocalDate.of(2001, 5, 6))
+        ))
+        .types(Arrays.asList(String.class, LocalDate.class))
+        .build());
+    return vars;
+  }
+
+  /** Fetch through the protocol serialization like the runner does */
+  private static Object fetchAll(Map<String, Object> vars, String name, String path, int limit, int maxChars)
+      throws Exception {
+    return VarDecoder.fetchAll(offset -> {
+      Map<String, Object> page = VarEncoder.fetch(vars, name, path, offset, limit, maxChars);
+      return ProtocolXml.fromXml(ProtocolXml.toXml(page));
+    }, Integer.MAX_VALUE);
+  }
+
+  @Test
+  void listsArePaged() {
+    Map<String, Object> page = VarEncoder.fetch(vars(), "numbers", null, 10, 10, 0);
+    assertEquals("list", page.get("_kind"));
+    assertEquals(25, page.get("size"));
+    assertEquals(List.of(10, 11, 12, 13, 14, 15, 16, 17, 18, 19), page.get("elements"));
+    assertEquals(20, page.get("continuation"));
+
+    page = VarEncoder.fetch(vars(), "numbers", null, 20, 10, 0);
+    assertEquals(5, ((List<?>) page.get("elements")).size());
+    assertNull(page.get("continuation"));
+  }
+
+  @Test
+  void stringsAreTruncatedWithContinuation() throws Exception {
+    Map<String, Object> page = VarEncoder.fetch(vars(), "text", null, 0, 0, 4);
+    assertEquals("abcd", page.get("value"));
+    assertEquals(10, page.get("length"));
+    assertEquals(4, page.get("continuation"));
+    assertEquals("abcdefghij", fetchAll(vars(), "text", null, 0, 4));
+  }
+
+  @Test
+  void paths() throws Exception {
+    assertEquals(List.of(10, 20, 30), fetchAll(vars(), "customers", "[0].orders", 2, 0));
+    assertEquals("Per", fetchAll(vars(), "customers", "[0].name", 0, 0));
+    assertEquals(List.of("Alice", "Bob", "Carl"), fetchAll(vars(), "m", "name", 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> VarEncoder.fetch(vars(), "customers", "[5]", 0, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> VarEncoder.fetch(vars(), "missing", null, 0, 0, 0));
+    Object customers = fetchAll(vars(), "customers", null, 0, 0);
+    assertEquals("java.util.LinkedHashMap(2 entries)", String.valueOf(((List<?>) customers).get(0)),
+        "nested containers are references");
+  }
+
+  @Test
+  void scalarsKeepTheirType() throws Exception {
+    assertEquals(new BigDecimal("12.50"), fetchAll(vars(), "amount", null, 0, 0));
+    assertNull(fetchAll(vars(), "nothing", null, 0, 0));
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("date", Date.from(Instant.parse("2024-05-06T07:08:09Z")));
+    vars.put("timestamp", Timestamp.valueOf("2024-05-06 07:08:09.5"));
+    vars.put("day", DayOfWeek.MONDAY);
+    assertEquals(vars.get("date"), fetchAll(vars, "date", null, 0, 0));
+    assertEquals(vars.get("timestamp"), fetchAll(vars, "timestamp", null, 0, 0));
+    assertEquals(DayOfWeek.MONDAY, fetchAll(vars, "day", null, 0, 0));
+  }
+
+  @Test
+  void matrixIsColumnar() throws Exception {
+    Map<String, Object> page = VarEncoder.fetch(vars(), "m", null, 1, 1, 0);
+    assertEquals("matrix", page.get("_kind"));
+    assertEquals(3, page.get("rowCount"));
+    assertEquals(List.of("name", "born"), page.get("columnNames"));
+    assertEquals(List.of(List.of("Bob"), List.of("1985-03-04")), page.get("columns"));
+    assertEquals(2, page.get("continuation"));
+
+    Matrix m = (Matrix) fetchAll(vars(), "m", null, 2, 0);
+    assertEquals(3, m.rowCount());
+    assertEquals(LocalDate.of(2001, 5, 6), m.getAt(2, 1));
+  }
+
+  @Test
+  void matrixCellsKeepTheirType() throws Exception {
+    Map<String, Object> vars = new LinkedHashMap<>();
+    vars.put("m", Matrix.builder()
+        .columnNames("any", "day", "text")
+        .rows(Arrays.asList(
+            Arrays.asList(1, DayOfWeek.MONDAY, new StringBuilder("a")),
+            Arrays.asList(LocalDate.of(2024, 5, 6), DayOfWeek.FRIDAY, new StringBuilder("b"))
+        ))
+        .types(Arrays.asList(Object.class, DayOfWeek.class, StringBuilder.class))
+        .build());
+    Matrix m = (Matrix) fetchAll(vars, "m", null, 0, 0);
+    assertEquals(1, m.getAt(0, 0));
+    assertEquals(LocalDate.of(2024, 5, 6), m.getAt(1, 0), "cells of an Object column keep their own type");
+    assertEquals(DayOfWeek.FRIDAY, m.getAt(1, 1));
+    assertEquals(List.of(Object.class, DayOfWeek.class, String.class), m.types(),
+        "a column that cannot be rebuilt is declared as String");
+  }
+}
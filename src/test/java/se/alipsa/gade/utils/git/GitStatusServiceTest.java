@@ -0,0 +1,71 @@
+package se.alipsa.gade.utils.git;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.alipsa.gade.Constants.GitStatus.GIT_ADDED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_MODIFIED;
+import static se.alipsa.gade.Constants.GitStatus.GIT_NONE;
+import static se.alipsa.gade.Constants.GitStatus.GIT_UNTRACKED;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.alipsa.gade.Constants.GitStatus;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+class GitStatusServiceTest {
+
+  @TempDir
+  Path repoDir;
+
+  @Test
+  void testDeltasArePushedForChangedPathsOnly() throws Exception {
+    try (Git git = Git.init().setDirectory(repoDir.toFile()).call()) {
+      Files.writeString(repoDir.resolve("committed.txt"), "v1");
+      Files.writeString(repoDir.resolve("other.txt"), "v1");
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("initial").setSign(false).call();
+      Files.writeString(repoDir.resolve("new.txt"), "new");
+
+      LinkedBlockingQueue<Map<String, GitStatus>> deltas = new LinkedBlockingQueue<>();
+      try (GitStatusService service = new GitStatusService(git, deltas::add)) {
+        service.refreshAll();
+        Map<String, GitStatus> initial = deltas.poll(10, TimeUnit.SECONDS);
+        assertEquals(Map.of("new.txt", GIT_UNTRACKED), initial);
+        assertEquals(GIT_NONE, service.getStatus("committed.txt"));
+
+        Files.writeString(repoDir.resolve("committed.txt"), "v2 with a different size");
+        Files.writeString(repoDir.resolve("other.txt"), "v2 with a different size");
+        service.refreshPaths(List.of("committed.txt"));
+        Map<String, GitStatus> delta = deltas.poll(10, TimeUnit.SECONDS);
+        // other.txt is modified as well but was not asked for
+        assertEquals(Map.of("committed.txt", GIT_MODIFIED), delta);
+        assertEquals(GIT_UNTRACKED, service.getStatus("new.txt"));
+
+        // Adding changes the index, which forces a full refresh
+        git.add().addFilepattern("new.txt").call();
+        service.refreshPaths(List.of("new.txt"));
+        delta = deltas.poll(10, TimeUnit.SECONDS);
+        assertEquals(GIT_ADDED, delta.get("new.txt"));
+        assertEquals(GIT_MODIFIED, delta.get("other.txt"));
+        assertFalse(delta.containsKey("committed.txt"));
+      }
+    }
+  }
+
+  @Test
+  void testIsWithin() {
+    assertTrue(GitStatusService.isWithin("data/raw/a.csv", Set.of("data")));
+    assertTrue(GitStatusService.isWithin("data", Set.of("data")));
+    assertFalse(GitStatusService.isWithin("database.sql", Set.of("data")));
+    assertTrue(GitStatusService.isWithin("anything", null));
+  }
+}
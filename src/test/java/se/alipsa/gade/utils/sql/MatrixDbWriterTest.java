@@ -0,0 +1,72 @@
+package se.alipsa.gade.utils.sql;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.matrix.core.Matrix;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.List;
+
+class MatrixDbWriterTest {
+
+  private static final String URL = "jdbc:h2:mem:matrixDbWriterTest;DB_CLOSE_DELAY=-1";
+
+  @Test
+  void testUpdateAndUpsert() throws SQLException {
+    try (Connection con = DriverManager.getConnection(URL); Statement stm = con.createStatement()) {
+      stm.execute("create table person (id int primary key, name varchar(50), born date)");
+      stm.execute("insert into person select x, 'name' || x, dateadd('DAY', x, date '2000-01-01') from system_range(1, 2500)");
+
+      Matrix changed;
+      try (ResultSet rs = stm.executeQuery("select id, upper(name) as name, born from person where id <= 2000")) {
+        changed = Matrix.builder().data(rs).matrixName("person").build();
+      }
+      MatrixDbWriter writer = new MatrixDbWriter(() -> DriverManager.getConnection(URL)).setBatchSize(300).setWriters(3);
+      assertEquals(2000, writer.update(changed, "person", "id"));
+      assertEquals(2000, count(stm, "select count(*) from person where name like 'NAME%'"));
+
+      Matrix newAndOld;
+      try (ResultSet rs = stm.executeQuery(
+          "select x as id, 'upserted' as name, cast(null as date) as born from system_range(2401, 2600)")) {
+        newAndOld = Matrix.builder().data(rs).matrixName("person").build();
+      }
+      assertEquals(200, writer.setWriters(1).upsert(newAndOld, "person", "id"));
+      assertEquals(2600, count(stm, "select count(*) from person"));
+      assertEquals(200, count(stm, "select count(*) from person where name = 'upserted' and born is null"));
+    }
+  }
+
+  @Test
+  void testUpsertSql() {
+    List<String> columns = List.of("id", "name");
+    assertEquals("insert into t (id, name) values (?, ?) on conflict (id) do update set name = excluded.name",
+        MatrixDbWriter.createUpsertSql(SqlDialect.POSTGRES, "t", columns, List.of("id"), List.of("name")));
+    assertEquals("insert into t (id, name) values (?, ?) on duplicate key update name = values(name)",
+        MatrixDbWriter.createUpsertSql(SqlDialect.MYSQL, "t", columns, List.of("id"), List.of("name")));
+    String merge = MatrixDbWriter.createUpsertSql(SqlDialect.SQLSERVER, "t", columns, List.of("id"), List.of("name"));
+    assertTrue(merge.startsWith("merge into t tgt using (values (?, ?)) as src (id, name) on (tgt.id = src.id)"), merge);
+    assertTrue(merge.endsWith(";"), merge);
+  }
+
+  @Test
+  void testSqlTypes() {
+    assertEquals(Types.VARCHAR, MatrixDbWriter.sqlType(String.class));
+    assertEquals(Types.DATE, MatrixDbWriter.sqlType(LocalDate.class));
+    assertEquals(Types.OTHER, MatrixDbWriter.sqlType(Object.class));
+  }
+
+  private static long count(Statement stm, String sql) throws SQLException {
+    try (ResultSet rs = stm.executeQuery(sql)) {
+      rs.next();
+      return rs.getLong(1);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package se.alipsa.gade.utils.sql;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+class SqlScriptExecutorTest {
+
+  @TempDir
+  File tmpDir;
+
+  @Test
+  void testBatchedExecution() throws Exception {
+    File script = new File(tmpDir, "dump.sql");
+    try (PrintWriter pw = new PrintWriter(script, StandardCharsets.UTF_8)) {
+      pw.println("create table person (id int primary key, name varchar(50));");
+      for (int i = 0; i < 1234; i++) {
+        pw.println("insert into person values (" + i + ", 'name; " + i + "');");
+      }
+      pw.println("select count(*) from person;");
+    }
+    try (Connection con = DriverManager.getConnection("jdbc:h2:mem:scriptExecutorTest")) {
+      con.setAutoCommit(false);
+      List<SqlScriptExecutor.Progress> progress = new ArrayList<>();
+      long[] count = new long[1];
+      SqlScriptExecutor.Progress result = new SqlScriptExecutor(con)
+          .setBatchSize(100)
+          .setCommitInterval(500)
+          .setProgressListener(progress::add)
+          .setResultSetHandler((statementNumber, rs) -> {
+            rs.next();
+            count[0] = rs.getLong(1);
+          })
+          .execute(script, StandardCharsets.UTF_8);
+      assertEquals(1236, result.statements());
+      assertEquals(1234, result.updateCount());
+      assertEquals(1234, count[0]);
+      assertEquals(1.0, result.fraction());
+      assertTrue(!progress.isEmpty());
+      try (Statement stm = con.createStatement(); ResultSet rs = stm.executeQuery("select name from person where id = 7")) {
+        rs.next();
+        assertEquals("name; 7", rs.getString(1));
+      }
+    }
+  }
+
+  @Test
+  void testFailureReportsLine() throws Exception {
+    File script = new File(tmpDir, "bad.sql");
+    try (PrintWriter pw = new PrintWriter(script, StandardCharsets.UTF_8)) {
+      pw.println("create table t (id int);");
+      pw.println("insert into t values (1);");
+      pw.println("insert into no_such_table values (2);");
+    }
+    try (Connection con = DriverManager.getConnection("jdbc:h2:mem:scriptExecutorFailure")) {
+      SQLException e = assertThrows(SQLException.class, () -> new SqlScriptExecutor(con).setBatchSize(1)
+          .execute(script, StandardCharsets.UTF_8));
+      assertTrue(e.getMessage().contains("line 3"), e.getMessage());
+    }
+  }
+
+  @Test
+  void testBatchFailureReportsFailingStatement() throws Exception {
+    File script = new File(tmpDir, "badBatch.sql");
+    try (PrintWriter pw = new PrintWriter(script, StandardCharsets.UTF_8)) {
+      pw.println("create table t (id int primary key);");
+      pw.println("insert into t values (1);");
+      pw.println("insert into t values (2);");
+      pw.println("insert into t values (1);");
+      pw.println("insert into t values (3);");
+    }
+    try (Connection con = DriverManager.getConnection("jdbc:h2:mem:scriptExecutorBatchFailure")) {
+      con.setAutoCommit(false);
+      SQLException e = assertThrows(SQLException.class, () -> new SqlScriptExecutor(con).setBatchSize(100)
+          .execute(script, StandardCharsets.UTF_8));
+      assertTrue(e.getMessage().contains("statement 4 on line 4"), e.getMessage());
+    }
+  }
+}
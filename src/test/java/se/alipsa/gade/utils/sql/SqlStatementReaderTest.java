@@ -0,0 +1,150 @@
+package se.alipsa.gade.utils.sql;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+class SqlStatementReaderTest {
+
+  @Test
+  void testQuotesAndComments() throws IOException {
+    List<String> statements = split("""
+        -- header; not a statement
+        insert into t values ('a;b', 'it''s');
+        /* c; */ select "x;y" from t;
+        -- trailing comment
+        """, SqlDialect.GENERIC);
+    assertEquals(List.of(
+        "-- header; not a statement\ninsert into t values ('a;b', 'it''s')",
+        "/* c; */ select \"x;y\" from t"
+    ), statements);
+  }
+
+  @Test
+  void testLastStatementWithoutDelimiter() throws IOException {
+    assertEquals(List.of("select 1", "select 2"), split("select 1;\nselect 2", SqlDialect.GENERIC));
+  }
+
+  @Test
+  void testPostgresDollarQuoting() throws IOException {
+    List<String> statements = split("""
+        create function f() returns int as $body$ begin return 1; end; $body$ language plpgsql;
+        select $1, E'a\\';b';
+        /* outer /* nested; */ still comment; */ select 3;
+        """, SqlDialect.POSTGRES);
+    assertEquals(3, statements.size(), String.join("\n---\n", statements));
+    assertEquals("create function f() returns int as $body$ begin return 1; end; $body$ language plpgsql", statements.get(0));
+    assertEquals("select $1, E'a\\';b'", statements.get(1));
+  }
+
+  @Test
+  void testMySqlDelimiter() throws IOException {
+    List<String> statements = split("""
+        insert into `a;b` values ('x\\';y'); # comment;
+        DELIMITER $$
+        create trigger t before insert on a for each row begin set new.x = 1; end$$
+        DELIMITER ;
+        select 4;
+        """, SqlDialect.MYSQL);
+    assertEquals(List.of(
+        "insert into `a;b` values ('x\\';y')",
+        "create trigger t before insert on a for each row begin set new.x = 1; end",
+        "select 4"
+    ), statements);
+  }
+
+  @Test
+  void testSqlServerGoSeparator() throws IOException {
+    SqlStatementReader reader = new SqlStatementReader(new StringReader("""
+        declare @x int = 1
+        print 'go'
+        select [a]]b;] from t
+        GO
+        insert into t values (1);
+        go 2
+
+        GO
+        select 5
+        """), SqlDialect.SQLSERVER);
+    assertEquals("declare @x int = 1\nprint 'go'\nselect [a]]b;] from t", reader.next());
+    assertEquals("DECLARE", reader.getStatementKeyword());
+    assertEquals("insert into t values (1);", reader.next());
+    assertEquals(5, reader.getStatementLine());
+    assertEquals("insert into t values (1);", reader.next(), "GO 2 runs the batch twice");
+    assertEquals(5, reader.getStatementLine());
+    assertEquals("select 5", reader.next());
+    assertEquals(null, reader.next());
+    assertEquals(4, reader.getStatementCount());
+  }
+
+  @Test
+  void testSqlServerInvalidGoCount() throws IOException {
+    SqlStatementReader reader = new SqlStatementReader(new StringReader("select 1\nGO\nselect 2\ngo 0\n"),
+        SqlDialect.SQLSERVER);
+    assertEquals("select 1", reader.next());
+    IOException e = assertThrows(IOException.class, reader::next);
+    assertEquals("Invalid GO count 0 on line 4, it must be a positive number of times to run the batch",
+        e.getMessage());
+  }
+
+  @Test
+  void testSqlServerWithoutGo() throws IOException {
+    String sql = """
+        insert into t values ('a;b');
+        select [x;y] from t;
+        -- go is only a separator on a line of its own
+        """;
+    assertFalse(SqlStatementReader.hasGoLine(new StringReader(sql)));
+    assertTrue(SqlStatementReader.hasGoLine(new StringReader("select 1\n  go\nselect 2")));
+    try (SqlStatementReader reader = new SqlStatementReader(new StringReader(sql), SqlDialect.SQLSERVER, false)) {
+      assertFalse(reader.isGoBatches());
+      assertEquals("insert into t values ('a;b')", reader.next());
+      assertEquals("INSERT", reader.getStatementKeyword());
+      assertEquals("select [x;y] from t", reader.next());
+      assertEquals(2, reader.getStatementLine());
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  void testOraclePlsqlBlock() throws IOException {
+    List<String> statements = split("""
+        create or replace procedure p as
+        begin
+          null;
+        end;
+        /
+        select 1 from dual;
+        """, SqlDialect.ORACLE);
+    assertEquals(List.of("create or replace procedure p as\nbegin\n  null;\nend;", "select 1 from dual"), statements);
+  }
+
+  @Test
+  void testDialectFromUrl() {
+    assertEquals(SqlDialect.POSTGRES, SqlDialect.fromUrl("jdbc:postgresql://localhost/db"));
+    assertEquals(SqlDialect.SQLSERVER, SqlDialect.fromUrl("jdbc:sqlserver://localhost:1433;databaseName=x"));
+    assertEquals(SqlDialect.MYSQL, SqlDialect.fromUrl("jdbc:mariadb://localhost/db"));
+    assertEquals(SqlDialect.H2, SqlDialect.fromUrl("jdbc:h2:mem:test"));
+    assertEquals(SqlDialect.GENERIC, SqlDialect.fromUrl("jdbc:derby:memory:test"));
+  }
+
+  private static List<String> split(String sql, SqlDialect dialect) throws IOException {
+    List<String> statements = new ArrayList<>();
+    try (SqlStatementReader reader = new SqlStatementReader(new StringReader(sql), dialect)) {
+      String statement;
+      while ((statement = reader.next()) != null) {
+        statements.add(statement);
+      }
+    }
+    return statements;
+  }
+}